@@ -13,6 +13,8 @@ import etomica.atom.iterator.AtomIterator;
 import etomica.integrator.mcmove.MCMoveEvent;
 import etomica.integrator.mcmove.MCMoveTrialCompletedEvent;
 import etomica.nbr.cell.Api1ACell;
+import etomica.nbr.cell.ApiAACell;
+import etomica.nbr.cell.NeighborCellManager;
 import etomica.nbr.cell.PotentialMasterCell;
 import etomica.util.IEvent;
 import etomica.util.IListener;
@@ -22,7 +24,7 @@ import etomica.util.IListener;
  * that defines the set of atoms that is managed, and an association definition
  * that is used to determine if atoms are associated.  Only pairwise associations
  * are considered.
- * To incorporate an instance of this class in a simulation, add an instance of 
+ * To incorporate an instance of this class in a simulation, add an instance of
  * this EnergySum inner class to the simulation:<br>
  *       sim.setEnergySum(associationManager.new EnergySum());
  *
@@ -30,78 +32,160 @@ import etomica.util.IListener;
  * Also, register this as a listener to IntegratorMC:<br>
  *       integrator.addMCMoveListener(associationManager);
  *
+ * Candidate partners are found from the cell lists of the PotentialMasterCell,
+ * both when the associations are first determined and when they are updated
+ * after a move.  The manager also tracks the smers (clusters of associated
+ * atoms) using a union-find structure, so that the number of smers of each
+ * size is always available.  Forming a bond merges two smers in nearly
+ * constant time; breaking a bond requires the (usually small) smer that held
+ * it to be re-traversed.  The smer statistics assume that atoms are not added
+ * to or removed from the box after initialize is called.
  */
 public class AssociationManager implements AgentSource<AtomArrayList>,IListener {
-    
+
     private AssociationDefinition associationDefinition;
     private final IBox box;
+    private final PotentialMasterCell potentialMaster;
     private final AtomLeafAgentManager<AtomArrayList> agentManager;
     private final Api1ACell neighborIterator;
+    private final ApiAACell pairIterator;
     private final AtomArrayList associatedAtoms = new AtomArrayList();
-    
+    // position of each atom in associatedAtoms (or -1), by leaf index
+    private int[] associatedIndex = new int[0];
+    // union-find forest of the smers, by leaf index.  size is valid for roots
+    private int[] smerParent = new int[0], smerSize = new int[0];
+    // smerCount[s] is the number of smers containing s atoms
+    private int[] smerCount = new int[0];
+    private int maxSmerSize;
+    // scratch storage for updates after a move
+    private final AtomArrayList movedAtoms = new AtomArrayList();
+    private final AtomArrayList brokenAtoms = new AtomArrayList();
+    private final AtomArrayList smerAtoms = new AtomArrayList();
+    private int[] stamp = new int[0];
+    private int currentStamp;
+
     public AssociationManager(IBox box, PotentialMasterCell potentialMaster, AssociationDefinition definition) {
     	this.box = box;
+    	this.potentialMaster = potentialMaster;
     	agentManager = new AtomLeafAgentManager<AtomArrayList>(this,box,AtomArrayList.class);
         associationDefinition = definition;
         this.neighborIterator = new Api1ACell(3,1.0,potentialMaster.getCellAgentManager());
+        pairIterator = new ApiAACell(3,1.0,box);
         }
-    
+
+    /**
+     * Sets the separation beyond which atoms are never associated, which
+     * determines the cells searched for association partners.  Default is
+     * 1.0.
+     */
+    public void setRange(double range) {
+        neighborIterator.getNbrCellIterator().setNeighborDistance(range);
+        pairIterator.getNbrCellIterator().setNeighborDistance(range);
+    }
+
+    public double getRange() {
+        return pairIterator.getNbrCellIterator().getNeighborDistance();
+    }
+
     public AssociationDefinition getAssociationDefinition() {
     	return associationDefinition;
     }
+
+    /**
+     * Determines all associations from scratch, looping over the pairs of
+     * atoms in neighboring cells.
+     */
     public void initialize() {
         IAtomList atomList = box.getLeafList();//list of all atoms in this box
-        for (int i=0; i<atomList.getAtomCount();i+=1) {
+        int nAtoms = atomList.getAtomCount();
+        for (int i=0; i<nAtoms;i+=1) {
         	IAtom atomi = atomList.getAtom(i);
         	agentManager.getAgent(atomi).clear();
         }
-        for (int i=0; i<atomList.getAtomCount()-1;i+=1) {
-        	IAtom atomi = atomList.getAtom(i);//definition of atom i
-        	for (int j=i+1; j<atomList.getAtomCount();j+=1) {
-            	IAtom atomj = atomList.getAtom(j);
-            	if(associationDefinition.isAssociated(atomi,atomj)) {
-            	    agentManager.getAgent(atomi).add(atomj);//i and j are associated
-                    agentManager.getAgent(atomj).add(atomi);
-                }
-        	}
-         }
+        NeighborCellManager cellManager = potentialMaster.getNbrCellManager(box);
+        cellManager.assignCellAll();
+        pairIterator.setLattice(cellManager.getLattice());
+        pairIterator.reset();
+        for (IAtomList pair = pairIterator.nextPair(); pair != null; pair = pairIterator.nextPair()) {
+            IAtom atomi = pair.getAtom(0);
+            IAtom atomj = pair.getAtom(1);
+            if(associationDefinition.isAssociated(atomi,atomj)) {
+                agentManager.getAgent(atomi).add(atomj);//i and j are associated
+                agentManager.getAgent(atomj).add(atomi);
+            }
+        }
+
         associatedAtoms.clear();
-        for (int i=0; i<atomList.getAtomCount();i+=1) {
+        associatedIndex = new int[nAtoms];
+        smerParent = new int[nAtoms];
+        smerSize = new int[nAtoms];
+        smerCount = new int[nAtoms+1];
+        stamp = new int[nAtoms];
+        currentStamp = 0;
+        for (int i=0; i<nAtoms;i+=1) {
         	IAtom atomi = atomList.getAtom(i);
+        	associatedIndex[i] = -1;
         	if (agentManager.getAgent(atomi).getAtomCount() > 0){
-        		associatedAtoms.add(atomi);
+        		addAssociated(atomi);
         	}
+        	smerParent[i] = i;
+        	smerSize[i] = 1;
+        }
+        smerCount[1] = nAtoms;
+        maxSmerSize = nAtoms > 0 ? 1 : 0;
+        for (int i=0; i<nAtoms;i+=1) {
+            AtomArrayList listi = agentManager.getAgent(atomList.getAtom(i));
+            for (int j=0; j<listi.getAtomCount(); j++) {
+                union(i, listi.getAtom(j).getLeafIndex());
+            }
         }
-                
     }
-    
+
     public IAtomList getAssociatedAtoms() {return associatedAtoms;}
-    
-    //need also to handle associatedAtoms list
+
+    /**
+     * Updates the associations of the atoms affected by the move.  All bonds
+     * of the affected atoms are first broken (and the smers that held them
+     * re-traversed), and then bonds are formed with the atoms now in
+     * neighboring cells.
+     */
     public void actionPerformed(IEvent evt) {
     	MCMoveEvent mcEvent = (MCMoveEvent)evt;
         if(mcEvent instanceof MCMoveTrialCompletedEvent && ((MCMoveTrialCompletedEvent) mcEvent).isAccepted()) {
         	return;
             }
-        
+
         AtomIterator iterator = mcEvent.getMCMove().affectedAtoms(box);
         iterator.reset();
         neighborIterator.setBox(box);
         for (IAtom atomi = iterator.nextAtom();atomi != null; atomi =iterator.nextAtom()){
+            movedAtoms.add(atomi);
         	AtomArrayList listi = agentManager.getAgent(atomi);//list of the old bonds
         	if (listi.getAtomCount() > 0){
+        	    brokenAtoms.add(atomi);
         		for (int i = 0; i<listi.getAtomCount();i++){
             		IAtom atomj = listi.getAtom(i);
+            		brokenAtoms.add(atomj);
             		AtomArrayList listj = agentManager.getAgent(atomj);
-        			listj.remove(listj.indexOf(atomi));//remove atom i from the listj
+        			listj.removeAndReplace(listj.indexOf(atomi));//remove atom i from the listj
         			if ( listj.getAtomCount() == 0) {
-        				associatedAtoms.remove(associatedAtoms.indexOf(atomj));
+        				removeAssociated(atomj);
         			}
             	}
             	listi.clear();//remove all the elements from listi
-            	associatedAtoms.remove(associatedAtoms.indexOf(atomi));
+            	removeAssociated(atomi);
         	}
-        	
+        }
+        if (brokenAtoms.getAtomCount() > 0) {
+            rebuildSmers();
+        }
+
+        // moved atoms that have been processed are stamped with currentStamp
+        currentStamp++;
+        for (int m=0; m<movedAtoms.getAtomCount(); m++) {
+            IAtom atomi = movedAtoms.getAtom(m);
+            stamp[atomi.getLeafIndex()] = currentStamp;
+            AtomArrayList listi = agentManager.getAgent(atomi);
         	neighborIterator.setTarget(atomi);
         	neighborIterator.reset();
         	for (IAtomList atomij = neighborIterator.next();atomij != null; atomij =neighborIterator.next()){
@@ -109,45 +193,147 @@ public class AssociationManager implements AgentSource<AtomArrayList>,IListener
             	if (atomj == atomi){
             		atomj = atomij.getAtom(1);
             	}
-//            	if (atomi.getLeafIndex() == 500 ||atomj.getLeafIndex() == 500 ||atomi.getLeafIndex() == 501 ||atomj.getLeafIndex() == 501){
-//            		System.out.println("atomij= "+atomij);
-//            	}
+            	if (stamp[atomj.getLeafIndex()] == currentStamp) {
+            	    // atom j was moved too, and already found this pair
+            	    continue;
+            	}
             	if (associationDefinition.isAssociated(atomi, atomj)){ //they are associated
         			if (listi.getAtomCount() == 0) {
-        				associatedAtoms.add(atomi);
+        				addAssociated(atomi);
         			}
         			listi.add(atomj); //make atom i and atom j to be associated
         			AtomArrayList listj = agentManager.getAgent(atomj);
         			if (listj.getAtomCount() == 0) {
-        				associatedAtoms.add(atomj);
+        				addAssociated(atomj);
         			}
         			listj.add(atomi);//make atom i and atom j to be associated
-
+        			union(atomi.getLeafIndex(), atomj.getLeafIndex());
             	}
         	}
         }
-//        int numAssociatedAtoms = associatedAtoms.getAtomCount();
-//        initialize();
-//        if (numAssociatedAtoms != associatedAtoms.getAtomCount()){
-//        	throw new RuntimeException ("-_-;");
-//        }
-        for (IAtom atomi = iterator.nextAtom();atomi != null; atomi =iterator.nextAtom()){
-        if (getAssociatedAtoms(atomi).getAtomCount() > 1) {
-        	System.out.println("atomi" +atomi);
-        } else if (getAssociatedAtoms(atomi).getAtomCount() == 1){
-        	IAtom atomj = getAssociatedAtoms(atomi).getAtom(0);
-        	if (getAssociatedAtoms(atomj).getAtomCount() == 0){
-        		System.out.println("Wrong");
-        	} else if(getAssociatedAtoms(atomj).getAtomCount() > 1){
-        		AtomArrayList listj = agentManager.getAgent(atomj);
-        		System.out.println("Wrong:smer");
-        		System.out.println("listj = "+listj+" atomi= " +atomi+" atomj= "+atomj);
-        	} 
+        movedAtoms.clear();
+    }
+
+    /**
+     * Recomputes the smers that contained the atoms in brokenAtoms (atoms
+     * that lost bonds), by traversing the bonds that remain.
+     */
+    protected void rebuildSmers() {
+        // remove the old smers from the counts
+        currentStamp++;
+        for (int i=0; i<brokenAtoms.getAtomCount(); i++) {
+            int root = find(brokenAtoms.getAtom(i).getLeafIndex());
+            if (stamp[root] != currentStamp) {
+                stamp[root] = currentStamp;
+                smerCount[smerSize[root]]--;
+            }
         }
+        // now find the new smers.  the new smers consist only of atoms from
+        // the old ones, so they can be relabeled without disturbing others
+        currentStamp++;
+        for (int i=0; i<brokenAtoms.getAtomCount(); i++) {
+            IAtom atom = brokenAtoms.getAtom(i);
+            int root = atom.getLeafIndex();
+            if (stamp[root] == currentStamp) {
+                continue;
+            }
+            stamp[root] = currentStamp;
+            smerAtoms.add(atom);
+            for (int j=0; j<smerAtoms.getAtomCount(); j++) {
+                IAtom atomj = smerAtoms.getAtom(j);
+                smerParent[atomj.getLeafIndex()] = root;
+                AtomArrayList listj = agentManager.getAgent(atomj);
+                for (int k=0; k<listj.getAtomCount(); k++) {
+                    IAtom atomk = listj.getAtom(k);
+                    if (stamp[atomk.getLeafIndex()] != currentStamp) {
+                        stamp[atomk.getLeafIndex()] = currentStamp;
+                        smerAtoms.add(atomk);
+                    }
+                }
+            }
+            smerSize[root] = smerAtoms.getAtomCount();
+            smerCount[smerSize[root]]++;
+            smerAtoms.clear();
+        }
+        brokenAtoms.clear();
+        while (maxSmerSize > 1 && smerCount[maxSmerSize] == 0) {
+            maxSmerSize--;
+        }
+    }
+
+    /**
+     * Returns the index of the root of the smer containing the atom with the
+     * given leaf index.
+     */
+    protected int find(int i) {
+        while (smerParent[i] != i) {
+            // path halving
+            smerParent[i] = smerParent[smerParent[i]];
+            i = smerParent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Merges the smers containing the atoms with the given leaf indices.
+     */
+    protected void union(int i, int j) {
+        int rootI = find(i);
+        int rootJ = find(j);
+        if (rootI == rootJ) {
+            return;
+        }
+        if (smerSize[rootI] < smerSize[rootJ]) {
+            int t = rootI;
+            rootI = rootJ;
+            rootJ = t;
+        }
+        smerCount[smerSize[rootI]]--;
+        smerCount[smerSize[rootJ]]--;
+        smerParent[rootJ] = rootI;
+        smerSize[rootI] += smerSize[rootJ];
+        smerCount[smerSize[rootI]]++;
+        if (smerSize[rootI] > maxSmerSize) {
+            maxSmerSize = smerSize[rootI];
+        }
+    }
+
+    protected void addAssociated(IAtom atom) {
+        associatedIndex[atom.getLeafIndex()] = associatedAtoms.getAtomCount();
+        associatedAtoms.add(atom);
+    }
+
+    protected void removeAssociated(IAtom atom) {
+        int index = associatedIndex[atom.getLeafIndex()];
+        associatedIndex[atom.getLeafIndex()] = -1;
+        associatedAtoms.removeAndReplace(index);
+        if (index < associatedAtoms.getAtomCount()) {
+            associatedIndex[associatedAtoms.getAtom(index).getLeafIndex()] = index;
         }
     }
-    
-        
+
+    /**
+     * Returns the number of atoms in the smer that contains the given atom.
+     */
+    public int getSmerSize(IAtom atom) {
+        return smerSize[find(atom.getLeafIndex())];
+    }
+
+    /**
+     * Returns the number of smers containing the given number of atoms.
+     * Unassociated atoms are counted as smers of size 1.
+     */
+    public int getSmerCount(int size) {
+        return size < smerCount.length ? smerCount[size] : 0;
+    }
+
+    /**
+     * Returns the size of the largest smer.
+     */
+    public int getMaxSmerSize() {
+        return maxSmerSize;
+    }
+
     /**
      * Returns the number of atoms on the list of associations of the given atom.
      */
@@ -161,4 +347,3 @@ public class AssociationManager implements AgentSource<AtomArrayList>,IListener
 
 	public void releaseAgent(AtomArrayList agent, IAtom atom, IBox agentBox) {	}
 }
-    
\ No newline at end of file
@@ -18,8 +18,8 @@ import etomica.data.IData;
 import etomica.data.IDataInfo;
 import etomica.data.types.DataTensor;
 import etomica.lattice.BravaisLatticeCrystal;
-import etomica.lattice.LatticeSumCrystal;
 import etomica.lattice.LatticeSumCrystal.DataGroupLSC;
+import etomica.lattice.LatticeSumCrystalMultiK;
 import etomica.lattice.crystal.Basis;
 import etomica.lattice.crystal.Primitive;
 import etomica.potential.Potential2SoftSpherical;
@@ -81,6 +81,12 @@ public class NormalModesPotential implements NormalModes {
                 double r2 = r.squared();
                 double dW = potential.du(r2);
                 double d2W = potential.d2u(r2);
+                if (tailCoefficient != 0) {
+                    // the tail is handled by Ewald summation in the summer
+                    double uTail = tailCoefficient/Math.pow(r2, 0.5*tailPower);
+                    dW += tailPower*uTail;
+                    d2W -= tailPower*(tailPower+1)*uTail;
+                }
                 tensor.TE(1.0/(r2*r2)*(dW - d2W));
                 tensor.x.PEa1Tt1(-dW/r2,identity);
                 return tensor;
@@ -93,19 +99,25 @@ public class NormalModesPotential implements NormalModes {
             final Tensor identity = new Tensor3D(new double[][] {{1.0,0.0,0.0}, {0.0,1.0,0.0}, {0.0,0.0,1.0}});
         };
         
-        LatticeSumCrystal summer = new LatticeSumCrystal(lattice);
+        LatticeSumCrystalMultiK summer = new LatticeSumCrystalMultiK(lattice);
         summer.setMaxLatticeShell(maxLatticeShell);
+        if (tailCoefficient != 0) {
+            // function returns -1 times the second derivative tensor
+            summer.setTail(-tailCoefficient, tailPower);
+        }
         IVectorMutable kVector = lattice.getSpace().makeVector();
-        
-        
-        
-   
-        	
+
+        //sums for all wave vectors are done in one pass, with the self term
+        //(k=0) first
+        IVector[] allK = new IVector[kDim+1];
+        allK[0] = lattice.getSpace().makeVector();
+        System.arraycopy(kFactory.getWaveVectors(), 0, allK, 1, kDim);
+        DataGroupLSC[] sums = summer.calculateSums(function, allK);
+
         //calculation of self term
         kVector.E(0.0);
-        summer.setK(kVector);
         System.out.println("\n k:"+kVector.toString()+"   in NormalModesPotential");
-        DataGroupLSC sum0 = (DataGroupLSC)summer.calculateSum(function);
+        DataGroupLSC sum0 = sums[0];
         Function chopper = new Function.Chop(1e-9);
         sum0.map(chopper);
 //        System.out.println(sum0.toString());
@@ -139,9 +151,8 @@ public class NormalModesPotential implements NormalModes {
             }
             
             
-            summer.setK(kVector);
             System.out.println("k:"+kVector.toString());
-            DataGroupLSC sum = (DataGroupLSC)summer.calculateSum(function);
+            DataGroupLSC sum = sums[k+1];
             sum.map(chopper);
             for(int j=0; j<basisDim; j++) {
                 for(int jp=0; jp<basisDim; jp++) {
@@ -271,6 +282,26 @@ public class NormalModesPotential implements NormalModes {
         this.maxLatticeShell = maxLatticeShell;
     }
 
+    /**
+     * Specifies a C/r^n tail of the potential to be handled by Ewald
+     * summation rather than by the direct lattice sum, which converges
+     * slowly for such tails.  The power must be greater than 3.  A
+     * coefficient of 0 (the default) sums the whole potential directly.
+     */
+    public void setTail(double coefficient, int power) {
+        needToCalculateModes = true;
+        tailCoefficient = coefficient;
+        tailPower = power;
+    }
+
+    public double getTailCoefficient() {
+        return tailCoefficient;
+    }
+
+    public int getTailPower() {
+        return tailPower;
+    }
+
     public void setHarmonicFudge(double newHarmonicFudge) {
         // we ignore fudge
     }
@@ -296,4 +327,6 @@ public class NormalModesPotential implements NormalModes {
     private double[][][] eigenvectors;
     private boolean needToCalculateModes;
     private String fileName;
+    private double tailCoefficient;
+    private int tailPower;
 }
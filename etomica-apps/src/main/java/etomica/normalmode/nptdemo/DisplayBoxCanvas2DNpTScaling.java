@@ -9,6 +9,7 @@ import etomica.api.IVector;
 import etomica.api.IVectorMutable;
 import etomica.graphics.DisplayBox;
 import etomica.graphics.DisplayBoxCanvas2D;
+import etomica.graphics.DisplayBoxSnapshot;
 import etomica.normalmode.CoordinateDefinition;
 import etomica.space.ISpace;
 
@@ -72,6 +73,11 @@ public class DisplayBoxCanvas2DNpTScaling extends DisplayBoxCanvas2D {
         g.fillOval(xP, yP, sigmaP, sigmaP);
     }
 
+    protected void drawAtom(Graphics g, int[] origin, DisplayBoxSnapshot.Frame frame, int i) {
+        // the scaled position is computed from the atom's lattice site
+        drawAtom(g, origin, frame.getAtom(i));
+    }
+
     protected double pressure, displayDensity;
     protected final IVectorMutable p;
     protected final CoordinateDefinition coordinateDefinition;
@@ -121,24 +121,15 @@ public class IntegratorOverlap extends IntegratorManagerMC {
     // Override superclass so we can run the integrators for different lenghts
     // of time.  There are no global moves.
     public void doStepInternal() {
-        int totSubSteps = 0;
         if (!doAggressiveAdjustStepFrac) {
+            long[] iSubSteps = computeSubSteps();
             for (int i=0; i<nIntegrators; i++) {
-                long iSubSteps = (long)(numSubSteps*stepFrac[i]+0.5);
-                if (i==nIntegrators-1) {
-                    iSubSteps = numSubSteps - totSubSteps;
-                }
-                totSubSteps += iSubSteps;
-                if (doAdjustStepFrac) {
-                    // if we're internally adjusting the step fractions, require at least 1%
-                    iSubSteps = numSubSteps/100 + (int)(numSubSteps*(1-0.01*nIntegrators) * stepFrac[i]);
-                }
                 totTime[i] -= System.currentTimeMillis();
-                for (int j=0; j<iSubSteps; j++) {
+                for (int j=0; j<iSubSteps[i]; j++) {
                     integrators[i].doStep();
                 }
                 totTime[i] += System.currentTimeMillis();
-                totNumSubSteps[i] += iSubSteps;
+                totNumSubSteps[i] += iSubSteps[i];
             }
         }
         else {
@@ -158,22 +149,55 @@ public class IntegratorOverlap extends IntegratorManagerMC {
             totNumSubSteps[iBox] += numSubSteps;
         }
         if (doAdjustStepFrac && --adjustCountdown == 0) {
-            double nFrac;
-            if (doAdjustStepsOnTime && totTime[0] > 4*totNumSubSteps[0]/numSubSteps && totTime[1] > 4*totNumSubSteps[1]/numSubSteps) {
-                double idealFrac = fracSource.getIdealRefFraction((double)totTime[0]/(totTime[0]+totTime[1]));
-                double tRatio = idealFrac / (1-idealFrac);
-                double nRatio = tRatio * Math.sqrt(((double)totNumSubSteps[0])*totTime[1]/totNumSubSteps[1]/totTime[0]);
-                nFrac = nRatio / (1+nRatio);
+            adjustStepFraction();
+        }
+    }
+
+    /**
+     * Returns the number of steps each sub-integrator should take during the
+     * next step of this integrator, based on the current step fractions.
+     * The returned array is reused.
+     */
+    protected long[] computeSubSteps() {
+        if (subSteps == null || subSteps.length != nIntegrators) {
+            subSteps = new long[nIntegrators];
+        }
+        long totSubSteps = 0;
+        for (int i=0; i<nIntegrators; i++) {
+            long iSubSteps = (long)(numSubSteps*stepFrac[i]+0.5);
+            if (i==nIntegrators-1) {
+                iSubSteps = numSubSteps - totSubSteps;
             }
-            else {
-                nFrac = fracSource.getIdealRefFraction((double)totNumSubSteps[0]/(totNumSubSteps[0]+totNumSubSteps[1]));
+            totSubSteps += iSubSteps;
+            if (doAdjustStepFrac) {
+                // if we're internally adjusting the step fractions, require at least 1%
+                iSubSteps = numSubSteps/100 + (int)(numSubSteps*(1-0.01*nIntegrators) * stepFrac[i]);
             }
-            if (nFrac < 0.001) nFrac = 0.001;
-            else if (nFrac > 0.999) nFrac = 0.999;
-            stepFrac[0] = nFrac;
-            stepFrac[1] = 1.0 - nFrac;
-            adjustCountdown = adjustInterval;
+            subSteps[i] = iSubSteps;
+        }
+        return subSteps;
+    }
+
+    /**
+     * Recomputes the ideal reference step fraction from the ReferenceFracSource
+     * and the steps (and, optionally, time) taken so far by each system.
+     */
+    protected void adjustStepFraction() {
+        double nFrac;
+        if (doAdjustStepsOnTime && totTime[0] > 4*totNumSubSteps[0]/numSubSteps && totTime[1] > 4*totNumSubSteps[1]/numSubSteps) {
+            double idealFrac = fracSource.getIdealRefFraction((double)totTime[0]/(totTime[0]+totTime[1]));
+            double tRatio = idealFrac / (1-idealFrac);
+            double nRatio = tRatio * Math.sqrt(((double)totNumSubSteps[0])*totTime[1]/totNumSubSteps[1]/totTime[0]);
+            nFrac = nRatio / (1+nRatio);
+        }
+        else {
+            nFrac = fracSource.getIdealRefFraction((double)totNumSubSteps[0]/(totNumSubSteps[0]+totNumSubSteps[1]));
         }
+        if (nFrac < 0.001) nFrac = 0.001;
+        else if (nFrac > 0.999) nFrac = 0.999;
+        stepFrac[0] = nFrac;
+        stepFrac[1] = 1.0 - nFrac;
+        adjustCountdown = adjustInterval;
     }
 
     public void setRefStepFraction(double f) {
@@ -202,6 +226,7 @@ public class IntegratorOverlap extends IntegratorManagerMC {
     protected long adjustInterval, adjustCountdown;
     protected long[] totTime;
     protected boolean doAdjustStepsOnTime;
+    protected long[] subSteps;
     
     public interface ReferenceFracSource {
         public double getIdealRefFraction(double oldFrac);
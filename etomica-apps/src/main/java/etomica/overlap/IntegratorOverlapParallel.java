@@ -0,0 +1,155 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.overlap;
+
+import etomica.api.IIntegrator;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.integrator.IntegratorBox;
+import etomica.integrator.IntegratorMC;
+import etomica.util.ParallelTaskRunner;
+import etomica.util.ParallelTaskRunner.Task;
+
+/**
+ * Overlap integrator that runs its sub-integrators concurrently, each on its
+ * own thread.  The number of steps each system takes per step of this
+ * integrator is determined (and adjusted) exactly as in IntegratorOverlap.
+ * The first sub-integrator runs on the thread calling doStep; the others run
+ * on worker threads.  doStep returns only after all systems have finished
+ * their steps, so the ReferenceFracSource (and anything else reading the
+ * accumulators between steps, such as a paused Controller's urgent actions)
+ * sees a consistent snapshot without additional locking.  Worker threads
+ * exit on their own once the integrator has stopped taking steps for
+ * ParallelTaskRunner.IDLE_SECONDS; stopThreads stops them right away.
+ * <p>
+ * By default, a system that finishes its share of steps before the others
+ * keeps sampling (in chunks of 1% of the sub-steps) until they are done,
+ * rather than leaving its processor idle.  The extra steps are counted in
+ * the step totals used to choose the next step fraction.
+ * <p>
+ * With fillIdleTime off, each system takes a fixed number of steps, so a
+ * run is reproducible and matches IntegratorOverlap driving the same
+ * systems.  Filling idle time makes the step counts depend on thread timing.
+ * <p>
+ * Each sub-integrator (along with its MC moves, potential master, meters,
+ * data pumps and accumulators) is used only from the thread running it.
+ * The accumulators are ordinary, unsynchronized ones: each belongs to one
+ * system, and the ReferenceFracSource reads them only after the threads
+ * have joined, so locking every sample is not needed.
+ * The systems therefore must not share objects that keep per-call state.
+ * The constructor refuses sub-integrators that share a PotentialMaster or
+ * (for IntegratorMC) a random number generator; anything else shared between
+ * the systems, such as Mayer functions used by both systems' clusters, must
+ * be safe to call from several threads at once.
+ * Aggressive step fraction adjustment runs only one system at a time and
+ * falls back to the serial implementation.
+ */
+public class IntegratorOverlapParallel extends IntegratorOverlap {
+
+    public IntegratorOverlapParallel(IIntegrator[] aIntegrators) {
+        super(aIntegrators);
+        for (int i=0; i<nIntegrators; i++) {
+            for (int j=0; j<i; j++) {
+                if (getPotentialMaster(integrators[i]) != null && getPotentialMaster(integrators[i]) == getPotentialMaster(integrators[j])) {
+                    throw new IllegalArgumentException("sub-integrators "+j+" and "+i+" share a PotentialMaster");
+                }
+                if (getRandom(integrators[i]) != null && getRandom(integrators[i]) == getRandom(integrators[j])) {
+                    throw new IllegalArgumentException("sub-integrators "+j+" and "+i+" share a random number generator");
+                }
+            }
+        }
+        setFillIdleTime(true);
+    }
+
+    protected static IPotentialMaster getPotentialMaster(IIntegrator integrator) {
+        return integrator instanceof IntegratorBox ? ((IntegratorBox)integrator).getPotentialMaster() : null;
+    }
+
+    protected static IRandom getRandom(IIntegrator integrator) {
+        return integrator instanceof IntegratorMC ? ((IntegratorMC)integrator).getRandom() : null;
+    }
+
+    /**
+     * Sets whether a system that finishes its steps early should continue
+     * sampling until the other systems are done.  Default is true.
+     */
+    public void setFillIdleTime(boolean newFillIdleTime) {
+        fillIdleTime = newFillIdleTime;
+    }
+
+    public boolean isFillIdleTime() {
+        return fillIdleTime;
+    }
+
+    public void doStepInternal() {
+        if (doAggressiveAdjustStepFrac) {
+            super.doStepInternal();
+            return;
+        }
+        final long[] iSubSteps = computeSubSteps();
+        nDone = 0;
+        taskRunner.run(nIntegrators, new Task() {
+            public void run(int iThread) {
+                try {
+                    runSystem(iThread, iSubSteps[iThread]);
+                }
+                catch (Throwable e) {
+                    // let the others stop filling.  this must happen for an
+                    // Error too, or they would keep stepping forever.
+                    synchronized (IntegratorOverlapParallel.this) {
+                        nDone = nIntegrators;
+                    }
+                    throw new RuntimeException("sub-integrator "+iThread+" failed", e);
+                }
+            }
+        });
+        if (doAdjustStepFrac && --adjustCountdown == 0) {
+            adjustStepFraction();
+        }
+    }
+
+    /**
+     * Runs the given number of steps of sub-integrator i, and then (if
+     * filling idle time) keeps going until all systems have run their steps.
+     */
+    protected void runSystem(int i, long n) {
+        long t0 = System.currentTimeMillis();
+        for (long j=0; j<n; j++) {
+            integrators[i].doStep();
+        }
+        boolean allDone;
+        synchronized (this) {
+            nDone++;
+            allDone = nDone >= nIntegrators;
+        }
+        if (fillIdleTime && !allDone) {
+            long chunk = numSubSteps/100;
+            if (chunk < 1) chunk = 1;
+            while (nDone < nIntegrators) {
+                for (long j=0; j<chunk; j++) {
+                    integrators[i].doStep();
+                }
+                n += chunk;
+            }
+        }
+        totTime[i] += System.currentTimeMillis() - t0;
+        totNumSubSteps[i] += n;
+    }
+
+    /**
+     * Stops the worker threads.  They will be restarted if the integrator
+     * takes another step.
+     */
+    public void stopThreads() {
+        taskRunner.shutdown();
+    }
+
+    private static final long serialVersionUID = 1L;
+    protected final ParallelTaskRunner taskRunner = new ParallelTaskRunner("overlap sub-integrator");
+    protected boolean fillIdleTime;
+    // number of systems that have finished their assigned steps.  incremented
+    // with the lock on this, but read without it while filling idle time
+    protected volatile int nDone;
+}
@@ -66,7 +66,7 @@ public class IntegratorTMMC extends IntegratorMC {
         //perform the trial
         int iStateOld = macrostateManager.stateIndex(box);//new to tmmc
         if(!move.doTrial()) {
-            C[iStateOld][1] += 1;
+            collect(iStateOld, 1, 1.0);
             if(--doStepCount == 0) updateWeights();
             return;
         }
@@ -79,19 +79,20 @@ public class IntegratorTMMC extends IntegratorMC {
         //decide acceptance
         int iStateNew = macrostateManager.stateIndex(box);//new to tmmc
         int iDelta = iStateNew - iStateOld + 1;// 0, 1, 2  new to tmmc
-        double weightDifference = weight[iStateNew] - weight[iStateOld]; //new to tmmc
-        double lnChi = move.getA() + move.getB();
+        boolean allowed = isAllowed(iStateNew);
+        double weightDifference = allowed ? weight[iStateNew] - weight[iStateOld] : 0; //new to tmmc
+        double lnChi = Math.log(move.getA()) + move.getB()/temperature;
         double r = (lnChi < 0.0) ? Math.exp(lnChi) : 1.0; //new to tmmc
-        C[iStateOld][iDelta] += r;  //new to tmmc
-        C[iStateOld][1] += (1.0 - r); //new to tmmc
+        collect(iStateOld, iDelta, r);  //new to tmmc
         lnChi += weightDifference;  //new to tmmc
-        if(lnChi <= -Double.MAX_VALUE || 
+        if(lnChi <= -Double.MAX_VALUE || !allowed ||
                 (lnChi < 0.0 && Math.exp(lnChi) < random.nextDouble())) {//reject
             move.rejectNotify();
             moveEventManager.fireEvent(rejectedEvent);
             move.getTracker().updateCounts(false,r);
         } else {
             move.acceptNotify();
+            currentPotentialEnergy += move.energyChange(box);
             moveEventManager.fireEvent(acceptedEvent);
             move.getTracker().updateCounts(true,r);
         }
@@ -99,12 +100,37 @@ public class IntegratorTMMC extends IntegratorMC {
         if(--doStepCount == 0) updateWeights();
     }//end of doStep
     
-    private void updateWeights() {
+    /**
+     * Records a transition attempt from state iStateOld, which moves by
+     * iDelta-1 states with probability r and otherwise stays put.
+     */
+    protected void collect(int iStateOld, int iDelta, double r) {
+        C[iStateOld][iDelta] += r;
+        C[iStateOld][1] += (1.0 - r);
+    }
+
+    /**
+     * Returns true if the system may move into the given state.  Moves into
+     * a state that is not allowed are still recorded in the collection
+     * matrix, but are rejected.  This implementation allows all states
+     * known to the macrostate manager.
+     */
+    protected boolean isAllowed(int iState) {
+        return iState >= 0 && iState < nStates;
+    }
+
+    protected void updateWeights() {
         for(int i=0; i<nStates; i++) {
             H[i] = C[i][0] + C[i][1] + C[i][2];
         }
         weight[0] = 0.0;
         for(int i=1; i<nStates; i++) {
+            // states whose transitions to or from the previous state have
+            // not been seen yet get the weight of the previous state
+            if (C[i-1][2] == 0 || C[i][0] == 0) {
+                weight[i] = weight[i-1];
+                continue;
+            }
             //w_i = w_(i-1) - log( C[(N-1)->N] / C[N->(N-1)]
             weight[i] = weight[i-1] - Math.log((C[i-1][2]/H[i-1])/(C[i][0]/H[i]));
         }
@@ -128,9 +154,9 @@ public class IntegratorTMMC extends IntegratorMC {
     private double[][] C;
     private double[] H;
     protected double[] weight;
-    private int weightUpdateInterval;
-    private int doStepCount;
-    private MacrostateManager macrostateManager;
+    protected int weightUpdateInterval;
+    protected int doStepCount;
+    protected MacrostateManager macrostateManager;
     protected int nStates;
     private MCMoveTrialInitiatedEvent trialEvent;
     private final MCMoveTrialCompletedEvent acceptedEvent, rejectedEvent;
@@ -0,0 +1,109 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.tmmc;
+
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+
+/**
+ * Transition-matrix Monte Carlo integrator that is one of several walkers
+ * contributing to a shared {@link TMMCCollectionMatrix}.  Each walker has its
+ * own box, potential master and random number generator, so that walkers
+ * can run on separate threads (see {@link TMMCMultiWalker}).
+ * <p>
+ * The walker collects transitions in a private matrix.  Every
+ * weightUpdateInterval steps it adds them to the shared matrix and picks up
+ * the latest weights computed from the combined matrix.
+ * <p>
+ * A walker can be confined to a window of macrostates.  Moves that would
+ * leave the window are rejected, but are still recorded in the collection
+ * matrix, so that walkers in adjacent windows together determine the
+ * weights across the whole range.  The box must start within the window.
+ */
+public class IntegratorTMMCWalker extends IntegratorTMMC {
+
+    public IntegratorTMMCWalker(IPotentialMaster potentialMaster, IRandom random, double temperature,
+                                TMMCCollectionMatrix collectionMatrix) {
+        super(potentialMaster, random, temperature);
+        this.collectionMatrix = collectionMatrix;
+        setWeightUpdateInterval(1000);
+    }
+
+    public void setMacrostateManager(MacrostateManager m) {
+        super.setMacrostateManager(m);
+        if (nStates != collectionMatrix.getNumStates()) {
+            throw new IllegalArgumentException("macrostate manager has "+nStates+" states, but collection matrix has "+collectionMatrix.getNumStates());
+        }
+        localC = new double[3*nStates];
+        weight = collectionMatrix.getWeights();
+        windowMin = 0;
+        windowMax = nStates;
+    }
+
+    /**
+     * Confines the walker to macrostates from min up to (but not including)
+     * max.
+     */
+    public void setWindow(int min, int max) {
+        if (min < 0 || max > nStates || min >= max) {
+            throw new IllegalArgumentException("invalid window "+min+" to "+max+" for "+nStates+" states");
+        }
+        windowMin = min;
+        windowMax = max;
+    }
+
+    public int getWindowMin() {
+        return windowMin;
+    }
+
+    public int getWindowMax() {
+        return windowMax;
+    }
+
+    public TMMCCollectionMatrix getCollectionMatrix() {
+        return collectionMatrix;
+    }
+
+    public void reset() {
+        super.reset();
+        int iState = macrostateManager.stateIndex(box);
+        if (iState < windowMin || iState >= windowMax) {
+            throw new RuntimeException("box is in macrostate "+iState+", outside the walker's window ("+windowMin+" to "+windowMax+")");
+        }
+    }
+
+    protected void collect(int iStateOld, int iDelta, double r) {
+        localC[3*iStateOld+iDelta] += r;
+        localC[3*iStateOld+1] += (1.0 - r);
+        nLocal++;
+    }
+
+    protected boolean isAllowed(int iState) {
+        return iState >= windowMin && iState < windowMax;
+    }
+
+    protected void updateWeights() {
+        flush();
+        weight = collectionMatrix.getWeights();
+        doStepCount = weightUpdateInterval;
+    }
+
+    /**
+     * Adds the transitions collected since the last flush to the shared
+     * collection matrix.
+     */
+    public void flush() {
+        // moves that leave the window are rejected, so the walker is only
+        // ever found in states within the window
+        collectionMatrix.addAndClear(localC, windowMin, windowMax, nLocal);
+        nLocal = 0;
+    }
+
+    private static final long serialVersionUID = 1L;
+    protected final TMMCCollectionMatrix collectionMatrix;
+    protected double[] localC;
+    protected long nLocal;
+    protected int windowMin, windowMax;
+}
@@ -0,0 +1,185 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.tmmc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transition-matrix Monte Carlo collection matrix shared by several walkers
+ * ({@link IntegratorTMMCWalker}) running on separate threads.  For each
+ * macrostate, the matrix holds the accumulated probabilities of moving down
+ * one state, staying, and moving up one state.
+ * <p>
+ * Rows are guarded by a fixed set of locks, with consecutive states on
+ * different locks, so walkers working on different macrostates seldom
+ * contend.  Walkers are expected to buffer their contributions and add them
+ * in batches.  The weights are recomputed from the combined matrix once
+ * enough new transitions have been added since the last computation, by
+ * whichever walker happens to notice; other walkers keep using the weights
+ * published previously rather than wait.
+ */
+public class TMMCCollectionMatrix {
+
+    /**
+     * @param nStates the number of macrostates
+     * @param nStripes the number of locks guarding the rows; rounded up to
+     *        a power of 2
+     */
+    public TMMCCollectionMatrix(int nStates, int nStripes) {
+        this.nStates = nStates;
+        C = new double[3*nStates];
+        int n = 1;
+        while (n < nStripes) n *= 2;
+        locks = new Object[n];
+        for (int i=0; i<n; i++) {
+            locks[i] = new Object();
+        }
+        stripeMask = n-1;
+        weightLock = new ReentrantLock();
+        nTransitions = new AtomicLong();
+        weight = new double[nStates];
+        setWeightUpdateInterval(1000000);
+    }
+
+    public TMMCCollectionMatrix(int nStates) {
+        this(nStates, 64);
+    }
+
+    public int getNumStates() {
+        return nStates;
+    }
+
+    /**
+     * Sets the number of transitions (added by all walkers together) between
+     * recomputations of the weights.
+     */
+    public void setWeightUpdateInterval(long newWeightUpdateInterval) {
+        weightUpdateInterval = newWeightUpdateInterval < 1 ? 1 : newWeightUpdateInterval;
+        nextWeightUpdate = nTransitions.get() + weightUpdateInterval;
+    }
+
+    public long getWeightUpdateInterval() {
+        return weightUpdateInterval;
+    }
+
+    /**
+     * Adds the rows fromState through toState-1 of the given matrix, which
+     * holds 3 entries per state as this one does, and then clears them.
+     * nNewTransitions is the number of transitions the rows represent.
+     */
+    public void addAndClear(double[] localC, int fromState, int toState, long nNewTransitions) {
+        for (int i=fromState; i<toState; i++) {
+            int i3 = 3*i;
+            if (localC[i3] == 0 && localC[i3+1] == 0 && localC[i3+2] == 0) continue;
+            synchronized (locks[i & stripeMask]) {
+                C[i3] += localC[i3];
+                C[i3+1] += localC[i3+1];
+                C[i3+2] += localC[i3+2];
+            }
+            localC[i3] = localC[i3+1] = localC[i3+2] = 0;
+        }
+        nTransitions.addAndGet(nNewTransitions);
+    }
+
+    /**
+     * Returns the latest weights, first recomputing them if enough
+     * transitions have been added since the last computation and no other
+     * thread is doing so already.  The returned array must not be modified.
+     */
+    public double[] getWeights() {
+        if (nTransitions.get() >= nextWeightUpdate && weightLock.tryLock()) {
+            try {
+                if (nTransitions.get() >= nextWeightUpdate) {
+                    computeWeights();
+                }
+            }
+            finally {
+                weightLock.unlock();
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Recomputes the weights from the combined collection matrix.  States
+     * whose transitions to or from the previous state have not been seen
+     * get the weight of the previous state.
+     */
+    public void updateWeights() {
+        weightLock.lock();
+        try {
+            computeWeights();
+        }
+        finally {
+            weightLock.unlock();
+        }
+    }
+
+    protected void computeWeights() {
+        double[] c = getCollectionMatrix();
+        double[] newWeight = new double[nStates];
+        for (int i=1; i<nStates; i++) {
+            double hOld = c[3*(i-1)] + c[3*(i-1)+1] + c[3*(i-1)+2];
+            double h = c[3*i] + c[3*i+1] + c[3*i+2];
+            double up = c[3*(i-1)+2], down = c[3*i];
+            if (up == 0 || down == 0) {
+                newWeight[i] = newWeight[i-1];
+                continue;
+            }
+            //w_i = w_(i-1) - log( C[(N-1)->N] / C[N->(N-1)]
+            newWeight[i] = newWeight[i-1] - Math.log((up/hOld)/(down/h));
+        }
+        weight = newWeight;
+        nextWeightUpdate = nTransitions.get() + weightUpdateInterval;
+    }
+
+    /**
+     * Returns a copy of the collection matrix, with 3 entries per state:
+     * down, stay and up.
+     */
+    public double[] getCollectionMatrix() {
+        double[] c = new double[3*nStates];
+        for (int i=0; i<nStates; i++) {
+            int i3 = 3*i;
+            synchronized (locks[i & stripeMask]) {
+                c[i3] = C[i3];
+                c[i3+1] = C[i3+1];
+                c[i3+2] = C[i3+2];
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the natural log of the macrostate probability distribution
+     * implied by the collection matrix, normalized so that the first state
+     * has ln(P) = 0.
+     */
+    public double[] getLnProbability() {
+        double[] c = getCollectionMatrix();
+        double[] lnP = new double[nStates];
+        for (int i=1; i<nStates; i++) {
+            double hOld = c[3*(i-1)] + c[3*(i-1)+1] + c[3*(i-1)+2];
+            double h = c[3*i] + c[3*i+1] + c[3*i+2];
+            lnP[i] = lnP[i-1] + Math.log((c[3*(i-1)+2]/hOld)/(c[3*i]/h));
+        }
+        return lnP;
+    }
+
+    public long getTransitionCount() {
+        return nTransitions.get();
+    }
+
+    protected final int nStates;
+    protected final double[] C;
+    protected final Object[] locks;
+    protected final int stripeMask;
+    protected final ReentrantLock weightLock;
+    protected final AtomicLong nTransitions;
+    protected volatile double[] weight;
+    protected volatile long nextWeightUpdate;
+    protected long weightUpdateInterval;
+}
@@ -0,0 +1,121 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.tmmc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import etomica.util.ParallelTaskRunner;
+import etomica.util.ParallelTaskRunner.Task;
+
+/**
+ * Runs several {@link IntegratorTMMCWalker}s on separate threads, all
+ * contributing to one {@link TMMCCollectionMatrix}.  The walkers do not
+ * wait for one another while running; they meet only when adding their
+ * transitions to the shared matrix.
+ * <p>
+ * With windows (see {@link #makeWindows(int, int, int)}), each walker
+ * samples a part of the macrostate range, so that a wide range (for
+ * instance, of densities in a grand-canonical simulation) can be covered
+ * by many walkers in the time one walker would need for a narrow range.
+ */
+public class TMMCMultiWalker {
+
+    public TMMCMultiWalker(TMMCCollectionMatrix collectionMatrix) {
+        this.collectionMatrix = collectionMatrix;
+        walkers = new ArrayList<IntegratorTMMCWalker>();
+        setNumThreads(1);
+    }
+
+    /**
+     * Adds a walker.  The walker must use this object's collection matrix
+     * and have its macrostate manager set.
+     */
+    public void addWalker(IntegratorTMMCWalker walker) {
+        if (walker.getCollectionMatrix() != collectionMatrix) {
+            throw new IllegalArgumentException("walker must use the shared collection matrix");
+        }
+        walkers.add(walker);
+    }
+
+    public List<IntegratorTMMCWalker> getWalkers() {
+        return walkers;
+    }
+
+    public TMMCCollectionMatrix getCollectionMatrix() {
+        return collectionMatrix;
+    }
+
+    /**
+     * Sets the number of threads used to run the walkers.  Each thread runs
+     * every numThreads-th walker, so the number of walkers should be a
+     * multiple of the number of threads.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        numThreads = newNumThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Resets every walker.
+     */
+    public void reset() {
+        for (IntegratorTMMCWalker walker : walkers) {
+            walker.reset();
+        }
+    }
+
+    /**
+     * Advances each walker by the given number of steps.  When all walkers
+     * are done, their remaining transitions are added to the collection
+     * matrix and the weights are recomputed.
+     */
+    public void doSteps(final long nSteps) {
+        taskRunner.run(numThreads, new Task() {
+            public void run(int iThread) {
+                for (int i=iThread; i<walkers.size(); i+=numThreads) {
+                    IntegratorTMMCWalker walker = walkers.get(i);
+                    for (long j=0; j<nSteps; j++) {
+                        walker.doStep();
+                    }
+                    walker.flush();
+                }
+            }
+        });
+        collectionMatrix.updateWeights();
+    }
+
+    /**
+     * Returns nWindows windows ({min, max}) covering nStates macrostates,
+     * with adjacent windows sharing the given number of states.
+     */
+    public static int[][] makeWindows(int nStates, int nWindows, int overlap) {
+        if (nWindows < 1 || overlap < 0) {
+            throw new IllegalArgumentException("need at least one window and non-negative overlap");
+        }
+        // each window has width w, and starts w-overlap after the previous one
+        double step = (double)(nStates - overlap)/nWindows;
+        if (step < 1) {
+            throw new IllegalArgumentException("too many windows for "+nStates+" states");
+        }
+        int[][] windows = new int[nWindows][2];
+        for (int i=0; i<nWindows; i++) {
+            windows[i][0] = (int)Math.round(i*step);
+            windows[i][1] = i == nWindows-1 ? nStates : (int)Math.round((i+1)*step) + overlap;
+        }
+        return windows;
+    }
+
+    protected final TMMCCollectionMatrix collectionMatrix;
+    protected final List<IntegratorTMMCWalker> walkers;
+    protected int numThreads;
+    protected final ParallelTaskRunner taskRunner = new ParallelTaskRunner("TMMC walker");
+}
@@ -7,6 +7,7 @@ package etomica.virial;
 import etomica.api.IBox;
 import etomica.api.IMoleculeList;
 import etomica.api.IPotential;
+import etomica.math.FastFunctions;
 import etomica.potential.Potential2Spherical;
 /**
  * @author kofke
@@ -26,7 +27,20 @@ public class MayerESpherical implements MayerFunction {
 	 * @see etomica.virial.MayerFunctionSpherical#f(etomica.AtomPair, double, double)
 	 */
 	public double f(IMoleculeList pair, double r2, double beta) {
-		return Math.exp(-beta*potential.u(r2));
+		double x = -beta*potential.u(r2);
+		return useFastExp ? FastFunctions.exp(x) : Math.exp(x);
+	}
+
+	/**
+	 * Sets whether exp is computed with FastFunctions.exp (relative error
+	 * below 3e-16) rather than Math.exp.  Default is false.
+	 */
+	public void setUseFastExp(boolean newUseFastExp) {
+		useFastExp = newUseFastExp;
+	}
+
+	public boolean getUseFastExp() {
+		return useFastExp;
 	}
 	
 	public void setBox(IBox newBox) {
@@ -34,6 +48,7 @@ public class MayerESpherical implements MayerFunction {
 	}
 
 	private final Potential2Spherical potential;
+	private boolean useFastExp;
 
 	public IPotential getPotential() {
 		return potential;
@@ -7,6 +7,7 @@ package etomica.virial;
 import etomica.api.IBox;
 import etomica.api.IMoleculeList;
 import etomica.api.IPotential;
+import etomica.math.FastFunctions;
 import etomica.potential.Potential2Spherical;
 
 /**
@@ -29,7 +30,19 @@ public class MayerGeneralSpherical implements MayerFunction {
         if (Math.abs(x) < 0.01) {
             return x + x*x/2.0 + x*x*x/6.0 + x*x*x*x/24.0 + x*x*x*x*x/120.0;
         }
-        return Math.exp(x) - 1.0;
+        return (useFastExp ? FastFunctions.exp(x) : Math.exp(x)) - 1.0;
+    }
+
+    /**
+     * Sets whether exp is computed with FastFunctions.exp (relative error
+     * below 3e-16) rather than Math.exp.  Default is false.
+     */
+    public void setUseFastExp(boolean newUseFastExp) {
+        useFastExp = newUseFastExp;
+    }
+
+    public boolean getUseFastExp() {
+        return useFastExp;
     }
 
     public IPotential getPotential() {
@@ -41,4 +54,5 @@ public class MayerGeneralSpherical implements MayerFunction {
     }
 
     private final Potential2Spherical potential;
+    private boolean useFastExp;
 }
@@ -13,6 +13,7 @@ import java.io.IOException;
 import etomica.action.activity.ActivityIntegrate;
 import etomica.api.IIntegratorEvent;
 import etomica.api.IIntegratorListener;
+import etomica.api.IRandom;
 import etomica.api.ISpecies;
 import etomica.data.AccumulatorAverageCovariance;
 import etomica.data.AccumulatorRatioAverageCovarianceFull;
@@ -28,6 +29,7 @@ import etomica.integrator.IntegratorMC;
 import etomica.integrator.mcmove.MCMoveBoxStep;
 import etomica.integrator.mcmove.MCMoveManager;
 import etomica.overlap.IntegratorOverlap;
+import etomica.overlap.IntegratorOverlapParallel;
 import etomica.potential.PotentialMaster;
 import etomica.simulation.Simulation;
 import etomica.space.ISpace;
@@ -37,6 +39,7 @@ import etomica.units.Null;
 import etomica.util.DoubleRange;
 import etomica.util.HistogramNotSoSimple;
 import etomica.util.HistogramSimple;
+import etomica.util.RandomMersenneTwister;
 import etomica.virial.BoxCluster;
 import etomica.virial.ClusterAbstract;
 import etomica.virial.ClusterWeight;
@@ -151,6 +154,25 @@ public class SimulationVirialOverlap2 extends Simulation {
         return doWiggle;
     }
 
+    /**
+     * Sets whether the reference and target systems are run concurrently,
+     * using IntegratorOverlapParallel.  Each system then gets its own
+     * PotentialMaster and random number generator (seeded from the
+     * simulation's), and aggressive step fraction adjustment is off.  The
+     * Mayer functions of the clusters are called from both threads, so they
+     * must not keep per-call state: MayerHardSphere and MayerGeneralSpherical
+     * are fine, but MayerGeneral (whose potential uses work vectors) is not.
+     * Default is false.
+     */
+    public void setDoParallel(boolean newDoParallel) {
+        if (initialized) throw new RuntimeException("too late");
+        doParallel = newDoParallel;
+    }
+
+    public boolean getDoParallel() {
+        return doParallel;
+    }
+
     public void setExtraTargetClusters(ClusterAbstract[] extraTargetClusters) {
         if (initialized) throw new RuntimeException("too late");
         this.extraTargetClusters = extraTargetClusters;
@@ -210,6 +232,17 @@ public class SimulationVirialOverlap2 extends Simulation {
         blockSize = 1000;
         
         for (int iBox=0; iBox<2; iBox++) {
+            IRandom boxRandom = random;
+            PotentialMaster boxPotentialMaster = potentialMaster;
+            if (doParallel) {
+                // the systems run on separate threads, so they can't share these
+                int[] boxSeeds = new int[4];
+                for (int i=0; i<boxSeeds.length; i++) {
+                    boxSeeds[i] = random.nextInt(Integer.MAX_VALUE);
+                }
+                boxRandom = new RandomMersenneTwister(boxSeeds);
+                boxPotentialMaster = new PotentialMaster();
+            }
             // integrator for iBox samples based on iBox cluster
             box[iBox] = boxFactory.makeBox(space, sampleClusters[iBox]);
             addBox(box[iBox]);
@@ -217,27 +250,26 @@ public class SimulationVirialOverlap2 extends Simulation {
                 box[iBox].setNMolecules(species[i], nMolecules[i]);
             }
             
-            integrators[iBox] = new IntegratorMC(this, potentialMaster);
-            integrators[iBox].setTemperature(temperature);
+            integrators[iBox] = new IntegratorMC(boxPotentialMaster, boxRandom, temperature);
             integrators[iBox].setBox(box[iBox]);
             integrators[iBox].getMoveManager().setEquilibrating(true);
             
             MCMoveManager moveManager = integrators[iBox].getMoveManager();
             
             if (!multiAtomic) {
-                mcMoveTranslate[iBox] = new MCMoveClusterAtomMulti(random, space);
+                mcMoveTranslate[iBox] = new MCMoveClusterAtomMulti(boxRandom, space);
                 moveManager.addMCMove(mcMoveTranslate[iBox]);
                 
                 if (doRotate) {
-                    mcMoveRotate[iBox] = new MCMoveClusterAtomRotateMulti(random, space);
+                    mcMoveRotate[iBox] = new MCMoveClusterAtomRotateMulti(boxRandom, space);
                     moveManager.addMCMove(mcMoveRotate[iBox]);
                 }
             }
             else {
-                mcMoveRotate[iBox] = new MCMoveClusterRotateMoleculeMulti(random, space);
+                mcMoveRotate[iBox] = new MCMoveClusterRotateMoleculeMulti(boxRandom, space);
                 mcMoveRotate[iBox].setStepSize(Math.PI);
                 moveManager.addMCMove(mcMoveRotate[iBox]);
-                mcMoveTranslate[iBox] = new MCMoveClusterMoleculeMulti(this, space);
+                mcMoveTranslate[iBox] = new MCMoveClusterMoleculeMulti(null, boxRandom, space, 1.0);
                 moveManager.addMCMove(mcMoveTranslate[iBox]);
                 if (doWiggle) {
                     // we can use the bending move if none of the molecules has more than 3 atoms
@@ -248,10 +280,10 @@ public class SimulationVirialOverlap2 extends Simulation {
                         }
                     }
                     if (doBend) {
-                        mcMoveWiggle[iBox] = new MCMoveClusterAngleBend(potentialMaster, random, 0.5, space);
+                        mcMoveWiggle[iBox] = new MCMoveClusterAngleBend(boxPotentialMaster, boxRandom, 0.5, space);
                     }
                     else {
-                        mcMoveWiggle[iBox] = new MCMoveClusterWiggleMulti(this, potentialMaster, valueClusters[0].pointCount(), space);
+                        mcMoveWiggle[iBox] = new MCMoveClusterWiggleMulti(boxPotentialMaster, boxRandom, 1.0, valueClusters[0].pointCount(), space);
                     }
                     moveManager.addMCMove(mcMoveWiggle[iBox]);
                 }
@@ -278,10 +310,10 @@ public class SimulationVirialOverlap2 extends Simulation {
         }
         
         setRefPref(1,5);
-        integratorOS = new IntegratorOverlap(integrators);
+        integratorOS = doParallel ? new IntegratorOverlapParallel(integrators) : new IntegratorOverlap(integrators);
         integratorOS.setNumSubSteps(1000);
         integratorOS.setEventInterval(1);
-        integratorOS.setAggressiveAdjustStepFraction(true);
+        integratorOS.setAggressiveAdjustStepFraction(!doParallel);
         ai = new ActivityIntegrate(integratorOS);
         getController().addAction(ai);
         
@@ -737,7 +769,7 @@ public class SimulationVirialOverlap2 extends Simulation {
     protected final double temperature;
     protected final ClusterAbstract[] valueClusters;
     protected boolean initialized;
-    protected boolean doWiggle;
+    protected boolean doWiggle, doParallel;
     protected ClusterAbstract[] extraTargetClusters;
     protected final int[] nMolecules;
     protected BoxClusterFactory boxFactory;
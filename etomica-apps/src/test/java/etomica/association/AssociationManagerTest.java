@@ -0,0 +1,260 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.association;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomArrayList;
+import etomica.atom.iterator.AtomIterator;
+import etomica.atom.iterator.AtomIteratorArrayListSimple;
+import etomica.box.Box;
+import etomica.integrator.IntegratorMC;
+import etomica.integrator.mcmove.MCMoveBox;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.simulation.Simulation;
+import etomica.space.ISpace;
+import etomica.space.IVectorRandom;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks the associations and smer statistics kept by AssociationManager
+ * against a recount from scratch, through a random sequence of moves that
+ * form and break associations.
+ */
+public class AssociationManagerTest extends TestCase {
+
+    public static final double RANGE = 1.0;
+
+    /**
+     * Atoms are associated if they are closer than RANGE.
+     */
+    public static class AssociationDefinitionDistance implements AssociationDefinition {
+        public AssociationDefinitionDistance(IBox box, ISpace space) {
+            this.box = box;
+            dr = space.makeVector();
+        }
+        public boolean isAssociated(IAtom atomA, IAtom atomB) {
+            dr.Ev1Mv2(atomA.getPosition(), atomB.getPosition());
+            box.getBoundary().nearestImage(dr);
+            return dr.squared() < RANGE*RANGE;
+        }
+        protected final IBox box;
+        protected final IVectorMutable dr;
+    }
+
+    /**
+     * Move that takes one to three random atoms and places each either next
+     * to another random atom (forming associations) or anywhere in the box
+     * (usually breaking them).  Half of the trials are rejected, which puts
+     * the atoms back.
+     */
+    public static class MCMoveRandomPlacement extends MCMoveBox {
+        public MCMoveRandomPlacement(IPotentialMaster potentialMaster, IRandom random, ISpace space) {
+            super(potentialMaster);
+            this.random = random;
+            dr = (IVectorRandom)space.makeVector();
+            oldPositions = new IVectorMutable[3];
+            for (int i=0; i<oldPositions.length; i++) {
+                oldPositions[i] = space.makeVector();
+            }
+        }
+        public boolean doTrial() {
+            IAtomList leafList = box.getLeafList();
+            int nAtoms = leafList.getAtomCount();
+            int nMove = 1 + random.nextInt(3);
+            movedAtoms.clear();
+            while (movedAtoms.getAtomCount() < nMove) {
+                IAtom atom = leafList.getAtom(random.nextInt(nAtoms));
+                if (movedAtoms.indexOf(atom) == -1) {
+                    movedAtoms.add(atom);
+                }
+            }
+            for (int i=0; i<nMove; i++) {
+                IVectorMutable position = movedAtoms.getAtom(i).getPosition();
+                oldPositions[i].E(position);
+                dr.setRandomCube(random);
+                if (random.nextInt(2) == 0) {
+                    // |dr| < RANGE
+                    dr.TE(RANGE);
+                    position.Ev1Pv2(leafList.getAtom(random.nextInt(nAtoms)).getPosition(), dr);
+                }
+                else {
+                    dr.TE(box.getBoundary().getBoxSize());
+                    position.E(dr);
+                }
+            }
+            return true;
+        }
+        public double getA() {
+            return 0.5;
+        }
+        public double getB() {
+            return 0;
+        }
+        public void acceptNotify() {}
+        public void rejectNotify() {
+            for (int i=0; i<movedAtoms.getAtomCount(); i++) {
+                movedAtoms.getAtom(i).getPosition().E(oldPositions[i]);
+            }
+        }
+        public AtomIterator affectedAtoms() {
+            return affectedAtomIterator;
+        }
+        public double energyChange() {
+            return 0;
+        }
+        protected final IRandom random;
+        protected final IVectorRandom dr;
+        protected final IVectorMutable[] oldPositions;
+        protected final AtomArrayList movedAtoms = new AtomArrayList();
+        protected final AtomIteratorArrayListSimple affectedAtomIterator = new AtomIteratorArrayListSimple(movedAtoms);
+    }
+
+    public void testRandomMoves() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        sim.setRandom(new RandomMersenneTwister(7));
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, RANGE, space);
+        potentialMaster.setCellRange(3);
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.getBoundary().setBoxSize(space.makeVector(new double[]{7, 7, 7}));
+        box.setNMolecules(species, 60);
+        IAtomList leafList = box.getLeafList();
+        IVectorRandom dr = (IVectorRandom)space.makeVector();
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            dr.setRandomCube(sim.getRandom());
+            dr.TE(box.getBoundary().getBoxSize());
+            leafList.getAtom(i).getPosition().E(dr);
+        }
+
+        IntegratorMC integrator = new IntegratorMC(potentialMaster, sim.getRandom(), 1.0);
+        integrator.setBox(box);
+        integrator.getMoveManager().addMCMove(new MCMoveRandomPlacement(potentialMaster, sim.getRandom(), space));
+        potentialMaster.getNbrCellManager(box).assignCellAll();
+        AssociationManager associationManager = new AssociationManager(box, potentialMaster, new AssociationDefinitionDistance(box, space));
+        integrator.getMoveEventManager().addListener(associationManager);
+        // the cells must be updated before the associations.  listeners
+        // added later hear about the move first
+        integrator.getMoveEventManager().addListener(potentialMaster.getNbrCellManager(box).makeMCMoveListener());
+        associationManager.initialize();
+        integrator.reset();
+        checkCounts(box, associationManager);
+
+        int largest = 0, nFormed = 0, nBroken = 0;
+        int oldBonds = countBonds(box, associationManager);
+        for (int i=0; i<3000; i++) {
+            integrator.doStep();
+            checkCounts(box, associationManager);
+            largest = Math.max(largest, associationManager.getMaxSmerSize());
+            int newBonds = countBonds(box, associationManager);
+            if (newBonds > oldBonds) nFormed++;
+            if (newBonds < oldBonds) nBroken++;
+            oldBonds = newBonds;
+        }
+        // the moves formed and broke bonds, and built sizable smers
+        assertTrue(nFormed > 100);
+        assertTrue(nBroken > 100);
+        assertTrue(largest >= 5);
+
+        // starting again from the current configuration gives the same result
+        associationManager.initialize();
+        checkCounts(box, associationManager);
+    }
+
+    protected static int countBonds(IBox box, AssociationManager associationManager) {
+        IAtomList leafList = box.getLeafList();
+        int nBonds = 0;
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            nBonds += associationManager.getAssociatedAtoms(leafList.getAtom(i)).getAtomCount();
+        }
+        return nBonds/2;
+    }
+
+    /**
+     * Checks the associations and the smer statistics of the manager against
+     * those determined from scratch, by testing every pair of atoms and
+     * finding the clusters of associated atoms.
+     */
+    protected static void checkCounts(IBox box, AssociationManager associationManager) {
+        IAtomList leafList = box.getLeafList();
+        int nAtoms = leafList.getAtomCount();
+        AssociationDefinition definition = associationManager.getAssociationDefinition();
+        boolean[][] bonded = new boolean[nAtoms][nAtoms];
+        int[] nBonds = new int[nAtoms];
+        for (int i=0; i<nAtoms; i++) {
+            for (int j=i+1; j<nAtoms; j++) {
+                if (definition.isAssociated(leafList.getAtom(i), leafList.getAtom(j))) {
+                    bonded[i][j] = bonded[j][i] = true;
+                    nBonds[i]++;
+                    nBonds[j]++;
+                }
+            }
+        }
+
+        int nAssociated = 0;
+        for (int i=0; i<nAtoms; i++) {
+            IAtom atom = leafList.getAtom(i);
+            IAtomList bonds = associationManager.getAssociatedAtoms(atom);
+            assertEquals(nBonds[i], bonds.getAtomCount());
+            for (int j=0; j<bonds.getAtomCount(); j++) {
+                assertTrue(bonded[i][bonds.getAtom(j).getLeafIndex()]);
+            }
+            if (nBonds[i] > 0) nAssociated++;
+        }
+        IAtomList associatedAtoms = associationManager.getAssociatedAtoms();
+        assertEquals(nAssociated, associatedAtoms.getAtomCount());
+        for (int i=0; i<associatedAtoms.getAtomCount(); i++) {
+            assertTrue(nBonds[associatedAtoms.getAtom(i).getLeafIndex()] > 0);
+        }
+
+        // label the smers by traversing the bonds from each unlabeled atom
+        int[] smer = new int[nAtoms];
+        int[] smerSize = new int[nAtoms];
+        int[] smerCount = new int[nAtoms+1];
+        int nSmers = 0;
+        Arrays.fill(smer, -1);
+        int[] stack = new int[nAtoms];
+        for (int i=0; i<nAtoms; i++) {
+            if (smer[i] > -1) continue;
+            int nStack = 0;
+            stack[nStack++] = i;
+            smer[i] = nSmers;
+            while (nStack > 0) {
+                int k = stack[--nStack];
+                smerSize[nSmers]++;
+                for (int j=0; j<nAtoms; j++) {
+                    if (bonded[k][j] && smer[j] == -1) {
+                        smer[j] = nSmers;
+                        stack[nStack++] = j;
+                    }
+                }
+            }
+            smerCount[smerSize[nSmers]]++;
+            nSmers++;
+        }
+        int maxSize = 0;
+        for (int s=1; s<=nAtoms; s++) {
+            assertEquals(smerCount[s], associationManager.getSmerCount(s));
+            if (smerCount[s] > 0) maxSize = s;
+        }
+        assertEquals(maxSize, associationManager.getMaxSmerSize());
+        for (int i=0; i<nAtoms; i++) {
+            assertEquals(smerSize[smer[i]], associationManager.getSmerSize(leafList.getAtom(i)));
+        }
+    }
+}
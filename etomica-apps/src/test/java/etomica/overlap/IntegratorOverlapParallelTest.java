@@ -0,0 +1,196 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.overlap;
+
+import junit.framework.TestCase;
+import etomica.api.IIntegrator;
+import etomica.chem.elements.ElementSimple;
+import etomica.data.types.DataGroup;
+import etomica.integrator.IntegratorMC;
+import etomica.potential.P2LennardJones;
+import etomica.potential.Potential2Spherical;
+import etomica.potential.PotentialMaster;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+import etomica.virial.ClusterAbstract;
+import etomica.virial.MayerEHardSphere;
+import etomica.virial.MayerESpherical;
+import etomica.virial.MayerGeneralSpherical;
+import etomica.virial.MayerHardSphere;
+import etomica.virial.cluster.Standard;
+import etomica.virial.simulations.SimulationVirialOverlap2;
+
+/**
+ * Checks that IntegratorOverlapParallel refuses systems that share state,
+ * that it takes exactly the steps IntegratorOverlap would for B3 of
+ * Lennard-Jones (as in VirialLJTest), that a failing system does not hang
+ * the others and that its threads can be stopped.
+ */
+public class IntegratorOverlapParallelTest extends TestCase {
+
+    public void testShared() {
+        PotentialMaster potentialMaster = new PotentialMaster();
+        RandomMersenneTwister random = new RandomMersenneTwister(1);
+        try {
+            new IntegratorOverlapParallel(new IIntegrator[]{new IntegratorMC(potentialMaster, random, 1),
+                    new IntegratorMC(new PotentialMaster(), random, 1)});
+            fail("shared random number generator should be refused");
+        }
+        catch (IllegalArgumentException e) {}
+        try {
+            new IntegratorOverlapParallel(new IIntegrator[]{new IntegratorMC(potentialMaster, random, 1),
+                    new IntegratorMC(potentialMaster, new RandomMersenneTwister(2), 1)});
+            fail("shared PotentialMaster should be refused");
+        }
+        catch (IllegalArgumentException e) {}
+        new IntegratorOverlapParallel(new IIntegrator[]{new IntegratorMC(potentialMaster, random, 1),
+                new IntegratorMC(new PotentialMaster(), new RandomMersenneTwister(2), 1)});
+    }
+
+    public void testVirialLJ() throws InterruptedException {
+        double[] serial = runVirialLJ(false);
+        double[] parallel = runVirialLJ(true);
+        // both agree with the expected value, 0.0604 +/- 0.0036
+        assertEquals(0.0604, serial[0], 0.011);
+        assertEquals(0.0604, parallel[0], 0.011);
+
+        // the worker thread is gone
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("overlap sub-integrator")) {
+                t.join(1000);
+                assertFalse(t.isAlive());
+            }
+        }
+    }
+
+    /**
+     * Without filling idle time, the parallel integrator takes the same steps
+     * as the serial one driving identical (identically seeded) systems, so
+     * the averages must match exactly.
+     */
+    public void testSameAsSerial() {
+        SimulationVirialOverlap2 parallelSim = makeVirialLJ(true);
+        IntegratorOverlapParallel parallel = (IntegratorOverlapParallel)parallelSim.integratorOS;
+        parallel.setFillIdleTime(false);
+        SimulationVirialOverlap2 serialSim = makeVirialLJ(true);
+        IntegratorOverlap serial = new IntegratorOverlap(serialSim.integrators);
+        serial.setNumSubSteps(1000);
+        serial.setReferenceFracSource(serialSim.dvo);
+
+        parallel.reset();
+        serial.reset();
+        for (int i=0; i<100; i++) {
+            parallel.doStep();
+            serial.doStep();
+        }
+        parallel.stopThreads();
+        assertEquals(serial.getRefStepFraction(), parallel.getRefStepFraction());
+        for (int i=0; i<2; i++) {
+            DataGroup serialData = (DataGroup)serialSim.accumulators[i].getData();
+            DataGroup parallelData = (DataGroup)parallelSim.accumulators[i].getData();
+            for (int j=0; j<serialData.getNData(); j++) {
+                for (int k=0; k<serialData.getData(j).getLength(); k++) {
+                    assertEquals(serialData.getData(j).getValue(k), parallelData.getData(j).getValue(k), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * An Error thrown by one system must stop the other (which would otherwise
+     * keep filling idle time) and come back to the caller.
+     */
+    public void testError() throws InterruptedException {
+        IntegratorMC failing = new IntegratorMC(new PotentialMaster(), new RandomMersenneTwister(2), 1) {
+            public void doStepInternal() {
+                if (++nSteps > 10) {
+                    throw new AssertionError("failed");
+                }
+            }
+            int nSteps;
+        };
+        IntegratorMC working = new IntegratorMC(new PotentialMaster(), new RandomMersenneTwister(1), 1) {
+            public void doStepInternal() {}
+        };
+        final IntegratorOverlapParallel integrator = new IntegratorOverlapParallel(new IIntegrator[]{working, failing});
+        integrator.setAdjustStepFraction(false);
+        integrator.setRefStepFraction(0.5);
+        final Throwable[] thrown = new Throwable[1];
+        Thread stepper = new Thread() {
+            public void run() {
+                try {
+                    integrator.doStep();
+                }
+                catch (Throwable e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        stepper.start();
+        stepper.join(10000);
+        integrator.stopThreads();
+        assertFalse("step did not finish", stepper.isAlive());
+        assertTrue(thrown[0] instanceof RuntimeException);
+        Throwable cause = thrown[0];
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        assertTrue(cause instanceof AssertionError);
+    }
+
+    /**
+     * Builds the 3-point Lennard-Jones virial simulation from VirialLJTest,
+     * with a fixed seed.
+     */
+    protected static SimulationVirialOverlap2 makeVirialLJ(boolean doParallel) {
+        final int nPoints = 3;
+        double temperature = 1;
+        double sigmaHSRef = 1.5;
+
+        Space space = Space3D.getInstance();
+
+        MayerHardSphere fRef = new MayerHardSphere(sigmaHSRef);
+        MayerEHardSphere eRef = new MayerEHardSphere(sigmaHSRef);
+        Potential2Spherical pTarget = new P2LennardJones(space,1.0,1.0);
+        MayerGeneralSpherical fTarget = new MayerGeneralSpherical(pTarget);
+        MayerESpherical eTarget = new MayerESpherical(pTarget);
+        ClusterAbstract targetCluster = Standard.virialCluster(nPoints, fTarget, nPoints>3, eTarget, true);
+        targetCluster.setTemperature(temperature);
+        ClusterAbstract refCluster = Standard.virialCluster(nPoints, fRef, nPoints>3, eRef, true);
+        refCluster.setTemperature(temperature);
+
+        SpeciesSpheresMono species = new SpeciesSpheresMono(space, new ElementSimple("LJ"));
+        SimulationVirialOverlap2 sim = new SimulationVirialOverlap2(space, species, nPoints, temperature, refCluster, targetCluster);
+        sim.setRandom(new RandomMersenneTwister(5));
+        sim.setDoParallel(doParallel);
+        sim.init();
+        assertEquals(doParallel, sim.integratorOS instanceof IntegratorOverlapParallel);
+        sim.integratorOS.setNumSubSteps(1000);
+        return sim;
+    }
+
+    /**
+     * Runs the virial simulation (in parallel without filling idle time, so
+     * that the result depends only on the seed) and returns the ratio and its
+     * uncertainty.
+     */
+    protected static double[] runVirialLJ(boolean doParallel) {
+        long steps = 1000;
+        SimulationVirialOverlap2 sim = makeVirialLJ(doParallel);
+        if (doParallel) {
+            ((IntegratorOverlapParallel)sim.integratorOS).setFillIdleTime(false);
+        }
+        sim.initRefPref(null, steps/100);
+        sim.equilibrate(null, steps/40);
+        sim.ai.setMaxSteps(steps);
+        sim.getController().actionPerformed();
+        if (doParallel) {
+            ((IntegratorOverlapParallel)sim.integratorOS).stopThreads();
+        }
+        return sim.dvo.getAverageAndError();
+    }
+}
@@ -0,0 +1,195 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.tmmc;
+
+import junit.framework.TestCase;
+import etomica.api.IAtomType;
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.api.IVectorMutable;
+import etomica.box.Box;
+import etomica.chem.elements.ElementSimple;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.integrator.mcmove.MCMoveAtom;
+import etomica.integrator.mcmove.MCMoveInsertDelete;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.PotentialMaster;
+import etomica.simulation.Simulation;
+import etomica.space.ISpace;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks IntegratorTMMC against the grand-canonical ideal gas, whose
+ * macrostate distribution is known exactly, and checks that the potential
+ * energy it tracks follows the energy of the box.
+ */
+public class IntegratorTMMCTest extends TestCase {
+
+    public static final double VOLUME = 8, TEMPERATURE = 2, MU = 1;
+    public static final int N_MAX = 20;
+
+    /**
+     * Returns ln(P(N)/P(0)) for the ideal gas, N ln(V exp(mu/T)) - ln N!.
+     */
+    public static double idealGasLnP(int n) {
+        double lnP = n*(Math.log(VOLUME) + MU/TEMPERATURE);
+        for (int i=2; i<=n; i++) {
+            lnP -= Math.log(i);
+        }
+        return lnP;
+    }
+
+    /**
+     * Macrostate given by the number of molecules in the box, from 0 to
+     * nMax.
+     */
+    public static class MacrostateManagerN implements MacrostateManager {
+        public MacrostateManagerN(int nMax) {
+            this.nMax = nMax;
+        }
+        public int numberOfStates(IBox box) {
+            return nMax+1;
+        }
+        public int stateIndex(IBox box) {
+            return box.getMoleculeList().getMoleculeCount();
+        }
+        public double state(int i) {
+            return i;
+        }
+        protected final int nMax;
+    }
+
+    /**
+     * Insertion/deletion move that removes the molecule from the box when a
+     * deletion is tried (and puts it back if the deletion is rejected), so
+     * that the macrostate seen by the integrator after doTrial is the trial
+     * state for deletions as well as insertions.
+     */
+    public static class MCMoveInsertDeleteTrialState extends MCMoveInsertDelete {
+        public MCMoveInsertDeleteTrialState(IPotentialMaster potentialMaster, IRandom random, ISpace space) {
+            super(potentialMaster, random, space);
+        }
+        public boolean doTrial() {
+            if (!super.doTrial()) return false;
+            if (!insert) {
+                box.removeMolecule(testMolecule);
+            }
+            return true;
+        }
+        public double getA() {
+            if (insert) return super.getA();
+            // the box already holds N-1 molecules
+            return (box.getNMolecules(species)+1)/box.getBoundary().volume();
+        }
+        public void acceptNotify() {
+            if (insert) {
+                super.acceptNotify();
+                return;
+            }
+            reservoir.add(testMolecule);
+        }
+        public void rejectNotify() {
+            if (insert) {
+                super.rejectNotify();
+                return;
+            }
+            box.addMolecule(testMolecule);
+        }
+    }
+
+    /**
+     * Makes an ideal-gas box for the given integrator (which must not have
+     * a box yet) and adds an insertion/deletion move to it.  The box starts
+     * with nInitial molecules.
+     */
+    public static void setupIdealGas(Simulation sim, SpeciesSpheresMono species, IntegratorTMMC integrator,
+                                     IPotentialMaster potentialMaster, IRandom random, int nInitial) {
+        ISpace space = sim.getSpace();
+        Box box = new Box(space);
+        sim.addBox(box);
+        IVectorMutable dim = space.makeVector();
+        dim.E(Math.cbrt(VOLUME));
+        box.getBoundary().setBoxSize(dim);
+        box.setNMolecules(species, nInitial);
+        integrator.setBox(box);
+        integrator.setMacrostateManager(new MacrostateManagerN(N_MAX));
+        MCMoveInsertDelete move = new MCMoveInsertDeleteTrialState(potentialMaster, random, space);
+        move.setSpecies(species);
+        move.setMu(MU);
+        integrator.getMoveManager().addMCMove(move);
+        integrator.reset();
+    }
+
+    public void testIdealGas() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        PotentialMaster potentialMaster = new PotentialMaster();
+        RandomMersenneTwister random = new RandomMersenneTwister(1);
+        IntegratorTMMC integrator = new IntegratorTMMC(potentialMaster, random, TEMPERATURE);
+        setupIdealGas(sim, species, integrator, potentialMaster, random, 0);
+        integrator.setWeightUpdateInterval(1000);
+        int[] visits = new int[N_MAX+1];
+        for (int i=0; i<400000; i++) {
+            integrator.doStep();
+            visits[integrator.getBox().getMoleculeList().getMoleculeCount()]++;
+        }
+        integrator.updateWeights();
+        // the weights flatten the distribution, so that every state is visited
+        for (int n=0; n<=N_MAX; n++) {
+            assertTrue("N="+n+" visited "+visits[n]+" times", visits[n] > 1000);
+            // the weight is -ln(P(N)/P(0)); acceptance uses ln(A) + B/T
+            assertEquals("N="+n, idealGasLnP(n), -integrator.weight[n], 0.15);
+        }
+    }
+
+    public void testEnergy() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        IAtomType type = species.getLeafType();
+        PotentialMaster potentialMaster = new PotentialMaster();
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        // the long-range correction depends on N, so the energy change of
+        // insertion and deletion would only be approximate
+        p2.setMakeLrc(false);
+        potentialMaster.addPotential(p2, new IAtomType[]{type, type});
+        RandomMersenneTwister random = new RandomMersenneTwister(2);
+        IntegratorTMMC integrator = new IntegratorTMMC(potentialMaster, random, 1.5);
+        integrator.setWeightUpdateInterval(1000);
+        Box box = new Box(space);
+        sim.addBox(box);
+        IVectorMutable dim = space.makeVector();
+        dim.E(6);
+        box.getBoundary().setBoxSize(dim);
+        integrator.setBox(box);
+        integrator.setMacrostateManager(new MacrostateManagerN(40));
+        MCMoveInsertDelete moveID = new MCMoveInsertDeleteTrialState(potentialMaster, random, space);
+        moveID.setSpecies(species);
+        moveID.setMu(-2);
+        integrator.getMoveManager().addMCMove(moveID);
+        integrator.getMoveManager().addMCMove(new MCMoveAtom(random, potentialMaster, space));
+        integrator.reset();
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(potentialMaster);
+        meterPE.setBox(box);
+        boolean interacting = false;
+        for (int i=0; i<50; i++) {
+            for (int j=0; j<400; j++) {
+                integrator.doStep();
+            }
+            double u = meterPE.getDataAsScalar();
+            assertEquals(u, integrator.getPotentialEnergy(), 1e-8*(1+Math.abs(u)));
+            interacting |= u < 0;
+        }
+        assertTrue(interacting);
+    }
+}
@@ -0,0 +1,126 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.tmmc;
+
+import junit.framework.TestCase;
+import etomica.potential.PotentialMaster;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks that walkers confined to overlapping windows stay in their windows
+ * and that together, through the shared TMMCCollectionMatrix, they
+ * reproduce the ideal-gas macrostate distribution across the whole range.
+ */
+public class TMMCMultiWalkerTest extends TestCase {
+
+    public void testMakeWindows() {
+        int nStates = IntegratorTMMCTest.N_MAX+1;
+        for (int nWindows=1; nWindows<6; nWindows++) {
+            int[][] windows = TMMCMultiWalker.makeWindows(nStates, nWindows, 3);
+            assertEquals(0, windows[0][0]);
+            assertEquals(nStates, windows[nWindows-1][1]);
+            for (int i=0; i<nWindows-1; i++) {
+                // adjacent windows share 3 states
+                assertEquals(3, windows[i][1] - windows[i+1][0]);
+                assertTrue(windows[i+1][0] > windows[i][0]);
+            }
+        }
+        try {
+            TMMCMultiWalker.makeWindows(4, 4, 1);
+            fail("windows narrower than one state should be refused");
+        }
+        catch (IllegalArgumentException e) {}
+    }
+
+    /**
+     * Makes an ideal-gas walker confined to the given window, starting at the
+     * bottom of the window.
+     */
+    protected IntegratorTMMCWalker makeWalker(Simulation sim, SpeciesSpheresMono species,
+                                              TMMCCollectionMatrix collectionMatrix, int[] window, int seed) {
+        PotentialMaster potentialMaster = new PotentialMaster();
+        RandomMersenneTwister random = new RandomMersenneTwister(seed);
+        IntegratorTMMCWalker walker = new IntegratorTMMCWalker(potentialMaster, random,
+                IntegratorTMMCTest.TEMPERATURE, collectionMatrix);
+        walker.setWeightUpdateInterval(100);
+        // reset checks the window, so set it up before the box is filled
+        IntegratorTMMCTest.setupIdealGas(sim, species, walker, potentialMaster, random, 0);
+        walker.setWindow(window[0], window[1]);
+        walker.getBox().setNMolecules(species, window[0]);
+        walker.reset();
+        return walker;
+    }
+
+    public void testWindows() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        TMMCCollectionMatrix collectionMatrix = new TMMCCollectionMatrix(IntegratorTMMCTest.N_MAX+1);
+        collectionMatrix.setWeightUpdateInterval(1000);
+        IntegratorTMMCWalker walker = makeWalker(sim, species, collectionMatrix, new int[]{5, 12}, 1);
+        for (int i=0; i<20000; i++) {
+            walker.doStep();
+            int n = walker.getBox().getMoleculeList().getMoleculeCount();
+            assertTrue("N="+n, n >= 5 && n < 12);
+        }
+        walker.flush();
+        // moves out of the window were recorded (as attempts from 4 and 11),
+        // but nothing outside of it
+        double[] c = collectionMatrix.getCollectionMatrix();
+        assertTrue(c[3*5] > 0);
+        assertTrue(c[3*11+2] > 0);
+        for (int n=0; n<=IntegratorTMMCTest.N_MAX; n++) {
+            double h = c[3*n] + c[3*n+1] + c[3*n+2];
+            assertEquals("N="+n, n >= 5 && n < 12, h > 0);
+        }
+
+        try {
+            walker.setWindow(3, 3);
+            fail("empty window should be refused");
+        }
+        catch (IllegalArgumentException e) {}
+        walker.setWindow(0, 5);
+        try {
+            walker.reset();
+            fail("box outside its window should be refused");
+        }
+        catch (RuntimeException e) {}
+    }
+
+    public void testIdealGas() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        int nStates = IntegratorTMMCTest.N_MAX+1;
+        TMMCCollectionMatrix collectionMatrix = new TMMCCollectionMatrix(nStates, 4);
+        collectionMatrix.setWeightUpdateInterval(1000);
+        TMMCMultiWalker multiWalker = new TMMCMultiWalker(collectionMatrix);
+        int[][] windows = TMMCMultiWalker.makeWindows(nStates, 4, 2);
+        for (int i=0; i<windows.length; i++) {
+            multiWalker.addWalker(makeWalker(sim, species, collectionMatrix, windows[i], i+1));
+        }
+        multiWalker.setNumThreads(2);
+        for (int i=0; i<80; i++) {
+            multiWalker.doSteps(10000);
+        }
+        assertEquals(4*80*10000, collectionMatrix.getTransitionCount());
+        // the windows are stitched together by the transitions they share.
+        // the statistical error of ln(P) accumulates along N, and depends on
+        // how the threads happen to interleave; over repeated runs the
+        // largest deviation is up to 0.05
+        double[] lnP = collectionMatrix.getLnProbability();
+        double[] weight = collectionMatrix.getWeights();
+        for (int n=0; n<nStates; n++) {
+            assertEquals("N="+n, IntegratorTMMCTest.idealGasLnP(n), lnP[n], 0.1);
+            assertEquals("N="+n, lnP[n], -weight[n], 1e-10);
+        }
+    }
+}
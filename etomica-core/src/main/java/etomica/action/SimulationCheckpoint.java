@@ -0,0 +1,432 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.action;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+import etomica.api.IAtom;
+import etomica.api.IAtomKinetic;
+import etomica.api.IAtomList;
+import etomica.api.IBoundary;
+import etomica.api.IBox;
+import etomica.api.IMoleculeList;
+import etomica.api.ISimulation;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.space.BoundaryDeformablePeriodic;
+import etomica.space.Space;
+import etomica.util.ICheckpointable;
+
+/**
+ * Action that writes a checkpoint of a running simulation, from which the
+ * simulation can later be restarted.  The checkpoint holds, for each box of
+ * the simulation, the boundary dimensions, the number of molecules of each
+ * species and the positions (and velocities, if the atoms have them) of all
+ * atoms; the state of the simulation's random number generator (if it is
+ * ICheckpointable); and the state of any other ICheckpointable objects
+ * (integrators, accumulators) added with addCheckpointable.
+ * <p>
+ * The state is first written to a buffer in memory, which is the only work
+ * done by the thread calling actionPerformed (typically the integrator
+ * thread, via an IntegratorListenerAction).  By default the buffer is then
+ * written to the file by a background thread.  The file is written under a
+ * temporary name and then renamed, so an existing checkpoint is replaced
+ * only by a complete one.
+ * <p>
+ * To restart, construct the simulation exactly as before (same species,
+ * boxes, integrators, moves and accumulators, added in the same order),
+ * create a SimulationCheckpoint with the same objects added, call restore
+ * and then run as usual.  The integrators' reset methods (called when the
+ * activity starts) recompute energies and forces from the restored
+ * configuration.  The restarted simulation then generates the same
+ * trajectory that the original would have, except that anything rebuilt by
+ * reset (such as neighbor lists) may sum contributions in a different order
+ * and so differ in the last bits.
+ * <p>
+ * The integrators save the number of steps since each of their interval
+ * listeners (data pumps and the like) last fired, so the checkpoint can be
+ * taken at any step.  When the checkpoint is taken by a listener of the
+ * integrator, that listener should be added after all of the others, so that
+ * they have all finished the step when the snapshot is taken.
+ * <p>
+ * The file begins with the int MAGIC and the int format VERSION.  Each
+ * section that follows (one per box, then one per checkpointable object) is
+ * tagged with the name of the class that wrote it and its length in bytes.
+ * Numbers are big-endian.
+ */
+public class SimulationCheckpoint implements IAction {
+
+    public SimulationCheckpoint(ISimulation sim, String fileName) {
+        this.sim = sim;
+        this.fileName = fileName;
+        checkpointables = new ArrayList<ICheckpointable>();
+        if (sim.getRandom() instanceof ICheckpointable) {
+            checkpointables.add((ICheckpointable)sim.getRandom());
+        }
+        buffer = new ByteArrayOutputStream();
+        sectionBuffer = new ByteArrayOutputStream();
+        setWriteInBackground(true);
+    }
+
+    /**
+     * Adds an object whose state should be included in the checkpoint.
+     * Objects are saved and restored in the order they are added.
+     */
+    public void addCheckpointable(ICheckpointable newCheckpointable) {
+        checkpointables.add(newCheckpointable);
+    }
+
+    public void removeCheckpointable(ICheckpointable oldCheckpointable) {
+        checkpointables.remove(oldCheckpointable);
+    }
+
+    public void setFileName(String newFileName) {
+        fileName = newFileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Sets whether the file is written by a background thread (true by
+     * default).  If false, actionPerformed returns only after the file has
+     * been written.
+     */
+    public void setWriteInBackground(boolean newWriteInBackground) {
+        writeInBackground = newWriteInBackground;
+    }
+
+    public boolean isWriteInBackground() {
+        return writeInBackground;
+    }
+
+    /**
+     * Takes a snapshot of the simulation state and writes it to the file.  If
+     * the file from the previous checkpoint is still being written, this
+     * method waits for it to finish first.
+     */
+    public void actionPerformed() {
+        waitForWrite();
+        byte[] snapshot;
+        try {
+            snapshot = takeSnapshot();
+        }
+        catch (IOException e) {
+            // we're writing to memory
+            throw new RuntimeException(e);
+        }
+        if (!writeInBackground) {
+            try {
+                writeFile(snapshot);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        if (writerThread == null) {
+            writerThread = new Thread(new Runnable() {
+                public void run() {
+                    writeLoop();
+                }
+            });
+            writerThread.setName("SimulationCheckpoint writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+        synchronized (this) {
+            pending = snapshot;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the most recent checkpoint has been written to the file.
+     * If writing it failed, the exception is rethrown here.
+     */
+    public synchronized void waitForWrite() {
+        while (pending != null) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (writerException != null) {
+            Throwable t = writerException;
+            writerException = null;
+            throw new RuntimeException("failed to write checkpoint "+fileName, t);
+        }
+    }
+
+    /**
+     * Restores the simulation state from the checkpoint file.  This should be
+     * called after the simulation is constructed and before it runs.
+     */
+    public void restore() throws IOException {
+        FileChannel channel = new FileInputStream(fileName).getChannel();
+        byte[] bytes;
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int)channel.size());
+            while (buf.hasRemaining() && channel.read(buf) >= 0) {}
+            bytes = buf.array();
+        }
+        finally {
+            channel.close();
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC) {
+            throw new IOException(fileName+" is not a checkpoint file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported checkpoint version "+version);
+        }
+        int nBoxes = in.readInt();
+        if (nBoxes != sim.getBoxCount()) {
+            throw new IOException("checkpoint has "+nBoxes+" boxes, but simulation has "+sim.getBoxCount());
+        }
+        for (int i=0; i<nBoxes; i++) {
+            IBox box = sim.getBox(i);
+            DataInputStream section = readSection(in, box);
+            restoreBox(section, box);
+            checkSectionDone(section, box);
+        }
+        int nCheckpointables = in.readInt();
+        if (nCheckpointables != checkpointables.size()) {
+            throw new IOException("checkpoint has "+nCheckpointables+" objects, but "+checkpointables.size()+" were added");
+        }
+        for (int i=0; i<nCheckpointables; i++) {
+            ICheckpointable c = checkpointables.get(i);
+            DataInputStream section = readSection(in, c);
+            c.restoreState(section);
+            checkSectionDone(section, c);
+        }
+    }
+
+    /**
+     * Writes the state of everything to a byte array.
+     */
+    protected byte[] takeSnapshot() throws IOException {
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sim.getBoxCount());
+        DataOutputStream sectionOut = new DataOutputStream(sectionBuffer);
+        for (int i=0; i<sim.getBoxCount(); i++) {
+            IBox box = sim.getBox(i);
+            sectionBuffer.reset();
+            saveBox(sectionOut, box);
+            writeSection(out, box);
+        }
+        out.writeInt(checkpointables.size());
+        for (int i=0; i<checkpointables.size(); i++) {
+            ICheckpointable c = checkpointables.get(i);
+            sectionBuffer.reset();
+            c.saveState(sectionOut);
+            writeSection(out, c);
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    protected void writeSection(DataOutputStream out, Object owner) throws IOException {
+        out.writeUTF(owner.getClass().getName());
+        out.writeInt(sectionBuffer.size());
+        sectionBuffer.writeTo(out);
+    }
+
+    protected DataInputStream readSection(DataInputStream in, Object owner) throws IOException {
+        String className = in.readUTF();
+        if (!className.equals(owner.getClass().getName())) {
+            throw new IOException("checkpoint has "+className+" where "+owner.getClass().getName()+" was expected");
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    protected void checkSectionDone(DataInputStream section, Object owner) throws IOException {
+        if (section.available() != 0) {
+            throw new IOException(owner.getClass().getName()+" did not read all of its checkpoint data");
+        }
+    }
+
+    /**
+     * Writes the boundary, molecule counts and atom coordinates of the box.
+     * Atoms are visited species by species, molecule by molecule, so that
+     * the molecules end up in the same order within each species' list.
+     */
+    protected void saveBox(DataOutput out, IBox box) throws IOException {
+        IBoundary boundary = box.getBoundary();
+        int dim = boundary.getBoxSize().getD();
+        boolean deformable = boundary instanceof BoundaryDeformablePeriodic;
+        out.writeBoolean(deformable);
+        if (deformable) {
+            for (int i=0; i<dim; i++) {
+                writeVector(out, boundary.getEdgeVector(i));
+            }
+        }
+        else {
+            writeVector(out, boundary.getBoxSize());
+        }
+        int nSpecies = sim.getSpeciesCount();
+        out.writeInt(nSpecies);
+        for (int i=0; i<nSpecies; i++) {
+            out.writeInt(box.getNMolecules(sim.getSpecies(i)));
+        }
+        IAtomList leafList = box.getLeafList();
+        boolean kinetic = leafList.getAtomCount() > 0 && leafList.getAtom(0) instanceof IAtomKinetic;
+        out.writeBoolean(kinetic);
+        for (int i=0; i<nSpecies; i++) {
+            IMoleculeList molecules = box.getMoleculeList(sim.getSpecies(i));
+            for (int j=0; j<molecules.getMoleculeCount(); j++) {
+                IAtomList atoms = molecules.getMolecule(j).getChildList();
+                for (int k=0; k<atoms.getAtomCount(); k++) {
+                    IAtom a = atoms.getAtom(k);
+                    writeVector(out, a.getPosition());
+                    if (kinetic) {
+                        writeVector(out, ((IAtomKinetic)a).getVelocity());
+                    }
+                }
+            }
+        }
+    }
+
+    protected void restoreBox(DataInput in, IBox box) throws IOException {
+        IBoundary boundary = box.getBoundary();
+        int dim = boundary.getBoxSize().getD();
+        IVectorMutable v = Space.makeVector(dim);
+        if (in.readBoolean()) {
+            if (!(boundary instanceof BoundaryDeformablePeriodic)) {
+                throw new IOException("checkpoint has a deformable boundary, but box has "+boundary.getClass().getName());
+            }
+            for (int i=0; i<dim; i++) {
+                readVector(in, v);
+                ((BoundaryDeformablePeriodic)boundary).setEdgeVector(i, v);
+            }
+        }
+        else {
+            readVector(in, v);
+            boundary.setBoxSize(v);
+        }
+        int nSpecies = in.readInt();
+        if (nSpecies != sim.getSpeciesCount()) {
+            throw new IOException("checkpoint has "+nSpecies+" species, but simulation has "+sim.getSpeciesCount());
+        }
+        for (int i=0; i<nSpecies; i++) {
+            box.setNMolecules(sim.getSpecies(i), in.readInt());
+        }
+        boolean kinetic = in.readBoolean();
+        for (int i=0; i<nSpecies; i++) {
+            IMoleculeList molecules = box.getMoleculeList(sim.getSpecies(i));
+            for (int j=0; j<molecules.getMoleculeCount(); j++) {
+                IAtomList atoms = molecules.getMolecule(j).getChildList();
+                for (int k=0; k<atoms.getAtomCount(); k++) {
+                    IAtom a = atoms.getAtom(k);
+                    readVector(in, a.getPosition());
+                    if (kinetic) {
+                        readVector(in, ((IAtomKinetic)a).getVelocity());
+                    }
+                }
+            }
+        }
+    }
+
+    protected static void writeVector(DataOutput out, IVector v) throws IOException {
+        for (int i=0; i<v.getD(); i++) {
+            out.writeDouble(v.getX(i));
+        }
+    }
+
+    protected static void readVector(DataInput in, IVectorMutable v) throws IOException {
+        for (int i=0; i<v.getD(); i++) {
+            v.setX(i, in.readDouble());
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and then moves it into place.
+     */
+    protected void writeFile(byte[] snapshot) throws IOException {
+        File file = new File(fileName);
+        File tmpFile = new File(fileName+".tmp");
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            FileChannel channel = fos.getChannel();
+            ByteBuffer buf = ByteBuffer.wrap(snapshot);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        finally {
+            fos.close();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Main loop of the writer thread.
+     */
+    protected void writeLoop() {
+        while (true) {
+            byte[] snapshot;
+            synchronized (this) {
+                while (pending == null) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                snapshot = pending;
+            }
+            Throwable exception = null;
+            try {
+                writeFile(snapshot);
+            }
+            catch (Throwable e) {
+                exception = e;
+            }
+            synchronized (this) {
+                writerException = exception;
+                pending = null;
+                notifyAll();
+            }
+        }
+    }
+
+    public static final int MAGIC = 0x45434b50; // "ECKP"
+    public static final int VERSION = 2;
+
+    protected final ISimulation sim;
+    protected String fileName;
+    protected final ArrayList<ICheckpointable> checkpointables;
+    protected boolean writeInBackground;
+    protected final ByteArrayOutputStream buffer, sectionBuffer;
+    protected Thread writerThread;
+    // snapshot waiting to be written (or being written); guarded by this
+    protected byte[] pending;
+    protected Throwable writerException;
+}
@@ -0,0 +1,51 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.api;
+
+/**
+ * Event describing all changes made to a box during a batch.  Indices
+ * called "old" are those from before the batch began.  Molecules that were
+ * both added and removed during the batch do not appear at all.
+ */
+public interface IBoxBatchEvent extends IBoxEvent {
+
+    /**
+     * Returns the molecules added to the box during the batch.
+     */
+    public IMoleculeList getAddedMolecules();
+
+    /**
+     * Returns the molecules removed from the box during the batch.
+     */
+    public IMoleculeList getRemovedMolecules();
+
+    /**
+     * Returns the old index of each removed molecule.
+     */
+    public int[] getRemovedMoleculeIndices();
+
+    /**
+     * Returns the old leaf index of each leaf atom of the removed molecules,
+     * molecule by molecule in the order of their child lists.
+     */
+    public int[] getRemovedLeafIndices();
+
+    /**
+     * Returns, for each leaf index, the old leaf index of the atom that now
+     * has it, or -1 if the atom was added during the batch.
+     */
+    public int[] getOldLeafIndices();
+
+    public int getOldLeafCount();
+
+    /**
+     * Returns, for each index of molecules of the given species, the old
+     * index of the molecule that now has it, or -1 if the molecule was added
+     * during the batch.
+     */
+    public int[] getOldMoleculeIndices(ISpecies species);
+
+    public int getOldMoleculeCount(ISpecies species);
+}
@@ -0,0 +1,15 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.api;
+
+/**
+ * Box listener that can handle a batch of changes to the box at once.  While
+ * the box is in a batch, the listener receives none of the usual events;
+ * instead, it is notified once when the batch is committed.
+ */
+public interface IBoxBatchListener extends IBoxListener {
+
+    public void boxBatchCommitted(IBoxBatchEvent e);
+}
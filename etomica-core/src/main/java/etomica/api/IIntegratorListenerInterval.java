@@ -0,0 +1,44 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.api;
+
+/**
+ * Listener that only does something every few integrator steps.  An event
+ * manager that recognizes this interface will advance the listener's step
+ * count itself and invoke integratorIntervalFinished at the end of every
+ * interval-th step instead of calling integratorStepStarted and
+ * integratorStepFinished for every step.  The listener still must count
+ * steps itself when its integratorStepStarted and integratorStepFinished
+ * methods are called.  Either way the count is kept by the listener, so it
+ * survives removing the listener and adding it again.
+ */
+public interface IIntegratorListenerInterval extends IIntegratorListener {
+
+    /**
+     * Returns the number of steps between calls to
+     * integratorIntervalFinished.  The event manager reads this every step,
+     * so a change in the interval takes effect immediately: the listener is
+     * invoked at the end of the next step if the new interval has already
+     * passed since it was last invoked.
+     */
+    public long getEventInterval();
+
+    /**
+     * Returns the number of steps since the listener was last invoked.
+     */
+    public long getIntervalCount();
+
+    /**
+     * Sets the number of steps since the listener was last invoked.
+     */
+    public void setIntervalCount(long newIntervalCount);
+
+    /**
+     * Invoked at the end of every interval-th step.  The listener should
+     * reset its step count to 0.
+     */
+    public void integratorIntervalFinished();
+
+}
@@ -10,10 +10,13 @@ import java.lang.reflect.Array;
 import etomica.api.IAtom;
 import etomica.api.IAtomList;
 import etomica.api.IBox;
+import etomica.api.IBoxBatchEvent;
+import etomica.api.IBoxBatchListener;
 import etomica.api.IBoxAtomIndexEvent;
 import etomica.api.IBoxIndexEvent;
 import etomica.api.IBoxMoleculeEvent;
 import etomica.api.IMolecule;
+import etomica.api.IMoleculeList;
 import etomica.box.BoxListenerAdapter;
 import etomica.util.Arrays;
 
@@ -23,10 +26,14 @@ import etomica.util.Arrays;
  * removed from the box, the agents array (indexed by the atom's global
  * index) is updated.  The client can access and modify the agents via getAgent
  * and setAgent.
+ * <p>
+ * Changes made to the box in a batch are handled all at once: the agents
+ * array is rebuilt in its new order, agents are released for removed atoms
+ * and then made for added atoms.
  * 
  * @author Andrew Schultz
  */
-public class AtomLeafAgentManager<E> extends BoxListenerAdapter implements Serializable {
+public class AtomLeafAgentManager<E> extends BoxListenerAdapter implements IBoxBatchListener, Serializable {
     
     public AtomLeafAgentManager(AgentSource<E> source, IBox box, Class agentClass) {
         agentSource = source;
@@ -179,6 +186,43 @@ public class AtomLeafAgentManager<E> extends BoxListenerAdapter implements Seria
         }
     }
     
+    public void boxBatchCommitted(IBoxBatchEvent e) {
+        IMoleculeList removedMolecules = e.getRemovedMolecules();
+        int[] removedLeafIndices = e.getRemovedLeafIndices();
+        int k = 0;
+        for (int i=0; i<removedMolecules.getMoleculeCount(); i++) {
+            IAtomList childList = removedMolecules.getMolecule(i).getChildList();
+            for (int iChild = 0; iChild < childList.getAtomCount(); iChild++) {
+                int index = removedLeafIndices[k++];
+                if (agents[index] != null && agentSource != null) {
+                    agentSource.releaseAgent(agents[index], childList.getAtom(iChild), box);
+                }
+            }
+        }
+        int[] oldLeafIndices = e.getOldLeafIndices();
+        int nLeaf = oldLeafIndices.length;
+        int length = agents.length;
+        if (length < nLeaf+1 || length > nLeaf+reservoirSize) {
+            length = nLeaf+1+reservoirSize;
+        }
+        // agentClass is the class of E, so the new array is an E[]
+        @SuppressWarnings("unchecked")
+        E[] newAgents = (E[])Array.newInstance(agentClass, length);
+        for (int i=0; i<nLeaf; i++) {
+            int oldIndex = oldLeafIndices[i];
+            if (oldIndex > -1) {
+                newAgents[i] = agents[oldIndex];
+            }
+        }
+        agents = newAgents;
+        IAtomList leafList = box.getLeafList();
+        for (int i=0; i<nLeaf; i++) {
+            if (oldLeafIndices[i] == -1) {
+                addAgent(leafList.getAtom(i), i);
+            }
+        }
+    }
+
     /**
      * Adds an agent for the given leaf atom to the agents array.
      */
@@ -0,0 +1,299 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.atom;
+
+import etomica.api.IAtom;
+import etomica.api.IAtomKinetic;
+import etomica.api.IAtomList;
+import etomica.api.IBox;
+import etomica.api.IBoxAtomIndexEvent;
+import etomica.api.IBoxBatchEvent;
+import etomica.api.IBoxBatchListener;
+import etomica.api.IBoxIndexEvent;
+import etomica.api.IBoxMoleculeEvent;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.box.BoxListenerAdapter;
+
+/**
+ * Structure-of-arrays copy of the coordinates of the leaf atoms in a box.
+ * Positions, velocities and forces are held in contiguous double arrays, one
+ * per dimension, indexed by leaf index (so x[i] is the x coordinate of the
+ * atom with leaf index i).  The reciprocal mass of each atom is also kept.
+ * Loops over these arrays touch memory sequentially and can be vectorized by
+ * the JIT, unlike loops that visit each atom's position vector.
+ * <p>
+ * The arrays and the atoms' own vectors are synchronized explicitly with
+ * gatherPositions/scatterPositions (and the velocity equivalents).  Code that
+ * moves the atoms by changing the position arrays can call
+ * invalidateAtomPositions instead of copying them back every time;
+ * updateAtomPositions then copies them only when something needs to read the
+ * atoms.  Forces exist only in the arrays.  Like
+ * AtomLeafAgentManager, this class listens to the box and keeps the arrays
+ * consistent as atoms are added, removed or have their leaf index changed,
+ * permuting the arrays in one pass for changes made to the box in a batch.
+ */
+public class AtomLeafCoordinateArrays extends BoxListenerAdapter implements IBoxBatchListener, java.io.Serializable {
+
+    /**
+     * @param box the box whose leaf atoms should be tracked
+     * @param doVelocities whether velocity arrays should be kept.  The box's
+     *                     atoms must be IAtomKinetic if true.
+     */
+    public AtomLeafCoordinateArrays(IBox box, boolean doVelocities) {
+        this.box = box;
+        this.doVelocities = doVelocities;
+        dim = box.getBoundary().getBoxSize().getD();
+        reservoirSize = 30;
+        r = new double[dim][0];
+        v = new double[dim][0];
+        f = new double[dim][0];
+        rm = new double[0];
+        box.getEventManager().addListener(this);
+        ensureCapacity(box.getLeafList().getAtomCount());
+        IAtomList leafList = box.getLeafList();
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            copyAtom(leafList.getAtom(i), i);
+        }
+    }
+
+    public IBox getBox() {
+        return box;
+    }
+
+    /**
+     * Returns the position arrays, indexed as [dimension][leaf index].
+     * The outer array is fixed, but the array for each dimension is replaced
+     * when it needs to grow, so it should be retrieved again after atoms are
+     * added to the box.
+     */
+    public double[][] getPositions() {
+        return r;
+    }
+
+    /**
+     * Returns the velocity arrays, indexed as [dimension][leaf index].
+     */
+    public double[][] getVelocities() {
+        return v;
+    }
+
+    /**
+     * Returns the force arrays, indexed as [dimension][leaf index].
+     */
+    public double[][] getForces() {
+        return f;
+    }
+
+    /**
+     * Returns the reciprocal mass of each atom, indexed by leaf index.
+     */
+    public double[] getRm() {
+        return rm;
+    }
+
+    /**
+     * Copies the positions of all leaf atoms into the position arrays.
+     */
+    public void gatherPositions() {
+        IAtomList leafList = box.getLeafList();
+        int n = leafList.getAtomCount();
+        for (int i=0; i<n; i++) {
+            IVector p = leafList.getAtom(i).getPosition();
+            for (int k=0; k<dim; k++) {
+                r[k][i] = p.getX(k);
+            }
+        }
+        atomPositionsStale = false;
+    }
+
+    /**
+     * Copies the position arrays back to the leaf atoms' position vectors.
+     */
+    public void scatterPositions() {
+        IAtomList leafList = box.getLeafList();
+        int n = leafList.getAtomCount();
+        for (int i=0; i<n; i++) {
+            IVectorMutable p = leafList.getAtom(i).getPosition();
+            for (int k=0; k<dim; k++) {
+                p.setX(k, r[k][i]);
+            }
+        }
+        atomPositionsStale = false;
+    }
+
+    /**
+     * Notes that the position arrays have changed and the atoms' positions
+     * are out of date.
+     */
+    public void invalidateAtomPositions() {
+        atomPositionsStale = true;
+    }
+
+    /**
+     * Returns true if the position arrays have changed since the atoms'
+     * positions were last updated.
+     */
+    public boolean isAtomPositionsStale() {
+        return atomPositionsStale;
+    }
+
+    /**
+     * Copies the position arrays to the atoms, if the atoms are out of date.
+     */
+    public void updateAtomPositions() {
+        if (atomPositionsStale) {
+            scatterPositions();
+        }
+    }
+
+    /**
+     * Copies the velocities of all leaf atoms into the velocity arrays.
+     */
+    public void gatherVelocities() {
+        IAtomList leafList = box.getLeafList();
+        int n = leafList.getAtomCount();
+        for (int i=0; i<n; i++) {
+            IVector p = ((IAtomKinetic)leafList.getAtom(i)).getVelocity();
+            for (int k=0; k<dim; k++) {
+                v[k][i] = p.getX(k);
+            }
+        }
+    }
+
+    /**
+     * Copies the velocity arrays back to the leaf atoms' velocity vectors.
+     */
+    public void scatterVelocities() {
+        IAtomList leafList = box.getLeafList();
+        int n = leafList.getAtomCount();
+        for (int i=0; i<n; i++) {
+            IVectorMutable p = ((IAtomKinetic)leafList.getAtom(i)).getVelocity();
+            for (int k=0; k<dim; k++) {
+                p.setX(k, v[k][i]);
+            }
+        }
+    }
+
+    /**
+     * Sets all forces to zero.
+     */
+    public void zeroForces() {
+        int n = box.getLeafList().getAtomCount();
+        for (int k=0; k<dim; k++) {
+            java.util.Arrays.fill(f[k], 0, n, 0.0);
+        }
+    }
+
+    /**
+     * Disconnects this object from the box.
+     */
+    public void dispose() {
+        box.getEventManager().removeListener(this);
+    }
+
+    public void boxMoleculeAdded(IBoxMoleculeEvent e) {
+        IAtomList childList = e.getMolecule().getChildList();
+        for (int iChild = 0; iChild < childList.getAtomCount(); iChild++) {
+            IAtom a = childList.getAtom(iChild);
+            ensureCapacity(a.getLeafIndex()+1);
+            copyAtom(a, a.getLeafIndex());
+        }
+    }
+
+    public void boxAtomLeafIndexChanged(IBoxAtomIndexEvent e) {
+        int oldIndex = e.getIndex();
+        int newIndex = e.getAtom().getLeafIndex();
+        for (int k=0; k<dim; k++) {
+            r[k][newIndex] = r[k][oldIndex];
+            f[k][newIndex] = f[k][oldIndex];
+            if (doVelocities) {
+                v[k][newIndex] = v[k][oldIndex];
+            }
+        }
+        rm[newIndex] = rm[oldIndex];
+    }
+
+    public void boxBatchCommitted(IBoxBatchEvent e) {
+        int[] oldLeafIndices = e.getOldLeafIndices();
+        int n = oldLeafIndices.length;
+        int length = rm.length;
+        if (length < n || length > n+reservoirSize) {
+            length = n+reservoirSize;
+        }
+        for (int k=0; k<dim; k++) {
+            r[k] = permute(r[k], oldLeafIndices, length);
+            f[k] = permute(f[k], oldLeafIndices, length);
+            if (doVelocities) {
+                v[k] = permute(v[k], oldLeafIndices, length);
+            }
+        }
+        rm = permute(rm, oldLeafIndices, length);
+        IAtomList leafList = box.getLeafList();
+        for (int i=0; i<n; i++) {
+            if (oldLeafIndices[i] == -1) {
+                copyAtom(leafList.getAtom(i), i);
+            }
+        }
+    }
+
+    protected static double[] permute(double[] x, int[] oldIndices, int length) {
+        double[] newX = new double[length];
+        for (int i=0; i<oldIndices.length; i++) {
+            if (oldIndices[i] > -1) {
+                newX[i] = x[oldIndices[i]];
+            }
+        }
+        return newX;
+    }
+
+    public void boxGlobalAtomLeafIndexChanged(IBoxIndexEvent e) {
+        int newMaxIndex = e.getIndex();
+        if (rm.length > newMaxIndex+reservoirSize || rm.length < newMaxIndex) {
+            resize(newMaxIndex+1+reservoirSize);
+        }
+    }
+
+    protected void copyAtom(IAtom a, int i) {
+        IVector p = a.getPosition();
+        for (int k=0; k<dim; k++) {
+            r[k][i] = p.getX(k);
+            f[k][i] = 0;
+        }
+        if (doVelocities) {
+            IVector vel = ((IAtomKinetic)a).getVelocity();
+            for (int k=0; k<dim; k++) {
+                v[k][i] = vel.getX(k);
+            }
+        }
+        rm[i] = a.getType().rm();
+    }
+
+    protected void ensureCapacity(int n) {
+        if (rm.length < n) {
+            resize(n+reservoirSize);
+        }
+    }
+
+    protected void resize(int n) {
+        for (int k=0; k<dim; k++) {
+            r[k] = java.util.Arrays.copyOf(r[k], n);
+            f[k] = java.util.Arrays.copyOf(f[k], n);
+            if (doVelocities) {
+                v[k] = java.util.Arrays.copyOf(v[k], n);
+            }
+        }
+        rm = java.util.Arrays.copyOf(rm, n);
+    }
+
+    private static final long serialVersionUID = 1L;
+    protected final IBox box;
+    protected final boolean doVelocities;
+    protected final int dim;
+    protected final int reservoirSize;
+    protected final double[][] r, v, f;
+    protected double[] rm;
+    protected boolean atomPositionsStale;
+}
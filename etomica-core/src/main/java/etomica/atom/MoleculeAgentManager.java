@@ -11,7 +11,8 @@ import etomica.api.IBox;
 import etomica.api.IBoxAtomEvent;
 import etomica.api.IBoxAtomIndexEvent;
 import etomica.api.IBoxIndexEvent;
-import etomica.api.IBoxListener;
+import etomica.api.IBoxBatchEvent;
+import etomica.api.IBoxBatchListener;
 import etomica.api.IBoxMoleculeCountEvent;
 import etomica.api.IBoxMoleculeEvent;
 import etomica.api.IBoxMoleculeIndexEvent;
@@ -30,11 +31,11 @@ import etomica.util.Arrays;
  * MoleculeAgentManager acts on behalf of client classes (an AgentSource) to
  * manage agents in every IMolecule in a box.  When molecules are added or
  * removed from the box, the agents array (indexed by the atom's global index)
- * is updated.
+ * is updated.  Changes made to the box in a batch are handled all at once.
  * 
  * @author Andrew Schultz
  */
-public class MoleculeAgentManager implements IBoxListener, ISimulationListener, Serializable {
+public class MoleculeAgentManager implements IBoxBatchListener, ISimulationListener, Serializable {
 
     public MoleculeAgentManager(ISimulation sim, IBox box, MoleculeAgentSource source) {
         agentSource = source;
@@ -174,6 +175,37 @@ public class MoleculeAgentManager implements IBoxListener, ISimulationListener,
         }
     }
     
+    public void boxBatchCommitted(IBoxBatchEvent e) {
+        IMoleculeList removedMolecules = e.getRemovedMolecules();
+        int[] removedIndices = e.getRemovedMoleculeIndices();
+        for (int i=0; i<removedMolecules.getMoleculeCount(); i++) {
+            IMolecule mole = removedMolecules.getMolecule(i);
+            Object agent = agents[mole.getType().getIndex()][removedIndices[i]];
+            if (agent != null) {
+                agentSource.releaseAgent(agent, mole);
+            }
+        }
+        for (int i=0; i<agents.length; i++) {
+            int[] oldIndices = e.getOldMoleculeIndices(sim.getSpecies(i));
+            int n = oldIndices.length;
+            int length = agents[i].length;
+            if (length < n || length > n+reservoirSize) {
+                length = n+reservoirSize;
+            }
+            Object[] newAgents = (Object[])Array.newInstance(agentSource.getMoleculeAgentClass(), length);
+            for (int j=0; j<n; j++) {
+                if (oldIndices[j] > -1) {
+                    newAgents[j] = agents[i][oldIndices[j]];
+                }
+            }
+            agents[i] = newAgents;
+        }
+        IMoleculeList addedMolecules = e.getAddedMolecules();
+        for (int i=0; i<addedMolecules.getMoleculeCount(); i++) {
+            addAgent(addedMolecules.getMolecule(i));
+        }
+    }
+
     public void boxAtomAdded(IBoxAtomEvent e) {}
     public void boxAtomRemoved(IBoxAtomEvent e) {}
     public void boxGlobalAtomLeafIndexChanged(IBoxIndexEvent e) {}
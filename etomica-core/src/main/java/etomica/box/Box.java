@@ -114,6 +114,10 @@ public class Box implements java.io.Serializable, IBox {
             childAtom.setLeafIndex(nLeafAtoms++);
             leafList.add(childAtom);
         }
+        if (batchDepth > 0) {
+            batchMoleculeOrigin[speciesIndex] = appendOrigin(batchMoleculeOrigin[speciesIndex], molecule.getIndex(), 1);
+            batchLeafOrigin = appendOrigin(batchLeafOrigin, nLeafAtoms-childList.getAtomCount(), childList.getAtomCount());
+        }
         eventManager.moleculeAdded(molecule);
 
         if (Debug.ON) {
@@ -131,6 +135,16 @@ public class Box implements java.io.Serializable, IBox {
         if (Debug.ON && moleculeList.getMolecule(moleculeIndex) != molecule) {
             throw new IllegalArgumentException("can't find "+molecule);
         }
+        int moleculeOrigin = -1;
+        if (batchDepth > 0) {
+            int[] origin = batchMoleculeOrigin[molecule.getType().getIndex()];
+            moleculeOrigin = origin[moleculeIndex];
+            origin[moleculeIndex] = origin[moleculeList.getMoleculeCount()-1];
+            if (moleculeOrigin > -1) {
+                batchRemovedMolecules.add(molecule);
+                batchRemovedMoleculeIndices = appendIndex(batchRemovedMoleculeIndices, batchRemovedMolecules.getMoleculeCount()-1, moleculeOrigin);
+            }
+        }
         if (moleculeIndex < moleculeList.getMoleculeCount()-1) {
             moleculeList.removeAndReplace(moleculeIndex);
             IMolecule replacingMolecule = moleculeList.getMolecule(moleculeIndex);
@@ -147,6 +161,12 @@ public class Box implements java.io.Serializable, IBox {
         for (int iChild = 0; iChild < childList.getAtomCount(); iChild++) {
             IAtom childAtom = childList.getAtom(iChild);
             int leafIndex = childAtom.getLeafIndex();
+            if (batchDepth > 0) {
+                if (moleculeOrigin > -1) {
+                    batchRemovedLeafIndices = appendIndex(batchRemovedLeafIndices, nBatchRemovedLeaf++, batchLeafOrigin[leafIndex]);
+                }
+                batchLeafOrigin[leafIndex] = batchLeafOrigin[leafList.getAtomCount()-1];
+            }
             leafList.removeAndReplace(leafIndex);
             if (leafList.getAtomCount() > leafIndex) {
                 IAtom movedAtom = leafList.getAtom(leafIndex);
@@ -171,25 +191,31 @@ public class Box implements java.io.Serializable, IBox {
             newMolecule0 = species.makeMolecule();
             moleculeLeafAtoms = newMolecule0.getChildList().getAtomCount();
         }
-        notifyNewMolecules(species, (n-currentNMolecules), moleculeLeafAtoms);
         if(n < 0) {
             throw new IllegalArgumentException("Number of molecules cannot be negative");
         }
-        if (n > currentNMolecules) {
-            moleculeLists[species.getIndex()].ensureCapacity(n);
-            leafList.ensureCapacity(leafList.getAtomCount()+(n-currentNMolecules)*moleculeLeafAtoms);
-            if (newMolecule0 != null) {
-                addMolecule(newMolecule0);
-                currentNMolecules++;
+        beginBatch();
+        try {
+            notifyNewMolecules(species, (n-currentNMolecules), moleculeLeafAtoms);
+            if (n > currentNMolecules) {
+                moleculeLists[species.getIndex()].ensureCapacity(n);
+                leafList.ensureCapacity(leafList.getAtomCount()+(n-currentNMolecules)*moleculeLeafAtoms);
+                if (newMolecule0 != null) {
+                    addMolecule(newMolecule0);
+                    currentNMolecules++;
+                }
+                for(int i=currentNMolecules; i<n; i++) {
+                    addMolecule(species.makeMolecule());
+                }
             }
-            for(int i=currentNMolecules; i<n; i++) {
-                addMolecule(species.makeMolecule());
+            else {
+                for (int i=currentNMolecules; i>n; i--) {
+                    removeMolecule(moleculeList.getMolecule(i-1));
+                }
             }
         }
-        else {
-            for (int i=currentNMolecules; i>n; i--) {
-                removeMolecule(moleculeList.getMolecule(i-1));
-            }
+        finally {
+            commitBatch();
         }
     }
     
@@ -226,11 +252,17 @@ public class Box implements java.io.Serializable, IBox {
     }
 
     public void addSpeciesNotify(ISpecies species) {
+        if (batchDepth > 0) {
+            throw new IllegalStateException("species can't be added during a batch");
+        }
         moleculeLists = (MoleculeArrayList[])Arrays.addObject(moleculeLists, new MoleculeArrayList());
         allMoleculeList.setMoleculeLists(moleculeLists);
     }
     
     public void removeSpeciesNotify(ISpecies species) {
+        if (batchDepth > 0) {
+            throw new IllegalStateException("species can't be removed during a batch");
+        }
         moleculeLists = (MoleculeArrayList[])Arrays.removeObject(moleculeLists, moleculeLists[species.getIndex()]);
         allMoleculeList.setMoleculeLists(moleculeLists);
     }
@@ -238,7 +270,246 @@ public class Box implements java.io.Serializable, IBox {
     public IAtomList getLeafList() {
         return leafList;
     }
-    
+
+    /**
+     * Reorders the box's molecules.  newOrder must contain every molecule in
+     * the box exactly once.  Molecules of each species are indexed in the
+     * order they appear in newOrder, and leaf atoms are indexed molecule by
+     * molecule in that order.
+     * <p>
+     * Listeners are informed via the usual moleculeIndexChanged and
+     * atomLeafIndexChanged events, so agents (and anything else that follows
+     * the indices) are permuted rather than rebuilt.  Each molecule and atom
+     * moves at most once, plus one extra move per cycle of the permutation
+     * through a spare slot just beyond the end of the list.  Batch listeners
+     * are instead notified once, with the whole permutation.
+     */
+    public void reorderMolecules(IMoleculeList newOrder) {
+        int nMolecules = newOrder.getMoleculeCount();
+        if (nMolecules != allMoleculeList.getMoleculeCount()) {
+            throw new IllegalArgumentException("new order has "+nMolecules+" molecules, but the box has "+allMoleculeList.getMoleculeCount());
+        }
+        MoleculeArrayList[] newMoleculeLists = new MoleculeArrayList[moleculeLists.length];
+        boolean[][] seen = new boolean[moleculeLists.length][];
+        for (int i=0; i<moleculeLists.length; i++) {
+            newMoleculeLists[i] = new MoleculeArrayList(moleculeLists[i].getMoleculeCount());
+            seen[i] = new boolean[moleculeLists[i].getMoleculeCount()];
+        }
+        int nLeaf = 0;
+        for (int i=0; i<nMolecules; i++) {
+            IMolecule molecule = newOrder.getMolecule(i);
+            MoleculeArrayList moleculeList = moleculeLists[molecule.getType().getIndex()];
+            int index = molecule.getIndex();
+            if (index >= moleculeList.getMoleculeCount() || moleculeList.getMolecule(index) != molecule) {
+                throw new IllegalArgumentException(molecule+" is not in the box");
+            }
+            if (seen[molecule.getType().getIndex()][index]) {
+                throw new IllegalArgumentException(molecule+" is listed more than once");
+            }
+            seen[molecule.getType().getIndex()][index] = true;
+            newMoleculeLists[molecule.getType().getIndex()].add(molecule);
+            nLeaf += molecule.getChildList().getAtomCount();
+        }
+
+        beginBatch();
+        try {
+            reorderMolecules(newOrder, newMoleculeLists, nLeaf);
+        }
+        finally {
+            commitBatch();
+        }
+    }
+
+    protected void reorderMolecules(IMoleculeList newOrder, MoleculeArrayList[] newMoleculeLists, int nLeaf) {
+        int nMolecules = newOrder.getMoleculeCount();
+        for (int i=0; i<moleculeLists.length; i++) {
+            MoleculeArrayList moleculeList = moleculeLists[i];
+            MoleculeArrayList newMoleculeList = newMoleculeLists[i];
+            int n = moleculeList.getMoleculeCount();
+            if (n == 0) continue;
+            int[] origin = batchMoleculeOrigin[i];
+            int[] newOrigin = new int[origin.length];
+            for (int j=0; j<n; j++) {
+                newOrigin[j] = origin[newMoleculeList.getMolecule(j).getIndex()];
+            }
+            batchMoleculeOrigin[i] = newOrigin;
+            // make room for the spare slot
+            eventManager.numberMolecules(moleculeList.getMolecule(0).getType(), n+1);
+            boolean[] done = new boolean[n];
+            for (int j=0; j<n; j++) {
+                if (done[j] || newMoleculeList.getMolecule(j) == moleculeList.getMolecule(j)) continue;
+                // park the molecule in slot j in the spare slot, then fill
+                // each vacated slot from the one that gets vacated next
+                IMolecule parked = moleculeList.getMolecule(j);
+                parked.setIndex(n);
+                eventManager.moleculeIndexChanged(parked, j);
+                int hole = j;
+                while (true) {
+                    done[hole] = true;
+                    IMolecule next = newMoleculeList.getMolecule(hole);
+                    if (next == parked) {
+                        parked.setIndex(hole);
+                        eventManager.moleculeIndexChanged(parked, n);
+                        break;
+                    }
+                    int oldIndex = next.getIndex();
+                    next.setIndex(hole);
+                    eventManager.moleculeIndexChanged(next, oldIndex);
+                    hole = oldIndex;
+                }
+            }
+            for (int j=0; j<n; j++) {
+                moleculeList.set(j, newMoleculeList.getMolecule(j));
+            }
+        }
+        allMoleculeList.setMoleculeLists(moleculeLists);
+
+        if (nLeaf == 0) return;
+        IAtom[] newLeafList = new IAtom[nLeaf];
+        nLeaf = 0;
+        for (int i=0; i<nMolecules; i++) {
+            IAtomList childList = newOrder.getMolecule(i).getChildList();
+            for (int j=0; j<childList.getAtomCount(); j++) {
+                newLeafList[nLeaf++] = childList.getAtom(j);
+            }
+        }
+        int[] newLeafOrigin = new int[batchLeafOrigin.length];
+        for (int j=0; j<nLeaf; j++) {
+            newLeafOrigin[j] = batchLeafOrigin[newLeafList[j].getLeafIndex()];
+        }
+        batchLeafOrigin = newLeafOrigin;
+        eventManager.globalAtomLeafIndexChanged(nLeaf+1);
+        boolean[] done = new boolean[nLeaf];
+        for (int j=0; j<nLeaf; j++) {
+            if (done[j] || newLeafList[j] == leafList.getAtom(j)) continue;
+            IAtom parked = leafList.getAtom(j);
+            parked.setLeafIndex(nLeaf);
+            eventManager.atomLeafIndexChanged(parked, j);
+            int hole = j;
+            while (true) {
+                done[hole] = true;
+                IAtom next = newLeafList[hole];
+                if (next == parked) {
+                    parked.setLeafIndex(hole);
+                    eventManager.atomLeafIndexChanged(parked, nLeaf);
+                    break;
+                }
+                int oldIndex = next.getLeafIndex();
+                next.setLeafIndex(hole);
+                eventManager.atomLeafIndexChanged(next, oldIndex);
+                hole = oldIndex;
+            }
+        }
+        for (int j=0; j<nLeaf; j++) {
+            leafList.set(j, newLeafList[j]);
+        }
+    }
+
+    /**
+     * Starts a batch of changes to the box.  Until the matching call to
+     * commitBatch, listeners that implement IBoxBatchListener are not told
+     * about molecules being added, removed or reindexed; when the batch is
+     * committed, they receive a single event that describes all of the
+     * changes, including the mapping from old to new indices.  Other
+     * listeners receive the usual events as the changes happen.  Until the
+     * batch is committed, batch listeners (agent managers, for instance) do
+     * not know about molecules added during the batch.
+     * <p>
+     * Batches can be nested; only the outermost commit notifies the
+     * listeners.  Species cannot be added or removed during a batch.
+     */
+    public void beginBatch() {
+        if (batchDepth++ > 0) return;
+        batchOldLeafCount = leafList.getAtomCount();
+        batchLeafOrigin = new int[batchOldLeafCount];
+        for (int i=0; i<batchOldLeafCount; i++) {
+            batchLeafOrigin[i] = i;
+        }
+        batchMoleculeOrigin = new int[moleculeLists.length][];
+        batchOldMoleculeCounts = new int[moleculeLists.length];
+        for (int i=0; i<moleculeLists.length; i++) {
+            int n = moleculeLists[i].getMoleculeCount();
+            batchOldMoleculeCounts[i] = n;
+            batchMoleculeOrigin[i] = new int[n];
+            for (int j=0; j<n; j++) {
+                batchMoleculeOrigin[i][j] = j;
+            }
+        }
+        batchRemovedMolecules = new MoleculeArrayList();
+        batchRemovedMoleculeIndices = new int[0];
+        batchRemovedLeafIndices = new int[0];
+        nBatchRemovedLeaf = 0;
+        eventManager.batchBegun();
+    }
+
+    /**
+     * Ends a batch of changes started by beginBatch.  If this ends the
+     * outermost batch, batch listeners are notified of all of the changes.
+     */
+    public void commitBatch() {
+        if (batchDepth == 0) {
+            throw new IllegalStateException("no batch to commit");
+        }
+        if (--batchDepth > 0) return;
+        MoleculeArrayList addedMolecules = new MoleculeArrayList();
+        int[][] oldMoleculeIndices = new int[moleculeLists.length][];
+        for (int i=0; i<moleculeLists.length; i++) {
+            int n = moleculeLists[i].getMoleculeCount();
+            oldMoleculeIndices[i] = java.util.Arrays.copyOf(batchMoleculeOrigin[i], n);
+            for (int j=0; j<n; j++) {
+                if (oldMoleculeIndices[i][j] == -1) {
+                    addedMolecules.add(moleculeLists[i].getMolecule(j));
+                }
+            }
+        }
+        int nRemoved = batchRemovedMolecules.getMoleculeCount();
+        BoxBatchEvent event = new BoxBatchEvent(this, addedMolecules, batchRemovedMolecules,
+                java.util.Arrays.copyOf(batchRemovedMoleculeIndices, nRemoved),
+                java.util.Arrays.copyOf(batchRemovedLeafIndices, nBatchRemovedLeaf),
+                java.util.Arrays.copyOf(batchLeafOrigin, leafList.getAtomCount()), batchOldLeafCount,
+                oldMoleculeIndices, batchOldMoleculeCounts);
+        batchLeafOrigin = null;
+        batchMoleculeOrigin = null;
+        batchOldMoleculeCounts = null;
+        batchRemovedMolecules = null;
+        batchRemovedMoleculeIndices = null;
+        batchRemovedLeafIndices = null;
+        eventManager.batchCommitted(event);
+    }
+
+    /**
+     * Returns true if the box is in a batch of changes.
+     */
+    public boolean isBatching() {
+        return batchDepth > 0;
+    }
+
+    /**
+     * Sets n elements of the origin array, starting at start, to -1 (new),
+     * growing the array if needed.
+     */
+    protected static int[] appendOrigin(int[] origin, int start, int n) {
+        if (origin.length < start+n) {
+            origin = java.util.Arrays.copyOf(origin, Math.max(start+n, origin.length*3/2+10));
+        }
+        for (int i=start; i<start+n; i++) {
+            origin[i] = -1;
+        }
+        return origin;
+    }
+
+    /**
+     * Sets element i of the array to the given index, growing the array if
+     * needed.
+     */
+    protected static int[] appendIndex(int[] indices, int i, int index) {
+        if (indices.length <= i) {
+            indices = java.util.Arrays.copyOf(indices, indices.length*3/2+10);
+        }
+        indices[i] = index;
+        return indices;
+    }
+
     /**
      * Notifies the SpeciesMaster that the given number of new Atoms will be
      * added to the system.  It's not required to call this method before
@@ -278,4 +549,13 @@ public class Box implements java.io.Serializable, IBox {
     private int index;
     private final ISpace space;
     protected final AtomSetAllMolecules allMoleculeList;
+    // bookkeeping for batches; origins are the indices from before the batch
+    protected transient int batchDepth;
+    protected transient int[] batchLeafOrigin;
+    protected transient int batchOldLeafCount;
+    protected transient int[][] batchMoleculeOrigin;
+    protected transient int[] batchOldMoleculeCounts;
+    protected transient MoleculeArrayList batchRemovedMolecules;
+    protected transient int[] batchRemovedMoleculeIndices, batchRemovedLeafIndices;
+    protected transient int nBatchRemovedLeaf;
 }
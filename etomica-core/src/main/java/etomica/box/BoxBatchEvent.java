@@ -0,0 +1,71 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.box;
+
+import etomica.api.IBox;
+import etomica.api.IBoxBatchEvent;
+import etomica.api.IMoleculeList;
+import etomica.api.ISpecies;
+
+/**
+ * Event that conveys the changes made to a box during a batch.
+ */
+public class BoxBatchEvent extends BoxEvent implements IBoxBatchEvent {
+
+    public BoxBatchEvent(IBox box, IMoleculeList addedMolecules, IMoleculeList removedMolecules,
+                         int[] removedMoleculeIndices, int[] removedLeafIndices,
+                         int[] oldLeafIndices, int oldLeafCount,
+                         int[][] oldMoleculeIndices, int[] oldMoleculeCounts) {
+        super(box);
+        this.addedMolecules = addedMolecules;
+        this.removedMolecules = removedMolecules;
+        this.removedMoleculeIndices = removedMoleculeIndices;
+        this.removedLeafIndices = removedLeafIndices;
+        this.oldLeafIndices = oldLeafIndices;
+        this.oldLeafCount = oldLeafCount;
+        this.oldMoleculeIndices = oldMoleculeIndices;
+        this.oldMoleculeCounts = oldMoleculeCounts;
+    }
+
+    public IMoleculeList getAddedMolecules() {
+        return addedMolecules;
+    }
+
+    public IMoleculeList getRemovedMolecules() {
+        return removedMolecules;
+    }
+
+    public int[] getRemovedMoleculeIndices() {
+        return removedMoleculeIndices;
+    }
+
+    public int[] getRemovedLeafIndices() {
+        return removedLeafIndices;
+    }
+
+    public int[] getOldLeafIndices() {
+        return oldLeafIndices;
+    }
+
+    public int getOldLeafCount() {
+        return oldLeafCount;
+    }
+
+    public int[] getOldMoleculeIndices(ISpecies species) {
+        return oldMoleculeIndices[species.getIndex()];
+    }
+
+    public int getOldMoleculeCount(ISpecies species) {
+        return oldMoleculeCounts[species.getIndex()];
+    }
+
+    private static final long serialVersionUID = 1L;
+    protected final IMoleculeList addedMolecules, removedMolecules;
+    protected final int[] removedMoleculeIndices, removedLeafIndices;
+    protected final int[] oldLeafIndices;
+    protected final int oldLeafCount;
+    protected final int[][] oldMoleculeIndices;
+    protected final int[] oldMoleculeCounts;
+}
@@ -5,106 +5,241 @@
 package etomica.box;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.LinkedList;
 
 import etomica.api.IAtom;
 import etomica.api.IBox;
-import etomica.api.IBoxAtomEvent;
-import etomica.api.IBoxAtomIndexEvent;
+import etomica.api.IBoxBatchEvent;
+import etomica.api.IBoxBatchListener;
 import etomica.api.IBoxEventManager;
-import etomica.api.IBoxIndexEvent;
 import etomica.api.IBoxListener;
 import etomica.api.IBoxMoleculeCountEvent;
-import etomica.api.IBoxMoleculeEvent;
-import etomica.api.IBoxMoleculeIndexEvent;
 import etomica.api.IMolecule;
 import etomica.api.ISpecies;
 
+/**
+ * Event manager for a Box.  Listeners are held in an array that is rebuilt
+ * when a listener is added or removed.  To avoid creating an event object for
+ * every notification, the manager reuses one mutable event of each type; a
+ * new event object is only made if an event is fired while another is still
+ * being dispatched.  Listeners must therefore not hold on to an event after
+ * they return.
+ * <p>
+ * While the box is in a batch (see {@link Box#beginBatch()}), listeners that
+ * implement IBoxBatchListener receive none of the individual events; they
+ * are notified of all changes at once when the batch is committed.
+ */
 public class BoxEventManager implements IBoxEventManager, java.io.Serializable {
 
-    private transient final LinkedList<IBoxListener> intervalListeners = new LinkedList<IBoxListener>();
-    private transient final ArrayList<Boolean> serial = new ArrayList<Boolean>();
+    private transient IBoxListener[] listeners = new IBoxListener[0];
+    private transient IBoxListener[] unbatchedListeners = new IBoxListener[0];
+    private transient boolean batching;
     private final IBox box;
+    // reusable events, valid only while eventDepth is 1
+    private transient BoxAtomEvent atomEvent;
+    private transient BoxMoleculeEvent moleculeEvent;
+    private transient BoxIndexEvent indexEvent;
+    private transient BoxAtomIndexEvent atomIndexEvent;
+    private transient BoxMoleculeIndexEvent moleculeIndexEvent;
+    private transient int eventDepth;
 
     public BoxEventManager(IBox _box) {
         box = _box;
+        makeEvents();
     }
     
+    private void makeEvents() {
+        atomEvent = new BoxAtomEvent(box, null);
+        moleculeEvent = new BoxMoleculeEvent(box, null);
+        indexEvent = new BoxIndexEvent(box, -1);
+        atomIndexEvent = new BoxAtomIndexEvent(box, null, -1);
+        moleculeIndexEvent = new BoxMoleculeIndexEvent(box, null, -1);
+    }
+
     public synchronized void addListener(IBoxListener newListener) {
 
         if(newListener == null) throw new NullPointerException("Cannot add null as a listener to Box");
-        if (intervalListeners.contains(newListener)) {
-            throw new RuntimeException(newListener+" is already an interval action");
+        for (int i=0; i<listeners.length; i++) {
+            if (listeners[i] == newListener) {
+                throw new RuntimeException(newListener+" is already an interval action");
+            }
         }
-        intervalListeners.add(0, newListener);
-        serial.add(0, true);
+        // new listeners are notified first
+        IBoxListener[] newListeners = new IBoxListener[listeners.length+1];
+        newListeners[0] = newListener;
+        System.arraycopy(listeners, 0, newListeners, 1, listeners.length);
+        listeners = newListeners;
+        updateUnbatchedListeners();
     }
 
     public synchronized void removeListener(IBoxListener listener) {
-        intervalListeners.remove(listener);
+        for (int i=0; i<listeners.length; i++) {
+            if (listeners[i] == listener) {
+                IBoxListener[] newListeners = new IBoxListener[listeners.length-1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i+1, newListeners, i, listeners.length-i-1);
+                listeners = newListeners;
+                updateUnbatchedListeners();
+                return;
+            }
+        }
+    }
+
+    private void updateUnbatchedListeners() {
+        int n = 0;
+        for (int i=0; i<listeners.length; i++) {
+            if (!(listeners[i] instanceof IBoxBatchListener)) n++;
+        }
+        unbatchedListeners = new IBoxListener[n];
+        n = 0;
+        for (int i=0; i<listeners.length; i++) {
+            if (!(listeners[i] instanceof IBoxBatchListener)) {
+                unbatchedListeners[n++] = listeners[i];
+            }
+        }
+    }
+
+    /**
+     * Starts a batch.  Until the batch is committed, batch listeners are
+     * not notified of any changes.
+     */
+    public synchronized void batchBegun() {
+        batching = true;
+    }
+
+    /**
+     * Ends the batch and notifies batch listeners of everything that
+     * happened during it.
+     */
+    public synchronized void batchCommitted(IBoxBatchEvent event) {
+        batching = false;
+        IBoxListener[] l = listeners;
+        for(int i = 0; i < l.length; i++) {
+            if (l[i] instanceof IBoxBatchListener) {
+                ((IBoxBatchListener)l[i]).boxBatchCommitted(event);
+            }
+        }
     }
 
     public synchronized void atomAdded(IAtom atom) {
-        IBoxAtomEvent event = new BoxAtomEvent(box, atom);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxAtomAdded(event);
+        BoxAtomEvent event = ++eventDepth == 1 ? atomEvent : new BoxAtomEvent(box, atom);
+        event.atom = atom;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxAtomAdded(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
 
     public synchronized void atomRemoved(IAtom atom) {
-        IBoxAtomEvent event = new BoxAtomEvent(box, atom);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxAtomRemoved(event);
+        BoxAtomEvent event = ++eventDepth == 1 ? atomEvent : new BoxAtomEvent(box, atom);
+        event.atom = atom;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxAtomRemoved(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
     
     public synchronized void moleculeAdded(IMolecule molecule) {
-        IBoxMoleculeEvent event = new BoxMoleculeEvent(box, molecule);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxMoleculeAdded(event);
+        BoxMoleculeEvent event = ++eventDepth == 1 ? moleculeEvent : new BoxMoleculeEvent(box, molecule);
+        event.molecule = molecule;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxMoleculeAdded(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
     
     public synchronized void moleculeRemoved(IMolecule molecule) {
-        IBoxMoleculeEvent event = new BoxMoleculeEvent(box, molecule);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxMoleculeRemoved(event);
+        BoxMoleculeEvent event = ++eventDepth == 1 ? moleculeEvent : new BoxMoleculeEvent(box, molecule);
+        event.molecule = molecule;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxMoleculeRemoved(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
     
     public synchronized void globalAtomIndexChanged(int index) {
-        IBoxIndexEvent event = new BoxIndexEvent(box, index);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxGlobalAtomIndexChanged(event);
+        BoxIndexEvent event = ++eventDepth == 1 ? indexEvent : new BoxIndexEvent(box, index);
+        event.index = index;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxGlobalAtomIndexChanged(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
     
     public synchronized void globalAtomLeafIndexChanged(int index) {
-        IBoxIndexEvent event = new BoxIndexEvent(box, index);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxGlobalAtomLeafIndexChanged(event);
+        BoxIndexEvent event = ++eventDepth == 1 ? indexEvent : new BoxIndexEvent(box, index);
+        event.index = index;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxGlobalAtomLeafIndexChanged(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
     
     public synchronized void atomLeafIndexChanged(IAtom atom, int index) {
-        IBoxAtomIndexEvent event = new BoxAtomIndexEvent(box, atom, index);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxAtomLeafIndexChanged(event);
+        BoxAtomIndexEvent event = ++eventDepth == 1 ? atomIndexEvent : new BoxAtomIndexEvent(box, atom, index);
+        event.atom = atom;
+        event.index = index;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxAtomLeafIndexChanged(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
     
     public synchronized void numberMolecules(ISpecies species, int count) {
+        // infrequent; not worth reusing
         IBoxMoleculeCountEvent event = new BoxMoleculeCountEvent(box, species, count);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxNumberMolecules(event);
+        IBoxListener[] l = batching ? unbatchedListeners : listeners;
+        for(int i = 0; i < l.length; i++) {
+            l[i].boxNumberMolecules(event);
         }
     }
     
     public synchronized void moleculeIndexChanged(IMolecule molecule, int index) {
-        IBoxMoleculeIndexEvent event = new BoxMoleculeIndexEvent(box, molecule, index);
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).boxMoleculeIndexChanged(event);
+        BoxMoleculeIndexEvent event = ++eventDepth == 1 ? moleculeIndexEvent : new BoxMoleculeIndexEvent(box, molecule, index);
+        event.molecule = molecule;
+        event.index = index;
+        try {
+            IBoxListener[] l = batching ? unbatchedListeners : listeners;
+            for(int i = 0; i < l.length; i++) {
+                l[i].boxMoleculeIndexChanged(event);
+            }
+        }
+        finally {
+            eventDepth--;
         }
     }
 
@@ -116,14 +251,11 @@ public class BoxEventManager implements IBoxEventManager, java.io.Serializable {
         out.defaultWriteObject();
         
         // write # of listeners that will be serialized
-        out.writeInt(intervalListeners.size());
+        out.writeInt(listeners.length);
 
-        for(int i = 0; i < intervalListeners.size(); i++) {
-
-            //skip transient listeners
-            if (serial.get(i) == true) {
-                out.writeObject(intervalListeners.get(i));
-            }
+        // write in reverse so that re-adding them restores the order
+        for(int i = listeners.length-1; i >= 0; i--) {
+            out.writeObject(listeners[i]);
         }
     }
 
@@ -132,6 +264,9 @@ public class BoxEventManager implements IBoxEventManager, java.io.Serializable {
     {
 
         in.defaultReadObject();
+        listeners = new IBoxListener[0];
+        unbatchedListeners = new IBoxListener[0];
+        makeEvents();
         
         // read the listener count
         int count = in.readInt();
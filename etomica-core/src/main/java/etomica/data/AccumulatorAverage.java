@@ -4,10 +4,16 @@
 
 package etomica.data;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import etomica.api.IFunction;
 import etomica.data.types.DataGroup;
 import etomica.data.types.DataGroup.DataInfoGroup;
 import etomica.units.Null;
 import etomica.util.EnumeratedType;
+import etomica.util.ICheckpointable;
 
 /**
  * Accumulator that keeps statistics for averaging and error analysis. The
@@ -30,7 +36,7 @@ import etomica.util.EnumeratedType;
  * confidence limits for the overall average is obtained as the standard error
  * of the mean of these block averages.
  */
-public abstract class AccumulatorAverage extends DataAccumulator {
+public abstract class AccumulatorAverage extends DataAccumulator implements ICheckpointable {
 
     /**
      * Default constructor sets block size to Default value, and sets the
@@ -214,6 +220,66 @@ public abstract class AccumulatorAverage extends DataAccumulator {
         return doIncludeACInError;
     }
 
+    /**
+     * Writes the block counters and most recent value.  Subclasses add their
+     * sums.  The restored accumulator must have received the same DataInfo
+     * (so that its Data have the same length) before restoreState is called.
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeLong(blockCountDown);
+        out.writeLong(blockSize);
+        out.writeLong(putCount);
+        writeData(out, mostRecent);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        count = in.readLong();
+        blockCountDown = in.readLong();
+        blockSize = in.readLong();
+        putCount = in.readLong();
+        readData(in, mostRecent);
+    }
+
+    /**
+     * Writes the length and values of the given Data (which may be null).
+     */
+    protected static void writeData(DataOutput out, IData data) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(data.getLength());
+        for (int i=0; i<data.getLength(); i++) {
+            out.writeDouble(data.getValue(i));
+        }
+    }
+
+    /**
+     * Reads values written by writeData into the given Data, which must have
+     * the same length as the Data that was written.
+     */
+    protected static void readData(DataInput in, IData data) throws IOException {
+        int n = in.readInt();
+        if (n == -1 && data == null) {
+            return;
+        }
+        if (data == null || n != data.getLength()) {
+            throw new IOException("checkpoint has data of length "+n+", but accumulator has "+(data == null ? "no data" : "length "+data.getLength()));
+        }
+        final double[] values = new double[n];
+        for (int i=0; i<n; i++) {
+            values[i] = in.readDouble();
+        }
+        // map visits each value in order, which we use to set them
+        data.map(new IFunction() {
+            public double f(double x) {
+                return values[j++];
+            }
+            int j = 0;
+        });
+    }
+
     /**
      * Enumerated type that can be used to indicated the statistic to be taken
      * from the accumulator (e.g., average, error, current value, etc.). An
@@ -4,6 +4,10 @@
 
 package etomica.data;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.util.Arrays;
 
 /**
@@ -202,6 +206,35 @@ public class AccumulatorAverageCollapsing extends AccumulatorAverage {
         totalSumBlockSq = 0;
     }
 
+    public void saveState(DataOutput out) throws IOException {
+        super.saveState(out);
+        out.writeLong(nominalBlockSize);
+        out.writeDouble(currentBlockSum);
+        out.writeDouble(totalSumSquare);
+        out.writeDouble(totalSumBlockSq);
+        out.writeDouble(correlationSum);
+        out.writeDouble(totalBlockSum);
+        out.writeInt(maxBlocks);
+        for (int i=0; i<maxBlocks; i++) {
+            out.writeDouble(blockSums[i]);
+        }
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        nominalBlockSize = in.readLong();
+        currentBlockSum = in.readDouble();
+        totalSumSquare = in.readDouble();
+        totalSumBlockSq = in.readDouble();
+        correlationSum = in.readDouble();
+        totalBlockSum = in.readDouble();
+        maxBlocks = in.readInt();
+        blockSums = new double[maxBlocks];
+        for (int i=0; i<maxBlocks; i++) {
+            blockSums[i] = in.readDouble();
+        }
+    }
+
     /**
      * Sets the size of the block used to group data for error analysis. Resets
      * statistics accumulated so far.  Default is 1.
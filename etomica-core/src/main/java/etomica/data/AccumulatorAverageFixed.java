@@ -4,6 +4,10 @@
 
 package etomica.data;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.api.IFunction;
 import etomica.data.types.DataGroup.DataInfoGroup;
 import etomica.util.Function;
@@ -230,6 +234,28 @@ public class AccumulatorAverageFixed extends AccumulatorAverage {
         mostRecentBlock.E(Double.NaN);
     }
 
+    public void saveState(DataOutput out) throws IOException {
+        super.saveState(out);
+        writeData(out, sum);
+        writeData(out, sumBlockSquare);
+        writeData(out, currentBlockSum);
+        writeData(out, sumSquare);
+        writeData(out, mostRecentBlock);
+        writeData(out, correlationSum);
+        writeData(out, firstBlock);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        readData(in, sum);
+        readData(in, sumBlockSquare);
+        readData(in, currentBlockSum);
+        readData(in, sumSquare);
+        readData(in, mostRecentBlock);
+        readData(in, correlationSum);
+        readData(in, firstBlock);
+    }
+
     /**
      * Prepares the accumulator for input data.  Discards any previous 
      * contributions to statistics.
@@ -0,0 +1,444 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.data;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import etomica.action.activity.ControllerEvent;
+import etomica.util.IEvent;
+import etomica.util.IListener;
+
+/**
+ * DataSink that writes data to a file from a background thread.  The thread
+ * pushing data (typically the integrator thread) only copies the values of
+ * each incoming Data into a slot of a preallocated ring buffer; formatting
+ * and file I/O happen on the writer thread.  If the writer falls behind and
+ * the ring buffer fills up, putData blocks until a slot is free, so memory
+ * use is bounded by the size of the buffer.
+ * <p>
+ * Data can be written as text (one row per Data, values separated by two
+ * spaces, as DataArrayWriter does) or in a binary columnar format.  The
+ * binary file begins with the 4-byte magic number BINARY_MAGIC, an int
+ * format version and an int holding the number of values per row.  That
+ * header is followed by blocks, each holding an int row count followed by
+ * the values of each column for all rows of the block.  All numbers are
+ * big-endian.  readBinary can be used to read such a file back.
+ * <p>
+ * The file is opened when the writer thread starts (upon the first call to
+ * putDataInfo) and stays open until close is called, or until the
+ * Controller this logger listens to finishes.
+ */
+public class DataLoggerAsync implements IDataSink, IListener {
+
+    public DataLoggerAsync() {
+        this(1024);
+    }
+
+    /**
+     * @param bufferSize the number of Data rows that can be queued for
+     *                   writing before putData blocks.
+     */
+    public DataLoggerAsync(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+        fileName = "data";
+        format = Format.TEXT;
+        includeHeader = true;
+    }
+
+    /**
+     * Sets the name of the output file.  No suffix is added.  Must be called
+     * before data info is given to the logger.
+     */
+    public void setFileName(String newFileName) {
+        checkNotStarted();
+        fileName = newFileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Sets the output format (TEXT or BINARY).  Must be called before data
+     * info is given to the logger.
+     */
+    public void setFormat(Format newFormat) {
+        checkNotStarted();
+        format = newFormat;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Directs the logger to append to an existing file rather than
+     * overwriting it.  Appending is not allowed with the BINARY format.
+     */
+    public void setAppending(boolean newAppending) {
+        checkNotStarted();
+        appending = newAppending;
+    }
+
+    public boolean isAppending() {
+        return appending;
+    }
+
+    /**
+     * Directs the logger (for TEXT output) to write the label and dimension
+     * of the data at the top of the file.
+     */
+    public void setIncludeHeader(boolean newIncludeHeader) {
+        includeHeader = newIncludeHeader;
+    }
+
+    public boolean getIncludeHeader() {
+        return includeHeader;
+    }
+
+    public DataPipe getDataCaster(IEtomicaDataInfo inputDataInfo) {
+        // we copy values via IData.assignTo, which works for any Data
+        return null;
+    }
+
+    /**
+     * Allocates the ring buffer and starts the writer thread.  The structure
+     * of the data cannot change after this, so a second call with data of a
+     * different length throws an exception.
+     */
+    public void putDataInfo(IEtomicaDataInfo newDataInfo) {
+        if (writerThread != null) {
+            if (newDataInfo.getLength() != nValues) {
+                throw new IllegalStateException("data length cannot change once logging has started");
+            }
+            return;
+        }
+        dataInfo = newDataInfo;
+        nValues = dataInfo.getLength();
+        if (format == Format.BINARY && appending) {
+            throw new IllegalStateException("cannot append to a binary file");
+        }
+        ring = new double[bufferSize][nValues];
+        head = tail = written = 0;
+        writerException = null;
+        try {
+            channel = new FileOutputStream(fileName, appending).getChannel();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        });
+        writerThread.setName("DataLoggerAsync writer ("+fileName+")");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Copies the data into the ring buffer, waiting for space if the buffer
+     * is full.  The Data itself is not retained.
+     */
+    public void putData(IData data) {
+        if (ring == null) {
+            throw new IllegalStateException("putDataInfo must be called before putData");
+        }
+        synchronized (this) {
+            while (head - tail == bufferSize) {
+                checkWriter();
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            checkWriter();
+        }
+        // only this thread writes to the head slot, and the writer won't
+        // look at it until head is incremented below
+        data.assignTo(ring[(int)(head % bufferSize)]);
+        synchronized (this) {
+            head++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until all data queued so far has been written to the file.
+     */
+    public void flush() {
+        if (writerThread == null) return;
+        synchronized (this) {
+            long target = head;
+            while (written < target) {
+                checkWriter();
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            checkWriter();
+        }
+    }
+
+    /**
+     * Writes any queued data, closes the file and stops the writer thread.
+     * Another call to putDataInfo will start writing a new file.
+     */
+    public void close() {
+        if (writerThread == null) return;
+        synchronized (this) {
+            closeRequested = true;
+            notifyAll();
+        }
+        try {
+            writerThread.join();
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        writerThread = null;
+        ring = null;
+        closeRequested = false;
+        head = tail = written = 0;
+        if (writerException != null) {
+            throw new RuntimeException(writerException);
+        }
+    }
+
+    /**
+     * Closes the file when the Controller finishes or is halted.
+     */
+    public void actionPerformed(IEvent evt) {
+        if (evt instanceof ControllerEvent) {
+            ControllerEvent.Type type = ((ControllerEvent)evt).getType();
+            if (type == ControllerEvent.NO_MORE_ACTIONS || type == ControllerEvent.HALTED) {
+                close();
+            }
+        }
+    }
+
+    protected void checkNotStarted() {
+        if (writerThread != null) {
+            throw new IllegalStateException("cannot change settings while logging");
+        }
+    }
+
+    protected void checkWriter() {
+        if (writerException != null) {
+            throw new RuntimeException("writer thread failed", writerException);
+        }
+    }
+
+    /**
+     * Main loop of the writer thread.  Grabs all rows available in the ring
+     * buffer, writes them and then releases their slots.
+     */
+    protected void writeLoop() {
+        try {
+            writeHeader();
+            while (true) {
+                long first, last;
+                boolean done;
+                synchronized (this) {
+                    while (head == tail && !closeRequested) {
+                        wait();
+                    }
+                    first = tail;
+                    last = head;
+                    done = closeRequested && head == tail;
+                }
+                if (done) break;
+                if (format == Format.BINARY) {
+                    writeBinaryBlock(first, last);
+                }
+                else {
+                    writeText(first, last);
+                }
+                synchronized (this) {
+                    tail = last;
+                    written = last;
+                    notifyAll();
+                }
+            }
+            channel.close();
+        }
+        catch (Throwable e) {
+            synchronized (this) {
+                writerException = e;
+                notifyAll();
+            }
+            try {
+                channel.close();
+            }
+            catch (IOException ex) {
+                // we're already failing
+            }
+        }
+    }
+
+    protected void writeHeader() throws IOException {
+        if (format == Format.BINARY) {
+            ensureCapacity(12);
+            byteBuffer.clear();
+            byteBuffer.putInt(BINARY_MAGIC);
+            byteBuffer.putInt(BINARY_VERSION);
+            byteBuffer.putInt(nValues);
+            drain();
+        }
+        else if (includeHeader && !(appending && channel.position() > 0)) {
+            writeString(dataInfo.getLabel()+" "+dataInfo.getDimension()+"\n");
+        }
+    }
+
+    protected void writeText(long first, long last) throws IOException {
+        for (long i=first; i<last; i++) {
+            double[] row = ring[(int)(i % bufferSize)];
+            for (int j=0; j<nValues; j++) {
+                if (j > 0) sb.append("  ");
+                sb.append(row[j]);
+            }
+            sb.append('\n');
+            if (sb.length() > 65536) {
+                writeString(sb);
+                sb.setLength(0);
+            }
+        }
+        writeString(sb);
+        sb.setLength(0);
+    }
+
+    protected void writeString(CharSequence s) throws IOException {
+        ensureCapacity(s.length());
+        byteBuffer.clear();
+        for (int i=0; i<s.length(); i++) {
+            // everything we write is ASCII
+            byteBuffer.put((byte)s.charAt(i));
+        }
+        drain();
+    }
+
+    protected void writeBinaryBlock(long first, long last) throws IOException {
+        int nRows = (int)(last - first);
+        ensureCapacity(4 + 8*nRows*nValues);
+        byteBuffer.clear();
+        byteBuffer.putInt(nRows);
+        for (int j=0; j<nValues; j++) {
+            for (long i=first; i<last; i++) {
+                byteBuffer.putDouble(ring[(int)(i % bufferSize)][j]);
+            }
+        }
+        drain();
+    }
+
+    protected void ensureCapacity(int nBytes) {
+        if (byteBuffer == null || byteBuffer.capacity() < nBytes) {
+            byteBuffer = ByteBuffer.allocateDirect(Math.max(nBytes, 65536)).order(ByteOrder.BIG_ENDIAN);
+        }
+    }
+
+    protected void drain() throws IOException {
+        if (byteBuffer == null) return;
+        byteBuffer.flip();
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+        byteBuffer.clear();
+    }
+
+    /**
+     * Reads a file written in the BINARY format and returns the data as an
+     * array of columns.
+     */
+    public static double[][] readBinary(String fileName) throws IOException {
+        FileChannel in = new FileInputStream(fileName).getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocate((int)in.size()).order(ByteOrder.BIG_ENDIAN);
+            while (buf.hasRemaining() && in.read(buf) >= 0) {}
+            buf.flip();
+            if (buf.getInt() != BINARY_MAGIC) {
+                throw new IOException(fileName+" is not a binary data file");
+            }
+            int version = buf.getInt();
+            if (version != BINARY_VERSION) {
+                throw new IOException("unsupported binary data version "+version);
+            }
+            int n = buf.getInt();
+            // first pass just counts the rows
+            int start = buf.position();
+            int nRows = 0;
+            while (buf.remaining() >= 4) {
+                int blockRows = buf.getInt();
+                buf.position(buf.position() + 8*blockRows*n);
+                nRows += blockRows;
+            }
+            buf.position(start);
+            double[][] columns = new double[n][nRows];
+            nRows = 0;
+            while (buf.remaining() >= 4) {
+                int blockRows = buf.getInt();
+                for (int j=0; j<n; j++) {
+                    for (int i=0; i<blockRows; i++) {
+                        columns[j][nRows+i] = buf.getDouble();
+                    }
+                }
+                nRows += blockRows;
+            }
+            return columns;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Output formats understood by DataLoggerAsync.
+     */
+    public enum Format {
+        /**
+         * one row per Data, in plain text
+         */
+        TEXT,
+        /**
+         * blocks of columns of big-endian doubles
+         */
+        BINARY
+    }
+
+    public static final int BINARY_MAGIC = 0x45444154; // "EDAT"
+    public static final int BINARY_VERSION = 1;
+
+    protected final int bufferSize;
+    protected String fileName;
+    protected Format format;
+    protected boolean appending;
+    protected boolean includeHeader;
+    protected IEtomicaDataInfo dataInfo;
+    protected int nValues;
+    protected double[][] ring;
+    // head is the number of rows ever queued, tail the number released by
+    // the writer; both are guarded by this object's monitor
+    protected long head, tail, written;
+    protected boolean closeRequested;
+    protected volatile Throwable writerException;
+    protected Thread writerThread;
+    protected FileChannel channel;
+    // used only by the writer thread
+    protected ByteBuffer byteBuffer;
+    protected final StringBuilder sb = new StringBuilder();
+}
@@ -4,10 +4,15 @@
 
 package etomica.data;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.api.IIntegratorEvent;
-import etomica.api.IIntegratorListener;
+import etomica.api.IIntegratorListenerInterval;
+import etomica.util.ICheckpointable;
 
-public class DataPumpListener extends DataPump implements IIntegratorListener {
+public class DataPumpListener extends DataPump implements IIntegratorListenerInterval, ICheckpointable {
 
     protected long interval;
     protected long intervalCount;
@@ -31,6 +36,23 @@ public class DataPumpListener extends DataPump implements IIntegratorListener {
         actionPerformed();
     }
     
+    public void integratorIntervalFinished() {
+        intervalCount = 0;
+        actionPerformed();
+    }
+
+    public long getEventInterval() {
+        return interval;
+    }
+
+    public long getIntervalCount() {
+        return intervalCount;
+    }
+
+    public void setIntervalCount(long newIntervalCount) {
+        intervalCount = newIntervalCount;
+    }
+
     public void setInterval(long i) {
         interval = i;
     }
@@ -38,4 +60,15 @@ public class DataPumpListener extends DataPump implements IIntegratorListener {
     public long getInterval() {
         return interval;
     }
+
+    /**
+     * Writes the number of steps since the pump last fired.
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(intervalCount);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        intervalCount = in.readLong();
+    }
 }
@@ -0,0 +1,641 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import Jama.Matrix;
+import etomica.api.IRandom;
+import etomica.util.DoubleRange;
+import etomica.util.Histogram;
+import etomica.util.HistogramSimple;
+import etomica.util.ParallelTaskRunner;
+import etomica.util.ParallelTaskRunner.Task;
+
+/**
+ * Multistate reweighting of samples taken from several thermodynamic states
+ * (MBAR, Shirts and Chodera, J. Chem. Phys. 129, 124105 (2008)).  Each
+ * sample is described by an array of values x (for instance the energy, or
+ * the energy and volume), and each state by its reduced potential u(x), such
+ * as beta*E or beta*(E+PV).  Binned samples (from histograms) are handled
+ * the same way, with each bin treated as a sample at the bin center
+ * weighted by the bin count, which makes this the weighted histogram
+ * analysis method (WHAM).
+ * <p>
+ * The dimensionless free energies f_k of the states are found by iterating
+ * the self-consistent equations
+ * <pre>
+ *   f_k = -ln sum_n exp(-u_k(x_n)) / sum_j N_j exp(f_j - u_j(x_n))
+ * </pre>
+ * in log space (so that no exponential overflows), with f_0 = 0.  The
+ * reduced potentials are tabulated once, state by state, so that each
+ * iteration is a sequence of tight loops over the samples.  Once the
+ * iteration is close to the solution it switches to Newton-Raphson steps.
+ * The samples are split among threads if setNumThreads is called.
+ * <p>
+ * Averages and free energies can then be computed for any state, sampled
+ * or not.  Uncertainties are estimated by the bootstrap: each sample's
+ * weight is redrawn from a Poisson distribution having the original weight
+ * as its mean, and the equations are solved again.  The bootstrap assumes
+ * the samples are uncorrelated; correlated data should be subsampled (or
+ * blocked) before it is added.
+ */
+public class MBARSolver {
+
+    /**
+     * Function of the values describing a sample; either the reduced
+     * potential of a state or an observable to be averaged.
+     */
+    public interface SampleFunction {
+        public double f(double[] x);
+    }
+
+    /**
+     * @param states the reduced potentials of the sampled states
+     */
+    public MBARSolver(SampleFunction[] states) {
+        this.states = states.clone();
+        nStates = states.length;
+        sampleState = new ArrayList<Integer>();
+        sampleX = new ArrayList<double[]>();
+        sampleWeight = new ArrayList<Double>();
+        setTolerance(1e-10);
+        setMaxIterations(100000);
+        setNumThreads(1);
+    }
+
+    /**
+     * Convenience constructor for states that differ only in temperature,
+     * with u_k = beta_k * x[0].
+     */
+    public static MBARSolver makeTemperatureSolver(double[] beta) {
+        SampleFunction[] states = new SampleFunction[beta.length];
+        for (int k=0; k<beta.length; k++) {
+            final double b = beta[k];
+            states[k] = new SampleFunction() {
+                public double f(double[] x) {
+                    return b*x[0];
+                }
+            };
+        }
+        return new MBARSolver(states);
+    }
+
+    /**
+     * Adds a sample taken from state k.
+     */
+    public void addSample(int k, double[] x) {
+        addSample(k, x, 1);
+    }
+
+    /**
+     * Adds a sample taken from state k, counted weight times.
+     */
+    public void addSample(int k, double[] x, double weight) {
+        if (k < 0 || k >= nStates) {
+            throw new IllegalArgumentException("invalid state "+k);
+        }
+        if (weight == 0) return;
+        sampleState.add(k);
+        sampleX.add(x.clone());
+        sampleWeight.add(weight);
+        solved = false;
+    }
+
+    /**
+     * Adds a stream of samples from state k, given as columns; the i-th
+     * sample has values {columns[0][i], columns[1][i], ...}.  This is the
+     * form returned by {@link DataLoggerAsync#readBinary(String)}.
+     */
+    public void addSamples(int k, double[][] columns) {
+        int n = columns[0].length;
+        for (int i=0; i<n; i++) {
+            double[] x = new double[columns.length];
+            for (int j=0; j<x.length; j++) {
+                x[j] = columns[j][i];
+            }
+            addSample(k, x);
+        }
+    }
+
+    /**
+     * Adds the contents of a histogram of x[0] collected in state k.  Each
+     * non-empty bin becomes a sample at the bin center.
+     */
+    public void addHistogram(int k, Histogram histogram) {
+        double[] xValues = histogram.xValues();
+        int nBins = histogram.getNBins();
+        if (histogram instanceof HistogramSimple) {
+            long[] counts = ((HistogramSimple)histogram).getBinCounts();
+            for (int i=0; i<nBins; i++) {
+                addSample(k, new double[]{xValues[i]}, counts[i]);
+            }
+            return;
+        }
+        double[] h = histogram.getHistogram();
+        DoubleRange range = histogram.getXRange();
+        double dx = (range.maximum() - range.minimum())/nBins;
+        double n = histogram.getCount();
+        for (int i=0; i<nBins; i++) {
+            // getHistogram returns the probability density
+            double count = Math.round(h[i]*n*dx);
+            addSample(k, new double[]{xValues[i]}, count);
+        }
+    }
+
+    /**
+     * Adds the histogram collected by the accumulator in state k.
+     */
+    public void addHistogram(int k, AccumulatorHistogram accumulator) {
+        addHistogram(k, accumulator.getHistograms());
+    }
+
+    public int getNumStates() {
+        return nStates;
+    }
+
+    public int getNumSamples() {
+        return sampleX.size();
+    }
+
+    /**
+     * Sets the convergence criterion, the largest change in any free energy
+     * between iterations.
+     */
+    public void setTolerance(double newTolerance) {
+        tolerance = newTolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setMaxIterations(int newMaxIterations) {
+        maxIterations = newMaxIterations;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Returns the number of iterations taken by the last solution.
+     */
+    public int getIterationCount() {
+        return iterations;
+    }
+
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        numThreads = newNumThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Solves for the free energies of the sampled states, if the samples
+     * have changed since the last solution.
+     */
+    public void solve() {
+        if (solved) return;
+        setup();
+        f = new double[nStates];
+        iterations = iterate(lnWeight, lnN, f);
+        solved = true;
+    }
+
+    /**
+     * Returns the dimensionless free energies (beta*A) of the sampled
+     * states, relative to the first state.
+     */
+    public double[] getFreeEnergies() {
+        solve();
+        return f.clone();
+    }
+
+    /**
+     * Returns the dimensionless free energy of the given state, relative to
+     * the first sampled state.
+     */
+    public double getFreeEnergy(SampleFunction target) {
+        solve();
+        double[] uTarget = tabulate(target);
+        return -logSumExp(lnWeight, uTarget, null, lnDenominator);
+    }
+
+    /**
+     * Returns the average of the observable in the given state.
+     */
+    public double getAverage(SampleFunction target, SampleFunction observable) {
+        solve();
+        return average(lnWeight, lnDenominator, tabulate(target), tabulate(observable));
+    }
+
+    /**
+     * Returns the average of the observable in the given state, along with
+     * its uncertainty estimated from nBootstrap bootstrap samples.
+     *
+     * @return {average, uncertainty}
+     */
+    public double[] getAverageWithError(SampleFunction target, SampleFunction observable, int nBootstrap, IRandom random) {
+        solve();
+        double[] uTarget = tabulate(target);
+        double[] a = tabulate(observable);
+        double avg = average(lnWeight, lnDenominator, uTarget, a);
+        double sum = 0, sum2 = 0;
+        double[] fBoot = f.clone();
+        double[] lnWeightBoot = new double[nSamples];
+        double[] lnNBoot = new double[nStates];
+        for (int b=0; b<nBootstrap; b++) {
+            resample(random, lnWeightBoot, lnNBoot);
+            iterate(lnWeightBoot, lnNBoot, fBoot);
+            double x = average(lnWeightBoot, lnDenominator, uTarget, a);
+            sum += x;
+            sum2 += x*x;
+        }
+        restoreDenominators();
+        return new double[]{avg, deviation(sum, sum2, nBootstrap)};
+    }
+
+    /**
+     * Returns the uncertainties in the free energies of the sampled states
+     * (relative to the first state), estimated from nBootstrap bootstrap
+     * samples.
+     */
+    public double[] getFreeEnergyErrors(int nBootstrap, IRandom random) {
+        solve();
+        double[] sum = new double[nStates], sum2 = new double[nStates];
+        double[] fBoot = f.clone();
+        double[] lnWeightBoot = new double[nSamples];
+        double[] lnNBoot = new double[nStates];
+        for (int b=0; b<nBootstrap; b++) {
+            resample(random, lnWeightBoot, lnNBoot);
+            iterate(lnWeightBoot, lnNBoot, fBoot);
+            for (int k=0; k<nStates; k++) {
+                sum[k] += fBoot[k];
+                sum2[k] += fBoot[k]*fBoot[k];
+            }
+        }
+        restoreDenominators();
+        double[] err = new double[nStates];
+        for (int k=0; k<nStates; k++) {
+            err[k] = deviation(sum[k], sum2[k], nBootstrap);
+        }
+        return err;
+    }
+
+    /**
+     * Recomputes the denominators for the original samples after a
+     * bootstrap has replaced them.
+     */
+    protected void restoreDenominators() {
+        taskRunner.run(numThreads, new Task() {
+            public void run(int iThread) {
+                int start = (int)((long)nSamples*iThread/numThreads);
+                int end = (int)((long)nSamples*(iThread+1)/numThreads);
+                computeDenominators(lnN, f, start, end);
+            }
+        });
+    }
+
+    /**
+     * Returns exp(x), taking a shortcut for arguments so negative that the
+     * result underflows, for which Math.exp is very slow.  Such arguments
+     * are common here, since most samples have negligible weight in most
+     * states.
+     */
+    protected static double exp(double x) {
+        return x < -745 ? 0 : Math.exp(x);
+    }
+
+    private static double deviation(double sum, double sum2, int n) {
+        if (n < 2) return Double.NaN;
+        double avg = sum/n;
+        double var = (sum2/n - avg*avg)*n/(n-1);
+        return var > 0 ? Math.sqrt(var) : 0;
+    }
+
+    /**
+     * Tabulates the samples' reduced potentials in every state.
+     */
+    protected void setup() {
+        nSamples = sampleX.size();
+        if (nSamples == 0) {
+            throw new IllegalStateException("no samples");
+        }
+        u = new double[nStates][nSamples];
+        lnWeight = new double[nSamples];
+        weight = new double[nSamples];
+        state = new int[nSamples];
+        double[] nk = new double[nStates];
+        for (int n=0; n<nSamples; n++) {
+            weight[n] = sampleWeight.get(n);
+            lnWeight[n] = Math.log(weight[n]);
+            state[n] = sampleState.get(n);
+            nk[state[n]] += weight[n];
+        }
+        lnN = new double[nStates];
+        for (int k=0; k<nStates; k++) {
+            if (nk[k] == 0) {
+                throw new IllegalStateException("no samples from state "+k);
+            }
+            lnN[k] = Math.log(nk[k]);
+            u[k] = tabulate(states[k]);
+        }
+        lnDenominator = new double[nSamples];
+    }
+
+    protected double[] tabulate(SampleFunction function) {
+        double[] values = new double[nSamples];
+        for (int n=0; n<nSamples; n++) {
+            values[n] = function.f(sampleX.get(n));
+        }
+        return values;
+    }
+
+    /**
+     * Draws new sample weights for a bootstrap replicate.
+     */
+    protected void resample(IRandom random, double[] lnWeightBoot, double[] lnNBoot) {
+        double[] nk = new double[nStates];
+        for (int n=0; n<nSamples; n++) {
+            double w = poisson(random, weight[n]);
+            lnWeightBoot[n] = Math.log(w);
+            nk[state[n]] += w;
+        }
+        for (int k=0; k<nStates; k++) {
+            lnNBoot[k] = Math.log(nk[k]);
+        }
+    }
+
+    /**
+     * Returns a random number from the Poisson distribution with the given
+     * mean.
+     */
+    protected static double poisson(IRandom random, double mean) {
+        if (mean > 30) {
+            // normal approximation is good enough here
+            double x = Math.round(mean + Math.sqrt(mean)*random.nextGaussian());
+            return x < 0 ? 0 : x;
+        }
+        double limit = Math.exp(-mean);
+        double p = random.nextDouble();
+        int x = 0;
+        while (p > limit) {
+            p *= random.nextDouble();
+            x++;
+        }
+        return x;
+    }
+
+    /**
+     * Solves the equations for the given sample weights, starting from (and
+     * overwriting) fStart.  The denominators of the last iteration are left
+     * in lnDenominator.  Returns the number of iterations.
+     * <p>
+     * Each iteration computes, for every state i, the sum over samples of
+     * W_in = w_n exp(f_i - u_i(x_n)) / sum_j N_j exp(f_j - u_j(x_n)), which
+     * is 1 at the solution.  The self-consistent update is then
+     * f_i -= ln(sum_n W_in).  Far from the solution that update is taken;
+     * close to it, a Newton-Raphson step (which also needs the sums of
+     * W_in W_jn) converges in a few iterations where the self-consistent
+     * update can take thousands when the states overlap poorly.
+     */
+    protected int iterate(final double[] lnW, final double[] lnNk, final double[] fStart) {
+        final double[] fOld = fStart;
+        final double[][] partialS = new double[numThreads][nStates];
+        final double[][] partialM = new double[numThreads][nStates*nStates];
+        final boolean[] newton = new boolean[1];
+        double[] nk = new double[nStates];
+        for (int k=0; k<nStates; k++) {
+            nk[k] = Math.exp(lnNk[k]);
+        }
+        double[] delta = new double[nStates];
+        for (int iter=1; iter<=maxIterations; iter++) {
+            taskRunner.run(numThreads, new Task() {
+                public void run(int iThread) {
+                    int start = (int)((long)nSamples*iThread/numThreads);
+                    int end = (int)((long)nSamples*(iThread+1)/numThreads);
+                    computeDenominators(lnNk, fOld, start, end);
+                    sumWeights(lnW, fOld, start, end, partialS[iThread], newton[0] ? partialM[iThread] : null);
+                }
+            });
+            double[] sumW = partialS[0].clone();
+            for (int t=1; t<numThreads; t++) {
+                for (int k=0; k<nStates; k++) {
+                    sumW[k] += partialS[t][k];
+                }
+            }
+            double maxDelta = 0;
+            for (int k=0; k<nStates; k++) {
+                // a state with no samples (possible in a bootstrap replicate)
+                // does not enter the equations
+                delta[k] = nk[k] == 0 ? 0 : -Math.log(sumW[k]);
+            }
+            for (int k=nStates-1; k>=0; k--) {
+                delta[k] -= delta[0];
+                maxDelta = Math.max(maxDelta, Math.abs(delta[k]));
+            }
+            if (Double.isNaN(maxDelta)) {
+                throw new RuntimeException("MBAR iteration produced NaN");
+            }
+            if (newton[0]) {
+                double[] newtonDelta = newtonStep(sumW, partialM, nk);
+                double maxNewton = 0;
+                for (int k=0; k<nStates; k++) {
+                    maxNewton = Math.max(maxNewton, Math.abs(newtonDelta[k]));
+                }
+                if (!Double.isNaN(maxNewton)) {
+                    // the objective is convex, but keep steps from a poorly
+                    // conditioned Hessian within reason
+                    double scale = maxNewton > 1 ? 1/maxNewton : 1;
+                    for (int k=0; k<nStates; k++) {
+                        delta[k] = scale*newtonDelta[k];
+                    }
+                    maxDelta = scale*maxNewton;
+                }
+            }
+            for (int k=0; k<nStates; k++) {
+                fOld[k] += delta[k];
+            }
+            if (maxDelta < tolerance) {
+                // make the denominators consistent with the final f
+                taskRunner.run(numThreads, new Task() {
+                    public void run(int iThread) {
+                        int start = (int)((long)nSamples*iThread/numThreads);
+                        int end = (int)((long)nSamples*(iThread+1)/numThreads);
+                        computeDenominators(lnNk, fOld, start, end);
+                    }
+                });
+                return iter;
+            }
+            newton[0] = maxDelta < 0.1;
+        }
+        throw new RuntimeException("MBAR did not converge in "+maxIterations+" iterations");
+    }
+
+    /**
+     * Accumulates sum_n W_in for samples start to end-1 into sumW, and if
+     * sumWW is not null, sum_n W_in W_jn / w_n into sumWW (as a flattened
+     * matrix).
+     */
+    protected void sumWeights(double[] lnW, double[] fk, int start, int end, double[] sumW, double[] sumWW) {
+        double[] lnD = lnDenominator;
+        for (int k=0; k<nStates; k++) {
+            double[] uk = u[k];
+            double c = fk[k];
+            double sum = 0;
+            for (int n=start; n<end; n++) {
+                sum += exp(lnW[n] + c - uk[n] - lnD[n]);
+            }
+            sumW[k] = sum;
+        }
+        if (sumWW == null) return;
+        Arrays.fill(sumWW, 0);
+        double[] w = new double[nStates];
+        for (int n=start; n<end; n++) {
+            if (lnW[n] == Double.NEGATIVE_INFINITY) continue;
+            for (int k=0; k<nStates; k++) {
+                w[k] = exp(fk[k] - u[k][n] - lnD[n]);
+            }
+            double wn = Math.exp(lnW[n]);
+            for (int i=0; i<nStates; i++) {
+                double wi = wn*w[i];
+                for (int j=i; j<nStates; j++) {
+                    sumWW[i*nStates+j] += wi*w[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the Newton-Raphson step for the free energies (with f_0 held
+     * fixed), minimizing sum_n w_n ln sum_k N_k exp(f_k-u_k(x_n)) - sum_k N_k f_k.
+     */
+    protected double[] newtonStep(double[] sumW, double[][] partialM, double[] nk) {
+        double[] step = new double[nStates];
+        // states without samples are held fixed along with state 0
+        int[] free = new int[nStates];
+        int nFree = 0;
+        for (int k=1; k<nStates; k++) {
+            if (nk[k] > 0) free[nFree++] = k;
+        }
+        if (nFree == 0) return step;
+        Matrix hessian = new Matrix(nFree, nFree);
+        Matrix gradient = new Matrix(nFree, 1);
+        for (int a=0; a<nFree; a++) {
+            int i = free[a];
+            gradient.set(a, 0, nk[i]*(sumW[i] - 1));
+            for (int b=a; b<nFree; b++) {
+                int j = free[b];
+                double m = 0;
+                for (int t=0; t<partialM.length; t++) {
+                    m += partialM[t][i*nStates+j];
+                }
+                double h = -nk[i]*nk[j]*m;
+                if (a == b) h += nk[i]*sumW[i];
+                hessian.set(a, b, h);
+                hessian.set(b, a, h);
+            }
+        }
+        try {
+            Matrix x = hessian.solve(gradient);
+            for (int a=0; a<nFree; a++) {
+                step[free[a]] = -x.get(a, 0);
+            }
+        }
+        catch (RuntimeException e) {
+            // singular; let the caller take the self-consistent step
+            step[0] = Double.NaN;
+        }
+        return step;
+    }
+
+    /**
+     * Computes ln sum_j N_j exp(f_j - u_j(x_n)) for samples start to end-1.
+     */
+    protected void computeDenominators(double[] lnNk, double[] fk, int start, int end) {
+        double[] lnD = lnDenominator;
+        for (int n=start; n<end; n++) {
+            lnD[n] = Double.NEGATIVE_INFINITY;
+        }
+        // first pass finds the largest term for each sample
+        for (int k=0; k<nStates; k++) {
+            double c = lnNk[k] + fk[k];
+            double[] uk = u[k];
+            for (int n=start; n<end; n++) {
+                double t = c - uk[n];
+                if (t > lnD[n]) lnD[n] = t;
+            }
+        }
+        double[] sum = new double[end-start];
+        for (int k=0; k<nStates; k++) {
+            double c = lnNk[k] + fk[k];
+            if (c == Double.NEGATIVE_INFINITY) continue;
+            double[] uk = u[k];
+            for (int n=start; n<end; n++) {
+                sum[n-start] += exp(c - uk[n] - lnD[n]);
+            }
+        }
+        for (int n=start; n<end; n++) {
+            lnD[n] += Math.log(sum[n-start]);
+        }
+    }
+
+    /**
+     * Returns ln sum_n a_n exp(lnW_n - uk_n - lnD_n), or with a_n = 1 if a is null.
+     */
+    protected double logSumExp(double[] lnW, double[] uk, double[] a, double[] lnD) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int n=0; n<nSamples; n++) {
+            double t = lnW[n] - uk[n] - lnD[n];
+            if (t > max) max = t;
+        }
+        if (max == Double.NEGATIVE_INFINITY) return max;
+        double sum = 0;
+        for (int n=0; n<nSamples; n++) {
+            double e = exp(lnW[n] - uk[n] - lnD[n] - max);
+            sum += a == null ? e : a[n]*e;
+        }
+        return max + Math.log(sum);
+    }
+
+    protected double average(double[] lnW, double[] lnD, double[] uTarget, double[] a) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int n=0; n<nSamples; n++) {
+            double t = lnW[n] - uTarget[n] - lnD[n];
+            if (t > max) max = t;
+        }
+        double sum = 0, sumA = 0;
+        for (int n=0; n<nSamples; n++) {
+            double e = exp(lnW[n] - uTarget[n] - lnD[n] - max);
+            sum += e;
+            sumA += a[n]*e;
+        }
+        return sumA/sum;
+    }
+
+    protected final SampleFunction[] states;
+    protected final int nStates;
+    protected final List<Integer> sampleState;
+    protected final List<double[]> sampleX;
+    protected final List<Double> sampleWeight;
+    protected int nSamples;
+    protected double[][] u;
+    protected int[] state;
+    protected double[] weight, lnWeight, lnN, lnDenominator;
+    protected double[] f;
+    protected boolean solved;
+    protected double tolerance;
+    protected int maxIterations, iterations;
+    protected int numThreads;
+    protected final ParallelTaskRunner taskRunner = new ParallelTaskRunner("MBAR worker");
+}
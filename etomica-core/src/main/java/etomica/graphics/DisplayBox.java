@@ -95,6 +95,8 @@ public class DisplayBox extends Display {
     private boolean drawOverflow = false;
     
     protected final Controller controller;
+
+    protected volatile DisplayBoxSnapshot snapshot;
   
     /**
      * Warning: after instantiation, clients using G3DSys may need to toggle
@@ -301,6 +303,9 @@ public class DisplayBox extends Display {
 
     	IBox oldBox = box;
     	box = p;
+    	if (snapshot != null) {
+    	    snapshot.reset();
+    	}
     	if(p == null) {
             canvas = null;
             return;
@@ -537,10 +542,33 @@ public class DisplayBox extends Display {
      * Repaint the graphic associated with the display box.
      */
     public void repaint() {
+        if (snapshot != null && box != null) {
+            snapshot.capture();
+        }
         if (canvas != null) {
             canvas.repaint();
         }
     }
+
+    /**
+     * Sets the snapshot used to draw the box.  With a snapshot, repaint()
+     * (called by the integrator's paint action) only captures the atoms'
+     * positions and colors, and the canvas draws the latest captured frame
+     * on the Swing thread, so that drawing does not hold up the integrator.
+     * Without one (the default), the box is drawn directly from the atoms on
+     * the thread that calls repaint().
+     */
+    public void setSnapshot(DisplayBoxSnapshot newSnapshot) {
+        snapshot = newSnapshot;
+    }
+
+    /**
+     * Returns the snapshot used to draw the box, or null if the box is drawn
+     * directly from the atoms.
+     */
+    public DisplayBoxSnapshot getSnapshot() {
+        return snapshot;
+    }
       
     //Methods for handling DisplayBoxEvents
     
@@ -38,6 +38,7 @@ public class DisplayBoxCanvas2D extends DisplayCanvas {
     private int[] shiftOrigin = new int[2];     //work vector for drawing overflow images
     private final int[] atomOrigin;
     private final IVectorMutable boundingBox;
+    private final IVectorMutable snapshotPosition, overflowPosition;
     protected final ISpace space;
         
     public DisplayBoxCanvas2D(DisplayBox _box, ISpace _space, Controller controller) {
@@ -49,6 +50,8 @@ public class DisplayBoxCanvas2D extends DisplayCanvas {
         displayBox = _box;
         atomOrigin = new int[space.D()];
         boundingBox = space.makeVector();
+        snapshotPosition = space.makeVector();
+        overflowPosition = space.makeVector();
         
         addComponentListener(new ComponentListener() {
             public void componentHidden(ComponentEvent e) {}
@@ -97,21 +100,37 @@ public class DisplayBoxCanvas2D extends DisplayCanvas {
     }
        
     protected void drawAtom(Graphics g, int origin[], IAtom a) {
-        IVectorMutable r = a.getPosition();
+        double sigma = displayBox.getDiameterHash().getDiameter(a);
+        // default diameter
+        if (sigma == -1) sigma = 1;
+        drawAtom(g, origin, a, a.getPosition(), displayBox.getColorScheme().getAtomColor(a), sigma);
+    }
+
+    /**
+     * Draws the i-th atom of a snapshot frame.  Subclasses that override
+     * drawAtom(Graphics, int[], IAtom) to draw something other than the
+     * atom's position, color and diameter should override this as well.
+     */
+    protected void drawAtom(Graphics g, int origin[], DisplayBoxSnapshot.Frame frame, int i) {
+        frame.assignPosition(i, snapshotPosition);
+        drawAtom(g, origin, frame.getAtom(i), snapshotPosition, frame.getColor(i), frame.getDiameter(i));
+    }
+
+    /**
+     * Draws atom a at position r with the given color and diameter.
+     */
+    protected void drawAtom(Graphics g, int origin[], IAtom a, IVector r, Color color, double sigma) {
         int sigmaP, xP, yP, baseXP, baseYP;
 
         boolean drawOrientation = (a.getType() instanceof AtomTypeOrientedSphere);
 
-        g.setColor(displayBox.getColorScheme().getAtomColor(a));
+        g.setColor(color);
         
         double toPixels = pixel.toPixels() * displayBox.getScale();
 
         baseXP = origin[0] + (int)(toPixels*r.getX(0));
         baseYP = origin[1] + (int)(toPixels*r.getX(1));
         /* Draw the core of the atom, specific to the dimension */
-        double sigma = displayBox.getDiameterHash().getDiameter(a);
-        // default diameter
-        if (sigma == -1) sigma = 1;
         sigmaP = (int)(toPixels*sigma);
         sigmaP = (sigmaP == 0) ? 1 : sigmaP;
         xP = baseXP - (sigmaP>>1);
@@ -188,6 +207,44 @@ public class DisplayBoxCanvas2D extends DisplayCanvas {
 //        Vector vec2 = displayBox.getBox().getBoundary().centralImage(vec);
 
         //Draw all atoms
+        DisplayBoxSnapshot snapshot = displayBox.getSnapshot();
+        DisplayBoxSnapshot.Frame frame = snapshot == null ? null : snapshot.acquire();
+        if (frame != null) {
+            try {
+                drawFrame(g, origin, toPixels, frame);
+            }
+            finally {
+                snapshot.release(frame);
+            }
+        }
+        else {
+            drawAtoms(g, origin, toPixels);
+        }
+
+        //Draw periodic images if indicated ONLY for an etomica Boundary
+        if(displayBox.getBox().getBoundary() instanceof Boundary) {
+        	if(displayBox.getImageShells() > 0) {
+
+	            double[][] origins = ((Boundary)displayBox.getBox().getBoundary()).imageOrigins(displayBox.getImageShells());  //more efficient to save rather than recompute each time
+	            for(int i=0; i<origins.length; i++) {
+	                g.copyArea(displayBox.getOrigin()[0],displayBox.getOrigin()[1],displayBox.getDrawSize()[0],displayBox.getDrawSize()[1],(int)(toPixels*origins[i][0]),(int)(toPixels*origins[i][1]));
+	            }
+        	}
+        }
+        //Draw bar showing scale if indicated
+        if(writeScale) {
+            g.setColor(Color.lightGray);
+            g.fillRect(0,getSize().height-annotationHeight,getSize().width,annotationHeight);
+            g.setColor(Color.black);
+            g.setFont(font);
+            g.drawString("Scale: "+Integer.toString((int)(100*displayBox.getScale()))+"%", 0, getSize().height-3);
+        }
+    }//end of doPaint
+
+    /**
+     * Draws the atoms (and their overflow images) directly from the box.
+     */
+    protected void drawAtoms(Graphics g, int[] origin, double toPixels) {
         if(displayBox.getColorScheme() instanceof ColorSchemeCollective) {
             ((ColorSchemeCollective)displayBox.getColorScheme()).colorAllAtoms();
         }
@@ -224,24 +281,36 @@ public class DisplayBoxCanvas2D extends DisplayCanvas {
                 }
             }
         }
+    }
 
-        //Draw periodic images if indicated ONLY for an etomica Boundary
-        if(displayBox.getBox().getBoundary() instanceof Boundary) {
-        	if(displayBox.getImageShells() > 0) {
-
-	            double[][] origins = ((Boundary)displayBox.getBox().getBoundary()).imageOrigins(displayBox.getImageShells());  //more efficient to save rather than recompute each time
-	            for(int i=0; i<origins.length; i++) {
-	                g.copyArea(displayBox.getOrigin()[0],displayBox.getOrigin()[1],displayBox.getDrawSize()[0],displayBox.getDrawSize()[1],(int)(toPixels*origins[i][0]),(int)(toPixels*origins[i][1]));
-	            }
-        	}
+    /**
+     * Draws the atoms (and their overflow images) from a snapshot frame.
+     */
+    protected void drawFrame(Graphics g, int[] origin, double toPixels, DisplayBoxSnapshot.Frame frame) {
+        int nLeaf = frame.getAtomCount();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            if(frame.hasFilter() && frame.isAccepted(iLeaf)) continue;
+            if(this instanceof DisplayBoxSpin2D) {
+                drawAtom(g, origin, frame, iLeaf);
+            }
+            else {
+                drawAtom(g, atomOrigin, frame, iLeaf);
+            }
         }
-        //Draw bar showing scale if indicated
-        if(writeScale) {
-            g.setColor(Color.lightGray);
-            g.fillRect(0,getSize().height-annotationHeight,getSize().width,annotationHeight);
-            g.setColor(Color.black);
-            g.setFont(font);
-            g.drawString("Scale: "+Integer.toString((int)(100*displayBox.getScale()))+"%", 0, getSize().height-3);
+
+        //Draw overflow images if so indicated
+        if(displayBox.getDrawOverflow()) {
+            IBoundary boundary = displayBox.getBox().getBoundary();
+            for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+                OverflowShift overflow = new OverflowShift(space);
+                frame.assignPosition(iLeaf, overflowPosition);
+                float[][] shifts = overflow.getShifts(boundary, overflowPosition, 0.5*frame.getDiameter(iLeaf));
+                for(int i=shifts.length-1; i>=0; i--) {
+                    shiftOrigin[0] = atomOrigin[0] + (int)(toPixels*shifts[i][0]);
+                    shiftOrigin[1] = atomOrigin[1] + (int)(toPixels*shifts[i][1]);
+                    drawAtom(g, shiftOrigin, frame, iLeaf);
+                }
+            }
         }
-    }//end of doPaint
+    }
 }  //end of DisplayBox.Canvas
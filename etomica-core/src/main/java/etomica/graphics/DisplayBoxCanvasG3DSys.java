@@ -66,7 +66,7 @@ public class DisplayBoxCanvasG3DSys extends DisplayCanvas implements
     protected LineSegment[] lines;
     protected Line[] lineFigures;
     private IVectorMutable[] planeIntersections;
-    private IVectorMutable work, work2, work3;
+    private IVectorMutable work, work2, work3, snapshotPosition;
     private double[] planeAngles;
     private final ISpace space;
     protected AtomLeafAgentManager<Ball[]> aamOriented;
@@ -110,6 +110,7 @@ public class DisplayBoxCanvasG3DSys extends DisplayCanvas implements
         planeAngles = new double[0];
         work = space.makeVector();
         work2 = space.makeVector();
+        snapshotPosition = space.makeVector();
         work3 = space.makeVector();
 
         pixel = new Pixel();
@@ -272,106 +273,15 @@ public class DisplayBoxCanvasG3DSys extends DisplayCanvas implements
         }
 */
 
-		AtomFilter atomFilter = displayBox.getAtomFilter();
-        if (atomFilter instanceof AtomFilterCollective) {
-            ((AtomFilterCollective)atomFilter).resetFilter();
-        }
-        ColorScheme colorScheme = displayBox.getColorScheme();
-		if (colorScheme instanceof ColorSchemeCollective) {
-			((ColorSchemeCollective) colorScheme).colorAllAtoms();
+		DisplayBoxSnapshot snapshot = displayBox.getSnapshot();
+		DisplayBoxSnapshot.Frame frame = snapshot == null ? null : snapshot.acquire();
+		try {
+		    drawAtoms(frame);
 		}
-
-		DiameterHash diameterHash = displayBox.getDiameterHash();
-
-		IAtomList leafList = displayBox.getBox().getLeafList();
-		int nLeaf = leafList.getAtomCount();
-
-		for (int iLeaf = 0; iLeaf < nLeaf; iLeaf++) {
-		    IAtom a = null;
-		    Ball ball = null;
-		    try {
-		        a = leafList.getAtom(iLeaf);
-	            if (a == null)
-	                continue;
-	            ball = (Ball) aam.getAgent(a);
+		finally {
+		    if (frame != null) {
+		        snapshot.release(frame);
 		    }
-		    catch (ArrayIndexOutOfBoundsException e) {
-		        System.out.println("oops, array index out of bounds");
-		        //atoms might have been removed on another thread
-		        break;
-		    }
-            catch (IndexOutOfBoundsException e) {
-                System.out.println("oops, index out of bounds");
-                //atoms might have been removed on another thread
-                break;
-            }
-			if (ball == null) {
-				continue;
-			}
-			/*
-			 * Atomfilter changes the drawable flag in spheres; bonds respect
-			 * this and will not draw themselves either. Wireframe mode, on the
-			 * other hand, tells G3DSys to ignore spheres entirely regardless of
-			 * drawable flag. This makes it possible to filter bonds in
-			 * wireframe mode as well.
-			 */
-			boolean drawable = atomFilter == null ? true : atomFilter.accept(a);
-			if (drawable && rMin != null) {
-			    for (int i=0; i<rMin.getD(); i++) {
-			        double x = a.getPosition().getX(i);
-			        if (x < rMin.getX(i) || x > rMax.getX(i)) {
-			            drawable = false;
-			            break;
-			        }
-			    }
-			}
-			ball.setDrawable(drawable);
-			if (!drawable) {
-				continue;
-			}
-			a.getPosition().assignTo(coords);
-			float diameter = (float) diameterHash.getDiameter(a);
-            // default diameter
-	        if (diameter == -1) diameter = 1;
-			ball.setColor(G3DSys.getColix(colorScheme.getAtomColor(a)));
-			ball.setD(diameter);
-			ball.setX((float) coords[0]);
-			ball.setY((float) coords[1]);
-			ball.setZ((float) coords[2]);
-
-			OrientedSite[] sites = (OrientedSite[])atomTypeOrientedManager.getAgent(a.getType());
-			if (sites != null) {
-			    Ball[] ballSites = aamOriented.getAgent(a);
-			    if (ballSites == null) {
-		            ballSites = new Ball[sites.length];
-		            for (int j=0; j<sites.length; j++) {
-		                ballSites[j] = new Ball(gsys, G3DSys.getColix(sites[j].color), 0, 0, 0, (float)sites[j].diameter);
-		                gsys.addFig(ballSites[j]);
-		            }
-		            aamOriented.setAgent(a, ballSites);
-			    }
-			    IOrientation orientation = ((IAtomOriented)a).getOrientation();
-			    IVector direction1 = orientation.getDirection();
-			    IVector direction2 = null;
-			    if (orientation instanceof IOrientationFull3D) {
-			        direction2 = ((IOrientationFull3D)orientation).getSecondaryDirection();
-	                work2.E(direction1);
-	                work2.XE(direction2);
-			    }
-			    
-			    for (int j=0; j<sites.length; j++) {
-			        work.E(a.getPosition());
-			        work.PEa1Tv1(sites[j].coord, direction1);
-			        if (sites[j] instanceof OrientedFullSite) {
-			            work.PEa1Tv1(((OrientedFullSite)sites[j]).coord2, direction2);
-			            work.PEa1Tv1(((OrientedFullSite)sites[j]).coord3, work2);
-			        }
-			        work.assignTo(coords);
-			        ballSites[j].setX((float) coords[0]);
-			        ballSites[j].setY((float) coords[1]);
-			        ballSites[j].setZ((float) coords[2]);
-			    }
-			}
 		}
 
         for (int i=0; i<lines.length; i++) {
@@ -487,6 +397,147 @@ public class DisplayBoxCanvasG3DSys extends DisplayCanvas implements
 		gsys.fastRefresh();
 	}
 
+    /**
+     * Updates the balls for the atoms, either from the given snapshot frame
+     * or (if the frame is null) directly from the box.
+     */
+    protected void drawAtoms(DisplayBoxSnapshot.Frame frame) {
+		AtomFilter atomFilter = displayBox.getAtomFilter();
+		ColorScheme colorScheme = displayBox.getColorScheme();
+		if (frame == null) {
+	        if (atomFilter instanceof AtomFilterCollective) {
+	            ((AtomFilterCollective)atomFilter).resetFilter();
+	        }
+			if (colorScheme instanceof ColorSchemeCollective) {
+				((ColorSchemeCollective) colorScheme).colorAllAtoms();
+			}
+		}
+
+		DiameterHash diameterHash = displayBox.getDiameterHash();
+
+		IAtomList leafList = displayBox.getBox().getLeafList();
+		int nLeaf = frame == null ? leafList.getAtomCount() : frame.getAtomCount();
+
+		for (int iLeaf = 0; iLeaf < nLeaf; iLeaf++) {
+		    IAtom a = null;
+		    Ball ball = null;
+		    try {
+		        if (frame == null) {
+		            a = leafList.getAtom(iLeaf);
+		        }
+		        else {
+		            a = frame.getAtom(iLeaf);
+		            // skip atoms removed since the frame was captured
+		            int leafIndex = a.getLeafIndex();
+		            if (leafIndex < 0 || leafIndex >= leafList.getAtomCount() || leafList.getAtom(leafIndex) != a) {
+		                continue;
+		            }
+		        }
+	            if (a == null)
+	                continue;
+	            ball = (Ball) aam.getAgent(a);
+		    }
+		    catch (ArrayIndexOutOfBoundsException e) {
+		        System.out.println("oops, array index out of bounds");
+		        //atoms might have been removed on another thread
+		        break;
+		    }
+            catch (IndexOutOfBoundsException e) {
+                System.out.println("oops, index out of bounds");
+                //atoms might have been removed on another thread
+                break;
+            }
+			if (ball == null) {
+				continue;
+			}
+			IVector r;
+			if (frame == null) {
+			    r = a.getPosition();
+			}
+			else {
+			    frame.assignPosition(iLeaf, snapshotPosition);
+			    r = snapshotPosition;
+			}
+			/*
+			 * Atomfilter changes the drawable flag in spheres; bonds respect
+			 * this and will not draw themselves either. Wireframe mode, on the
+			 * other hand, tells G3DSys to ignore spheres entirely regardless of
+			 * drawable flag. This makes it possible to filter bonds in
+			 * wireframe mode as well.
+			 */
+			boolean drawable;
+			if (frame == null) {
+			    drawable = atomFilter == null ? true : atomFilter.accept(a);
+			}
+			else {
+			    drawable = frame.isAccepted(iLeaf);
+			}
+			if (drawable && rMin != null) {
+			    for (int i=0; i<rMin.getD(); i++) {
+			        double x = r.getX(i);
+			        if (x < rMin.getX(i) || x > rMax.getX(i)) {
+			            drawable = false;
+			            break;
+			        }
+			    }
+			}
+			ball.setDrawable(drawable);
+			if (!drawable) {
+				continue;
+			}
+			r.assignTo(coords);
+			float diameter;
+			if (frame == null) {
+			    diameter = (float) diameterHash.getDiameter(a);
+	            // default diameter
+		        if (diameter == -1) diameter = 1;
+				ball.setColor(G3DSys.getColix(colorScheme.getAtomColor(a)));
+			}
+			else {
+			    diameter = (float) frame.getDiameter(iLeaf);
+			    ball.setColor(G3DSys.getColix(frame.getColor(iLeaf)));
+			}
+			ball.setD(diameter);
+			ball.setX((float) coords[0]);
+			ball.setY((float) coords[1]);
+			ball.setZ((float) coords[2]);
+
+			OrientedSite[] sites = (OrientedSite[])atomTypeOrientedManager.getAgent(a.getType());
+			if (sites != null) {
+			    Ball[] ballSites = aamOriented.getAgent(a);
+			    if (ballSites == null) {
+		            ballSites = new Ball[sites.length];
+		            for (int j=0; j<sites.length; j++) {
+		                ballSites[j] = new Ball(gsys, G3DSys.getColix(sites[j].color), 0, 0, 0, (float)sites[j].diameter);
+		                gsys.addFig(ballSites[j]);
+		            }
+		            aamOriented.setAgent(a, ballSites);
+			    }
+			    IOrientation orientation = ((IAtomOriented)a).getOrientation();
+			    IVector direction1 = orientation.getDirection();
+			    IVector direction2 = null;
+			    if (orientation instanceof IOrientationFull3D) {
+			        direction2 = ((IOrientationFull3D)orientation).getSecondaryDirection();
+	                work2.E(direction1);
+	                work2.XE(direction2);
+			    }
+			    
+			    for (int j=0; j<sites.length; j++) {
+			        work.E(r);
+			        work.PEa1Tv1(sites[j].coord, direction1);
+			        if (sites[j] instanceof OrientedFullSite) {
+			            work.PEa1Tv1(((OrientedFullSite)sites[j]).coord2, direction2);
+			            work.PEa1Tv1(((OrientedFullSite)sites[j]).coord3, work2);
+			        }
+			        work.assignTo(coords);
+			        ballSites[j].setX((float) coords[0]);
+			        ballSites[j].setY((float) coords[1]);
+			        ballSites[j].setZ((float) coords[2]);
+			    }
+			}
+		}
+    }
+
     public void addLine(LineSegment newLine) {
         lines = (LineSegment[])Arrays.addObject(lines, newLine);
         IVector[] endpoints = newLine.getVertices();
@@ -0,0 +1,260 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graphics;
+
+import java.awt.Color;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IBox;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomFilter;
+import etomica.atom.AtomFilterCollective;
+import etomica.atom.DiameterHash;
+
+/**
+ * Holds copies of the positions, colors and diameters of the atoms in a
+ * DisplayBox's box, so that the box can be drawn on the Swing thread while
+ * the integrator continues to move the atoms.  The thread running the
+ * simulation calls capture(), which fills a free frame from a small pool and
+ * then publishes it as the latest frame; the canvas calls acquire() to get
+ * the latest complete frame, draws it, and hands it back with release().
+ * <p>
+ * Neither side ever waits for the other.  The pool holds three frames: the
+ * latest, one that the canvas may still be drawing, and one to fill.  If the
+ * canvas holds on to frames such that none is free, the capture is skipped.
+ * Captures that come sooner than the capture interval after the previous
+ * one are also skipped, so the display can be refreshed every step without
+ * copying the configuration every step.
+ * <p>
+ * Only atom positions, colors, diameters and the result of the atom filter
+ * are captured; orientations and other drawing state are read from the atoms
+ * when the frame is drawn.
+ *
+ * @see DisplayBox#setSnapshot(DisplayBoxSnapshot)
+ */
+public class DisplayBoxSnapshot {
+
+    public DisplayBoxSnapshot(DisplayBox displayBox, int D) {
+        this.displayBox = displayBox;
+        this.D = D;
+        pool = new Frame[3];
+        for (int i=0; i<pool.length; i++) {
+            pool[i] = new Frame(D);
+        }
+        latest = new AtomicReference<Frame>();
+        captureInterval = 0;
+        lastCapture = System.nanoTime();
+    }
+
+    /**
+     * Sets the minimum wall-clock time (in milliseconds) between captures.
+     * Default is 0, meaning every call to capture() copies the configuration.
+     */
+    public void setCaptureInterval(long newCaptureInterval) {
+        if (newCaptureInterval < 0) {
+            throw new IllegalArgumentException("capture interval must not be negative");
+        }
+        captureInterval = newCaptureInterval;
+    }
+
+    public long getCaptureInterval() {
+        return captureInterval;
+    }
+
+    /**
+     * Copies the current configuration of the box into a free frame and
+     * publishes it.  Returns false if the capture was skipped, because the
+     * capture interval has not passed or because no frame was free.
+     */
+    public synchronized boolean capture() {
+        long now = System.nanoTime();
+        Frame current = latest.get();
+        if (current != null && now - lastCapture < captureInterval*1000000L) {
+            return false;
+        }
+        Frame frame = null;
+        for (int i=0; i<pool.length; i++) {
+            // a reader that got a stale reference backs off once it sees the
+            // frame is no longer the latest, so a frame with no readers that
+            // is not the latest can be overwritten
+            if (pool[i] != current && pool[i].readers.get() == 0) {
+                frame = pool[i];
+                break;
+            }
+        }
+        if (frame == null) {
+            return false;
+        }
+        lastCapture = now;
+
+        IBox box = displayBox.getBox();
+        ColorScheme colorScheme = displayBox.getColorScheme();
+        if (colorScheme instanceof ColorSchemeCollective) {
+            ((ColorSchemeCollective)colorScheme).colorAllAtoms();
+        }
+        AtomFilter atomFilter = displayBox.getAtomFilter();
+        if (atomFilter instanceof AtomFilterCollective) {
+            ((AtomFilterCollective)atomFilter).resetFilter();
+        }
+        DiameterHash diameterHash = displayBox.getDiameterHash();
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        frame.setAtomCount(nLeaf);
+        frame.hasFilter = atomFilter != null;
+        for (int i=0; i<nLeaf; i++) {
+            IAtom a = leafList.getAtom(i);
+            frame.atoms[i] = a;
+            IVectorMutable r = a.getPosition();
+            for (int j=0; j<D; j++) {
+                frame.positions[i*D+j] = r.getX(j);
+            }
+            frame.colors[i] = colorScheme.getAtomColor(a);
+            double sigma = diameterHash.getDiameter(a);
+            // default diameter
+            frame.diameters[i] = sigma == -1 ? 1 : sigma;
+            frame.accepted[i] = atomFilter == null || atomFilter.accept(a);
+        }
+        latest.set(frame);
+        return true;
+    }
+
+    /**
+     * Returns the latest complete frame, or null if nothing has been captured
+     * yet.  The frame will not be overwritten until it is passed to release().
+     */
+    public Frame acquire() {
+        while (true) {
+            Frame frame = latest.get();
+            if (frame == null) {
+                return null;
+            }
+            frame.readers.incrementAndGet();
+            if (latest.get() == frame) {
+                return frame;
+            }
+            // a newer frame was published before we claimed this one, so the
+            // capturing thread might already be filling it
+            frame.readers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a frame obtained from acquire() to the pool.
+     */
+    public void release(Frame frame) {
+        frame.readers.decrementAndGet();
+    }
+
+    /**
+     * Discards the captured frames, so that acquire() returns null until the
+     * next capture.  This should be called when the DisplayBox's box changes.
+     */
+    public void reset() {
+        latest.set(null);
+    }
+
+    /**
+     * The configuration of the box at one moment.  The atoms are listed in
+     * leaf order as of the capture, which may differ from the box's current
+     * leaf list if atoms have since been added or removed.
+     */
+    public static class Frame {
+
+        protected Frame(int D) {
+            this.D = D;
+            readers = new AtomicInteger();
+            setAtomCount(0);
+        }
+
+        protected void setAtomCount(int n) {
+            if (atoms == null || atoms.length < n) {
+                atoms = new IAtom[n];
+                positions = new double[n*D];
+                colors = new Color[n];
+                diameters = new double[n];
+                accepted = new boolean[n];
+            }
+            else {
+                // drop references to atoms beyond the end of the list
+                for (int i=n; i<atomCount; i++) {
+                    atoms[i] = null;
+                }
+            }
+            atomCount = n;
+        }
+
+        public int getAtomCount() {
+            return atomCount;
+        }
+
+        public IAtom getAtom(int i) {
+            return atoms[i];
+        }
+
+        /**
+         * Returns the given component of the i-th atom's position.
+         */
+        public double getX(int i, int j) {
+            return positions[i*D+j];
+        }
+
+        /**
+         * Copies the position of the i-th atom into r.
+         */
+        public void assignPosition(int i, IVectorMutable r) {
+            for (int j=0; j<D; j++) {
+                r.setX(j, positions[i*D+j]);
+            }
+        }
+
+        public Color getColor(int i) {
+            return colors[i];
+        }
+
+        /**
+         * Returns the diameter of the i-th atom, with the DiameterHash's
+         * default (-1) already replaced by 1.
+         */
+        public double getDiameter(int i) {
+            return diameters[i];
+        }
+
+        /**
+         * Returns true if the DisplayBox had an AtomFilter when the frame
+         * was captured.
+         */
+        public boolean hasFilter() {
+            return hasFilter;
+        }
+
+        /**
+         * Returns the result of the DisplayBox's AtomFilter for the i-th
+         * atom, or true if there was no filter.
+         */
+        public boolean isAccepted(int i) {
+            return accepted[i];
+        }
+
+        protected final int D;
+        protected final AtomicInteger readers;
+        protected int atomCount;
+        protected IAtom[] atoms;
+        protected double[] positions;
+        protected Color[] colors;
+        protected double[] diameters;
+        protected boolean[] accepted;
+        protected boolean hasFilter;
+    }
+
+    protected final DisplayBox displayBox;
+    protected final int D;
+    protected final Frame[] pool;
+    protected final AtomicReference<Frame> latest;
+    protected long captureInterval;
+    protected long lastCapture;
+}
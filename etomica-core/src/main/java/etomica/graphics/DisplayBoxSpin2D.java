@@ -48,6 +48,11 @@ public class DisplayBoxSpin2D extends DisplayBoxCanvas2D {
 //        g.drawRect(ox+latticeIndex[0]*spinWidth,oy+latticeIndex[1]*spinWidth,spinWidth,spinWidth);
     }
 
+    protected void drawAtom(Graphics g, int origin[], DisplayBoxSnapshot.Frame frame, int i) {
+        // the spin is drawn at its lattice site, not at the captured position
+        drawAtom(g, origin, frame.getAtom(i));
+    }
+
     private int spinWidth;
     private final int[] latticeIndex;
     private final NeighborSiteManager neighborSiteManager;
@@ -3,11 +3,13 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 
 package etomica.graphics;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.event.ComponentListener;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseListener;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import etomica.action.activity.Controller;
 import etomica.units.Pixel;
@@ -55,6 +57,14 @@ public abstract class DisplayCanvas extends javax.swing.JPanel {
     protected Pixel pixel;
     
     protected final Controller controller;
+
+    private final AtomicBoolean snapshotPaintPending = new AtomicBoolean();
+    private final Runnable snapshotPaint = new Runnable() {
+        public void run() {
+            snapshotPaintPending.set(false);
+            paintSnapshot();
+        }
+    };
     
     /**
      * Construct a DisplayCanvas using the given controller (which may be null).
@@ -109,16 +119,42 @@ public abstract class DisplayCanvas extends javax.swing.JPanel {
         g.drawImage(offScreen, 0, 0, null);
     }
 
-    public synchronized void repaint() {
-        // do the drawing work now (on this thread)
-        ensureOffScreen();
-        if (osg == null) {
+    public void repaint() {
+        if (displayBox != null && displayBox.getSnapshot() != null) {
+            // the box has been captured; draw it later on the Swing thread so
+            // that the caller (typically the integrator) doesn't wait.
+            // requests that come while one is pending are merged into it.
+            if (snapshotPaintPending.compareAndSet(false, true)) {
+                EventQueue.invokeLater(snapshotPaint);
+            }
             return;
         }
-        doPaint(osg);
+        synchronized (this) {
+            // do the drawing work now (on this thread)
+            ensureOffScreen();
+            if (osg == null) {
+                return;
+            }
+            doPaint(osg);
+        }
         // now dispatch the paint request, which will happen on another thread
         super.repaint();
     }
+
+    /**
+     * Draws the box from its snapshot and copies the image to the screen.
+     * This runs on the Swing thread.
+     */
+    protected void paintSnapshot() {
+        synchronized (this) {
+            ensureOffScreen();
+            if (osg == null) {
+                return;
+            }
+            doPaint(osg);
+        }
+        super.repaint();
+    }
     
     /**
      * Same as setSize, but included to implement DisplayCanvasInterface,
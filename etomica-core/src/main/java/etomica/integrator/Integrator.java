@@ -4,9 +4,14 @@
 
 package etomica.integrator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.api.IIntegrator;
 import etomica.api.IIntegratorEventManager;
 import etomica.api.IVectorMutable;
+import etomica.util.ICheckpointable;
 
 /**
  * Integrator implements the algorithm used to move the atoms around and
@@ -17,7 +22,7 @@ import etomica.api.IVectorMutable;
  * 
  * @author David Kofke and Andrew Schultz
  */
-public abstract class Integrator implements IIntegrator {
+public abstract class Integrator implements IIntegrator, ICheckpointable {
 
     protected boolean initialized = false;
     protected int interval;
@@ -113,6 +118,43 @@ public abstract class Integrator implements IIntegrator {
         iieCount = interval;
     }
     
+    /**
+     * Writes the step count, the position within the event interval and the
+     * number of steps since each of the event manager's interval listeners
+     * was last invoked.  Subclasses that keep additional state between steps
+     * should extend this (and restoreState).
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(stepCount);
+        out.writeInt(iieCount);
+        long[] listenerStepCounts = eventManager.getStepCounts();
+        out.writeInt(listenerStepCounts.length);
+        for (int i=0; i<listenerStepCounts.length; i++) {
+            out.writeLong(listenerStepCounts[i]);
+        }
+    }
+
+    /**
+     * Restores the state written by saveState.  The integrator is then
+     * considered initialized, so that the next call to reset will not start
+     * over (zeroing the step count, thermostatting, etc.).  The box(es) must
+     * be restored before calling this method, and the same listeners must
+     * have been added to the event manager, in the same order.
+     */
+    public void restoreState(DataInput in) throws IOException {
+        stepCount = in.readLong();
+        iieCount = in.readInt();
+        long[] listenerStepCounts = new long[in.readInt()];
+        for (int i=0; i<listenerStepCounts.length; i++) {
+            listenerStepCounts[i] = in.readLong();
+        }
+        if (listenerStepCounts.length != eventManager.getStepCounts().length) {
+            throw new IOException("checkpoint has "+listenerStepCounts.length+" integrator listeners, but integrator has "+eventManager.getStepCounts().length);
+        }
+        eventManager.setStepCounts(listenerStepCounts);
+        initialized = true;
+    }
+
     /**
      * Integrator agent that holds a force vector. Used to indicate that an atom
      * could be under the influence of a force.
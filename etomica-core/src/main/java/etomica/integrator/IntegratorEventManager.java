@@ -8,12 +8,28 @@ import java.util.ArrayList;
 
 import etomica.api.IIntegratorEventManager;
 import etomica.api.IIntegratorListener;
+import etomica.api.IIntegratorListenerInterval;
 import etomica.api.IIntegratorListenerMD;
 
+/**
+ * Event manager for an Integrator.  The set of listeners is compiled into
+ * flat arrays whenever a listener is added or removed, so firing an event
+ * makes no type checks and allocates nothing.  Listeners implementing
+ * IIntegratorListenerInterval are only invoked once their interval has
+ * passed; the manager advances the step count held by each listener, and
+ * reads the interval every step, so a change takes effect immediately.
+ * Adding and removing listeners replaces the compiled arrays (copy on
+ * write), so firing takes no lock: an event fired while another thread adds
+ * a listener goes to the listeners present when it started.
+ */
 public class IntegratorEventManager implements IIntegratorEventManager {
 
     protected final ArrayList<IIntegratorListener> intervalListeners = new ArrayList<IIntegratorListener>();
     protected boolean eventing;
+    // compiled listener sets.  Each is replaced (never modified) when a
+    // listener is added or removed.
+    protected volatile CompiledListeners compiled = new CompiledListeners(new IIntegratorListener[0]);
+    protected volatile IIntegratorListenerMD[] mdListeners = new IIntegratorListenerMD[0];
 
     public synchronized void addListener(IIntegratorListener newListener) {
         if(newListener == null) throw new NullPointerException("Cannot add null as a listener to Integrator");
@@ -21,49 +37,161 @@ public class IntegratorEventManager implements IIntegratorEventManager {
             throw new RuntimeException(newListener+" is already an interval action");
         }
         intervalListeners.add(newListener);
+        compile();
     }
 
     public synchronized void removeListener(IIntegratorListener listener) {
         intervalListeners.remove(listener);
+        compile();
+    }
+
+    /**
+     * Rebuilds the arrays of listeners used when firing events.
+     */
+    protected void compile() {
+        ArrayList<IIntegratorListenerMD> md = new ArrayList<IIntegratorListenerMD>();
+        for (IIntegratorListener l : intervalListeners) {
+            if (l instanceof IIntegratorListenerMD) {
+                md.add((IIntegratorListenerMD)l);
+            }
+        }
+        compiled = new CompiledListeners(intervalListeners.toArray(new IIntegratorListener[intervalListeners.size()]));
+        mdListeners = md.toArray(new IIntegratorListenerMD[md.size()]);
     }
 
     public boolean firingEvent() {
         return eventing;
     }
 
-    public synchronized void stepStarted() {
+    public void stepStarted() {
         eventing = true;
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).integratorStepStarted(null);
+        IIntegratorListener[] listeners = compiled.stepListeners;
+        for(int i = 0; i < listeners.length; i++) {
+            listeners[i].integratorStepStarted(null);
         }
         eventing = false;
     }
 
-    public synchronized void stepFinished() {
+    public void stepFinished() {
         eventing = true;
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).integratorStepFinished(null);
+        CompiledListeners c = compiled;
+        IIntegratorListener[] listeners = c.listeners;
+        IIntegratorListenerInterval[] counted = c.intervalListeners;
+        for(int i = 0; i < listeners.length; i++) {
+            if (counted[i] == null) {
+                listeners[i].integratorStepFinished(null);
+                continue;
+            }
+            long count = counted[i].getIntervalCount()+1;
+            if (count >= counted[i].getEventInterval()) {
+                counted[i].integratorIntervalFinished();
+            }
+            else {
+                counted[i].setIntervalCount(count);
+            }
         }
         eventing = false;
     }
 
-    public synchronized void initialized() {
+    /**
+     * Returns true if calling stepFinished now would invoke at least one
+     * listener.  An integrator that keeps its own copy of the coordinates can
+     * use this to update the atoms only when a listener will look at them.
+     */
+    public boolean isListenerDue() {
+        CompiledListeners c = compiled;
+        if (c.stepListeners.length > 0) return true;
+        IIntegratorListenerInterval[] counted = c.intervalListeners;
+        for (int i = 0; i < counted.length; i++) {
+            if (counted[i] != null && counted[i].getIntervalCount()+1 >= counted[i].getEventInterval()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if any listener implements IIntegratorListenerMD, and so
+     * will hear about forceComputed.
+     */
+    public boolean hasMDListeners() {
+        return mdListeners.length > 0;
+    }
+
+    /**
+     * Returns the number of steps since each interval listener was last
+     * invoked, in the order the listeners were added (0 for listeners that
+     * are not interval listeners).  Used to checkpoint the manager.
+     */
+    public long[] getStepCounts() {
+        IIntegratorListenerInterval[] counted = compiled.intervalListeners;
+        long[] stepCount = new long[counted.length];
+        for (int i = 0; i < counted.length; i++) {
+            if (counted[i] != null) {
+                stepCount[i] = counted[i].getIntervalCount();
+            }
+        }
+        return stepCount;
+    }
+
+    /**
+     * Sets the number of steps since each interval listener was last invoked,
+     * as returned by getStepCounts.
+     */
+    public void setStepCounts(long[] newStepCounts) {
+        IIntegratorListenerInterval[] counted = compiled.intervalListeners;
+        if (newStepCounts.length != counted.length) {
+            throw new IllegalArgumentException("expected "+counted.length+" step counts, got "+newStepCounts.length);
+        }
+        for (int i = 0; i < counted.length; i++) {
+            if (counted[i] != null) {
+                counted[i].setIntervalCount(newStepCounts[i]);
+            }
+        }
+    }
+
+    public void initialized() {
         eventing = true;
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            intervalListeners.get(i).integratorInitialized(null);
+        IIntegratorListener[] listeners = compiled.listeners;
+        for(int i = 0; i < listeners.length; i++) {
+            listeners[i].integratorInitialized(null);
         }
         eventing = false;
     }
 
-    public synchronized void forceComputed() {
+    public void forceComputed() {
         eventing = true;
-        for(int i = 0; i < intervalListeners.size(); i++) {
-            IIntegratorListener l = intervalListeners.get(i);
-            if (l instanceof IIntegratorListenerMD) {
-                ((IIntegratorListenerMD)intervalListeners.get(i)).integratorForceComputed(null);
-            }
+        IIntegratorListenerMD[] listeners = mdListeners;
+        for(int i = 0; i < listeners.length; i++) {
+            listeners[i].integratorForceComputed(null);
         }
         eventing = false;
     }
-}
 
+    /**
+     * All listeners, in the order they were added.  For each listener that
+     * implements IIntegratorListenerInterval, intervalListeners holds the
+     * listener.  stepListeners holds the listeners that need to hear about
+     * every step.
+     */
+    protected static class CompiledListeners {
+        public final IIntegratorListener[] listeners;
+        public final IIntegratorListenerInterval[] intervalListeners;
+        public final IIntegratorListener[] stepListeners;
+
+        public CompiledListeners(IIntegratorListener[] listeners) {
+            this.listeners = listeners;
+            intervalListeners = new IIntegratorListenerInterval[listeners.length];
+            ArrayList<IIntegratorListener> step = new ArrayList<IIntegratorListener>();
+            for (int i=0; i<listeners.length; i++) {
+                if (listeners[i] instanceof IIntegratorListenerInterval) {
+                    intervalListeners[i] = (IIntegratorListenerInterval)listeners[i];
+                }
+                else {
+                    step.add(listeners[i]);
+                }
+            }
+            stepListeners = step.toArray(new IIntegratorListener[step.size()]);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import etomica.api.IAtom;
+import etomica.api.IAtomKinetic;
+import etomica.api.IAtomList;
+import etomica.api.IBoundary;
+import etomica.api.IBox;
+import etomica.api.IPotentialAtomic;
+import etomica.api.IRandom;
+import etomica.api.ISimulation;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.AtomPair;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.lattice.CellLattice;
+import etomica.nbr.cell.Cell;
+import etomica.nbr.cell.NeighborCellManager;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.potential.PotentialCalculation;
+import etomica.potential.PotentialHard;
+import etomica.space.ISpace;
+import etomica.util.TreeLinker;
+import etomica.util.TreeList;
+
+/**
+ * Integrator for hard potentials that tracks atoms in the cells of a
+ * PotentialMasterCell instead of using neighbor lists.  The time at which
+ * each atom will leave its cell is kept in the event list along with the
+ * collisions.  When an atom crosses into a new cell, it is moved to that cell
+ * and its collision times with the atoms in the neighboring cells are
+ * predicted; at no point are collision times predicted for all atoms, except
+ * when the integrator is reset or the thermostat changes every velocity.
+ * Atoms crossing a periodic boundary are wrapped back into the box as they
+ * cross, so no other periodic boundary handling is needed.
+ * <p>
+ * Because atoms change cells (and so the order in which the cell iterator
+ * visits them), each collision is recorded with both atoms, rather than only
+ * the atom "down" from the other.  Instead of searching for atoms that
+ * expected to collide with an atom whose velocity has just changed, each
+ * agent records the number of velocity changes its partner had seen when the
+ * collision was predicted.  A collision is recognized as invalid when it
+ * reaches the front of the event list, and collision times are then
+ * recalculated for that atom alone.
+ * <p>
+ * The potential master's range must be at least the largest distance at
+ * which a collision can happen.  As with IntegratorHard, the integrator must
+ * be reset after atoms are added or removed or the box is resized.
+ */
+public class IntegratorHardCell extends IntegratorHard {
+
+    public IntegratorHardCell(ISimulation sim, PotentialMasterCell potentialMaster, ISpace _space) {
+        this(sim, potentialMaster, sim.getRandom(), 0.05, 1.0, _space);
+    }
+
+    public IntegratorHardCell(ISimulation sim, PotentialMasterCell potentialMaster, IRandom random,
+            double timeStep, double temperature, ISpace _space) {
+        super(sim, potentialMaster, random, timeStep, temperature, _space);
+        allNbrs = new IteratorDirective(null);
+        collisionHandlerCell = new CollisionHandlerCell(eventList);
+        latticeIndex = new int[space.D()];
+        periodicity = new boolean[space.D()];
+    }
+
+    public void setBox(IBox newBox) {
+        super.setBox(newBox);
+        collisionHandlerCell.setAgentManager(agentManager);
+        cellManager = ((PotentialMasterCell)potentialMaster).getNbrCellManager(newBox);
+        // getNbrCellManager may have resized the lattice
+        cellManager.assignCellAll();
+        lattice = cellManager.getLattice();
+        for (int i=0; i<periodicity.length; i++) {
+            periodicity[i] = newBox.getBoundary().getPeriodicity(i);
+        }
+    }
+
+    /**
+     * Returns the number of times an atom has crossed into a new cell.
+     */
+    public long getCellCrossingCount() {
+        return cellCrossingCount;
+    }
+
+    /**
+     * Handles cell crossings and discards invalid collisions until the next
+     * collision within this time step is at the front of the event list.
+     * colliderAgent is left null if there is no such collision.
+     */
+    protected void findNextCollider() {
+        while (true) {
+            Object first = eventList.firstElement();
+            if (first instanceof IAtom) {
+                CellAgent agent = (CellAgent)agentManager.getAgent((IAtom)first);
+                if (agent.crossingLinker.sortKey >= timeStep) {
+                    colliderAgent = null;
+                    return;
+                }
+                collisionTimeStep = agent.crossingLinker.sortKey;
+                processCrossing(agent);
+                continue;
+            }
+            colliderAgent = (Agent)first;
+            if (colliderAgent == null || colliderAgent.collisionPartner == null
+                    || colliderAgent.collisionTime() >= timeStep) {
+                return;
+            }
+            CellAgent agent = (CellAgent)colliderAgent;
+            if (agent.partnerCollisionCount == ((CellAgent)agentManager.getAgent(agent.collisionPartner)).collisionCount) {
+                return;
+            }
+            // the partner's velocity changed since this collision was predicted.
+            collisionTimeStep = agent.collisionTime();
+            agent.eventLinker.remove();
+            agent.resetCollisionFull();
+            predictCollisions(agent, false);
+        }
+    }
+
+    /**
+     * Moves the atom into the cell it is entering, wrapping it through the
+     * boundary if needed, and predicts its collisions with the atoms that are
+     * now in neighboring cells.
+     */
+    protected void processCrossing(CellAgent agent) {
+        IAtomKinetic atom = (IAtomKinetic)agent.atom;
+        int d = agent.crossingDimension;
+        int[] size = lattice.getSize();
+        lattice.latticeIndex(cellManager.getCell(atom).getLatticeArrayIndex(), latticeIndex);
+        IVectorMutable position = atom.getPosition();
+        double boxLength = lattice.getDimensions().getX(d);
+        if (atom.getVelocity().getX(d) > 0) {
+            latticeIndex[d]++;
+            if (latticeIndex[d] == size[d]) {
+                latticeIndex[d] = 0;
+                position.setX(d, position.getX(d) - boxLength);
+            }
+        }
+        else {
+            latticeIndex[d]--;
+            if (latticeIndex[d] == -1) {
+                latticeIndex[d] = size[d]-1;
+                position.setX(d, position.getX(d) + boxLength);
+            }
+        }
+        cellManager.moveAtom(atom, (Cell)lattice.site(latticeIndex));
+        cellCrossingCount++;
+
+        agent.crossingLinker.remove();
+        computeCrossingTime(agent);
+        eventList.add(agent.crossingLinker);
+
+        // the atom's trajectory is unchanged, so its current collision is
+        // still good.  look for an earlier one with its new neighbors.
+        if (agent.collisionPotential != null) {
+            agent.eventLinker.remove();
+        }
+        predictCollisions(agent, true);
+    }
+
+    /**
+     * Finds collisions of the agent's atom with atoms in its own and
+     * neighboring cells, keeping the earliest with the agent.  If offer is
+     * true, each collision is also kept with the other atom if it is earlier
+     * than that atom's collision.  The agent's eventLinker should not be in
+     * the event list; it is added if the atom has a collision.
+     */
+    protected void predictCollisions(CellAgent agent, boolean offer) {
+        allNbrs.setTargetAtom(agent.atom);
+        collisionHandlerCell.setAgent(agent, offer);
+        collisionHandlerCell.collisionTimeStep = collisionTimeStep;
+        potentialMaster.calculate(box, allNbrs, collisionHandlerCell);
+        if (agent.collisionPotential != null) {
+            eventList.add(agent.eventLinker);
+        }
+    }
+
+    /**
+     * Computes the time at which the agent's atom will leave its cell and the
+     * dimension in which it will do so.  The atom never leaves the lattice in
+     * a direction that is not periodic.
+     */
+    protected void computeCrossingTime(CellAgent agent) {
+        IAtomKinetic atom = (IAtomKinetic)agent.atom;
+        IVector position = atom.getPosition();
+        IVector velocity = atom.getVelocity();
+        IVector dimensions = lattice.getDimensions();
+        int[] size = lattice.getSize();
+        lattice.latticeIndex(cellManager.getCell(atom).getLatticeArrayIndex(), latticeIndex);
+        double tMin = Double.POSITIVE_INFINITY;
+        int dMin = -1;
+        for (int i=0; i<latticeIndex.length; i++) {
+            double v = velocity.getX(i);
+            int face = latticeIndex[i];
+            if (v > 0) {
+                if (face == size[i]-1 && !periodicity[i]) continue;
+                face++;
+            }
+            else if (v == 0 || (face == 0 && !periodicity[i])) {
+                continue;
+            }
+            // positions are those at the start of the step, so this is the
+            // time since the start of the step
+            double t = (dimensions.getX(i)*((double)face/size[i] - 0.5) - position.getX(i))/v;
+            if (t < tMin) {
+                tMin = t;
+                dMin = i;
+            }
+        }
+        // roundoff can put an atom that just crossed slightly beyond the face
+        agent.crossingLinker.sortKey = tMin < collisionTimeStep ? collisionTimeStep : tMin;
+        agent.crossingDimension = dMin;
+    }
+
+    /**
+     * Updates collision and crossing times for an atom whose velocity has
+     * changed.  Atoms that expected to collide with the atom find out when
+     * that collision comes up.
+     */
+    protected void updateAtom(IAtom a) {
+        CellAgent agent = (CellAgent)agentManager.getAgent(a);
+        // before the integrator is initialized, nothing is in the event list
+        // and reset will predict everything
+        if (agent == null || !initialized) return;
+        agent.collisionCount++;
+        resetAtom(agent);
+    }
+
+    protected void updateAtoms(AtomPair colliders) {
+        CellAgent agent0 = (CellAgent)agentManager.getAgent(colliders.atom0);
+        CellAgent agent1 = (CellAgent)agentManager.getAgent(colliders.atom1);
+        agent0.collisionCount++;
+        agent1.collisionCount++;
+        resetAtom(agent0);
+        resetAtom(agent1);
+    }
+
+    protected void resetAtom(CellAgent agent) {
+        if (agent.collisionPotential != null) {
+            agent.eventLinker.remove();
+        }
+        agent.resetCollisionFull();
+        predictCollisions(agent, true);
+        agent.crossingLinker.remove();
+        computeCrossingTime(agent);
+        eventList.add(agent.crossingLinker);
+    }
+
+    protected void advanceAcrossTimeStep(double tStep) {
+        super.advanceAcrossTimeStep(tStep);
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            ((CellAgent)agentManager.getAgent(leafList.getAtom(iLeaf))).crossingLinker.sortKey -= tStep;
+        }
+    }
+
+    /**
+     * Wraps all atoms into the box, assigns them to cells and reconstructs
+     * the event list.
+     */
+    public void resetCollisionTimes() {
+        if(!initialized) return;
+        IBoundary boundary = box.getBoundary();
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            IVectorMutable position = leafList.getAtom(iLeaf).getPosition();
+            position.PE(boundary.centralImage(position));
+        }
+        cellManager.assignCellAll();
+        eventList.reset();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            agentManager.getAgent(leafList.getAtom(iLeaf)).resetCollisionFull();
+        }
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            CellAgent agent = (CellAgent)agentManager.getAgent(leafList.getAtom(iLeaf));
+            predictCollisions(agent, false);
+            computeCrossingTime(agent);
+            eventList.add(agent.crossingLinker);
+        }
+    }
+
+    public Agent makeAgent(IAtom a, IBox agentBox) {
+        Agent agent = new CellAgent(a, this);
+        if (nullPotentialManager != null) {
+            agent.setNullPotential((PotentialHard)nullPotentialManager.getAgent(a.getType()));
+        }
+        return agent;
+    }
+
+    /**
+     * Agent that also holds the atom's cell-crossing event.  The crossing
+     * event's linker holds the atom itself, which distinguishes it from
+     * collisions in the event list.
+     */
+    public static class CellAgent extends Agent {
+        public final TreeLinker crossingLinker;
+        public int crossingDimension;
+        // number of velocity changes of this atom, and of the partner when
+        // the collision was predicted
+        public long collisionCount, partnerCollisionCount;
+
+        public CellAgent(IAtom a, IntegratorHard integrator) {
+            super(a, integrator);
+            crossingLinker = new TreeLinker(a);
+            crossingLinker.sortKey = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Keeps the earliest collision of the agent's atom with the iterated
+     * atoms, and (optionally) offers each collision to the other atom.  The
+     * iterator should return pairs with the atom and 1-body iterates of the
+     * atom.
+     */
+    protected static final class CollisionHandlerCell implements PotentialCalculation {
+        double collisionTimeStep;
+        protected final TreeList eventList;
+        protected AtomLeafAgentManager<Agent> integratorAgentManager;
+        protected CellAgent agent;
+        protected boolean offer;
+
+        public CollisionHandlerCell(TreeList eventList) {
+            this.eventList = eventList;
+        }
+
+        public void setAgentManager(AtomLeafAgentManager<Agent> newAgentManager) {
+            integratorAgentManager = newAgentManager;
+        }
+
+        public void setAgent(CellAgent newAgent, boolean doOffer) {
+            agent = newAgent;
+            offer = doOffer;
+        }
+
+        public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+            PotentialHard pHard = (PotentialHard)potential;
+            double collisionTime = pHard.collisionTime(atoms, collisionTimeStep);
+            if (collisionTime == Double.POSITIVE_INFINITY) return;
+            if (atoms.getAtomCount() == 1) {
+                if (collisionTime < agent.collisionTime()) {
+                    agent.setCollision(collisionTime, null, pHard);
+                }
+                return;
+            }
+            IAtom partner = atoms.getAtom(0) == agent.atom ? atoms.getAtom(1) : atoms.getAtom(0);
+            CellAgent partnerAgent = (CellAgent)integratorAgentManager.getAgent(partner);
+            if (collisionTime < agent.collisionTime()) {
+                agent.setCollision(collisionTime, partner, pHard);
+                agent.partnerCollisionCount = partnerAgent.collisionCount;
+            }
+            if (offer && collisionTime < partnerAgent.collisionTime()) {
+                if (partnerAgent.collisionPotential != null) {
+                    partnerAgent.eventLinker.remove();
+                }
+                partnerAgent.setCollision(collisionTime, agent.atom, pHard);
+                partnerAgent.partnerCollisionCount = agent.collisionCount;
+                eventList.add(partnerAgent.eventLinker);
+            }
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+    protected final IteratorDirective allNbrs;
+    protected final CollisionHandlerCell collisionHandlerCell;
+    protected final int[] latticeIndex;
+    protected final boolean[] periodicity;
+    protected NeighborCellManager cellManager;
+    protected CellLattice lattice;
+    protected long cellCrossingCount;
+}
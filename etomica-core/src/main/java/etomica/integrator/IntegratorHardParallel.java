@@ -0,0 +1,932 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import etomica.api.IAtomKinetic;
+import etomica.api.IAtomList;
+import etomica.api.IBoundary;
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.potential.P2HardSphere;
+import etomica.potential.P2SquareWell;
+import etomica.potential.PotentialHard;
+import etomica.space.BoundaryRectangular;
+import etomica.space.ISpace;
+import etomica.util.ParallelTaskRunner;
+import etomica.util.ParallelTaskRunner.Task;
+
+/**
+ * Event-driven integrator for a single hard-sphere (P2HardSphere) or
+ * square-well (P2SquareWell) potential acting between all atoms, which
+ * divides the box into slabs along x and processes the events within each
+ * slab concurrently.
+ * <p>
+ * Each time step is a window within which every slab is simulated
+ * independently: the atoms in the slab are simulated together with "ghost"
+ * copies of the atoms within a halo around it, using cells for neighbor
+ * finding and giving each atom its own clock.  Ghosts near the edge of the
+ * halo miss collisions with atoms outside it, so the results are only
+ * accepted (speculatively) if
+ * <ul>
+ * <li>no atom (copy) moved further than s = vmax*timeStep, where vmax is the
+ * largest speed any copy had during the window, with the halo at least
+ * r + 2s thick (r is the potential range), and
+ * <li>every ghost that started within r + 2s of the slab had the same
+ * collisions (number, times and partners) and final position and velocity
+ * as the atom in the slab that owns it.
+ * </ul>
+ * An atom can only collide with another that started within r + 2s of it,
+ * so if these hold, the first collision in any slab that differed from the
+ * true trajectory would have involved a ghost whose history did not match,
+ * and the results are the same (to roundoff) as processing all events in
+ * order.  If either check fails, the window is rolled back and simulated
+ * again with all atoms in one slab.
+ * <p>
+ * The ghosts that are checked need their own neighbors, so the halo is made
+ * at least 2(r + 2s) thick, with s estimated from the largest speed at the
+ * start of the window multiplied by a margin (see setSpeedMargin).  Chains of
+ * collisions carry changes further than that within a window in dense
+ * systems, so the halo is made thicker by a factor that grows when a window
+ * must be repeated and shrinks back slowly as windows are accepted (see
+ * setHaloFactor).  The time step should be short enough that windows rarely
+ * need to be repeated (see getConflictCount), and slabs should be several
+ * times thicker than the halo for the parallel work to be worthwhile.
+ * Each slab's cells only cover the slab and its halo (unless they reach
+ * across the box), so the work per thread shrinks as threads are added.
+ * <p>
+ * The collision dynamics are those of P2HardSphere and P2SquareWell, and the
+ * potential's parameters are read at the start of each step.  The boundary
+ * must be rectangular and periodic, and must be at least three times the
+ * potential range in each direction.  The potential master is only used to
+ * compute the potential energy when the integrator is reset.  Collision
+ * listeners are not supported.
+ * <p>
+ * With one thread (the default), every window is simulated as a single slab.
+ */
+public class IntegratorHardParallel extends IntegratorMD {
+
+    public IntegratorHardParallel(IPotentialMaster potentialMaster, PotentialHard p2, IRandom random,
+            double timeStep, double temperature, ISpace _space) {
+        super(potentialMaster, random, timeStep, temperature, _space);
+        if (!(p2 instanceof P2HardSphere) && !(p2 instanceof P2SquareWell)) {
+            throw new IllegalArgumentException("only P2HardSphere and P2SquareWell are supported");
+        }
+        this.p2 = p2;
+        D = space.D();
+        boxSize = new double[D];
+        halfBoxSize = new double[D];
+        speedMargin = 1.5;
+        haloFactor = 1;
+        numThreads = 1;
+        domains = new Domain[]{new Domain()};
+    }
+
+    public void setBox(IBox newBox) {
+        IBoundary boundary = newBox.getBoundary();
+        if (!(boundary instanceof BoundaryRectangular)) {
+            throw new IllegalArgumentException("boundary must be rectangular");
+        }
+        for (int k=0; k<D; k++) {
+            if (!boundary.getPeriodicity(k)) {
+                throw new IllegalArgumentException("boundary must be periodic");
+            }
+        }
+        super.setBox(newBox);
+    }
+
+    /**
+     * Sets the number of threads, which is also the number of slabs the box
+     * is divided into.  Default is 1.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        numThreads = newNumThreads;
+        domains = new Domain[numThreads];
+        for (int i=0; i<numThreads; i++) {
+            domains[i] = new Domain();
+        }
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets the factor by which the largest speed at the start of a window is
+     * multiplied to determine the thickness of the halo.  Default is 1.5.
+     * Smaller values mean fewer ghosts, but more windows that need to be
+     * repeated because some atom became faster than expected.
+     */
+    public void setSpeedMargin(double newSpeedMargin) {
+        if (newSpeedMargin < 0) {
+            throw new IllegalArgumentException("margin must not be negative");
+        }
+        speedMargin = newSpeedMargin;
+    }
+
+    public double getSpeedMargin() {
+        return speedMargin;
+    }
+
+    /**
+     * Sets the factor by which the halo is made thicker than 2(r + 2s).
+     * Default is 1.  The factor grows by half each time a window must be
+     * repeated, and shrinks by 2% (but not below 1) each time a window is
+     * accepted.
+     */
+    public void setHaloFactor(double newHaloFactor) {
+        if (newHaloFactor <= 0) {
+            throw new IllegalArgumentException("halo factor must be positive");
+        }
+        haloFactor = newHaloFactor;
+    }
+
+    public double getHaloFactor() {
+        return haloFactor;
+    }
+
+    /**
+     * Returns the number of collisions (including captures and escapes for
+     * square wells) since the integrator was reset.
+     */
+    public long getCollisionCount() {
+        return collisionCount;
+    }
+
+    /**
+     * Returns the number of windows (steps) since the integrator was reset
+     * that could not be accepted from the slabs and were repeated serially.
+     */
+    public long getConflictCount() {
+        return conflictCount;
+    }
+
+    public void reset() {
+        super.reset();
+        collisionCount = 0;
+        conflictCount = 0;
+    }
+
+    public void doStepInternal() {
+        super.doStepInternal();
+        readPotential();
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        if (owner == null || owner.length < nLeaf) {
+            x0 = new double[nLeaf*D];
+            v0 = new double[nLeaf*D];
+            rm0 = new double[nLeaf];
+            owner = new int[nLeaf];
+            ownerLocal = new int[nLeaf];
+        }
+        IBoundary boundary = box.getBoundary();
+        IVector dimensions = boundary.getBoxSize();
+        for (int k=0; k<D; k++) {
+            boxSize[k] = dimensions.getX(k);
+            halfBoxSize[k] = 0.5*boxSize[k];
+            if (boxSize[k] < 3*range) {
+                throw new RuntimeException("box must be at least 3 times the potential range in each direction");
+            }
+        }
+        double vMax2 = 0;
+        for (int i=0; i<nLeaf; i++) {
+            IAtomKinetic atom = (IAtomKinetic)leafList.getAtom(i);
+            IVectorMutable position = atom.getPosition();
+            position.PE(boundary.centralImage(position));
+            IVector velocity = atom.getVelocity();
+            for (int k=0; k<D; k++) {
+                x0[i*D+k] = position.getX(k);
+                v0[i*D+k] = velocity.getX(k);
+            }
+            rm0[i] = atom.getType().rm();
+            vMax2 = Math.max(vMax2, velocity.squared());
+        }
+
+        boolean accepted = false;
+        if (numThreads > 1) {
+            double halo = haloFactor*2*(range + 2*speedMargin*Math.sqrt(vMax2)*timeStep);
+            assignDomains(nLeaf, halo);
+            taskRunner.run(numThreads, new Task() {
+                public void run(int iThread) {
+                    domains[iThread].run(timeStep);
+                }
+            });
+            double vMaxWindow2 = 0;
+            for (int i=0; i<numThreads; i++) {
+                vMaxWindow2 = Math.max(vMaxWindow2, domains[i].maxSpeed2);
+            }
+            final double innerHalo = range + 2*Math.sqrt(vMaxWindow2)*timeStep;
+            if (innerHalo <= halo) {
+                final boolean[] matched = new boolean[numThreads];
+                taskRunner.run(numThreads, new Task() {
+                    public void run(int iThread) {
+                        matched[iThread] = domains[iThread].ghostsMatch(innerHalo);
+                    }
+                });
+                accepted = true;
+                for (int i=0; i<numThreads; i++) {
+                    accepted = accepted && matched[i];
+                }
+            }
+            if (accepted) {
+                long nCollisions = 0;
+                for (int i=0; i<numThreads; i++) {
+                    nCollisions += commit(domains[i]);
+                }
+                // each collision was counted by both atoms
+                collisionCount += nCollisions/2;
+                if (haloFactor > 1) {
+                    haloFactor = Math.max(1, 0.98*haloFactor);
+                }
+            }
+            else {
+                conflictCount++;
+                // once the halo reaches across the box, all slabs have all
+                // atoms and a thicker halo would not help
+                if (halo < boxSize[0]) {
+                    haloFactor *= 1.5;
+                }
+            }
+        }
+        if (!accepted) {
+            Domain domain = domains[0];
+            domain.clear();
+            domain.setRegion(0, Double.POSITIVE_INFINITY);
+            for (int i=0; i<nLeaf; i++) {
+                owner[i] = 0;
+                ownerLocal[i] = i;
+                domain.add(i, true, 0);
+            }
+            domain.run(timeStep);
+            collisionCount += commit(domain)/2;
+        }
+
+        if(isothermal) doThermostatInternal();
+    }
+
+    /**
+     * Reads the parameters of the potential.
+     */
+    protected void readPotential() {
+        if (p2 instanceof P2HardSphere) {
+            hardSphere = true;
+            range = ((P2HardSphere)p2).getCollisionDiameter();
+            coreDiameterSquared = range*range;
+            wellDiameterSquared = coreDiameterSquared;
+            epsilon = 0;
+        }
+        else {
+            P2SquareWell p2SW = (P2SquareWell)p2;
+            hardSphere = false;
+            range = p2SW.getRange();
+            coreDiameterSquared = p2SW.getCoreDiameter()*p2SW.getCoreDiameter();
+            wellDiameterSquared = range*range;
+            epsilon = p2SW.getEpsilon();
+        }
+    }
+
+    /**
+     * Assigns each atom to the slab containing it, and as a ghost to the
+     * slabs within the given halo thickness.
+     */
+    protected void assignDomains(int nLeaf, double halo) {
+        int nDomains = numThreads;
+        double length = boxSize[0];
+        double width = length/nDomains;
+        int nNbr = (int)Math.ceil(halo/width);
+        boolean allNbrs = 2*nNbr+1 >= nDomains;
+        for (int d=0; d<nDomains; d++) {
+            domains[d].clear();
+            domains[d].setRegion(length*((d+0.5)/nDomains - 0.5), 0.5*width + halo);
+        }
+        for (int i=0; i<nLeaf; i++) {
+            double x = x0[i*D];
+            int o = (int)(nDomains*(x/length+0.5));
+            if (o < 0) o = 0;
+            else if (o >= nDomains) o = nDomains-1;
+            owner[i] = o;
+            ownerLocal[i] = domains[o].n;
+            domains[o].add(i, true, 0);
+            int dFirst = allNbrs ? 0 : o-nNbr;
+            int dLast = allNbrs ? nDomains-1 : o+nNbr;
+            for (int dd=dFirst; dd<=dLast; dd++) {
+                int d = (dd+nDomains)%nDomains;
+                if (d == o) continue;
+                double dx = x - length*((d+0.5)/nDomains - 0.5);
+                dx -= length*Math.rint(dx/length);
+                double dist = Math.abs(dx) - 0.5*width;
+                if (dist < 0) dist = 0;
+                if (dist <= halo) {
+                    domains[d].add(i, false, dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the final coordinates of the atoms owned by the given domain to
+     * the box and updates the energy.  Returns the number of collisions the
+     * owned atoms had.
+     */
+    protected long commit(Domain domain) {
+        IAtomList leafList = box.getLeafList();
+        IBoundary boundary = box.getBoundary();
+        double dU = 0;
+        long nCollisions = 0;
+        for (int l=0; l<domain.n; l++) {
+            if (!domain.owned[l]) continue;
+            IAtomKinetic atom = (IAtomKinetic)leafList.getAtom(domain.gid[l]);
+            IVectorMutable position = atom.getPosition();
+            IVectorMutable velocity = atom.getVelocity();
+            for (int k=0; k<D; k++) {
+                position.setX(k, domain.x[l*D+k]);
+                velocity.setX(k, domain.v[l*D+k]);
+            }
+            position.PE(boundary.centralImage(position));
+            dU += domain.dU[l];
+            nCollisions += domain.nCollisions[l];
+        }
+        currentPotentialEnergy += dU;
+        currentKineticEnergy -= dU;
+        return nCollisions;
+    }
+
+    /**
+     * The atoms (owned and ghosts) of one slab, with the event engine that
+     * simulates them across a window.  Coordinates are held in arrays, with
+     * each atom's position stored as of its own clock (the time of its last
+     * event), and each atom holds only its earliest event (a collision or
+     * crossing into another cell).  Collisions are invalidated by comparing
+     * the partner's number of velocity changes to the number when the
+     * collision was predicted, as in IntegratorHardCell.
+     */
+    protected class Domain {
+
+        public Domain() {
+            gid = new int[0];
+            owned = new boolean[0];
+            dist = new double[0];
+            x = new double[0];
+            head = new int[0];
+            nCells = new int[D];
+            cellStride = new int[D];
+            cellOrigin = new double[D];
+            cellWidth = new double[D];
+            periodic = new boolean[D];
+            int maxOffsets = 1;
+            for (int k=0; k<D; k++) {
+                maxOffsets *= 3;
+            }
+            offsets = new int[maxOffsets*D];
+            dr = new double[D];
+            dv = new double[D];
+        }
+
+        public void clear() {
+            n = 0;
+        }
+
+        /**
+         * Sets the center (in x) of the slab and the distance from the center
+         * beyond which the domain has no atoms at the start of the window
+         * (infinite if the domain covers the whole box).
+         */
+        public void setRegion(double center, double halfWidth) {
+            xCenter = center;
+            xHalfWidth = halfWidth;
+        }
+
+        /**
+         * Adds the atom with the given index in the box to this domain, with
+         * the given distance from the domain's slab.
+         */
+        public void add(int iAtom, boolean isOwned, double distance) {
+            if (n == gid.length) {
+                int newSize = Math.max(16, n + n/2);
+                gid = java.util.Arrays.copyOf(gid, newSize);
+                owned = java.util.Arrays.copyOf(owned, newSize);
+                dist = java.util.Arrays.copyOf(dist, newSize);
+            }
+            gid[n] = iAtom;
+            owned[n] = isOwned;
+            dist[n] = distance;
+            n++;
+        }
+
+        /**
+         * Simulates this domain's atoms from the start of the step across the
+         * given window.
+         */
+        public void run(double window) {
+            if (x.length < n*D) {
+                int size = gid.length;
+                x = new double[size*D];
+                v = new double[size*D];
+                rm = new double[size];
+                clock = new double[size];
+                cell = new int[size*D];
+                cellNext = new int[size];
+                cellPrev = new int[size];
+                eventTime = new double[size];
+                partner = new int[size];
+                crossing = new int[size];
+                count = new int[size];
+                partnerCount = new int[size];
+                heap = new int[size];
+                heapPos = new int[size];
+                nCollisions = new int[size];
+                partnerSum = new long[size];
+                timeSum = new double[size];
+                dU = new double[size];
+            }
+            long t0 = THREAD_MX.getCurrentThreadCpuTime();
+            // with cells covering only the region, x is not periodic and the
+            // atoms are placed at their images nearest the slab
+            boolean local = 2*xHalfWidth + range < boxSize[0];
+            maxSpeed2 = 0;
+            for (int l=0; l<n; l++) {
+                int g = gid[l];
+                double v2 = 0;
+                for (int k=0; k<D; k++) {
+                    x[l*D+k] = x0[g*D+k];
+                    v[l*D+k] = v0[g*D+k];
+                    v2 += v[l*D+k]*v[l*D+k];
+                }
+                if (local) {
+                    double dx = x[l*D] - xCenter;
+                    x[l*D] = xCenter + dx - boxSize[0]*Math.rint(dx/boxSize[0]);
+                }
+                maxSpeed2 = Math.max(maxSpeed2, v2);
+                rm[l] = rm0[g];
+                clock[l] = 0;
+                count[l] = 0;
+                nCollisions[l] = 0;
+                partnerSum[l] = 0;
+                timeSum[l] = 0;
+                dU[l] = 0;
+            }
+
+            int nTotalCells = 1;
+            for (int k=0; k<D; k++) {
+                double extent = boxSize[k];
+                cellOrigin[k] = -halfBoxSize[k];
+                periodic[k] = true;
+                if (k == 0 && local) {
+                    extent = 2*xHalfWidth;
+                    cellOrigin[k] = xCenter - xHalfWidth;
+                    periodic[k] = false;
+                }
+                nCells[k] = Math.max(1, (int)(extent/range));
+                cellWidth[k] = extent/nCells[k];
+                cellStride[k] = nTotalCells;
+                nTotalCells *= nCells[k];
+            }
+            if (head.length < nTotalCells) {
+                head = new int[nTotalCells];
+            }
+            java.util.Arrays.fill(head, 0, nTotalCells, -1);
+            // offsets to the neighboring cells, skipping those that would
+            // revisit a cell when there are fewer than 3 cells in a periodic
+            // direction
+            int maxOffsets = offsets.length/D;
+            nOffsets = 0;
+            for (int m=0; m<maxOffsets; m++) {
+                boolean skip = false;
+                for (int k=0, mm=m; k<D; k++, mm/=3) {
+                    int offset = mm%3 - 1;
+                    skip = skip || (nCells[k] == 1 && offset != 0) || (periodic[k] && nCells[k] == 2 && offset == -1);
+                    offsets[nOffsets*D+k] = offset;
+                }
+                if (!skip) nOffsets++;
+            }
+            for (int l=0; l<n; l++) {
+                for (int k=0; k<D; k++) {
+                    // the end cells of a non-periodic direction extend
+                    // without limit
+                    int c = (int)Math.floor((x[l*D+k] - cellOrigin[k])/cellWidth[k]);
+                    if (c < 0) c = 0;
+                    else if (c >= nCells[k]) c = nCells[k]-1;
+                    cell[l*D+k] = c;
+                }
+                addToCell(l);
+            }
+
+            for (int l=0; l<n; l++) {
+                predict(l, 0);
+            }
+            for (int l=0; l<n; l++) {
+                heap[l] = l;
+                heapPos[l] = l;
+            }
+            for (int p=n/2-1; p>=0; p--) {
+                siftDown(p);
+            }
+
+            while (n > 0) {
+                int i = heap[0];
+                double t = eventTime[i];
+                if (t >= window) break;
+                int j = partner[i];
+                if (j == CROSSING) {
+                    advance(i, t);
+                    cross(i);
+                }
+                else if (count[j] == partnerCount[i]) {
+                    advance(i, t);
+                    advance(j, t);
+                    bump(i, j, t);
+                    predict(j, t);
+                    update(j);
+                }
+                // otherwise the partner's velocity changed and we just need
+                // a new prediction
+                predict(i, t);
+                update(i);
+            }
+
+            for (int l=0; l<n; l++) {
+                advance(l, window);
+            }
+            runTime += THREAD_MX.getCurrentThreadCpuTime() - t0;
+            atomCount += n;
+        }
+
+        /**
+         * Returns true if every ghost within the given distance of the slab
+         * had the same history as the atom that owns it.
+         */
+        public boolean ghostsMatch(double innerHalo) {
+            for (int l=0; l<n; l++) {
+                if (owned[l] || dist[l] > innerHalo) continue;
+                int g = gid[l];
+                Domain ownerDomain = domains[owner[g]];
+                int m = ownerLocal[g];
+                if (nCollisions[l] != ownerDomain.nCollisions[m] || partnerSum[l] != ownerDomain.partnerSum[m]
+                        || Math.abs(timeSum[l] - ownerDomain.timeSum[m]) > TOLERANCE) {
+                    return false;
+                }
+                for (int k=0; k<D; k++) {
+                    double dx = x[l*D+k] - ownerDomain.x[m*D+k];
+                    dx -= boxSize[k]*Math.rint(dx/boxSize[k]);
+                    if (Math.abs(dx) > TOLERANCE || Math.abs(v[l*D+k] - ownerDomain.v[m*D+k]) > TOLERANCE) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves atom i along its trajectory to time t.
+         */
+        protected void advance(int i, double t) {
+            double dt = t - clock[i];
+            for (int k=0; k<D; k++) {
+                x[i*D+k] += dt*v[i*D+k];
+            }
+            clock[i] = t;
+        }
+
+        /**
+         * Moves atom i to time t and computes its earliest event.
+         */
+        protected void predict(int i, double t) {
+            advance(i, t);
+            double tBest = Double.POSITIVE_INFINITY;
+            int best = NONE;
+            for (int k=0; k<D; k++) {
+                double vk = v[i*D+k];
+                if (nCells[k] == 1 || vk == 0) continue;
+                int c = cell[i*D+k];
+                if (!periodic[k] && (vk > 0 ? c == nCells[k]-1 : c == 0)) continue;
+                double face = cellOrigin[k] + (vk > 0 ? c+1 : c)*cellWidth[k];
+                double dt = (face - x[i*D+k])/vk;
+                if (dt < 0) dt = 0;
+                if (t + dt < tBest) {
+                    tBest = t + dt;
+                    best = CROSSING;
+                    crossing[i] = 2*k + (vk > 0 ? 1 : 0);
+                }
+            }
+
+            for (int m=0; m<nOffsets; m++) {
+                int c = 0;
+                for (int k=0; k<D; k++) {
+                    int ck = cell[i*D+k] + offsets[m*D+k];
+                    if (ck < 0) {
+                        if (!periodic[k]) {
+                            c = -1;
+                            break;
+                        }
+                        ck += nCells[k];
+                    }
+                    else if (ck >= nCells[k]) {
+                        if (!periodic[k]) {
+                            c = -1;
+                            break;
+                        }
+                        ck -= nCells[k];
+                    }
+                    c += ck*cellStride[k];
+                }
+                if (c < 0) continue;
+                for (int j=head[c]; j>-1; j=cellNext[j]) {
+                    if (j == i) continue;
+                    double dt = collisionTime(i, j, t);
+                    if (t + dt < tBest) {
+                        tBest = t + dt;
+                        best = j;
+                    }
+                }
+            }
+            eventTime[i] = tBest;
+            partner[i] = best;
+            if (best > -1) {
+                partnerCount[i] = count[best];
+            }
+        }
+
+        /**
+         * Returns the time after t at which atoms i (whose clock is at t) and j
+         * will next collide, following P2HardSphere and P2SquareWell.
+         */
+        protected double collisionTime(int i, int j, double t) {
+            // atoms are wrapped as they cross the boundary, so one image
+            // shift is enough
+            double dtj = t - clock[j];
+            double r2 = 0, bij = 0, v2 = 0;
+            for (int k=0; k<D; k++) {
+                double dvk = v[j*D+k] - v[i*D+k];
+                double drk = x[j*D+k] + dtj*v[j*D+k] - x[i*D+k];
+                if (drk > halfBoxSize[k]) drk -= boxSize[k];
+                else if (drk < -halfBoxSize[k]) drk += boxSize[k];
+                r2 += drk*drk;
+                bij += drk*dvk;
+                v2 += dvk*dvk;
+            }
+            double time = Double.POSITIVE_INFINITY;
+            if (r2 < wellDiameterSquared && !hardSphere) {
+                // inside the well
+                if (bij < 0) {
+                    double discr = bij*bij - v2*(r2 - coreDiameterSquared);
+                    if (discr > 0) {
+                        time = (-bij - Math.sqrt(discr))/v2;
+                    }
+                    else {
+                        discr = bij*bij - v2*(r2 - wellDiameterSquared);
+                        time = (-bij + Math.sqrt(discr))/v2;
+                    }
+                }
+                else {
+                    double discr = bij*bij - v2*(r2 - wellDiameterSquared);
+                    time = (-bij + Math.sqrt(discr))/v2;
+                }
+            }
+            else if (bij < 0) {
+                double discr = bij*bij - v2*(r2 - wellDiameterSquared);
+                if (discr > 0) {
+                    time = (-bij - Math.sqrt(discr))/v2;
+                }
+            }
+            return time < 0 ? 0 : time;
+        }
+
+        /**
+         * Performs the collision between atoms i and j (both at time t),
+         * following P2HardSphere and P2SquareWell.
+         */
+        protected void bump(int i, int j, double t) {
+            double r2 = 0, bij = 0;
+            for (int k=0; k<D; k++) {
+                double drk = x[j*D+k] - x[i*D+k];
+                if (drk > halfBoxSize[k]) drk -= boxSize[k];
+                else if (drk < -halfBoxSize[k]) drk += boxSize[k];
+                dr[k] = drk;
+                dv[k] = v[j*D+k] - v[i*D+k];
+                r2 += drk*drk;
+                bij += drk*dv[k];
+            }
+            double rmi = rm[i], rmj = rm[j];
+            double virial;
+            double nudge = 0;
+            double energyChange = 0;
+            if (hardSphere) {
+                virial = 2.0/(rmi + rmj)*bij;
+            }
+            else {
+                double reducedMass = 1.0/(rmi + rmj);
+                if (2*r2 < coreDiameterSquared + wellDiameterSquared || wellDiameterSquared == coreDiameterSquared) {
+                    // hard core
+                    if (bij > 0) {
+                        virial = 0;
+                        nudge = NUDGE;
+                    }
+                    else {
+                        virial = 2.0*reducedMass*bij;
+                    }
+                }
+                else {
+                    double ke = bij*bij*reducedMass/(2.0*r2);
+                    if (bij > 0) {
+                        if (ke < epsilon) {
+                            // not enough energy to escape
+                            virial = 2.0*reducedMass*bij;
+                            nudge = -NUDGE;
+                        }
+                        else {
+                            virial = reducedMass*(bij - Math.sqrt(bij*bij - 2.0*r2*epsilon/reducedMass));
+                            nudge = NUDGE;
+                            energyChange = epsilon;
+                        }
+                    }
+                    else if (ke > -epsilon) {
+                        // capture
+                        virial = reducedMass*(bij + Math.sqrt(bij*bij + 2.0*r2*epsilon/reducedMass));
+                        nudge = -NUDGE;
+                        energyChange = -epsilon;
+                    }
+                    else {
+                        virial = 2.0*reducedMass*bij;
+                        nudge = NUDGE;
+                    }
+                }
+            }
+            double s = virial/r2;
+            double vi2 = 0, vj2 = 0;
+            for (int k=0; k<D; k++) {
+                v[i*D+k] += rmi*s*dr[k];
+                v[j*D+k] -= rmj*s*dr[k];
+                vi2 += v[i*D+k]*v[i*D+k];
+                vj2 += v[j*D+k]*v[j*D+k];
+                if (nudge != 0) {
+                    if (rmi > 0) x[i*D+k] -= nudge*dr[k];
+                    if (rmj > 0) x[j*D+k] += nudge*dr[k];
+                }
+            }
+            maxSpeed2 = Math.max(maxSpeed2, Math.max(vi2, vj2));
+            count[i]++;
+            count[j]++;
+            nCollisions[i]++;
+            nCollisions[j]++;
+            partnerSum[i] += gid[j];
+            partnerSum[j] += gid[i];
+            timeSum[i] += t;
+            timeSum[j] += t;
+            dU[i] += 0.5*energyChange;
+            dU[j] += 0.5*energyChange;
+        }
+
+        /**
+         * Moves atom i into the cell it is crossing into, wrapping its
+         * position at the periodic boundary.  (Crossings out of the end cells
+         * of a non-periodic direction are never predicted.)
+         */
+        protected void cross(int i) {
+            int k = crossing[i] >> 1;
+            removeFromCell(i);
+            int c = cell[i*D+k];
+            if ((crossing[i] & 1) == 1) {
+                c++;
+                if (c == nCells[k]) {
+                    c = 0;
+                    x[i*D+k] -= boxSize[k];
+                }
+            }
+            else {
+                c--;
+                if (c < 0) {
+                    c = nCells[k]-1;
+                    x[i*D+k] += boxSize[k];
+                }
+            }
+            cell[i*D+k] = c;
+            addToCell(i);
+        }
+
+        protected int cellIndex(int i) {
+            int c = 0;
+            for (int k=0; k<D; k++) {
+                c += cell[i*D+k]*cellStride[k];
+            }
+            return c;
+        }
+
+        protected void addToCell(int i) {
+            int c = cellIndex(i);
+            cellPrev[i] = -1;
+            cellNext[i] = head[c];
+            if (head[c] > -1) {
+                cellPrev[head[c]] = i;
+            }
+            head[c] = i;
+        }
+
+        protected void removeFromCell(int i) {
+            if (cellPrev[i] > -1) {
+                cellNext[cellPrev[i]] = cellNext[i];
+            }
+            else {
+                head[cellIndex(i)] = cellNext[i];
+            }
+            if (cellNext[i] > -1) {
+                cellPrev[cellNext[i]] = cellPrev[i];
+            }
+        }
+
+        /**
+         * Restores the heap order after atom i's event time changed.
+         */
+        protected void update(int i) {
+            siftUp(heapPos[i]);
+            siftDown(heapPos[i]);
+        }
+
+        protected void siftUp(int p) {
+            int a = heap[p];
+            double ta = eventTime[a];
+            while (p > 0) {
+                int q = (p-1) >> 1;
+                int b = heap[q];
+                if (eventTime[b] <= ta) break;
+                heap[p] = b;
+                heapPos[b] = p;
+                p = q;
+            }
+            heap[p] = a;
+            heapPos[a] = p;
+        }
+
+        protected void siftDown(int p) {
+            int a = heap[p];
+            double ta = eventTime[a];
+            while (true) {
+                int q = 2*p+1;
+                if (q >= n) break;
+                if (q+1 < n && eventTime[heap[q+1]] < eventTime[heap[q]]) q++;
+                int b = heap[q];
+                if (eventTime[b] >= ta) break;
+                heap[p] = b;
+                heapPos[b] = p;
+                p = q;
+            }
+            heap[p] = a;
+            heapPos[a] = p;
+        }
+
+        protected int n;
+        // index of each atom in the box, and its distance from the slab
+        protected int[] gid;
+        protected boolean[] owned;
+        protected double[] dist;
+        protected double[] x, v, rm, clock;
+        protected int[] cell, cellNext, cellPrev, head;
+        protected final int[] nCells, cellStride;
+        protected final double[] cellOrigin, cellWidth;
+        protected final boolean[] periodic;
+        protected final int[] offsets;
+        protected int nOffsets;
+        // center and half-width (in x) of the slab and its halo
+        protected double xCenter, xHalfWidth;
+        protected double[] eventTime;
+        protected int[] partner, crossing, count, partnerCount;
+        protected int[] heap, heapPos;
+        // history of each atom during the window
+        protected int[] nCollisions;
+        protected long[] partnerSum;
+        protected double[] timeSum, dU;
+        protected double maxSpeed2;
+        protected final double[] dr, dv;
+        // CPU time spent in run (ns) and atoms (including ghosts) simulated,
+        // summed over windows
+        protected long runTime, atomCount;
+    }
+
+    protected static final int NONE = -1, CROSSING = -2;
+    protected static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+    protected static final double NUDGE = 1.0e-10;
+    protected static final double TOLERANCE = 1.0e-8;
+
+    protected final PotentialHard p2;
+    protected final int D;
+    protected boolean hardSphere;
+    protected double range, coreDiameterSquared, wellDiameterSquared, epsilon;
+    protected double speedMargin, haloFactor;
+    protected int numThreads;
+    protected final ParallelTaskRunner taskRunner = new ParallelTaskRunner("hard MD worker");
+    protected Domain[] domains;
+    protected final double[] boxSize, halfBoxSize;
+    // coordinates of all atoms at the start of the step
+    protected double[] x0, v0, rm0;
+    protected int[] owner, ownerLocal;
+    protected long collisionCount, conflictCount;
+}
@@ -4,6 +4,11 @@
 
 package etomica.integrator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
 import etomica.api.IBox;
 import etomica.api.IPotentialMaster;
 import etomica.api.IRandom;
@@ -53,6 +58,14 @@ public class IntegratorMC extends IntegratorBox {
         rejectedEvent = new MCMoveTrialCompletedEvent(moveManager, false);
 	}
 
+    /**
+     * @return Returns the random number generator used to select and accept
+     * moves.
+     */
+    public IRandom getRandom() {
+        return random;
+    }
+
     /**
      * @return Returns the moveManager.
      */
@@ -137,6 +150,37 @@ public class IntegratorMC extends IntegratorBox {
         moveManager.recomputeMoveFrequencies();
     }
 
+    /**
+     * Writes the state of the integrator and the acceptance statistics and
+     * step sizes of each move (as tracked by the moves' trackers).
+     */
+    public void saveState(DataOutput out) throws IOException {
+        super.saveState(out);
+        out.writeBoolean(moveManager.isEquilibrating());
+        List<MCMove> moves = moveManager.getMCMoves();
+        out.writeInt(moves.size());
+        for (int i=0; i<moves.size(); i++) {
+            moves.get(i).getTracker().saveState(out);
+        }
+    }
+
+    /**
+     * Restores the state written by saveState.  The integrator must have the
+     * same moves, added in the same order, as the one that wrote the state.
+     */
+    public void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        moveManager.setEquilibrating(in.readBoolean());
+        List<MCMove> moves = moveManager.getMCMoves();
+        int nMoves = in.readInt();
+        if (nMoves != moves.size()) {
+            throw new IOException("checkpoint has "+nMoves+" moves, but integrator has "+moves.size());
+        }
+        for (int i=0; i<nMoves; i++) {
+            moves.get(i).getTracker().restoreState(in);
+        }
+    }
+
     /**
      * Adds a listener that will be notified when a MCMove trial is attempted
      * and when it is completed.
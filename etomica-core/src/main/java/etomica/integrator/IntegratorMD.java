@@ -4,6 +4,10 @@
 
 package etomica.integrator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.action.AtomActionRandomizeVelocity;
 import etomica.api.IAtom;
 import etomica.api.IAtomKinetic;
@@ -119,6 +123,63 @@ public abstract class IntegratorMD extends IntegratorBox implements IBoxListener
     public void doStepInternal() {
         currentTime += timeStep;
     }
+
+    public void saveState(DataOutput out) throws IOException {
+        super.saveState(out);
+        out.writeDouble(currentTime);
+        out.writeInt(thermostatCount);
+        out.writeDouble(oldEnergy);
+        out.writeDouble(oldPotentialEnergy);
+        out.writeLong(nRejected);
+        out.writeLong(nAccepted);
+        // hybrid MC needs the configuration from the last thermostat step
+        // in case the current trajectory is rejected
+        IAtomList leafList = box.getLeafList();
+        int nOld = oldPositionAgentManager == null ? -1 : leafList.getAtomCount();
+        out.writeInt(nOld);
+        for (int i=0; i<nOld; i++) {
+            IVector p = oldPositionAgentManager.getAgent(leafList.getAtom(i));
+            for (int j=0; j<p.getD(); j++) {
+                out.writeDouble(p.getX(j));
+            }
+        }
+        out.writeBoolean(integratorMC != null);
+        if (integratorMC != null) {
+            integratorMC.saveState(out);
+        }
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        currentTime = in.readDouble();
+        thermostatCount = in.readInt();
+        oldEnergy = in.readDouble();
+        oldPotentialEnergy = in.readDouble();
+        nRejected = in.readLong();
+        nAccepted = in.readLong();
+        int nOld = in.readInt();
+        if (nOld > -1) {
+            if (oldPositionAgentManager == null) {
+                oldPositionAgentManager = new AtomLeafAgentManager<IVectorMutable>(new VectorSource(space), box, IVectorMutable.class);
+            }
+            IAtomList leafList = box.getLeafList();
+            if (nOld != leafList.getAtomCount()) {
+                throw new IOException("checkpoint has "+nOld+" old positions, but box has "+leafList.getAtomCount()+" atoms");
+            }
+            for (int i=0; i<nOld; i++) {
+                IVectorMutable p = oldPositionAgentManager.getAgent(leafList.getAtom(i));
+                for (int j=0; j<p.getD(); j++) {
+                    p.setX(j, in.readDouble());
+                }
+            }
+        }
+        if (in.readBoolean()) {
+            if (integratorMC == null) {
+                throw new IOException("checkpoint includes MC sub-integrator state, but this integrator has none");
+            }
+            integratorMC.restoreState(in);
+        }
+    }
     
     public double getCurrentTime() {
         return currentTime;
@@ -166,9 +227,24 @@ public abstract class IntegratorMD extends IntegratorBox implements IBoxListener
         public static final ThermostatType ANDERSEN_SINGLE = new ThermostatType("Andersen Single");
         public static final ThermostatType ANDERSEN_SCALING = new ThermostatType("Andersen Scaling");
         public static final ThermostatType HYBRID_MC = new ThermostatType("Hybrid MC");
-        //public static final ThermostatType NOSE_HOOVER;
+        /**
+         * Nose-Hoover chain, applied every step.  Only supported by
+         * integrators that build it into their step
+         * (IntegratorVelocityVerlet).
+         */
+        public static final ThermostatType NOSE_HOOVER = new ThermostatType("Nose-Hoover Chain");
+        /**
+         * Langevin dynamics (BAOAB splitting), applied every step.  Only
+         * supported by integrators that build it into their step
+         * (IntegratorVelocityVerlet).
+         */
+        public static final ThermostatType LANGEVIN = new ThermostatType("Langevin");
+        /**
+         * Returns all thermostat types.  Those supported by a particular
+         * integrator are returned by its getThermostatChoices method.
+         */
         public static ThermostatType[] choices() {
-            return new ThermostatType[] {VELOCITY_SCALING,ANDERSEN,ANDERSEN_SINGLE,HYBRID_MC,ANDERSEN_SCALING};
+            return new ThermostatType[] {VELOCITY_SCALING,ANDERSEN,ANDERSEN_SINGLE,HYBRID_MC,ANDERSEN_SCALING,NOSE_HOOVER,LANGEVIN};
         }
 
         /**
@@ -203,11 +279,30 @@ public abstract class IntegratorMD extends IntegratorBox implements IBoxListener
         return integratorMC;
     }
 
+    /**
+     * Returns the thermostats supported by this integrator.
+     */
+    public ThermostatType[] getThermostatChoices() {
+        return new ThermostatType[] {ThermostatType.VELOCITY_SCALING, ThermostatType.ANDERSEN,
+                ThermostatType.ANDERSEN_SINGLE, ThermostatType.HYBRID_MC, ThermostatType.ANDERSEN_SCALING};
+    }
+
     /**
      * Sets the type of thermostat used by the integrator.
-     * @param aThermostat the desired thermostat
+     * @param aThermostat the desired thermostat, one of those returned by
+     *                    getThermostatChoices
+     * @throws IllegalArgumentException if this integrator does not support
+     *                                  the thermostat
      */
     public void setThermostat(ThermostatType aThermostat) {
+        ThermostatType[] choices = getThermostatChoices();
+        int i = 0;
+        while (i < choices.length && choices[i] != aThermostat) {
+            i++;
+        }
+        if (i == choices.length) {
+            throw new IllegalArgumentException(getClass().getSimpleName()+" does not support the "+aThermostat+" thermostat");
+        }
         thermostat = aThermostat;
         if (thermostat == ThermostatType.HYBRID_MC && box != null) {
             oldPositionAgentManager = new AtomLeafAgentManager<IVectorMutable>(new VectorSource(space), box, IVectorMutable.class);
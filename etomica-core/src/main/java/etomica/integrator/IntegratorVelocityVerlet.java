@@ -4,6 +4,10 @@
 
 package etomica.integrator;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.api.IAtom;
 import etomica.api.IAtomKinetic;
 import etomica.api.IAtomList;
@@ -22,6 +26,34 @@ import etomica.space.ISpace;
 import etomica.space.Tensor;
 import etomica.util.Debug;
 
+/**
+ * Velocity Verlet molecular dynamics integrator.
+ * <p>
+ * Besides the thermostats handled by IntegratorMD, this integrator supports
+ * two thermostats that act within every step.  NOSE_HOOVER couples the atoms'
+ * velocities to a Nose-Hoover chain, which gives canonical sampling with
+ * deterministic dynamics; the chain is propagated for half a step at the
+ * beginning and end of each step.  LANGEVIN uses the BAOAB splitting of
+ * Leimkuhler and Matthews (half kick, half drift, exact Ornstein-Uhlenbeck
+ * velocity update, half drift, half kick), whose configurational averages
+ * remain accurate at time steps large enough to bias the kinetic
+ * temperature.
+ * <p>
+ * With setIsobaric(true), the box volume is also integrated using the
+ * isotropic barostat of Martyna, Tobias and Klein (MTK), in the reversible
+ * form of Tuckerman et al.  With the NOSE_HOOVER thermostat the barostat gets
+ * its own chain and the ensemble is NPT; without a thermostat it is NPH.
+ * getConservedEnergy returns the quantity conserved by these dynamics.
+ * <p>
+ * Until they are set, the time constants of the thermostat and barostat are
+ * 100 and 1000 time steps, and the Langevin friction is 1/(100 time steps);
+ * these follow any change of the time step.  Values that have been set are
+ * times (or an inverse time) that don't depend on the time step.
+ * <p>
+ * B. Leimkuhler and C. Matthews, Appl. Math. Res. Express 2013, 34 (2013)<br>
+ * M.E. Tuckerman, J. Alejandre, R. Lopez-Rendon, A.L. Jochim and
+ * G.J. Martyna, J. Phys. A 39, 5629 (2006)
+ */
 public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSource<IntegratorVelocityVerlet.MyAgent> {
 
     protected PotentialCalculationForceSum forceSum;;
@@ -48,6 +80,34 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
         allAtoms.setIncludeLrc(true);
         pressureTensor = space.makeTensor();
         workTensor = space.makeTensor();
+        thermostatChain = new NoseHooverChain(3);
+        barostatChain = new NoseHooverChain(3);
+        setDefaultTimeConstants();
+        boxSize = space.makeVector();
+    }
+
+    public void setTimeStep(double t) {
+        super.setTimeStep(t);
+        // IntegratorMD's constructor calls this before the chains exist
+        if (thermostatChain != null) {
+            setDefaultTimeConstants();
+        }
+    }
+
+    /**
+     * Sets the time constants and friction that have not been set
+     * explicitly based on the time step.
+     */
+    protected void setDefaultTimeConstants() {
+        if (!thermostatTimeConstantSet) {
+            thermostatChain.setTimeConstant(100*timeStep);
+        }
+        if (!barostatTimeConstantSet) {
+            barostatChain.setTimeConstant(1000*timeStep);
+        }
+        if (!langevinFrictionSet) {
+            langevinFriction = 1.0/(100*timeStep);
+        }
     }
 
     public PotentialCalculationForceSum getForceSum() {
@@ -76,6 +136,106 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
         forceSum.setAgentManager(agentManager);
     }
 
+    /**
+     * Sets the time constant of the Nose-Hoover chain thermostat, which
+     * determines the thermostat masses and the time over which the
+     * temperature relaxes.
+     */
+    public void setThermostatTimeConstant(double tau) {
+        thermostatChain.setTimeConstant(tau);
+        thermostatTimeConstantSet = true;
+    }
+
+    public double getThermostatTimeConstant() {
+        return thermostatChain.getTimeConstant();
+    }
+
+    /**
+     * Sets the length of the Nose-Hoover chains used for the atoms and for
+     * the barostat.  The chains are reset.
+     */
+    public void setNoseHooverChainLength(int newLength) {
+        double tau = thermostatChain.getTimeConstant();
+        thermostatChain = new NoseHooverChain(newLength);
+        thermostatChain.setTimeConstant(tau);
+        tau = barostatChain.getTimeConstant();
+        barostatChain = new NoseHooverChain(newLength);
+        barostatChain.setTimeConstant(tau);
+    }
+
+    public int getNoseHooverChainLength() {
+        return thermostatChain.getLength();
+    }
+
+    /**
+     * Sets the friction coefficient (inverse time) of the Langevin
+     * thermostat.
+     */
+    public void setLangevinFriction(double newFriction) {
+        if (newFriction < 0) throw new IllegalArgumentException("friction must not be negative");
+        langevinFriction = newFriction;
+        langevinFrictionSet = true;
+    }
+
+    public double getLangevinFriction() {
+        return langevinFriction;
+    }
+
+    /**
+     * Sets whether the volume of the box is integrated with the MTK
+     * barostat.  This requires the NOSE_HOOVER thermostat or no thermostat
+     * (isothermal false) and a force sum that computes the pressure tensor.
+     */
+    public void setIsobaric(boolean newIsobaric) {
+        isobaric = newIsobaric;
+        barostatVelocity = 0;
+        barostatChain.reset();
+    }
+
+    public boolean isIsobaric() {
+        return isobaric;
+    }
+
+    /**
+     * Sets the pressure imposed by the barostat.
+     */
+    public void setPressure(double newPressure) {
+        pressure = newPressure;
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+
+    /**
+     * Sets the time constant of the barostat, which determines the mass of
+     * the barostat and the period of volume fluctuations (and also the
+     * time constant of the barostat's Nose-Hoover chain).
+     */
+    public void setBarostatTimeConstant(double tau) {
+        barostatChain.setTimeConstant(tau);
+        barostatTimeConstantSet = true;
+    }
+
+    public double getBarostatTimeConstant() {
+        return barostatChain.getTimeConstant();
+    }
+
+    public ThermostatType[] getThermostatChoices() {
+        ThermostatType[] choices = super.getThermostatChoices();
+        ThermostatType[] allChoices = new ThermostatType[choices.length+2];
+        System.arraycopy(choices, 0, allChoices, 0, choices.length);
+        allChoices[choices.length] = ThermostatType.NOSE_HOOVER;
+        allChoices[choices.length+1] = ThermostatType.LANGEVIN;
+        return allChoices;
+    }
+
+    public void setThermostat(ThermostatType aThermostat) {
+        super.setThermostat(aThermostat);
+        thermostatChain.reset();
+        barostatChain.reset();
+    }
+
 //--------------------------------------------------------------
 // steps all particles across time interval tStep
 
@@ -90,6 +250,32 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
                 System.out.println(pair+" dr "+dr);
             }
         }
+        boolean noseHoover = isothermal && thermostat == ThermostatType.NOSE_HOOVER;
+        boolean langevin = isothermal && thermostat == ThermostatType.LANGEVIN;
+        if (isobaric && isothermal && !noseHoover) {
+            throw new RuntimeException("The MTK barostat requires the Nose-Hoover thermostat (or none)");
+        }
+        if (noseHoover || isobaric) {
+            halfStepChains();
+        }
+        if (isobaric) {
+            halfStepBarostat();
+        }
+        // velocity and position factors for the barostat; all 1 without it
+        double kickScale = 1, forceScale = 1, positionScale = 1, velocityScale = 1;
+        if (isobaric) {
+            double x = 0.5*timeStep*barostatVelocity*(1 + space.D()/(double)nDOF);
+            kickScale = Math.exp(-x);
+            forceScale = Math.exp(-0.5*x)*sinhx(0.5*x);
+            x = timeStep*barostatVelocity;
+            positionScale = Math.exp(x);
+            velocityScale = Math.exp(0.5*x)*sinhx(0.5*x);
+        }
+        double c1 = 0, c2 = 0;
+        if (langevin) {
+            c1 = Math.exp(-langevinFriction*timeStep);
+            c2 = Math.sqrt((1 - c1*c1)*temperature);
+        }
         IAtomList leafList = box.getLeafList();
         int nLeaf = leafList.getAtomCount();
         for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
@@ -100,8 +286,34 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
             if (Debug.ON && Debug.DEBUG_NOW && Debug.anyAtom(new AtomSetSinglet(a))) {
                 System.out.println("first "+a+" r="+r+", v="+v+", f="+agent.force);
             }
-            v.PEa1Tv1(0.5*timeStep*((IAtom)a).getType().rm(),agent.force);  // p += f(old)*dt/2
-            r.PEa1Tv1(timeStep,v);         // r += p*dt/m
+            double rm = ((IAtom)a).getType().rm();
+            if (isobaric) {
+                v.TE(kickScale);
+                v.PEa1Tv1(0.5*timeStep*rm*forceScale,agent.force);
+                r.TE(positionScale);
+                r.PEa1Tv1(timeStep*velocityScale,v);
+            }
+            else if (langevin) {
+                v.PEa1Tv1(0.5*timeStep*rm,agent.force);
+                r.PEa1Tv1(0.5*timeStep,v);
+                if (rm != 0) {
+                    // exact Ornstein-Uhlenbeck update
+                    double sigma = c2*Math.sqrt(rm);
+                    for (int i=0; i<v.getD(); i++) {
+                        v.setX(i, c1*v.getX(i) + sigma*random.nextGaussian());
+                    }
+                }
+                r.PEa1Tv1(0.5*timeStep,v);
+            }
+            else {
+                v.PEa1Tv1(0.5*timeStep*rm,agent.force);  // p += f(old)*dt/2
+                r.PEa1Tv1(timeStep,v);         // r += p*dt/m
+            }
+        }
+        if (isobaric) {
+            boxSize.E(box.getBoundary().getBoxSize());
+            boxSize.TE(positionScale);
+            box.getBoundary().setBoxSize(boxSize);
         }
 
         forceSum.reset();
@@ -112,6 +324,7 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
 
         if(forceSum instanceof PotentialCalculationForcePressureSum){
             pressureTensor.E(((PotentialCalculationForcePressureSum)forceSum).getPressureTensor());
+            virial = pressureTensor.trace();
         }
 
         //Finish integration step
@@ -123,18 +336,148 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
             workTensor.TE(((IAtom)a).getType().getMass());
             pressureTensor.PE(workTensor);
             if (Debug.ON && Debug.DEBUG_NOW && Debug.anyAtom(new AtomSetSinglet(a))) {
-                System.out.println("second "+a+" v="+velocity+", f="+((MyAgent)agentManager.getAgent(a)).force);
+                System.out.println("second "+a+" v="+velocity+", f="+agentManager.getAgent(a).force);
+            }
+            if (isobaric) {
+                velocity.TE(kickScale);
+                velocity.PEa1Tv1(0.5*timeStep*((IAtom)a).getType().rm()*forceScale,agentManager.getAgent(a).force);
+            }
+            else {
+                velocity.PEa1Tv1(0.5*timeStep*((IAtom)a).getType().rm(),agentManager.getAgent(a).force);  //p += f(new)*dt/2
             }
-            velocity.PEa1Tv1(0.5*timeStep*((IAtom)a).getType().rm(),((MyAgent)agentManager.getAgent(a)).force);  //p += f(new)*dt/2
         }
 
         pressureTensor.TE(1/box.getBoundary().volume());
 
-        if(isothermal) {
+        if (isobaric) {
+            halfStepBarostat();
+        }
+        if (noseHoover || isobaric) {
+            halfStepChains();
+        }
+        if (noseHoover || langevin || isobaric) {
+            currentKineticEnergy = 0.5*twoKinetic();
+        }
+        else if(isothermal) {
             doThermostatInternal();
         }
     }
 
+    /**
+     * Propagates the Nose-Hoover chains of the atoms (if thermostatted) and
+     * of the barostat (if isobaric and thermostatted) for half a step.
+     */
+    protected void halfStepChains() {
+        if (!isothermal) {
+            // NPH; twoKinetic still needs to count the degrees of freedom
+            twoKinetic();
+            return;
+        }
+        double twoK = twoKinetic();
+        double s = thermostatChain.propagate(0.5*timeStep, twoK, nDOF, temperature);
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            ((IAtomKinetic)leafList.getAtom(iLeaf)).getVelocity().TE(s);
+        }
+        if (isobaric) {
+            double w = barostatMass();
+            barostatVelocity *= barostatChain.propagate(0.5*timeStep, w*barostatVelocity*barostatVelocity, 1, temperature);
+        }
+    }
+
+    /**
+     * Updates the barostat velocity for half a step, based on the current
+     * kinetic energy, virial and volume.
+     */
+    protected void halfStepBarostat() {
+        if (!(forceSum instanceof PotentialCalculationForcePressureSum)) {
+            throw new RuntimeException("The barostat needs a force sum that computes the pressure tensor");
+        }
+        int D = space.D();
+        double twoK = twoKinetic();
+        double volume = box.getBoundary().volume();
+        double g = (1 + D/(double)nDOF)*twoK + virial - D*volume*pressure;
+        barostatVelocity += 0.5*timeStep*g/barostatMass();
+    }
+
+    protected double barostatMass() {
+        double tau = barostatChain.getTimeConstant();
+        return (nDOF + space.D())*temperature*tau*tau;
+    }
+
+    /**
+     * Returns twice the kinetic energy of the atoms (sum of m v^2), and
+     * updates the number of degrees of freedom.
+     */
+    protected double twoKinetic() {
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        double sum = 0;
+        int n = 0;
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            IAtomKinetic a = (IAtomKinetic)leafList.getAtom(iLeaf);
+            double mass = ((IAtom)a).getType().getMass();
+            if (mass == Double.POSITIVE_INFINITY) continue;
+            sum += mass*a.getVelocity().squared();
+            n++;
+        }
+        nDOF = n*space.D();
+        return sum;
+    }
+
+    /**
+     * Returns sinh(x)/x
+     */
+    protected static double sinhx(double x) {
+        double x2 = x*x;
+        if (x2 < 1e-4) {
+            return 1 + x2/6*(1 + x2/20);
+        }
+        return Math.sinh(x)/x;
+    }
+
+    /**
+     * Returns the energy conserved by the dynamics: the total energy of
+     * the atoms plus the energy of the Nose-Hoover chains and, with the
+     * barostat, the barostat kinetic energy and PV.  This is useful to
+     * check the time step.  It is not meaningful for the Langevin
+     * thermostat or for thermostats applied at intervals.
+     */
+    public double getConservedEnergy() {
+        double twoK = twoKinetic();
+        double energy = 0.5*twoK + meterPE.getDataAsScalar();
+        if (isothermal && thermostat == ThermostatType.NOSE_HOOVER) {
+            energy += thermostatChain.getEnergy(nDOF, temperature);
+            if (isobaric) {
+                energy += barostatChain.getEnergy(1, temperature);
+            }
+        }
+        if (isobaric) {
+            energy += 0.5*barostatMass()*barostatVelocity*barostatVelocity + pressure*box.getBoundary().volume();
+        }
+        return energy;
+    }
+
+    /**
+     * The Nose-Hoover and Langevin thermostats act within each step, so
+     * there is nothing to do here except for the initial randomization.
+     */
+    public void doThermostat() {
+        if (!isothermal || (thermostat != ThermostatType.NOSE_HOOVER && thermostat != ThermostatType.LANGEVIN)) {
+            super.doThermostat();
+            return;
+        }
+        thermostatCount = thermostatInterval;
+        if (!initialized) {
+            randomizeMomenta();
+            if (thermostatNoDrift) {
+                shiftMomenta();
+            }
+            currentKineticEnergy = meterKE.getDataAsScalar();
+        }
+    }
+
     /**
      * Returns the pressure tensor based on the forces calculated during the
      * last time step.
@@ -157,6 +500,23 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
 
         forceSum.reset();
         potentialMaster.calculate(box, allAtoms, forceSum);
+        if (forceSum instanceof PotentialCalculationForcePressureSum) {
+            virial = ((PotentialCalculationForcePressureSum)forceSum).getPressureTensor().trace();
+        }
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        super.saveState(out);
+        thermostatChain.saveState(out);
+        barostatChain.saveState(out);
+        out.writeDouble(barostatVelocity);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        thermostatChain.restoreState(in);
+        barostatChain.restoreState(in);
+        barostatVelocity = in.readDouble();
     }
 
 //--------------------------------------------------------------
@@ -176,5 +536,14 @@ public class IntegratorVelocityVerlet extends IntegratorMD implements AgentSourc
         
         public IVectorMutable force() {return force;}
     }
-    
+
+    protected NoseHooverChain thermostatChain, barostatChain;
+    protected double langevinFriction;
+    protected boolean thermostatTimeConstantSet, barostatTimeConstantSet, langevinFrictionSet;
+    protected boolean isobaric;
+    protected double pressure;
+    protected double barostatVelocity;
+    protected double virial;
+    protected int nDOF;
+    protected final IVectorMutable boxSize;
 }
@@ -0,0 +1,165 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.api.ISimulation;
+import etomica.atom.AtomLeafCoordinateArrays;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.potential.PotentialCalculationForceSumArrays;
+import etomica.space.ISpace;
+
+/**
+ * Velocity Verlet integrator that performs its integration loops on the
+ * flat coordinate arrays of an AtomLeafCoordinateArrays rather than on each
+ * atom's vectors.  The position arrays hold the authoritative positions from
+ * one step to the next.  Forces are summed directly into the force arrays by
+ * a PotentialCalculationForceSumArrays, which takes the separation of atoms
+ * interacting with a spherical pair potential from the arrays.  The atoms'
+ * positions are therefore updated only when something needs them: another
+ * potential, a listener about to be notified, the thermostat, or a call to
+ * updateAtomPositions.  The atoms' velocities are updated at the end of
+ * every step, so they are always current.  After listeners have been
+ * notified, the arrays are refreshed from the atoms, so listeners may move
+ * atoms (to apply periodic boundaries, for instance) or change their
+ * velocities.  Anything else that changes the atoms between steps must call
+ * reset afterward, and anything else that reads the atoms' positions between
+ * steps should call updateAtomPositions first.
+ * <p>
+ * The arrays are not views backing the atoms' vectors: Vector3D is final and
+ * its methods read the fields of their vector arguments directly, so the
+ * atoms must keep their own vectors.
+ * <p>
+ * Unlike IntegratorVelocityVerlet, this integrator does not compute the
+ * pressure tensor and does not provide force agents.
+ */
+public class IntegratorVelocityVerletArrays extends IntegratorMD {
+
+    public IntegratorVelocityVerletArrays(ISimulation sim, IPotentialMaster potentialMaster, ISpace _space) {
+        this(potentialMaster, sim.getRandom(), 0.05, 1.0, _space);
+    }
+
+    public IntegratorVelocityVerletArrays(IPotentialMaster potentialMaster, IRandom random,
+            double timeStep, double temperature, ISpace _space) {
+        super(potentialMaster,random,timeStep,temperature, _space);
+        allAtoms = new IteratorDirective();
+    }
+
+    public void setBox(IBox p) {
+        if (coordinates != null) {
+            // leave the old box's atoms where the arrays have them
+            coordinates.updateAtomPositions();
+            coordinates.dispose();
+        }
+        super.setBox(p);
+        coordinates = new AtomLeafCoordinateArrays(p, true);
+        forceSum = new PotentialCalculationForceSumArrays(coordinates);
+    }
+
+    /**
+     * Returns the arrays holding the coordinates and forces of the atoms.
+     * The forces are those computed during the last step.
+     */
+    public AtomLeafCoordinateArrays getCoordinates() {
+        return coordinates;
+    }
+
+    public void doStepInternal() {
+        super.doStepInternal();
+        if (atomsExposed) {
+            // listeners were notified after the last step and might have
+            // changed the atoms
+            coordinates.gatherPositions();
+            coordinates.gatherVelocities();
+            atomsExposed = false;
+        }
+        int nLeaf = box.getLeafList().getAtomCount();
+        double[][] r = coordinates.getPositions();
+        double[][] v = coordinates.getVelocities();
+        double[][] f = coordinates.getForces();
+        double[] rm = coordinates.getRm();
+        double halfDt = 0.5*timeStep;
+        for (int k=0; k<r.length; k++) {
+            double[] rk = r[k], vk = v[k], fk = f[k];
+            for (int i=0; i<nLeaf; i++) {
+                vk[i] += halfDt*rm[i]*fk[i];  // p += f(old)*dt/2
+                rk[i] += timeStep*vk[i];      // r += p*dt/m
+            }
+        }
+        coordinates.invalidateAtomPositions();
+
+        forceSum.reset();
+        potentialMaster.calculate(box, allAtoms, forceSum);
+
+        if (eventManager.hasMDListeners()) {
+            coordinates.updateAtomPositions();
+        }
+        eventManager.forceComputed();
+
+        for (int k=0; k<r.length; k++) {
+            double[] vk = v[k], fk = f[k];
+            for (int i=0; i<nLeaf; i++) {
+                vk[i] += halfDt*rm[i]*fk[i];  // p += f(new)*dt/2
+            }
+        }
+        coordinates.scatterVelocities();
+
+        if(isothermal) {
+            doThermostatInternal();
+        }
+
+        if (eventManager.isListenerDue()) {
+            coordinates.updateAtomPositions();
+            atomsExposed = true;
+        }
+    }
+
+    /**
+     * Copies the positions from the arrays to the atoms, if they have changed
+     * since the atoms were last updated.  This happens automatically before
+     * listeners are notified; other code that reads the atoms' positions
+     * between steps should call this first.
+     */
+    public void updateAtomPositions() {
+        coordinates.updateAtomPositions();
+    }
+
+    /**
+     * Applies the thermostat to the atoms' velocities (and, for hybrid MC,
+     * their positions) and then refreshes the arrays from the atoms.
+     */
+    public void doThermostat() {
+        if (coordinates == null) {
+            // called before the box has been set
+            super.doThermostat();
+            return;
+        }
+        coordinates.updateAtomPositions();
+        super.doThermostat();
+        coordinates.gatherPositions();
+        coordinates.gatherVelocities();
+    }
+
+    public void reset() {
+        // the atoms take the latest positions before listeners see them
+        coordinates.updateAtomPositions();
+        super.reset();
+        coordinates.gatherPositions();
+        coordinates.gatherVelocities();
+        atomsExposed = false;
+        forceSum.reset();
+        potentialMaster.calculate(box, allAtoms, forceSum);
+    }
+
+    private static final long serialVersionUID = 1L;
+    protected final IteratorDirective allAtoms;
+    protected AtomLeafCoordinateArrays coordinates;
+    protected PotentialCalculationForceSumArrays forceSum;
+    // true if listeners have been notified since the arrays were last
+    // refreshed from the atoms
+    protected boolean atomsExposed;
+}
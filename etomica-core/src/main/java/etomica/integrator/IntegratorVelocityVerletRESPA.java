@@ -0,0 +1,268 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import etomica.api.IAtom;
+import etomica.api.IAtomKinetic;
+import etomica.api.IAtomList;
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.AtomLeafAgentManager.AgentSource;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.data.DataSourceScalar;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.integrator.IntegratorVelocityVerlet.MyAgent;
+import etomica.potential.PotentialCalculationForcePressureSum;
+import etomica.space.ISpace;
+import etomica.space.Tensor;
+import etomica.units.Energy;
+
+/**
+ * Multiple-time-step velocity Verlet integrator (reversible RESPA).  The
+ * potentials are split among levels, each handled by its own potential
+ * master and force sum.  Level 0 holds the slowest (and generally most
+ * expensive) forces, such as long-range and k-space interactions, and is
+ * evaluated once per time step.  Each subsequent level takes some number of
+ * sub-steps for each step of the level before it, so the last level, which
+ * should hold the stiff intramolecular potentials, is evaluated most often.
+ * Positions are only advanced in the innermost level.
+ * <p>
+ * With one level and one sub-step, this integrator follows the same
+ * trajectory as IntegratorVelocityVerlet.  The energy is conserved about as
+ * well as with velocity Verlet using the innermost time step, so long as the
+ * outer time step stays short compared to the periods of the motions driven
+ * by the fast forces (resonances appear near half those periods).
+ * <p>
+ * The integrator has no potential master of its own; getPotentialMaster
+ * returns null and the potential energy is the sum over levels.
+ * <p>
+ * Only the thermostats applied at intervals by IntegratorMD are supported,
+ * between whole outer steps.  The NOSE_HOOVER and LANGEVIN thermostats of
+ * IntegratorVelocityVerlet would need to act within the innermost level,
+ * and are rejected by setThermostat.
+ * <p>
+ * M. Tuckerman, B.J. Berne and G.J. Martyna, J. Chem. Phys. 97, 1990 (1992)
+ */
+public class IntegratorVelocityVerletRESPA extends IntegratorMD implements AgentSource<MyAgent> {
+
+    /**
+     * @param potentialMasters the potential masters for each level, slowest
+     *                         first.  Each potential should be added to
+     *                         exactly one of them.
+     */
+    public IntegratorVelocityVerletRESPA(IPotentialMaster[] potentialMasters, IRandom random,
+            double timeStep, double temperature, ISpace _space) {
+        super(null, random, timeStep, temperature, _space);
+        nLevels = potentialMasters.length;
+        if (nLevels == 0) {
+            throw new IllegalArgumentException("need at least one level");
+        }
+        levelPotentialMasters = potentialMasters.clone();
+        nSubSteps = new int[nLevels];
+        forceSums = new PotentialCalculationForcePressureSum[nLevels];
+        meterPEs = new MeterPotentialEnergy[nLevels];
+        for (int i=0; i<nLevels; i++) {
+            nSubSteps[i] = 1;
+            forceSums[i] = new PotentialCalculationForcePressureSum(space);
+            meterPEs[i] = new MeterPotentialEnergy(levelPotentialMasters[i]);
+        }
+        meterPE = new MeterPotentialEnergySum(meterPEs);
+        allAtoms = new IteratorDirective();
+        // see IntegratorVelocityVerlet
+        allAtoms.setIncludeLrc(true);
+        pressureTensor = space.makeTensor();
+        workTensor = space.makeTensor();
+    }
+
+    public int getNumLevels() {
+        return nLevels;
+    }
+
+    public IPotentialMaster getPotentialMaster(int level) {
+        return levelPotentialMasters[level];
+    }
+
+    /**
+     * Sets the number of steps taken by the given level for each step of
+     * the previous level.  The time step of the level is the time step of
+     * the previous level divided by this number.
+     */
+    public void setNumSubSteps(int level, int n) {
+        if (level < 1 || level >= nLevels) {
+            throw new IllegalArgumentException("level must be from 1 to "+(nLevels-1));
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException("number of sub-steps must be positive");
+        }
+        nSubSteps[level] = n;
+    }
+
+    public int getNumSubSteps(int level) {
+        return nSubSteps[level];
+    }
+
+    /**
+     * Returns the time step used for the given level.
+     */
+    public double getTimeStep(int level) {
+        double dt = timeStep;
+        for (int i=1; i<=level; i++) {
+            dt /= nSubSteps[i];
+        }
+        return dt;
+    }
+
+    public PotentialCalculationForcePressureSum getForceSum(int level) {
+        return forceSums[level];
+    }
+
+    public AtomLeafAgentManager<MyAgent> getAgentManager(int level) {
+        return agentManagers.get(level);
+    }
+
+    public void setBox(IBox p) {
+        if (box != null) {
+            // allow agentManagers to de-register themselves as BoxListeners
+            for (int i=0; i<nLevels; i++) {
+                agentManagers.get(i).dispose();
+            }
+        }
+        super.setBox(p);
+        agentManagers = new ArrayList<AtomLeafAgentManager<MyAgent>>(nLevels);
+        for (int i=0; i<nLevels; i++) {
+            AtomLeafAgentManager<MyAgent> agentManager = new AtomLeafAgentManager<MyAgent>(this, p, MyAgent.class);
+            agentManagers.add(agentManager);
+            forceSums[i].setAgentManager(agentManager);
+            meterPEs[i].setBox(p);
+        }
+    }
+
+    public void doStepInternal() {
+        super.doStepInternal();
+        step(0, timeStep);
+
+        // all forces are now current, so the virial is as well
+        pressureTensor.E(0);
+        for (int i=0; i<nLevels; i++) {
+            pressureTensor.PE(forceSums[i].getPressureTensor());
+        }
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            IAtomKinetic a = (IAtomKinetic)leafList.getAtom(iLeaf);
+            IVectorMutable velocity = a.getVelocity();
+            workTensor.Ev1v2(velocity,velocity);
+            workTensor.TE(((IAtom)a).getType().getMass());
+            pressureTensor.PE(workTensor);
+        }
+        pressureTensor.TE(1/box.getBoundary().volume());
+
+        if(isothermal) {
+            doThermostatInternal();
+        }
+    }
+
+    /**
+     * Advances the given level (and all faster levels) by dt.
+     */
+    protected void step(int level, double dt) {
+        kick(level, 0.5*dt);
+        if (level == nLevels-1) {
+            IAtomList leafList = box.getLeafList();
+            int nLeaf = leafList.getAtomCount();
+            for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+                IAtomKinetic a = (IAtomKinetic)leafList.getAtom(iLeaf);
+                a.getPosition().PEa1Tv1(dt, a.getVelocity());
+            }
+        }
+        else {
+            int n = nSubSteps[level+1];
+            double innerStep = dt/n;
+            for (int i=0; i<n; i++) {
+                step(level+1, innerStep);
+            }
+        }
+        computeForces(level);
+        if (level == 0) {
+            eventManager.forceComputed();
+        }
+        kick(level, 0.5*dt);
+    }
+
+    protected void kick(int level, double dt) {
+        AtomLeafAgentManager<MyAgent> agentManager = agentManagers.get(level);
+        IAtomList leafList = box.getLeafList();
+        int nLeaf = leafList.getAtomCount();
+        for (int iLeaf=0; iLeaf<nLeaf; iLeaf++) {
+            IAtomKinetic a = (IAtomKinetic)leafList.getAtom(iLeaf);
+            a.getVelocity().PEa1Tv1(dt*((IAtom)a).getType().rm(), agentManager.getAgent(a).force);
+        }
+    }
+
+    protected void computeForces(int level) {
+        forceSums[level].reset();
+        levelPotentialMasters[level].calculate(box, allAtoms, forceSums[level]);
+    }
+
+    /**
+     * Returns the pressure tensor based on the forces calculated during the
+     * last time step.
+     */
+    public Tensor getPressureTensor() {
+        return pressureTensor;
+    }
+
+    public void reset() {
+        super.reset();
+        for (int i=0; i<nLevels; i++) {
+            computeForces(i);
+        }
+    }
+
+    public MyAgent makeAgent(IAtom a, IBox agentBox) {
+        return new MyAgent(space);
+    }
+
+    public void releaseAgent(MyAgent agent, IAtom atom, IBox agentBox) {}
+
+    /**
+     * Sums the potential energy over all levels.
+     */
+    public static class MeterPotentialEnergySum extends DataSourceScalar {
+
+        public MeterPotentialEnergySum(MeterPotentialEnergy[] meters) {
+            super("Potential Energy", Energy.DIMENSION);
+            this.meters = meters;
+        }
+
+        public double getDataAsScalar() {
+            double sum = 0;
+            for (int i=0; i<meters.length; i++) {
+                sum += meters[i].getDataAsScalar();
+            }
+            return sum;
+        }
+
+        private static final long serialVersionUID = 1L;
+        protected final MeterPotentialEnergy[] meters;
+    }
+
+    private static final long serialVersionUID = 1L;
+    protected final int nLevels;
+    protected final IPotentialMaster[] levelPotentialMasters;
+    protected final int[] nSubSteps;
+    protected final PotentialCalculationForcePressureSum[] forceSums;
+    protected final MeterPotentialEnergy[] meterPEs;
+    protected List<AtomLeafAgentManager<MyAgent>> agentManagers;
+    protected final IteratorDirective allAtoms;
+    protected final Tensor pressureTensor;
+    protected final Tensor workTensor;
+}
@@ -0,0 +1,153 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Nose-Hoover chain thermostat variables coupled to some set of degrees of
+ * freedom.  The integrator owning the chain calls propagate for half a time
+ * step at the start and end of each step and scales the velocities of the
+ * degrees of freedom by the factor returned.  The chain is propagated with
+ * the factorization of Martyna, Tuckerman, Tobias and Klein, using a
+ * Suzuki-Yoshida fourth-order decomposition.
+ * <p>
+ * The thermostat masses are determined from the time constant, tau, as
+ * Q_1 = nDOF kT tau^2 and Q_j = kT tau^2 for the other chain elements.
+ * <p>
+ * G.J. Martyna, M.E. Tuckerman, D.J. Tobias and M.L. Klein, Mol. Phys. 87,
+ * 1117 (1996)
+ */
+public class NoseHooverChain {
+
+    public NoseHooverChain(int length) {
+        if (length < 1) throw new IllegalArgumentException("chain length must be positive");
+        xi = new double[length];
+        vxi = new double[length];
+        q = new double[length];
+        setTimeConstant(1.0);
+    }
+
+    public int getLength() {
+        return xi.length;
+    }
+
+    /**
+     * Sets the time constant of the thermostat, which determines the masses
+     * of the chain elements.
+     */
+    public void setTimeConstant(double newTau) {
+        if (newTau <= 0) throw new IllegalArgumentException("time constant must be positive");
+        tau = newTau;
+    }
+
+    public double getTimeConstant() {
+        return tau;
+    }
+
+    /**
+     * Zeros the positions and velocities of the chain.
+     */
+    public void reset() {
+        for (int j=0; j<xi.length; j++) {
+            xi[j] = 0;
+            vxi[j] = 0;
+        }
+    }
+
+    /**
+     * Propagates the chain over the interval dt (normally half a time step)
+     * and returns the factor by which the velocities of the thermostatted
+     * degrees of freedom must be scaled.
+     *
+     * @param twoK  twice the kinetic energy of the thermostatted degrees of
+     *              freedom
+     * @param nDOF  the number of thermostatted degrees of freedom
+     */
+    public double propagate(double dt, double twoK, int nDOF, double temperature) {
+        int M = xi.length;
+        double kT = temperature;
+        double tau2 = tau*tau;
+        q[0] = nDOF*kT*tau2;
+        for (int j=1; j<M; j++) {
+            q[j] = kT*tau2;
+        }
+        double scale = 1;
+        for (int w=0; w<WEIGHTS.length; w++) {
+            double d = WEIGHTS[w]*dt;
+            double d2 = 0.5*d, d4 = 0.25*d;
+            // work down the chain
+            vxi[M-1] += d2*force(M-1, twoK, nDOF, kT);
+            for (int j=M-2; j>=0; j--) {
+                double e = Math.exp(-d4*vxi[j+1]);
+                vxi[j] = (vxi[j]*e + d2*force(j, twoK, nDOF, kT))*e;
+            }
+            double s = Math.exp(-d*vxi[0]);
+            scale *= s;
+            twoK *= s*s;
+            for (int j=0; j<M; j++) {
+                xi[j] += d*vxi[j];
+            }
+            // and back up
+            for (int j=0; j<M-1; j++) {
+                double e = Math.exp(-d4*vxi[j+1]);
+                vxi[j] = (vxi[j]*e + d2*force(j, twoK, nDOF, kT))*e;
+            }
+            vxi[M-1] += d2*force(M-1, twoK, nDOF, kT);
+        }
+        return scale;
+    }
+
+    protected double force(int j, double twoK, int nDOF, double kT) {
+        if (j == 0) {
+            return (twoK - nDOF*kT)/q[0];
+        }
+        return (q[j-1]*vxi[j-1]*vxi[j-1] - kT)/q[j];
+    }
+
+    /**
+     * Returns the energy of the chain, which together with the energy of
+     * the thermostatted system is conserved.
+     */
+    public double getEnergy(int nDOF, double temperature) {
+        double tau2 = tau*tau;
+        double sum = 0.5*nDOF*temperature*tau2*vxi[0]*vxi[0] + nDOF*temperature*xi[0];
+        for (int j=1; j<xi.length; j++) {
+            sum += 0.5*temperature*tau2*vxi[j]*vxi[j] + temperature*xi[j];
+        }
+        return sum;
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(xi.length);
+        for (int j=0; j<xi.length; j++) {
+            out.writeDouble(xi[j]);
+            out.writeDouble(vxi[j]);
+        }
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        int M = in.readInt();
+        if (M != xi.length) {
+            throw new IOException("checkpoint has a chain of length "+M+", but this chain has length "+xi.length);
+        }
+        for (int j=0; j<M; j++) {
+            xi[j] = in.readDouble();
+            vxi[j] = in.readDouble();
+        }
+    }
+
+    // Suzuki-Yoshida fourth-order weights
+    protected static final double[] WEIGHTS;
+    static {
+        double w1 = 1.0/(2.0 - Math.cbrt(2.0));
+        WEIGHTS = new double[]{w1, 1.0 - 2.0*w1, w1};
+    }
+
+    protected final double[] xi, vxi, q;
+    protected double tau;
+}
@@ -0,0 +1,270 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator.mcmove;
+
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IBoundary;
+import etomica.api.IBox;
+import etomica.api.IMolecule;
+import etomica.api.IPotentialAtomic;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.api.IVectorMutable;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.box.RandomPositionSource;
+import etomica.box.RandomPositionSourceRectangular;
+import etomica.nbr.cell.Cell;
+import etomica.nbr.cell.NeighborCellManager;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.nbr.list.PotentialMasterList;
+import etomica.potential.PotentialCalculation;
+import etomica.space.ISpace;
+import etomica.space.IVectorRandom;
+
+/**
+ * Configurational-bias (Rosenbluth) growth of linear chain molecules, for use
+ * by MC moves.  The atoms of the molecule are taken to be bonded in the
+ * order of the molecule's child list.  Atoms are placed one at a time, each
+ * at one of numTrials trial positions chosen with probability proportional
+ * to its Boltzmann factor, and the Rosenbluth weight of the growth is the
+ * product over atoms of the average Boltzmann factor of the trials.  The old
+ * configuration's weight is found by retracing its growth with the actual
+ * position as one of the trials.
+ * <p>
+ * The first atom grown from a free end (when the whole chain is grown) is
+ * placed at a random position in the box.  Every other atom is placed at a
+ * random direction from the atom grown before it, at the bond length it had
+ * before the growth started (so bond lengths are fixed).  The energy of each
+ * trial is the energy of the atom with the other molecules and with the
+ * atoms of its molecule that are fixed or have already been grown, including
+ * bonded intramolecular potentials; interactions with atoms not yet grown
+ * are skipped.  The energy is computed with the atom as the target of the
+ * potential master, so with PotentialMasterCell only the atom's neighbor
+ * cells are visited; the atom is moved between cells as it is placed.
+ * Neighbor lists (PotentialMasterList) can't follow the growth and are not
+ * supported.  Long-range corrections are not included.
+ * <p>
+ * D. Frenkel and B. Smit, "Understanding Molecular Simulation", 2nd ed.,
+ * chapter 13
+ */
+public class CBMCGrowth {
+
+    public CBMCGrowth(IPotentialMaster potentialMaster, IRandom random, ISpace space) {
+        if (potentialMaster instanceof PotentialMasterList) {
+            throw new IllegalArgumentException("neighbor lists can't follow the growth");
+        }
+        this.potentialMaster = potentialMaster;
+        this.random = random;
+        this.space = space;
+        directive = new IteratorDirective(null);
+        directive.includeLrc = false;
+        energySum = new EnergySumGrown();
+        positionSource = new RandomPositionSourceRectangular(space, random);
+        direction = (IVectorRandom)space.makeVector();
+        dr = space.makeVector();
+        setNumTrials(8);
+        grown = new boolean[0];
+        bondLength = new double[0];
+    }
+
+    public void setBox(IBox newBox) {
+        box = newBox;
+        positionSource.setBox(box);
+        cellManager = null;
+        if (potentialMaster instanceof PotentialMasterCell) {
+            cellManager = ((PotentialMasterCell)potentialMaster).getNbrCellManager(box);
+        }
+    }
+
+    /**
+     * Sets the number of trial positions for each atom.  Default is 8.
+     */
+    public void setNumTrials(int newNumTrials) {
+        if (newNumTrials < 1) {
+            throw new IllegalArgumentException("need at least one trial");
+        }
+        numTrials = newNumTrials;
+        boltzmann = new double[numTrials];
+        energy = new double[numTrials];
+        trialPosition = new IVectorMutable[numTrials];
+        for (int k=0; k<numTrials; k++) {
+            trialPosition[k] = space.makeVector();
+        }
+    }
+
+    public int getNumTrials() {
+        return numTrials;
+    }
+
+    /**
+     * Sets the source of positions for the first atom when a whole chain is
+     * grown.  By default, a source is used that assumes a rectangular
+     * boundary.
+     */
+    public void setPositionSource(RandomPositionSource newPositionSource) {
+        positionSource = newPositionSource;
+        if (box != null) {
+            positionSource.setBox(box);
+        }
+    }
+
+    public RandomPositionSource getPositionSource() {
+        return positionSource;
+    }
+
+    /**
+     * Grows (or, if retrace is true, retraces) the atoms of the given
+     * molecule starting from atom first and proceeding in the given direction
+     * (+1 or -1) to the end of the chain, at the given temperature.  Atoms on
+     * the other side of first are held fixed; if there are none, first is
+     * placed anywhere in the box.  Returns the Rosenbluth weight, which is 0
+     * if no trial could be chosen for some atom (the growth then stops, with
+     * the molecule partly grown).  The energy of the grown atoms is then
+     * available from getEnergy().
+     */
+    public double grow(IMolecule molecule, int first, int step, double temperature, boolean retrace) {
+        IAtomList atoms = molecule.getChildList();
+        int nAtoms = atoms.getAtomCount();
+        if (grown.length < nAtoms) {
+            grown = new boolean[nAtoms];
+            bondLength = new double[nAtoms];
+        }
+        int last = step > 0 ? nAtoms-1 : 0;
+        boolean fromBox = first-step < 0 || first-step >= nAtoms;
+        IBoundary boundary = box.getBoundary();
+        for (int i=0; i<nAtoms; i++) {
+            grown[i] = (step > 0) ? i < first : i > first;
+            if (!grown[i] && (i != first || !fromBox)) {
+                // bond to the atom grown before this one
+                dr.Ev1Mv2(atoms.getAtom(i).getPosition(), atoms.getAtom(i-step).getPosition());
+                boundary.nearestImage(dr);
+                bondLength[i] = Math.sqrt(dr.squared());
+            }
+        }
+        energySum.molecule = molecule;
+        energySum.grown = grown;
+        double weight = 1;
+        uGrown = 0;
+        for (int i=first; ; i+=step) {
+            IAtom atom = atoms.getAtom(i);
+            IVectorMutable position = atom.getPosition();
+            grown[i] = true;
+            double sum = 0;
+            for (int k=0; k<numTrials; k++) {
+                if (retrace && k == 0) {
+                    // the old position is one of the trials
+                    trialPosition[0].E(position);
+                }
+                else if (fromBox && i == first) {
+                    trialPosition[k].E(positionSource.randomPosition());
+                }
+                else {
+                    direction.setRandomSphere(random);
+                    trialPosition[k].E(atoms.getAtom(i-step).getPosition());
+                    trialPosition[k].PEa1Tv1(bondLength[i], direction);
+                }
+                position.E(trialPosition[k]);
+                updateCell(atom);
+                // updateCell may have wrapped the position
+                trialPosition[k].E(position);
+                energySum.zeroSum();
+                directive.setTargetAtom(atom);
+                potentialMaster.calculate(box, directive, energySum);
+                energy[k] = energySum.getSum();
+                boltzmann[k] = Math.exp(-energy[k]/temperature);
+                sum += boltzmann[k];
+            }
+            if (sum == 0) {
+                energySum.molecule = null;
+                return 0;
+            }
+            int chosen = 0;
+            if (!retrace) {
+                double r = random.nextDouble()*sum;
+                double s = 0;
+                for (chosen=0; chosen<numTrials-1; chosen++) {
+                    s += boltzmann[chosen];
+                    if (r < s) break;
+                }
+            }
+            position.E(trialPosition[chosen]);
+            updateCell(atom);
+            uGrown += energy[chosen];
+            weight *= sum/numTrials;
+            if (i == last) break;
+        }
+        energySum.molecule = null;
+        return weight;
+    }
+
+    /**
+     * Returns the energy of the atoms that were grown (or retraced) in the
+     * last call to grow, with each other and with everything else.
+     */
+    public double getEnergy() {
+        return uGrown;
+    }
+
+    /**
+     * Moves the given atom into the cell containing its position, wrapping
+     * the position into the box (if cells are being used).
+     */
+    public void updateCell(IAtom atom) {
+        if (cellManager == null) return;
+        Cell cell = cellManager.getCell(atom);
+        if (cell != null) {
+            cell.removeAtom(atom);
+        }
+        IVectorMutable position = atom.getPosition();
+        position.PE(box.getBoundary().centralImage(position));
+        cellManager.assignCell(atom);
+    }
+
+    /**
+     * Sums the energy of atom sets that don't include atoms of the growing
+     * molecule that have not been grown.
+     */
+    protected static class EnergySumGrown implements PotentialCalculation {
+        public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+            for (int i=0; i<atoms.getAtomCount(); i++) {
+                IAtom atom = atoms.getAtom(i);
+                if (atom.getParentGroup() == molecule && !grown[atom.getIndex()]) {
+                    return;
+                }
+            }
+            sum += potential.energy(atoms);
+        }
+
+        public void zeroSum() {
+            sum = 0;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        protected double sum;
+        protected IMolecule molecule;
+        protected boolean[] grown;
+    }
+
+    protected final IPotentialMaster potentialMaster;
+    protected final IRandom random;
+    protected final ISpace space;
+    protected final IteratorDirective directive;
+    protected final EnergySumGrown energySum;
+    protected final IVectorRandom direction;
+    protected final IVectorMutable dr;
+    protected IBox box;
+    protected NeighborCellManager cellManager;
+    protected RandomPositionSource positionSource;
+    protected int numTrials;
+    protected double[] boltzmann, energy;
+    protected IVectorMutable[] trialPosition;
+    protected boolean[] grown;
+    protected double[] bondLength;
+    protected double uGrown;
+}
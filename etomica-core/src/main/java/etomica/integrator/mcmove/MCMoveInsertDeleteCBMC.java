@@ -0,0 +1,121 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator.mcmove;
+
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.box.RandomPositionSource;
+import etomica.integrator.IntegratorBox;
+import etomica.potential.PotentialCalculationEnergySum;
+import etomica.space.ISpace;
+
+/**
+ * Insertion/deletion move for chain molecules that grows inserted molecules
+ * atom by atom with configurational bias (see CBMCGrowth) and retraces the
+ * growth of deleted molecules.  The chain is grown from either end, chosen
+ * at random.  The Rosenbluth weight replaces the Boltzmann factor of the
+ * molecule's energy in the acceptance probability, so the chemical potential
+ * has the same meaning as for MCMoveInsertDelete, with the bond lengths of
+ * the molecule held fixed.  Long-range corrections are included separately.
+ */
+public class MCMoveInsertDeleteCBMC extends MCMoveInsertDelete {
+
+    public MCMoveInsertDeleteCBMC(IPotentialMaster potentialMaster, IRandom random,
+                                  ISpace _space, IntegratorBox integrator) {
+        super(potentialMaster, random, _space);
+        this.integrator = integrator;
+        growth = new CBMCGrowth(potentialMaster, random, _space);
+        growth.setPositionSource(positionSource);
+        lrcDirective = new IteratorDirective(null);
+        lrcDirective.includeLrc = true;
+        lrcSum = new PotentialCalculationEnergySum();
+    }
+
+    public void setBox(IBox p) {
+        super.setBox(p);
+        growth.setBox(p);
+    }
+
+    public void setPositionSource(RandomPositionSource newPositionSource) {
+        super.setPositionSource(newPositionSource);
+        growth.setPositionSource(newPositionSource);
+    }
+
+    /**
+     * Sets the number of trial positions for each atom.  Default is 8.
+     */
+    public void setNumTrials(int newNumTrials) {
+        growth.setNumTrials(newNumTrials);
+    }
+
+    public int getNumTrials() {
+        return growth.getNumTrials();
+    }
+
+    public boolean doTrial() {
+        insert = (random.nextInt(2) == 0);
+        double temperature = integrator.getTemperature();
+        if (insert) {
+            uOld = 0;
+            if (!reservoir.isEmpty()) testMolecule = reservoir.remove(reservoir.getMoleculeCount()-1);
+            else testMolecule = species.makeMolecule();
+            box.addMolecule(testMolecule);
+            weight = growFromEnd(temperature, false);
+            uLrc = lrcEnergy();
+            uNew = growth.getEnergy() + uLrc;
+        }
+        else {
+            if (box.getNMolecules(species) == 0) {
+                testMolecule = null;
+                return false;
+            }
+            testMolecule = moleculeList.getMolecule(random.nextInt(moleculeList.getMoleculeCount()));
+            weight = growFromEnd(temperature, true);
+            uLrc = lrcEnergy();
+            uOld = growth.getEnergy() + uLrc;
+            uNew = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Grows or retraces testMolecule from an end chosen at random.
+     */
+    protected double growFromEnd(double temperature, boolean retrace) {
+        if (random.nextInt(2) == 0) {
+            return growth.grow(testMolecule, 0, 1, temperature, retrace);
+        }
+        return growth.grow(testMolecule, testMolecule.getChildList().getAtomCount()-1, -1, temperature, retrace);
+    }
+
+    /**
+     * Returns the long-range correction energy of testMolecule.
+     */
+    protected double lrcEnergy() {
+        lrcDirective.setTargetMolecule(testMolecule);
+        lrcSum.zeroSum();
+        potential.lrcMaster().calculate(box, lrcDirective, lrcSum);
+        return lrcSum.getSum();
+    }
+
+    public double getA() {
+        if (weight == 0) return 0;
+        double a = super.getA();
+        return insert ? a*weight : a/weight;
+    }
+
+    public double getB() {
+        // the rest of the energy is in the Rosenbluth weight
+        return insert ? mu - uLrc : uLrc - mu;
+    }
+
+    protected final IntegratorBox integrator;
+    protected final CBMCGrowth growth;
+    protected final IteratorDirective lrcDirective;
+    protected final PotentialCalculationEnergySum lrcSum;
+    protected double weight, uLrc;
+}
@@ -145,6 +145,10 @@ public class MCMoveManager {
         }
     }
 
+    public boolean isEquilibrating() {
+        return isEquilibrating;
+    }
+
     /**
      * Returns the trial frequency set for the given move, over and above the
      * move's nominal frequency.  The frequency is 1.0 by default.
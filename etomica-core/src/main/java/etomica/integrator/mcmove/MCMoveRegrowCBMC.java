@@ -0,0 +1,147 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator.mcmove;
+
+import etomica.api.IAtomList;
+import etomica.api.IBox;
+import etomica.api.IMolecule;
+import etomica.api.IMoleculeList;
+import etomica.api.IPotentialMaster;
+import etomica.api.IRandom;
+import etomica.api.ISpecies;
+import etomica.api.IVectorMutable;
+import etomica.atom.iterator.AtomIterator;
+import etomica.atom.iterator.AtomIteratorArrayListSimple;
+import etomica.atom.iterator.AtomIteratorNull;
+import etomica.integrator.IntegratorBox;
+import etomica.space.ISpace;
+
+/**
+ * Monte Carlo move that regrows part of a chain molecule with configurational
+ * bias (see CBMCGrowth).  A molecule of the species is chosen at random, and
+ * the atoms from a randomly chosen atom to one end of the chain (also chosen
+ * at random) are retraced and then regrown, leaving at least one atom in
+ * place.  The trial is accepted with the ratio of the new and old Rosenbluth
+ * weights.
+ */
+public class MCMoveRegrowCBMC extends MCMoveBox {
+
+    public MCMoveRegrowCBMC(IPotentialMaster potentialMaster, IRandom random,
+                            ISpace _space, IntegratorBox integrator) {
+        super(potentialMaster);
+        this.random = random;
+        this.space = _space;
+        this.integrator = integrator;
+        growth = new CBMCGrowth(potentialMaster, random, _space);
+        oldPositions = new IVectorMutable[0];
+        perParticleFrequency = true;
+    }
+
+    public void setSpecies(ISpecies s) {
+        species = s;
+        if (box != null) {
+            moleculeList = box.getMoleculeList(species);
+        }
+    }
+
+    public ISpecies getSpecies() {
+        return species;
+    }
+
+    public void setBox(IBox p) {
+        super.setBox(p);
+        growth.setBox(box);
+        if (species != null) {
+            moleculeList = box.getMoleculeList(species);
+        }
+    }
+
+    /**
+     * Sets the number of trial positions for each atom.  Default is 8.
+     */
+    public void setNumTrials(int newNumTrials) {
+        growth.setNumTrials(newNumTrials);
+    }
+
+    public int getNumTrials() {
+        return growth.getNumTrials();
+    }
+
+    public boolean doTrial() {
+        if (moleculeList.getMoleculeCount() == 0) {
+            molecule = null;
+            return false;
+        }
+        molecule = moleculeList.getMolecule(random.nextInt(moleculeList.getMoleculeCount()));
+        IAtomList atoms = molecule.getChildList();
+        int nAtoms = atoms.getAtomCount();
+        if (nAtoms < 2) {
+            molecule = null;
+            return false;
+        }
+        if (oldPositions.length < nAtoms) {
+            oldPositions = new IVectorMutable[nAtoms];
+            for (int i=0; i<nAtoms; i++) {
+                oldPositions[i] = space.makeVector();
+            }
+        }
+        for (int i=0; i<nAtoms; i++) {
+            oldPositions[i].E(atoms.getAtom(i).getPosition());
+        }
+        // regrow atoms first..nAtoms-1 or first..0
+        int step = random.nextInt(2) == 0 ? 1 : -1;
+        int first = 1 + random.nextInt(nAtoms-1);
+        if (step < 0) {
+            first = nAtoms - 1 - first;
+        }
+        double temperature = integrator.getTemperature();
+        wOld = growth.grow(molecule, first, step, temperature, true);
+        uOld = growth.getEnergy();
+        wNew = growth.grow(molecule, first, step, temperature, false);
+        uNew = growth.getEnergy();
+        return true;
+    }
+
+    public double getA() {
+        if (wNew == 0) return 0;
+        return wNew/wOld;
+    }
+
+    public double getB() {
+        return 0;
+    }
+
+    public void acceptNotify() {
+    }
+
+    public void rejectNotify() {
+        IAtomList atoms = molecule.getChildList();
+        for (int i=0; i<atoms.getAtomCount(); i++) {
+            atoms.getAtom(i).getPosition().E(oldPositions[i]);
+            growth.updateCell(atoms.getAtom(i));
+        }
+    }
+
+    public double energyChange() {
+        return uNew - uOld;
+    }
+
+    public AtomIterator affectedAtoms() {
+        if (molecule == null) return AtomIteratorNull.INSTANCE;
+        affectedAtomIterator.setList(molecule.getChildList());
+        return affectedAtomIterator;
+    }
+
+    protected final IRandom random;
+    protected final ISpace space;
+    protected final IntegratorBox integrator;
+    protected final CBMCGrowth growth;
+    protected final AtomIteratorArrayListSimple affectedAtomIterator = new AtomIteratorArrayListSimple();
+    protected ISpecies species;
+    protected IMoleculeList moleculeList;
+    protected IMolecule molecule;
+    protected IVectorMutable[] oldPositions;
+    protected double wOld, wNew, uOld, uNew;
+}
@@ -4,6 +4,10 @@
 
 package etomica.integrator.mcmove;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * This Class tracks acceptance statistics for an MCMove and also manages the
  * move's step size.  Given an acceptance target, it can adjust the 
@@ -197,6 +201,35 @@ public class MCMoveStepTracker extends MCMoveTracker {
         return noisyAdjustment;
     }
 
+    /**
+     * Writes the acceptance statistics, the state of the step size
+     * adjustment and the move's current step size.
+     */
+    public void saveState(DataOutput out) throws IOException {
+        super.saveState(out);
+        out.writeDouble(mcMove == null ? Double.NaN : mcMove.getStepSize());
+        out.writeDouble(acceptanceTarget);
+        out.writeLong(adjustInterval);
+        out.writeLong(lastAdjust);
+        out.writeDouble(adjustStep);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        super.restoreState(in);
+        double stepSize = in.readDouble();
+        if (mcMove != null) {
+            // setStepSize will call resetAdjustStep, which would discard
+            // what we're restoring
+            noReset = true;
+            mcMove.setStepSize(stepSize);
+            noReset = false;
+        }
+        acceptanceTarget = in.readDouble();
+        adjustInterval = in.readLong();
+        lastAdjust = in.readLong();
+        adjustStep = in.readDouble();
+    }
+
     protected MCMoveStepDependent mcMove;
     protected double acceptanceTarget;
     protected long adjustInterval;
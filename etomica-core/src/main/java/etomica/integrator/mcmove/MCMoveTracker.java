@@ -4,7 +4,11 @@
 
 package etomica.integrator.mcmove;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
+import etomica.util.ICheckpointable;
 /**
  * This class is responsible for tracking acceptance statistics for an MCMove.
  * The acceptance ratio and probability can be retrieved.  This class has no 
@@ -12,7 +16,7 @@ package etomica.integrator.mcmove;
  *
  * @author Andrew Schultz
  */
-public class MCMoveTracker {
+public class MCMoveTracker implements ICheckpointable {
 
     /**
      * Updates statistics regarding the acceptance rate of this move.  This 
@@ -55,6 +59,18 @@ public class MCMoveTracker {
         chiSum = 0;
     }
     
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(nTrials);
+        out.writeLong(nAccept);
+        out.writeDouble(chiSum);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        nTrials = in.readLong();
+        nAccept = in.readLong();
+        chiSum = in.readDouble();
+    }
+
     protected long nTrials, nAccept;
     protected double chiSum;
 }
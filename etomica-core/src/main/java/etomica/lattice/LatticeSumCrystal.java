@@ -129,16 +129,16 @@ public class LatticeSumCrystal {
         this.maxLatticeShell = maxElement;
     }
 
-    private final BravaisLatticeCrystal lattice;
-    private IndexIterator iterator;
-    private IndexIteratorTriangular coreIterator;
-    private final IVectorMutable kVector;
-    private final IVectorMutable[] basis0;
-    private final int[] siteIndex;
-    private final IVectorMutable dr;
-    private final int basisDim;
-    private final int spaceDim;
-    private int maxLatticeShell;
+    protected final BravaisLatticeCrystal lattice;
+    protected IndexIterator iterator;
+    protected IndexIteratorTriangular coreIterator;
+    protected final IVectorMutable kVector;
+    protected final IVectorMutable[] basis0;
+    protected final int[] siteIndex;
+    protected final IVectorMutable dr;
+    protected final int basisDim;
+    protected final int spaceDim;
+    protected int maxLatticeShell;
     
     /**
      * Helper class that encapsulates the complex basis-basis data in a manner that
@@ -146,7 +146,7 @@ public class LatticeSumCrystal {
      * elements.
      */
     public class DataGroupLSC extends DataGroup {
-        private DataGroupLSC(IData[][] sumR, IData[][] sumI) {
+        protected DataGroupLSC(IData[][] sumR, IData[][] sumI) {
             super(makeDataArray(sumR, sumI));
         }
         
@@ -0,0 +1,499 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.lattice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.special.Gamma;
+
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.data.IData;
+import etomica.data.IDataInfo;
+import etomica.data.types.DataDouble;
+import etomica.data.types.DataGroup;
+import etomica.data.types.DataTensor;
+import etomica.math.SpecialFunctions;
+import etomica.space.ISpace;
+import etomica.space.Tensor;
+import etomica.util.FunctionGeneral;
+import etomica.util.ParallelTaskRunner;
+import etomica.util.ParallelTaskRunner.Task;
+
+/**
+ * LatticeSumCrystal that computes the sums for many wave vectors at once.
+ * The function is evaluated once for each pair of sites as the lattice is
+ * traversed, and each block of function values is then combined with the
+ * phase factors of all wave vectors, with the wave vectors divided among
+ * threads.  The function is only ever called from the calling thread.
+ * <p>
+ * A tail of the form C/r^n (with n greater than the space dimension) can be
+ * handled by Ewald summation.  The function given to calculateSums should
+ * then exclude the tail; the short-ranged part of the tail is added to each
+ * term of the lattice sum, and the long-ranged part is summed over the
+ * reciprocal lattice.  The tail is supported for functions that return a
+ * DataDouble (the tail's value is summed) or a DataTensor (the tail's second
+ * derivative tensor is summed, as needed for the force-constant matrix).
+ * <p>
+ * The Ewald splitting parameter alpha determines how quickly the real-space
+ * terms decay (as exp(-alpha^2 r^2)) and the reciprocal-space terms decay (as
+ * exp(-q^2/(4 alpha^2))).  The default balances the two so that a few shells
+ * of each are enough for close to machine precision.
+ */
+public class LatticeSumCrystalMultiK extends LatticeSumCrystal {
+
+    public LatticeSumCrystalMultiK(BravaisLatticeCrystal lattice) {
+        super(lattice);
+        space = lattice.getSpace();
+        IndexIteratorTriangularPermutations iteratorT = new IndexIteratorTriangularPermutations(spaceDim);
+        reciprocalIterator = new IndexIteratorReflecting(iteratorT);
+        reciprocalCoreIterator = iteratorT.getCoreIterator();
+        setMaxReciprocalShell(10);
+        setBlockSize(1024);
+        setNumThreads(Runtime.getRuntime().availableProcessors());
+        ewaldAlpha = Double.NaN;
+        g = space.makeVector();
+    }
+
+    /**
+     * Returns the lattice sum for the wave vector given to setK.
+     */
+    public DataGroup calculateSum(FunctionGeneral function) {
+        return calculateSums(function, new IVector[]{kVector})[0];
+    }
+
+    /**
+     * Returns the lattice sums for each of the given wave vectors, as
+     * calculateSum would for each wave vector in turn.
+     */
+    public DataGroupLSC[] calculateSums(FunctionGeneral function, IVector[] kVectors) {
+        int nK = kVectors.length;
+        IDataInfo dataInfo = function.getDataInfo();
+        IData[][][] sumR = new IData[nK][basisDim][basisDim];
+        IData[][][] sumI = new IData[nK][basisDim][basisDim];
+        for (int k=0; k<nK; k++) {
+            for (int jp=0; jp<basisDim; jp++) {
+                for (int j=0; j<basisDim; j++) {
+                    sumR[k][jp][j] = dataInfo.makeData();
+                    sumI[k][jp][j] = dataInfo.makeData();
+                }
+            }
+        }
+        IData tail = null;
+        if (tailCoefficient != 0) {
+            tail = dataInfo.makeData();
+            if (!(tail instanceof DataDouble) && !(tail instanceof DataTensor)) {
+                throw new IllegalArgumentException("Ewald tail requires a function returning DataDouble or DataTensor");
+            }
+            setupEwald();
+        }
+
+        Block block = new Block(dataInfo, kVectors, sumR, sumI);
+
+        //interactions among sites in origin cell; these have no phase and
+        //the pairs of a site with itself are excluded
+        int[] origin = new int[spaceDim];
+        addCell(block, function, tail, origin, true);
+        //loop over shells
+        for(int m=1; m<=maxLatticeShell; m++) {
+            //loop over cells in shell
+            coreIterator.setMaxElement(m);
+            coreIterator.setMaxElementMin(m);
+            iterator.reset();
+            while(iterator.hasNext()) {
+                addCell(block, function, tail, iterator.next(), false);
+            }
+        }
+        if (block.nCells > 0) {
+            accumulate(block);
+        }
+
+        if (tail != null) {
+            addReciprocalTail(dataInfo, kVectors, sumR, sumI, tail instanceof DataTensor);
+        }
+
+        DataGroupLSC[] sums = new DataGroupLSC[nK];
+        for (int k=0; k<nK; k++) {
+            sums[k] = new DataGroupLSC(sumR[k], sumI[k]);
+        }
+        return sums;
+    }
+
+    /**
+     * Evaluates the function for all site pairs between the cell with the
+     * given index and the origin cell, and adds the values to the block,
+     * accumulating the block into the sums when it is full.
+     */
+    protected void addCell(Block block, FunctionGeneral function, IData tail, int[] cellIndex, boolean isOrigin) {
+        int c = block.nCells;
+        System.arraycopy(cellIndex, 0, siteIndex, 0, spaceDim);
+        //define cell distance as distance between 0th sites in cells
+        siteIndex[spaceDim] = 0;
+        dr.Ev1Mv2((IVectorMutable)lattice.site(siteIndex), basis0[0]);
+        for (int i=0; i<spaceDim; i++) {
+            block.cellR[c][i] = dr.getX(i);
+        }
+        block.isOrigin[c] = isOrigin;
+        for(int jp=0; jp<basisDim; jp++) {
+            siteIndex[spaceDim] = jp;
+            IVectorMutable site = (IVectorMutable)lattice.site(siteIndex);
+            for(int j=0; j<basisDim; j++) {
+                if (isOrigin && jp == j) continue;
+                dr.Ev1Mv2(site, basis0[j]);
+                IData value = block.values[c][jp*basisDim+j];
+                value.E(function.f(dr));
+                if (tail != null) {
+                    realSpaceTail(dr, tail);
+                    value.PE(tail);
+                }
+            }
+        }
+        block.nCells++;
+        if (block.nCells == blockSize) {
+            accumulate(block);
+        }
+    }
+
+    /**
+     * Adds the function values in the block to the sums for all wave
+     * vectors, and empties the block.
+     */
+    protected void accumulate(final Block block) {
+        taskRunner.run(numThreads, new Task() {
+            public void run(int iThread) {
+                IData work = block.work[iThread];
+                int nCells = block.nCells;
+                IVector[] kVectors = block.kVectors;
+                for (int k=iThread; k<kVectors.length; k+=numThreads) {
+                    IVector kv = kVectors[k];
+                    IData[][] sumRk = block.sumR[k];
+                    IData[][] sumIk = block.sumI[k];
+                    for (int c=0; c<nCells; c++) {
+                        double[] r = block.cellR[c];
+                        double kDotr = 0;
+                        for (int i=0; i<spaceDim; i++) {
+                            kDotr += kv.getX(i)*r[i];
+                        }
+                        double ckr = Math.cos(kDotr);
+                        double skr = Math.sin(kDotr);
+                        boolean isOrigin = block.isOrigin[c];
+                        IData[] values = block.values[c];
+                        for (int jp=0; jp<basisDim; jp++) {
+                            for (int j=0; j<basisDim; j++) {
+                                if (isOrigin && jp == j) continue;
+                                IData value = values[jp*basisDim+j];
+                                work.E(value);
+                                work.TE(ckr);
+                                sumRk[jp][j].PE(work);
+                                if (skr != 0) {
+                                    work.E(value);
+                                    work.TE(skr);
+                                    sumIk[jp][j].PE(work);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        block.nCells = 0;
+    }
+
+    /**
+     * Computes the constants used for the Ewald sum of the tail.
+     */
+    protected void setupEwald() {
+        IVector[] a = lattice.getPrimitive().vectors();
+        switch (spaceDim) {
+            case 1:
+                cellVolume = Math.abs(a[0].getX(0));
+                break;
+            case 2:
+                cellVolume = Math.abs(a[0].getX(0)*a[1].getX(1) - a[0].getX(1)*a[1].getX(0));
+                break;
+            case 3:
+                IVectorMutable axb = space.makeVector();
+                axb.E(a[0]);
+                axb.XE(a[1]);
+                cellVolume = Math.abs(axb.dot(a[2]));
+                break;
+            default:
+                throw new RuntimeException("Ewald sum not implemented for D = "+spaceDim);
+        }
+        reciprocalVectors = lattice.getPrimitive().makeReciprocal().vectors();
+        alpha = Double.isNaN(ewaldAlpha) ? Math.sqrt(Math.PI)/Math.pow(cellVolume, 1.0/spaceDim) : ewaldAlpha;
+        gammaHalfN = Math.exp(Gamma.logGamma(0.5*tailPower));
+    }
+
+    /**
+     * Puts the short-ranged part of the tail at separation r into tail:
+     * C Gamma(n/2, alpha^2 r^2)/(Gamma(n/2) r^n), or its second derivative
+     * tensor.
+     */
+    protected void realSpaceTail(IVector r, IData tail) {
+        double r2 = r.squared();
+        double a2r2 = alpha*alpha*r2;
+        double h = Gamma.regularizedGammaQ(0.5*tailPower, a2r2)/Math.pow(r2, 0.5*tailPower);
+        if (tail instanceof DataDouble) {
+            ((DataDouble)tail).x = tailCoefficient*h;
+            return;
+        }
+        double rMag = Math.sqrt(r2);
+        double e = Math.exp(-a2r2);
+        double c = 2*Math.pow(alpha, tailPower)/gammaHalfN;
+        double dh = -tailPower*h/rMag - c*e/rMag;
+        double d2h = -tailPower*dh/rMag + tailPower*h/r2 + c*e*(2*alpha*alpha + 1/r2);
+        Tensor t = ((DataTensor)tail).x;
+        t.Ev1v2(r, r);
+        t.TE(tailCoefficient*(d2h - dh/rMag)/r2);
+        for (int i=0; i<spaceDim; i++) {
+            t.PE(i, i, tailCoefficient*dh/rMag);
+        }
+    }
+
+    /**
+     * Adds the reciprocal-space part of the tail to the sums, and removes
+     * the long-ranged part of each site's interaction with itself.
+     */
+    protected void addReciprocalTail(final IDataInfo dataInfo, final IVector[] kVectors, final IData[][][] sumR,
+            final IData[][][] sumI, final boolean isTensor) {
+        // Fourier transform of the long-ranged part at each reciprocal
+        // lattice vector is evaluated for each wave vector, so collect the
+        // reciprocal lattice vectors first
+        List<double[]> gList = new ArrayList<double[]>();
+        gList.add(new double[spaceDim]);
+        for (int m=1; m<=maxReciprocalShell; m++) {
+            reciprocalCoreIterator.setMaxElement(m);
+            reciprocalCoreIterator.setMaxElementMin(m);
+            reciprocalIterator.reset();
+            while (reciprocalIterator.hasNext()) {
+                int[] idx = reciprocalIterator.next();
+                g.E(0);
+                for (int i=0; i<spaceDim; i++) {
+                    g.PEa1Tv1(idx[i], reciprocalVectors[i]);
+                }
+                double[] gArray = new double[spaceDim];
+                for (int i=0; i<spaceDim; i++) {
+                    gArray[i] = g.getX(i);
+                }
+                gList.add(gArray);
+            }
+        }
+        final double[][] gVectors = gList.toArray(new double[0][]);
+        final double[][] d = new double[basisDim*basisDim][spaceDim];
+        for (int jp=0; jp<basisDim; jp++) {
+            for (int j=0; j<basisDim; j++) {
+                for (int i=0; i<spaceDim; i++) {
+                    d[jp*basisDim+j][i] = basis0[jp].getX(i) - basis0[j].getX(i);
+                }
+            }
+        }
+        final double n = tailPower;
+        final double prefactor = tailCoefficient*Math.pow(Math.PI, 0.5*spaceDim)/(gammaHalfN*cellVolume);
+        // value of the g=0 term of the transform, which is finite for n > D
+        final double ghat0 = 2*Math.pow(alpha, n-spaceDim)/(n-spaceDim);
+        // long-ranged part of a site with itself, which is not part of the sum
+        final double self;
+        if (isTensor) {
+            self = -2*tailCoefficient*Math.pow(alpha, n+2)/(gammaHalfN*(0.5*n+1));
+        }
+        else {
+            self = tailCoefficient*Math.pow(alpha, n)/(gammaHalfN*0.5*n);
+        }
+
+        taskRunner.run(numThreads, new Task() {
+            public void run(int iThread) {
+                double[] qv = new double[spaceDim];
+                IData term = dataInfo.makeData();
+                IData work = dataInfo.makeData();
+                for (int k=iThread; k<kVectors.length; k+=numThreads) {
+                    IVector kv = kVectors[k];
+                    for (int ig=0; ig<gVectors.length; ig++) {
+                        double q2 = 0;
+                        for (int i=0; i<spaceDim; i++) {
+                            qv[i] = gVectors[ig][i] - kv.getX(i);
+                            q2 += qv[i]*qv[i];
+                        }
+                        double ghat;
+                        if (q2 == 0) {
+                            if (isTensor) continue;
+                            ghat = ghat0;
+                        }
+                        else {
+                            double x = q2/(4*alpha*alpha);
+                            ghat = Math.pow(0.25*q2, 0.5*(n-spaceDim))
+                                    *SpecialFunctions.upperIncompleteGamma(0.5*(spaceDim-n), x);
+                        }
+                        ghat *= prefactor;
+                        if (ghat == 0) continue;
+                        if (isTensor) {
+                            Tensor t = ((DataTensor)term).x;
+                            for (int a=0; a<spaceDim; a++) {
+                                for (int b=0; b<spaceDim; b++) {
+                                    t.setComponent(a, b, -qv[a]*qv[b]*ghat);
+                                }
+                            }
+                        }
+                        else {
+                            ((DataDouble)term).x = ghat;
+                        }
+                        for (int jp=0; jp<basisDim; jp++) {
+                            for (int j=0; j<basisDim; j++) {
+                                double[] dpair = d[jp*basisDim+j];
+                                double qd = 0;
+                                for (int i=0; i<spaceDim; i++) {
+                                    qd += qv[i]*dpair[i];
+                                }
+                                work.E(term);
+                                work.TE(Math.cos(qd));
+                                sumR[k][jp][j].PE(work);
+                                work.E(term);
+                                work.TE(Math.sin(qd));
+                                sumI[k][jp][j].PE(work);
+                            }
+                        }
+                    }
+                    for (int j=0; j<basisDim; j++) {
+                        if (isTensor) {
+                            Tensor t = ((DataTensor)sumR[k][j][j]).x;
+                            for (int i=0; i<spaceDim; i++) {
+                                t.PE(i, i, -self);
+                            }
+                        }
+                        else {
+                            ((DataDouble)sumR[k][j][j]).x -= self;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets a tail C/r^n to be handled by Ewald summation.  The function
+     * passed to calculateSum should then exclude the tail.  A coefficient
+     * of 0 (the default) turns off the Ewald sum.
+     *
+     * @param power exponent n of the tail, which must be greater than the
+     *              dimension of space
+     */
+    public void setTail(double coefficient, int power) {
+        if (coefficient != 0 && power <= spaceDim) {
+            throw new IllegalArgumentException("tail must decay faster than r^-"+spaceDim);
+        }
+        tailCoefficient = coefficient;
+        tailPower = power;
+    }
+
+    public double getTailCoefficient() {
+        return tailCoefficient;
+    }
+
+    public int getTailPower() {
+        return tailPower;
+    }
+
+    /**
+     * Sets the Ewald splitting parameter.  By default (NaN), alpha is taken
+     * to be sqrt(pi)/V^(1/D), where V is the volume of the unit cell.
+     */
+    public void setEwaldAlpha(double newAlpha) {
+        ewaldAlpha = newAlpha;
+    }
+
+    public double getEwaldAlpha() {
+        return ewaldAlpha;
+    }
+
+    /**
+     * Specifies the largest index element of reciprocal lattice vectors
+     * included in the Ewald sum of the tail.  Default is 10.
+     */
+    public void setMaxReciprocalShell(int newMaxReciprocalShell) {
+        maxReciprocalShell = newMaxReciprocalShell;
+    }
+
+    public int getMaxReciprocalShell() {
+        return maxReciprocalShell;
+    }
+
+    /**
+     * Sets the number of lattice cells for which function values are held
+     * before they are added to the sums.  Default is 1024.
+     */
+    public void setBlockSize(int newBlockSize) {
+        if (newBlockSize < 1) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        blockSize = newBlockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the number of threads (including the calling thread) among which
+     * the wave vectors are divided.  Default is the number of available
+     * processors.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        numThreads = newNumThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Function values for a block of lattice cells, along with the sums
+     * they are added to.
+     */
+    protected class Block {
+        public Block(IDataInfo dataInfo, IVector[] kVectors, IData[][][] sumR, IData[][][] sumI) {
+            this.kVectors = kVectors;
+            this.sumR = sumR;
+            this.sumI = sumI;
+            cellR = new double[blockSize][spaceDim];
+            isOrigin = new boolean[blockSize];
+            values = new IData[blockSize][basisDim*basisDim];
+            for (int c=0; c<blockSize; c++) {
+                for (int i=0; i<basisDim*basisDim; i++) {
+                    values[c][i] = dataInfo.makeData();
+                }
+            }
+            work = new IData[numThreads];
+            for (int i=0; i<numThreads; i++) {
+                work[i] = dataInfo.makeData();
+            }
+        }
+
+        public final IVector[] kVectors;
+        public final IData[][][] sumR, sumI;
+        public final double[][] cellR;
+        public final boolean[] isOrigin;
+        public final IData[][] values;
+        public final IData[] work;
+        public int nCells;
+    }
+
+    protected final ISpace space;
+    protected final IndexIterator reciprocalIterator;
+    protected final IndexIteratorTriangular reciprocalCoreIterator;
+    protected final IVectorMutable g;
+    protected int maxReciprocalShell;
+    protected int blockSize;
+    protected int numThreads;
+    protected final ParallelTaskRunner taskRunner = new ParallelTaskRunner("lattice sum worker");
+    protected double tailCoefficient;
+    protected int tailPower;
+    protected double ewaldAlpha;
+    protected double alpha, cellVolume, gammaHalfN;
+    protected IVector[] reciprocalVectors;
+}
@@ -4,11 +4,16 @@
 
 package etomica.listener;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.action.IAction;
 import etomica.api.IIntegratorEvent;
-import etomica.api.IIntegratorListener;
+import etomica.api.IIntegratorListenerInterval;
+import etomica.util.ICheckpointable;
 
-public class IntegratorListenerAction implements IIntegratorListener {
+public class IntegratorListenerAction implements IIntegratorListenerInterval, ICheckpointable {
 
     private IAction action;
     private int interval;
@@ -44,6 +49,23 @@ public class IntegratorListenerAction implements IIntegratorListener {
         }
     }
     
+    public void integratorIntervalFinished() {
+        intervalCount = 0;
+        action.actionPerformed();
+    }
+
+    public long getEventInterval() {
+        return interval;
+    }
+
+    public long getIntervalCount() {
+        return intervalCount;
+    }
+
+    public void setIntervalCount(long newIntervalCount) {
+        intervalCount = (int)newIntervalCount;
+    }
+
     public void setInterval(int i) {
         interval = i;
     }
@@ -55,5 +77,15 @@ public class IntegratorListenerAction implements IIntegratorListener {
     public IAction getAction() {
         return action;
     }
-    
+
+    /**
+     * Writes the number of steps since the action was last performed.
+     */
+    public void saveState(DataOutput out) throws IOException {
+        out.writeInt(intervalCount);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        intervalCount = in.readInt();
+    }
 }
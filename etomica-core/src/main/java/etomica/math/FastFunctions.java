@@ -0,0 +1,118 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.math;
+
+import org.apache.commons.math3.special.Erf;
+
+/**
+ * Static-method library of table-driven approximations to exp and erfc,
+ * for use in pair loops where Math.exp and Erf.erfc dominate the cost.
+ * <p>
+ * exp uses a 256-entry table of 2^(j/256) and a degree-4 polynomial for the
+ * remainder; its relative error is below 3e-16 (within 2 ulp) for
+ * -708 &lt; x &lt; 709, and Math.exp is used outside of that range.
+ * <p>
+ * erfc is computed as exp(-x^2) times the scaled function exp(x^2) erfc(x),
+ * which is smooth and slowly varying.  The scaled function is expanded in a
+ * degree-8 Taylor series about the nearest of a table of points spaced 1/32
+ * apart (the factor exp(-x0^2) at the table point is folded into the
+ * coefficients), so that the remaining factor is exp(-(2 x0 + d) d) with
+ * d = x - x0.  The relative error is below 1e-14 for 0 &lt;= x &lt;= 6
+ * (where erfc falls to 2e-17), which covers the real-space Ewald sum for any
+ * sensible choice of alpha and cutoff.  Outside of that range Erf.erfc is
+ * used.
+ */
+public final class FastFunctions {
+
+    private FastFunctions() {}
+
+    /**
+     * Returns e^x.
+     */
+    public static double exp(double x) {
+        if (x < -708 || x > 709) {
+            // subnormal result, overflow or infinite argument
+            return Math.exp(x);
+        }
+        // round x*256/ln2 to the nearest integer n
+        double kd = x*EXP_N_LN2 + ROUND;
+        int n = (int)Double.doubleToRawLongBits(kd);
+        kd -= ROUND;
+        // |r| <= ln2/512; kd*LN2_HI is exact
+        double r = (x - kd*EXP_LN2_HI) - kd*EXP_LN2_LO;
+        double p = 1 + r*(1 + r*(0.5 + r*(1.0/6.0 + r*(1.0/24.0))));
+        double scale = Double.longBitsToDouble((long)((n >> 8) + 1023) << 52);
+        return EXP_TABLE[n & 255]*p*scale;
+    }
+
+    /**
+     * Returns the complementary error function, erfc(x).
+     */
+    public static double erfc(double x) {
+        if (!(x >= 0 && x <= ERFC_XMAX)) {
+            return Erf.erfc(x);
+        }
+        int i = (int)(x*32 + 0.5);
+        double x0 = i*(1.0/32.0);
+        double d = x - x0;
+        return erfcPoly(i, d)*exp(-(x0 + x)*d);
+    }
+
+    /**
+     * Returns erfc(x)/x, as needed for the real-space Ewald sum.  x must be
+     * positive.
+     */
+    public static double erfcOverX(double x) {
+        if (!(x > 0 && x <= ERFC_XMAX)) {
+            return Erf.erfc(x)/x;
+        }
+        int i = (int)(x*32 + 0.5);
+        double x0 = i*(1.0/32.0);
+        double d = x - x0;
+        return erfcPoly(i, d)*exp(-(x0 + x)*d)/x;
+    }
+
+    /**
+     * Returns exp(-x0^2) times the Taylor series of exp(x^2) erfc(x) about
+     * x0 = i/32, evaluated at x0+d.
+     */
+    private static double erfcPoly(int i, double d) {
+        int j = i*ERFC_NCOEF;
+        double[] c = ERFC_TABLE;
+        return c[j] + d*(c[j+1] + d*(c[j+2] + d*(c[j+3] + d*(c[j+4]
+                + d*(c[j+5] + d*(c[j+6] + d*(c[j+7] + d*c[j+8])))))));
+    }
+
+    private static final double ROUND = 0x1.8p52;
+    private static final double EXP_N_LN2 = 256/Math.log(2);
+    // ln2 split so that the high part has 32 significant bits (from fdlibm)
+    private static final double EXP_LN2_HI = 6.93147180369123816490e-01/256;
+    private static final double EXP_LN2_LO = 1.90821492927058770002e-10/256;
+    private static final double[] EXP_TABLE = new double[256];
+    private static final double ERFC_XMAX = 6;
+    private static final int ERFC_NCOEF = 9;
+    private static final double[] ERFC_TABLE;
+
+    static {
+        for (int j=0; j<256; j++) {
+            EXP_TABLE[j] = Math.pow(2, j/256.0);
+        }
+
+        // Taylor coefficients of g(x) = exp(x^2) erfc(x) follow from
+        // g' = 2x g - 2/sqrt(pi) and g^(n+1) = 2x g^(n) + 2n g^(n-1);
+        // each is multiplied by exp(-x0^2)
+        int nPoints = (int)(ERFC_XMAX*32) + 1;
+        ERFC_TABLE = new double[nPoints*ERFC_NCOEF];
+        for (int i=0; i<nPoints; i++) {
+            double x0 = i/32.0;
+            int j = i*ERFC_NCOEF;
+            ERFC_TABLE[j] = Erf.erfc(x0);
+            ERFC_TABLE[j+1] = 2*x0*ERFC_TABLE[j] - 2/Math.sqrt(Math.PI)*Math.exp(-x0*x0);
+            for (int n=1; n<ERFC_NCOEF-1; n++) {
+                ERFC_TABLE[j+n+1] = (2*x0*ERFC_TABLE[j+n] + 2*ERFC_TABLE[j+n-1])/(n+1);
+            }
+        }
+    }
+}
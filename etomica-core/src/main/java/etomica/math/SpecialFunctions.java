@@ -6,6 +6,8 @@ package etomica.math;
 
 import java.math.BigDecimal;
 
+import org.apache.commons.math3.special.Gamma;
+
 import etomica.units.Dalton;
 import etomica.units.Mole;
 
@@ -459,6 +461,72 @@ public final class SpecialFunctions {
     }    
     
 
+    /**
+     * Returns the (unnormalized) upper incomplete gamma function,
+     * Integrate[Exp[-t] t^(s-1),{t,x,Infinity}], for any real s and x > 0.
+     * For s <= 0, the result is obtained by downward recursion from
+     * the fractional part of s (or from the exponential integral E1 if s is
+     * an integer), Gamma(s,x) = (Gamma(s+1,x) - x^s Exp[-x])/s.
+     */
+    public static double upperIncompleteGamma(double s, double x) {
+        if (!(x > 0)) {
+            throw new IllegalArgumentException("x must be positive");
+        }
+        if (s > 0) {
+            return Gamma.regularizedGammaQ(s, x)*Math.exp(Gamma.logGamma(s));
+        }
+        double s0 = s - Math.floor(s);
+        double g;
+        if (s0 == 0) {
+            g = expIntegralE1(x);
+        }
+        else {
+            g = Gamma.regularizedGammaQ(s0, x)*Math.exp(Gamma.logGamma(s0));
+        }
+        double ex = Math.exp(-x);
+        for (double si = s0-1; si >= s-1e-9; si--) {
+            g = (g - Math.pow(x, si)*ex)/si;
+        }
+        return g;
+    }
+
+    /**
+     * Exponential integral E1(x) = Integrate[Exp[-t]/t,{t,x,Infinity}], for
+     * x > 0.  Uses the power series for x <= 1 and a continued fraction
+     * otherwise (Numerical Recipes, section 6.3).
+     */
+    public static double expIntegralE1(double x) {
+        if (!(x > 0)) {
+            throw new IllegalArgumentException("x must be positive");
+        }
+        final double euler = 0.5772156649015329;
+        if (x <= 1) {
+            double sum = -euler - Math.log(x);
+            double term = 1;
+            for (int k=1; k<100; k++) {
+                term *= -x/k;
+                double del = -term/k;
+                sum += del;
+                if (Math.abs(del) < Math.abs(sum)*1e-16) break;
+            }
+            return sum;
+        }
+        double b = x + 1;
+        double c = 1.0/Double.MIN_VALUE;
+        double d = 1.0/b;
+        double h = d;
+        for (int i=1; i<500; i++) {
+            double an = -i*i;
+            b += 2;
+            d = 1.0/(an*d + b);
+            c = b + an/c;
+            double del = c*d;
+            h *= del;
+            if (Math.abs(del-1) < 1e-16) break;
+        }
+        return h*Math.exp(-x);
+    }
+
     public static void main(String[] args) {
     	System.out.println(confluentHypergeometric1F1(-0.25,0.5,1.0));
         System.out.println();
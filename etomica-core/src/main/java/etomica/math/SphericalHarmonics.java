@@ -32,4 +32,83 @@ public class SphericalHarmonics implements java.io.Serializable {
         }
         return y(l,m,theta)*Math.sin(m*phi);
     }
+
+    /**
+     * Computes Y_lm for m=-l..l in the direction of the vector (x,y,z),
+     * storing the real and imaginary parts in re[m+l] and im[m+l].  The
+     * values match realYm and imaginaryYm, but are found without
+     * trigonometric functions: the associated Legendre functions come from
+     * their recurrence in cos(theta), and sin^m(theta) exp(i m phi) is just
+     * ((x+iy)/r)^m.  The normalization factors for each l are cached.
+     */
+    public static void computeYlm(int l, double x, double y, double z, double[] re, double[] im) {
+        double[] f = getFactors(l);
+        double r = Math.sqrt(x*x + y*y + z*z);
+        double cosTheta = z/r;
+        double cx = x/r, cy = y/r;
+        // (cx + i cy)^m
+        double powRe = 1, powIm = 0;
+        // P_m^m/sin^m, including the Condon-Shortley phase
+        double pmm = 1;
+        for (int m=0; m<=l; m++) {
+            if (m > 0) {
+                double t = powRe*cx - powIm*cy;
+                powIm = powRe*cy + powIm*cx;
+                powRe = t;
+                pmm *= -(2*m-1);
+            }
+            double plm = pmm;
+            if (l > m) {
+                double pm2 = pmm;
+                double pm1 = cosTheta*(2*m+1)*pmm;
+                for (int ll=m+2; ll<=l; ll++) {
+                    double t = (cosTheta*(2*ll-1)*pm1 - (ll+m-1)*pm2)/(ll-m);
+                    pm2 = pm1;
+                    pm1 = t;
+                }
+                plm = pm1;
+            }
+            double ylm = f[m]*plm;
+            re[l+m] = ylm*powRe;
+            im[l+m] = ylm*powIm;
+            if (m > 0) {
+                // Y_l,-m = (-1)^m conj(Y_lm)
+                double sign = (m%2 == 0) ? 1 : -1;
+                re[l-m] = sign*re[l+m];
+                im[l-m] = -sign*im[l+m];
+            }
+        }
+    }
+
+    /**
+     * Returns the normalization factors for m=0..l, computing them the first
+     * time they are needed for a given l.
+     */
+    protected static double[] getFactors(int l) {
+        double[][] cache = factorCache;
+        if (l < cache.length && cache[l] != null) {
+            return cache[l];
+        }
+        synchronized (SphericalHarmonics.class) {
+            cache = factorCache;
+            if (l >= cache.length || cache[l] == null) {
+                // copy so that the array is only published by the volatile write
+                cache = java.util.Arrays.copyOf(cache, Math.max(cache.length, l+1));
+                double[] f = new double[l+1];
+                for (int m=0; m<=l; m++) {
+                    // (l-m)!/(l+m)! without overflow
+                    double ratio = 1;
+                    for (int k=l-m+1; k<=l+m; k++) {
+                        ratio /= k;
+                    }
+                    f[m] = Math.sqrt((2.0*l + 1.0)*ratio/(4.0*Math.PI));
+                }
+                cache[l] = f;
+            }
+            factorCache = cache;
+            return cache[l];
+        }
+    }
+
+    private static volatile double[][] factorCache = new double[0][];
 }
@@ -0,0 +1,168 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.cell;
+
+import etomica.action.IAction;
+import etomica.api.IBoundary;
+import etomica.api.IMolecule;
+import etomica.api.IMoleculeList;
+import etomica.api.IVectorMutable;
+import etomica.atom.MoleculeArrayList;
+import etomica.box.Box;
+import etomica.lattice.CellLattice;
+import etomica.space.ISpace;
+
+/**
+ * Action that reorders the molecules of a box along a space-filling curve
+ * through the cells of a NeighborCellManager, so that molecules that are
+ * near each other in space are also near each other in the box's leaf list
+ * and in the arrays of agent managers.  Insertion, deletion and diffusion
+ * scramble the order over time, so the action is meant to be performed
+ * periodically (every few thousand steps, for instance, via an
+ * IntegratorListenerAction).
+ * <p>
+ * The curve is a Hilbert curve by default; a Morton (Z-order) curve is
+ * cheaper to compute but its jumps make neighboring cells less likely to be
+ * adjacent in the order.  Each molecule is placed according to the cell
+ * holding its first leaf atom.  The box is reordered with
+ * {@link Box#reorderMolecules(IMoleculeList)}, which permutes agents
+ * (including the neighbor lists and cell assignments) rather than making
+ * anyone rebuild them.
+ */
+public class BoxReorderSpaceFillingCurve implements IAction {
+
+    public BoxReorderSpaceFillingCurve(NeighborCellManager cellManager, Box box, ISpace space) {
+        this.cellManager = cellManager;
+        this.box = box;
+        r = space.makeVector();
+        setUseHilbert(true);
+    }
+
+    /**
+     * Sets whether the molecules are sorted along a Hilbert curve (true) or
+     * a Morton curve (false).
+     */
+    public void setUseHilbert(boolean newUseHilbert) {
+        useHilbert = newUseHilbert;
+    }
+
+    public boolean getUseHilbert() {
+        return useHilbert;
+    }
+
+    public void actionPerformed() {
+        CellLattice lattice = cellManager.getLattice();
+        int[] size = lattice.getSize();
+        int D = size.length;
+        int maxSize = 0;
+        for (int i=0; i<D; i++) {
+            if (size[i] == 0) {
+                // cells haven't been set up
+                return;
+            }
+            maxSize = Math.max(maxSize, size[i]);
+        }
+        int nBits = 1;
+        while ((1 << nBits) < maxSize) nBits++;
+        // keys must fit in 31 bits, so that they can be packed with the
+        // molecule's index into a long and sorted directly
+        int shift = 0;
+        if (nBits*D > 31) {
+            shift = nBits - 31/D;
+            nBits -= shift;
+        }
+
+        IMoleculeList molecules = box.getMoleculeList();
+        int nMolecules = molecules.getMoleculeCount();
+        if (nMolecules < 2) return;
+        IBoundary boundary = box.getBoundary();
+        long[] keys = new long[nMolecules];
+        int[] latticeIndex = new int[D];
+        for (int i=0; i<nMolecules; i++) {
+            IMolecule molecule = molecules.getMolecule(i);
+            if (molecule.getChildList().getAtomCount() == 0) {
+                keys[i] = i;
+                continue;
+            }
+            r.E(molecule.getChildList().getAtom(0).getPosition());
+            r.PE(boundary.centralImage(r));
+            Cell cell = (Cell)lattice.site(r);
+            lattice.latticeIndex(cell.getLatticeArrayIndex(), latticeIndex);
+            for (int j=0; j<D; j++) {
+                latticeIndex[j] >>= shift;
+            }
+            long key = useHilbert ? hilbertKey(latticeIndex, nBits) : mortonKey(latticeIndex, nBits);
+            keys[i] = (key << 32) | i;
+        }
+        java.util.Arrays.sort(keys);
+        MoleculeArrayList newOrder = new MoleculeArrayList(nMolecules);
+        for (int i=0; i<nMolecules; i++) {
+            newOrder.add(molecules.getMolecule((int)keys[i]));
+        }
+        box.reorderMolecules(newOrder);
+    }
+
+    /**
+     * Returns the position along a Morton curve of the point with the given
+     * coordinates, each of which has nBits bits.  The coordinates' bits are
+     * interleaved, most significant first.
+     */
+    public static long mortonKey(int[] x, int nBits) {
+        long key = 0;
+        for (int b=nBits-1; b>=0; b--) {
+            for (int i=0; i<x.length; i++) {
+                key = (key << 1) | ((x[i] >> b) & 1);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the position along a Hilbert curve of the point with the given
+     * coordinates, each of which has nBits bits.  The array is used as work
+     * space and is overwritten.
+     * <p>
+     * J. Skilling, "Programming the Hilbert curve", AIP Conf. Proc. 707, 381
+     * (2004)
+     */
+    public static long hilbertKey(int[] x, int nBits) {
+        int n = x.length;
+        int m = 1 << (nBits-1);
+        // inverse undo
+        for (int q=m; q>1; q>>=1) {
+            int p = q-1;
+            for (int i=0; i<n; i++) {
+                if ((x[i] & q) != 0) {
+                    x[0] ^= p;
+                }
+                else {
+                    int t = (x[0] ^ x[i]) & p;
+                    x[0] ^= t;
+                    x[i] ^= t;
+                }
+            }
+        }
+        // Gray encode
+        for (int i=1; i<n; i++) {
+            x[i] ^= x[i-1];
+        }
+        int t = 0;
+        for (int q=m; q>1; q>>=1) {
+            if ((x[n-1] & q) != 0) {
+                t ^= q-1;
+            }
+        }
+        for (int i=0; i<n; i++) {
+            x[i] ^= t;
+        }
+        // x now holds the transposed Hilbert index
+        return mortonKey(x, nBits);
+    }
+
+    protected final NeighborCellManager cellManager;
+    protected final Box box;
+    protected boolean useHilbert;
+    protected final IVectorMutable r;
+}
@@ -235,7 +235,18 @@ public class NeighborCellManager implements BoxCellManager, IBoundaryListener, A
         atomCell.addAtom(atom);
         agentManager.setAgent(atom, atomCell);
     }
-    
+
+    /**
+     * Moves the given atom from its current cell to the given cell, without
+     * looking at the atom's position.  This is for callers that track cell
+     * crossings themselves, such as IntegratorHardCell.
+     */
+    public void moveAtom(IAtom atom, Cell newCell) {
+        agentManager.getAgent(atom).removeAtom(atom);
+        newCell.addAtom(atom);
+        agentManager.setAgent(atom, newCell);
+    }
+
     public IListener makeMCMoveListener() {
         return new MyMCMoveListener(box,this);
     }
@@ -0,0 +1,476 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.list;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import etomica.action.IAction;
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IBoundary;
+import etomica.api.IBox;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomArrayList;
+import etomica.math.SphericalHarmonics;
+import etomica.space.ISpace;
+import etomica.util.ParallelTaskRunner;
+import etomica.util.ParallelTaskRunner.Task;
+
+/**
+ * Cluster analysis based on the neighbor lists of a PotentialMasterList.
+ * Each update computes, for every atom, the number of neighbors within a
+ * cutoff and the local Steinhardt bond-order parameter q_l.  Atoms are then
+ * classified as liquid-like (more than a given number of neighbors) or
+ * solid-like (enough neighbors whose q_lm vectors are correlated, following
+ * ten Wolde, Ruiz-Montero and Frenkel), and the atoms of the chosen kind are
+ * grouped into clusters of neighbors with a union-find.  This is useful for
+ * finding the largest crystalline nucleus, or the liquid droplet, every few
+ * steps.
+ * <p>
+ * Because the neighbor lists are reused, no cell or all-pairs search is
+ * needed.  The lists must be up to date when update is called (they are if
+ * the NeighborListManager is listening to the integrator) and the neighbor
+ * range must exceed the cutoff.  The work is divided among several threads
+ * if setNumThreads is called; the box's boundary must then tolerate
+ * concurrent nearestImage calls, as the rectangular periodic boundaries do.
+ * <p>
+ * An instance can be added to the integrator (wrapped in an
+ * IntegratorListenerAction) so that the analysis is updated periodically.
+ * The bond-order parameters are defined only for 3-dimensional systems.
+ */
+public class NeighborClusterAnalysis implements IAction {
+
+    /**
+     * Atoms that may belong to clusters.
+     */
+    public enum ClusterType {
+        /** all atoms; clusters are groups of connected neighbors */
+        ALL,
+        /** atoms with more than maxNbrsVapor neighbors */
+        LIQUID,
+        /** atoms with at least minSolidBonds solid-like bonds */
+        SOLID
+    }
+
+    public NeighborClusterAnalysis(PotentialMasterList potentialMaster, IBox box, ISpace space) {
+        this.box = box;
+        neighborManager = potentialMaster.getNeighborManager(box);
+        this.space = space;
+        setCutoff(1.5);
+        setL(6);
+        setSolidBondThreshold(0.7);
+        setMinSolidBonds(7);
+        setMaxNbrsVapor(80);
+        setClusterType(ClusterType.SOLID);
+        setNumThreads(1);
+        largestCluster = new AtomArrayList();
+    }
+
+    /**
+     * Sets the separation within which atoms are considered neighbors.  The
+     * neighbor range of the PotentialMasterList must be greater than this.
+     */
+    public void setCutoff(double newCutoff) {
+        cutoff = newCutoff;
+        cutoff2 = newCutoff*newCutoff;
+    }
+
+    public double getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * Sets the index of the potential whose neighbor lists are used.
+     * Default is 0 (the first potential added for the atoms' type).
+     */
+    public void setPotentialIndex(int newPotentialIndex) {
+        potentialIndex = newPotentialIndex;
+    }
+
+    public int getPotentialIndex() {
+        return potentialIndex;
+    }
+
+    /**
+     * Sets l for the bond-order parameters.  Default is 6.
+     */
+    public void setL(int newL) {
+        if (newL < 0) {
+            throw new IllegalArgumentException("l must not be negative");
+        }
+        l = newL;
+        qlm = null;
+    }
+
+    public int getL() {
+        return l;
+    }
+
+    /**
+     * Sets the minimum normalized correlation of the q_lm vectors of two
+     * neighbors for their bond to be considered solid-like.  Default is 0.7.
+     */
+    public void setSolidBondThreshold(double newThreshold) {
+        solidBondThreshold = newThreshold;
+    }
+
+    public double getSolidBondThreshold() {
+        return solidBondThreshold;
+    }
+
+    /**
+     * Sets the number of solid-like bonds an atom needs to be considered
+     * solid-like.  Default is 7.
+     */
+    public void setMinSolidBonds(int newMinSolidBonds) {
+        minSolidBonds = newMinSolidBonds;
+    }
+
+    public int getMinSolidBonds() {
+        return minSolidBonds;
+    }
+
+    /**
+     * Sets the number of neighbors an atom can have and still be considered
+     * vapor-like.  Default is 80.
+     */
+    public void setMaxNbrsVapor(int newMaxNbrsVapor) {
+        maxNbrsVapor = newMaxNbrsVapor;
+    }
+
+    public int getMaxNbrsVapor() {
+        return maxNbrsVapor;
+    }
+
+    /**
+     * Sets which atoms are grouped into clusters.  Default is SOLID.
+     */
+    public void setClusterType(ClusterType newClusterType) {
+        clusterType = newClusterType;
+    }
+
+    public ClusterType getClusterType() {
+        return clusterType;
+    }
+
+    /**
+     * Sets the number of threads used for the analysis (including the thread
+     * calling update).  Default is 1.
+     */
+    public void setNumThreads(int newNumThreads) {
+        if (newNumThreads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        numThreads = newNumThreads;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void actionPerformed() {
+        update();
+    }
+
+    /**
+     * Performs the analysis for the current configuration.
+     */
+    public void update() {
+        leafList = box.getLeafList();
+        boundary = box.getBoundary();
+        int nLeaf = leafList.getAtomCount();
+        int nm = 2*l+1;
+        if (qlm == null || coordination.length < nLeaf) {
+            coordination = new int[nLeaf];
+            solidBonds = new int[nLeaf];
+            ql = new double[nLeaf];
+            qNorm = new double[nLeaf];
+            qlm = new double[nLeaf][2*nm];
+            member = new boolean[nLeaf];
+            clusterSize = new int[nLeaf];
+        }
+        clusterParent = new AtomicIntegerArray(nLeaf);
+
+        taskRunner.run(numThreads, new Task() {
+            public void run(int iThread) {
+                computeLocal(iThread);
+            }
+        });
+        taskRunner.run(numThreads, new Task() {
+            public void run(int iThread) {
+                classify(iThread);
+            }
+        });
+        taskRunner.run(numThreads, new Task() {
+            public void run(int iThread) {
+                link(iThread);
+            }
+        });
+
+        // collect the cluster sizes
+        java.util.Arrays.fill(clusterSize, 0, nLeaf, 0);
+        numClusters = 0;
+        int largestRoot = -1;
+        for (int i=0; i<nLeaf; i++) {
+            if (!member[i]) continue;
+            int root = find(i);
+            if (clusterSize[root] == 0) {
+                numClusters++;
+            }
+            clusterSize[root]++;
+            if (largestRoot == -1 || clusterSize[root] > clusterSize[largestRoot]) {
+                largestRoot = root;
+            }
+        }
+        largestCluster.clear();
+        for (int i=0; i<nLeaf; i++) {
+            if (member[i] && find(i) == largestRoot) {
+                largestCluster.add(leafList.getAtom(i));
+            }
+        }
+    }
+
+    /**
+     * Computes the coordination number and q_lm for every numThreads-th atom,
+     * starting with atom iThread.
+     */
+    protected void computeLocal(int iThread) {
+        IVectorMutable dr = space.makeVector();
+        int nm = 2*l+1;
+        double[] re = new double[nm];
+        double[] im = new double[nm];
+        double coeff = 4*Math.PI/nm;
+        int nLeaf = leafList.getAtomCount();
+        for (int i=iThread; i<nLeaf; i+=numThreads) {
+            IAtom atom = leafList.getAtom(i);
+            double[] q = qlm[i];
+            java.util.Arrays.fill(q, 0);
+            int n = 0;
+            for (int iList=0; iList<2; iList++) {
+                IAtomList[] lists = iList == 0 ? neighborManager.getUpList(atom) : neighborManager.getDownList(atom);
+                if (potentialIndex >= lists.length) continue;
+                IAtomList list = lists[potentialIndex];
+                for (int j=0; j<list.getAtomCount(); j++) {
+                    dr.Ev1Mv2(list.getAtom(j).getPosition(), atom.getPosition());
+                    boundary.nearestImage(dr);
+                    if (dr.squared() > cutoff2) continue;
+                    n++;
+                    SphericalHarmonics.computeYlm(l, dr.getX(0), dr.getX(1), dr.getX(2), re, im);
+                    for (int m=0; m<nm; m++) {
+                        q[2*m] += re[m];
+                        q[2*m+1] += im[m];
+                    }
+                }
+            }
+            coordination[i] = n;
+            double sum = 0;
+            if (n > 0) {
+                for (int m=0; m<2*nm; m++) {
+                    q[m] /= n;
+                    sum += q[m]*q[m];
+                }
+            }
+            qNorm[i] = Math.sqrt(sum);
+            ql[i] = Math.sqrt(coeff*sum);
+        }
+    }
+
+    /**
+     * Counts the solid-like bonds of every numThreads-th atom and determines
+     * whether it can be part of a cluster.
+     */
+    protected void classify(int iThread) {
+        IVectorMutable dr = space.makeVector();
+        int nLeaf = leafList.getAtomCount();
+        for (int i=iThread; i<nLeaf; i+=numThreads) {
+            IAtom atom = leafList.getAtom(i);
+            int nSolid = 0;
+            if (clusterType == ClusterType.SOLID && qNorm[i] > 0) {
+                double[] qi = qlm[i];
+                for (int iList=0; iList<2; iList++) {
+                    IAtomList[] lists = iList == 0 ? neighborManager.getUpList(atom) : neighborManager.getDownList(atom);
+                    if (potentialIndex >= lists.length) continue;
+                    IAtomList list = lists[potentialIndex];
+                    for (int j=0; j<list.getAtomCount(); j++) {
+                        IAtom atomJ = list.getAtom(j);
+                        dr.Ev1Mv2(atomJ.getPosition(), atom.getPosition());
+                        boundary.nearestImage(dr);
+                        if (dr.squared() > cutoff2) continue;
+                        int jLeaf = atomJ.getLeafIndex();
+                        if (qNorm[jLeaf] == 0) continue;
+                        double[] qj = qlm[jLeaf];
+                        // real part of sum over m of q_lm(i) q_lm(j)*
+                        double dot = 0;
+                        for (int m=0; m<qi.length; m++) {
+                            dot += qi[m]*qj[m];
+                        }
+                        if (dot/(qNorm[i]*qNorm[jLeaf]) > solidBondThreshold) {
+                            nSolid++;
+                        }
+                    }
+                }
+            }
+            solidBonds[i] = nSolid;
+            switch (clusterType) {
+                case ALL:
+                    member[i] = true;
+                    break;
+                case LIQUID:
+                    member[i] = coordination[i] > maxNbrsVapor;
+                    break;
+                case SOLID:
+                    member[i] = nSolid >= minSolidBonds;
+                    break;
+            }
+            clusterParent.set(i, i);
+        }
+    }
+
+    /**
+     * Joins the clusters of every numThreads-th atom and its up neighbors,
+     * for neighbors that are also cluster members.
+     */
+    protected void link(int iThread) {
+        IVectorMutable dr = space.makeVector();
+        int nLeaf = leafList.getAtomCount();
+        for (int i=iThread; i<nLeaf; i+=numThreads) {
+            if (!member[i]) continue;
+            IAtom atom = leafList.getAtom(i);
+            IAtomList[] lists = neighborManager.getUpList(atom);
+            if (potentialIndex >= lists.length) continue;
+            IAtomList list = lists[potentialIndex];
+            for (int j=0; j<list.getAtomCount(); j++) {
+                IAtom atomJ = list.getAtom(j);
+                int jLeaf = atomJ.getLeafIndex();
+                if (!member[jLeaf]) continue;
+                dr.Ev1Mv2(atomJ.getPosition(), atom.getPosition());
+                boundary.nearestImage(dr);
+                if (dr.squared() > cutoff2) continue;
+                union(i, jLeaf);
+            }
+        }
+    }
+
+    /**
+     * Returns the root of the cluster containing atom i.  Can be called
+     * concurrently with union.
+     */
+    protected int find(int i) {
+        while (true) {
+            int p = clusterParent.get(i);
+            if (p == i) return i;
+            int gp = clusterParent.get(p);
+            if (gp != p) {
+                // path halving; losing the race just leaves a longer path
+                clusterParent.compareAndSet(i, p, gp);
+            }
+            i = gp;
+        }
+    }
+
+    /**
+     * Joins the clusters containing atoms i and j.  The root with the larger
+     * index is always attached to the one with the smaller index, so that
+     * concurrent unions cannot form a cycle.
+     */
+    protected void union(int i, int j) {
+        while (true) {
+            i = find(i);
+            j = find(j);
+            if (i == j) return;
+            if (i < j) {
+                int t = i;
+                i = j;
+                j = t;
+            }
+            if (clusterParent.compareAndSet(i, i, j)) return;
+        }
+    }
+
+    /**
+     * Returns the number of neighbors of the atom within the cutoff.
+     */
+    public int getCoordinationNumber(IAtom atom) {
+        return coordination[atom.getLeafIndex()];
+    }
+
+    /**
+     * Returns the local bond-order parameter q_l of the atom.
+     */
+    public double getLocalQ(IAtom atom) {
+        return ql[atom.getLeafIndex()];
+    }
+
+    /**
+     * Returns the number of solid-like bonds of the atom (always 0 unless
+     * the cluster type is SOLID).
+     */
+    public int getNumSolidBonds(IAtom atom) {
+        return solidBonds[atom.getLeafIndex()];
+    }
+
+    /**
+     * Returns true if the atom is of the kind grouped into clusters (for
+     * instance, solid-like if the cluster type is SOLID).
+     */
+    public boolean isClusterMember(IAtom atom) {
+        return member[atom.getLeafIndex()];
+    }
+
+    /**
+     * Returns the number of atoms in the atom's cluster, or 0 if the atom is
+     * not a cluster member.
+     */
+    public int getClusterSize(IAtom atom) {
+        int i = atom.getLeafIndex();
+        return member[i] ? clusterSize[find(i)] : 0;
+    }
+
+    /**
+     * Returns a number identifying the atom's cluster (the same for all
+     * atoms of the cluster), or -1 if the atom is not a cluster member.
+     */
+    public int getClusterLabel(IAtom atom) {
+        int i = atom.getLeafIndex();
+        return member[i] ? find(i) : -1;
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    /**
+     * Returns the atoms of the largest cluster.
+     */
+    public IAtomList getLargestCluster() {
+        return largestCluster;
+    }
+
+    public int getLargestClusterSize() {
+        return largestCluster.getAtomCount();
+    }
+
+    protected final IBox box;
+    protected final NeighborListManager neighborManager;
+    protected final ISpace space;
+    protected IAtomList leafList;
+    protected IBoundary boundary;
+    protected double cutoff, cutoff2;
+    protected int potentialIndex;
+    protected int l;
+    protected double solidBondThreshold;
+    protected int minSolidBonds, maxNbrsVapor;
+    protected ClusterType clusterType;
+    protected int numThreads;
+    protected final ParallelTaskRunner taskRunner = new ParallelTaskRunner("cluster analysis worker");
+    protected int[] coordination, solidBonds, clusterSize;
+    protected double[] ql, qNorm;
+    // real and imaginary parts of q_lm for each atom, interleaved
+    protected double[][] qlm;
+    protected boolean[] member;
+    protected AtomicIntegerArray clusterParent;
+    protected int numClusters;
+    protected final AtomArrayList largestCluster;
+}
@@ -0,0 +1,163 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.list;
+
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IBoundary;
+import etomica.api.IBox;
+import etomica.api.IPotentialAtomic;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomArrayList;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.potential.PotentialCalculation;
+import etomica.space.ISpace;
+
+/**
+ * Enumerates triplets of atoms from the pair neighbor lists held by a
+ * NeighborListManager, and invokes a PotentialCalculation for each one.  A
+ * triplet is formed by an atom and two of its neighbors when all three pair
+ * separations are less than the cutoff, and when the three atoms belong to
+ * different molecules.  The neighbor lists must therefore be built with a
+ * neighbor range at least as large as the cutoff.
+ * <p>
+ * Each triplet is considered to "belong" to the atom in it with the lowest
+ * leaf index.  Iterating UP from every atom in the box visits each triplet
+ * once; iterating in both directions from a single atom visits every triplet
+ * that contains it.
+ * <p>
+ * An instance holds scratch storage and should be used by only one thread at
+ * a time.
+ */
+public class NeighborListTriplets {
+
+    public NeighborListTriplets(ISpace space) {
+        dr = space.makeVector();
+        candidates = new AtomArrayList();
+        triplet = new AtomArrayList(3);
+        for (int i=0; i<3; i++) {
+            triplet.add(null);
+        }
+        setCutoff(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Sets the maximum separation between any two atoms of a triplet.
+     */
+    public void setCutoff(double newCutoff) {
+        cutoff = newCutoff;
+        cutoff2 = newCutoff*newCutoff;
+    }
+
+    public double getCutoff() {
+        return cutoff;
+    }
+
+    public void setBox(IBox box) {
+        boundary = box.getBoundary();
+    }
+
+    /**
+     * Invokes the PotentialCalculation for the triplets of the given atom.
+     * If direction is UP, only triplets in which the atom has the lowest leaf
+     * index are included; if DOWN, only those in which it does not.  If
+     * direction is null, all triplets containing the atom are included.
+     * If types is not null, only triplets whose atoms can be ordered to have
+     * those types are included, and the atoms are passed in that order.
+     *
+     * @param potentialIndex index of the potential in the atom's type's
+     *                       potential array (and so in its neighbor lists)
+     */
+    public void calculate(IAtom atom, IteratorDirective.Direction direction,
+            int potentialIndex, IPotentialAtomic potential, IAtomType[] types,
+            PotentialCalculation pc, NeighborListManager neighborManager) {
+        int atomIndex = atom.getLeafIndex();
+        boolean upOnly = direction == IteratorDirective.Direction.UP;
+        addCandidates(atom, neighborManager.getUpList(atom), potentialIndex, upOnly);
+        addCandidates(atom, neighborManager.getDownList(atom), potentialIndex, upOnly);
+        int nCandidates = candidates.getAtomCount();
+        for (int j=0; j<nCandidates-1; j++) {
+            IAtom atomJ = candidates.getAtom(j);
+            for (int k=j+1; k<nCandidates; k++) {
+                IAtom atomK = candidates.getAtom(k);
+                if (direction == IteratorDirective.Direction.DOWN
+                        && atomJ.getLeafIndex() > atomIndex && atomK.getLeafIndex() > atomIndex) {
+                    // atom is the lowest; this one belongs to the UP iteration
+                    continue;
+                }
+                if (atomJ.getParentGroup() == atomK.getParentGroup()) {
+                    continue;
+                }
+                dr.Ev1Mv2(atomK.getPosition(), atomJ.getPosition());
+                boundary.nearestImage(dr);
+                if (dr.squared() > cutoff2) {
+                    continue;
+                }
+                if (!setTriplet(atom, atomJ, atomK, types)) {
+                    continue;
+                }
+                pc.doCalculation(triplet, potential);
+            }
+        }
+        candidates.clear();
+    }
+
+    /**
+     * Puts the atoms into the triplet in the order of the given types.
+     * Returns false if the atoms' types don't match the given types in any
+     * order.
+     */
+    protected boolean setTriplet(IAtom atom0, IAtom atom1, IAtom atom2, IAtomType[] types) {
+        tripletAtoms[0] = atom0;
+        tripletAtoms[1] = atom1;
+        tripletAtoms[2] = atom2;
+        for (int p=0; p<PERMUTATIONS.length; p++) {
+            int[] perm = PERMUTATIONS[p];
+            if (types != null && (tripletAtoms[perm[0]].getType() != types[0]
+                    || tripletAtoms[perm[1]].getType() != types[1]
+                    || tripletAtoms[perm[2]].getType() != types[2])) {
+                continue;
+            }
+            for (int i=0; i<3; i++) {
+                triplet.set(i, tripletAtoms[perm[i]]);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds atoms from the given list (for the given potential) that are
+     * within the cutoff of the given atom to the candidate list.
+     */
+    protected void addCandidates(IAtom atom, IAtomList[] lists, int potentialIndex, boolean upOnly) {
+        if (potentialIndex >= lists.length) {
+            return;
+        }
+        IAtomList list = lists[potentialIndex];
+        int nNeighbors = list.getAtomCount();
+        int atomIndex = atom.getLeafIndex();
+        for (int j=0; j<nNeighbors; j++) {
+            IAtom atomJ = list.getAtom(j);
+            if (upOnly && atomJ.getLeafIndex() < atomIndex) {
+                continue;
+            }
+            dr.Ev1Mv2(atomJ.getPosition(), atom.getPosition());
+            boundary.nearestImage(dr);
+            if (dr.squared() <= cutoff2) {
+                candidates.add(atomJ);
+            }
+        }
+    }
+
+    protected final IVectorMutable dr;
+    protected final AtomArrayList candidates;
+    protected final AtomArrayList triplet;
+    protected final IAtom[] tripletAtoms = new IAtom[3];
+    protected IBoundary boundary;
+    protected double cutoff, cutoff2;
+    protected static final int[][] PERMUTATIONS = {{0,1,2}, {0,2,1}, {1,0,2}, {1,2,0}, {2,0,1}, {2,1,0}};
+}
@@ -4,6 +4,8 @@
 
 package etomica.nbr.list;
 
+import java.util.HashMap;
+
 import etomica.api.IAtom;
 import etomica.api.IAtomList;
 import etomica.api.IAtomType;
@@ -28,6 +30,7 @@ import etomica.nbr.CriterionInterMolecular;
 import etomica.nbr.CriterionSimple;
 import etomica.nbr.CriterionType;
 import etomica.nbr.CriterionTypePair;
+import etomica.nbr.CriterionTypesCombination;
 import etomica.nbr.CriterionTypesMulti;
 import etomica.nbr.NeighborCriterion;
 import etomica.nbr.PotentialGroupNbr;
@@ -35,14 +38,22 @@ import etomica.nbr.PotentialMasterNbr;
 import etomica.nbr.cell.NeighborCellManager;
 import etomica.potential.PotentialArray;
 import etomica.potential.PotentialCalculation;
+import etomica.potential.PotentialCalculationParallel;
 import etomica.potential.PotentialGroup;
 import etomica.space.ISpace;
 import etomica.util.Arrays;
 import etomica.util.Debug;
+import etomica.util.ParallelTaskRunner;
 
 /**
  * PotentialMaster used to implement neighbor listing.  Instance of this
  * class is given as an argument to the Simulation constructor.
+ * <p>
+ * Three-body potentials (nBody()==3) are handled from the pair neighbor
+ * lists: a triplet is formed by an atom and two of its neighbors, with all
+ * three separations within the three-body cutoff (see setThreeBodyCutoff).
+ * Triplets usually dominate the cost of a calculation, so their evaluation
+ * can be spread over several threads; see setThreeBodyWorkers.
  */
 public class PotentialMasterList extends PotentialMasterNbr {
 
@@ -91,6 +102,11 @@ public class PotentialMasterList extends PotentialMasterNbr {
         singletIterator = new AtomIteratorSinglet();
         atomSetSinglet = new AtomSetSinglet();
         atomPair = new AtomPair();
+        triplets = new NeighborListTriplets(_space);
+        threeBodyCutoff = Double.POSITIVE_INFINITY;
+        threeBodyWorkers = new HashMap<IPotentialAtomic,IPotentialAtomic[]>();
+        threeBodyTypes = new HashMap<IPotentialAtomic,IAtomType[]>();
+        threeBodyRunner = new ParallelTaskRunner("three-body worker");
         cellRange = 2;
         allCriteria = new NeighborCriterion[0];
 
@@ -185,6 +201,123 @@ public class PotentialMasterList extends PotentialMasterNbr {
         return safetyFactor;
     }
 
+    /**
+     * Sets the cutoff used for three-body potentials.  A triplet of atoms
+     * interacts only if all three pair separations are less than the cutoff
+     * (or the potential's own range, if that is smaller).  The neighbor range
+     * must be greater than the cutoff.  The cutoff must be set before adding
+     * a three-body potential that has infinite range.
+     */
+    public void setThreeBodyCutoff(double newThreeBodyCutoff) {
+        if (newThreeBodyCutoff <= 0) {
+            throw new IllegalArgumentException("Three-body cutoff must be greater than 0");
+        }
+        threeBodyCutoff = newThreeBodyCutoff;
+        maxPotentialRange = 0;
+        for (int i=0; i<allPotentials.length; i++) {
+            double pRange = getInteractionRange(allPotentials[i]);
+            if (pRange < Double.POSITIVE_INFINITY && pRange > maxPotentialRange) {
+                maxPotentialRange = pRange;
+            }
+        }
+        recomputeCriteriaRanges();
+    }
+
+    /**
+     * Returns the cutoff used for three-body potentials.
+     */
+    public double getThreeBodyCutoff() {
+        return threeBodyCutoff;
+    }
+
+    /**
+     * Returns the range within which atoms interact via the given potential.
+     * This is the potential's range, except for three-body potentials, for
+     * which the three-body cutoff also applies.
+     */
+    protected double getInteractionRange(IPotential potential) {
+        double pRange = potential.getRange();
+        if (potential.nBody() == 3 && threeBodyCutoff < pRange) {
+            return threeBodyCutoff;
+        }
+        return pRange;
+    }
+
+    /**
+     * Arranges for the triplets of the given three-body potential to be
+     * evaluated in parallel when calculate is called for a whole box with a
+     * PotentialCalculationParallel (PotentialCalculationEnergySum or
+     * PotentialCalculationForceSum).
+     * The triplets are divided among the calling thread, which uses the
+     * potential itself, and one additional thread for each of the given
+     * worker potentials.  The workers must be equivalent to the potential
+     * but separate instances, since potentials hold scratch storage.  The
+     * box's boundary must also tolerate concurrent nearestImage calls, as the
+     * rectangular periodic boundaries do.
+     * <p>
+     * Calculations targeting a single atom or molecule (as made by MC
+     * moves), and other PotentialCalculations, are performed serially.
+     * Passing null (or an empty array) returns the potential to serial
+     * evaluation.  The worker threads exit after sitting idle for a while;
+     * stopThreads stops them right away.
+     */
+    public void setThreeBodyWorkers(IPotentialAtomic potential, IPotentialAtomic[] workerPotentials) {
+        if (potential.nBody() != 3) {
+            throw new IllegalArgumentException("worker potentials can be used only for three-body potentials");
+        }
+        if (workerPotentials == null || workerPotentials.length == 0) {
+            threeBodyWorkers.remove(potential);
+            if (threeBodyWorkers.isEmpty()) {
+                stopThreads();
+            }
+            return;
+        }
+        threeBodyWorkers.put(potential, workerPotentials.clone());
+        if (workerTriplets == null || workerTriplets.length < workerPotentials.length) {
+            workerTriplets = new NeighborListTriplets[workerPotentials.length];
+            for (int i=0; i<workerTriplets.length; i++) {
+                workerTriplets[i] = new NeighborListTriplets(space);
+            }
+            workerPCs = null;
+        }
+    }
+
+    /**
+     * Stops the threads used to evaluate three-body potentials in parallel.
+     * They are started again if needed.
+     */
+    public void stopThreads() {
+        threeBodyRunner.shutdown();
+        workerPCs = null;
+        lastParallelPC = null;
+    }
+
+
+    /**
+     * Adds the given potential for the given atom types.  Three-body
+     * potentials are held directly (not by a PotentialGroup) and are applied
+     * to every triplet of atoms (from different molecules) whose types match
+     * those given, in some order, and whose separations are within the
+     * three-body cutoff.  The atoms are passed to the potential in the order
+     * of the types given.
+     */
+    public void addPotential(IPotentialAtomic potential, IAtomType[] atomTypes) {
+        if (potential.nBody() != 3) {
+            super.addPotential(potential, atomTypes);
+            return;
+        }
+        if (atomTypes.length != 3) {
+            throw new IllegalArgumentException("nBody of potential must match number of atom types");
+        }
+        if (getInteractionRange(potential) == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("three-body cutoff must be set before adding a three-body potential with infinite range");
+        }
+        for (int i=0; i<atomTypes.length; i++) {
+            addRangedPotential(potential, atomTypes[i]);
+        }
+        addRangedPotentialForTypes(potential, atomTypes);
+        threeBodyTypes.put(potential, atomTypes.clone());
+    }
 
     /**
      * Add the given potential to be used for the given atom types and the
@@ -233,7 +366,12 @@ public class PotentialMasterList extends PotentialMasterNbr {
         // 0 guarantees the simulation to be hosed if our range is less than the potential range
         // (since recomputeCriteriaRange will bail in that case)
         NeighborCriterion criterion;
-        if (atomType.length == 2) {
+        if (potential.nBody() == 3) {
+            // neighbor pairs of any of the types; triplets are formed from the pairs
+            criterion = new CriterionSimple(getSimulation(), space, getInteractionRange(potential), 0.0);
+            criterion = new CriterionInterMolecular(new CriterionTypesCombination(criterion, atomType));
+        }
+        else if (atomType.length == 2) {
             NeighborCriterion rangedCriterion;
             if (potential.getRange() < Double.POSITIVE_INFINITY) {
                 rangedCriterion = new CriterionSimple(getSimulation(), space, potential.getRange(), 0.0);
@@ -261,8 +399,9 @@ public class PotentialMasterList extends PotentialMasterNbr {
         for (int i=0; i<atomType.length; i++) {
             ((PotentialArray)rangedAgentManager.getAgent(atomType[i])).setCriterion(potential, criterion);
         }
-        if (potential.getRange() > maxPotentialRange && potential.getRange() < Double.POSITIVE_INFINITY) {
-            maxPotentialRange = potential.getRange();
+        double pRange = getInteractionRange(potential);
+        if (pRange > maxPotentialRange && pRange < Double.POSITIVE_INFINITY) {
+            maxPotentialRange = pRange;
         }
         recomputeCriteriaRanges();
 
@@ -285,8 +424,9 @@ public class PotentialMasterList extends PotentialMasterNbr {
             PotentialArray potentialArray = (PotentialArray)rangedPotentialIterator.next();
             IPotential[] potentials = potentialArray.getPotentials();
             for (int i=0; i<potentials.length; i++) {
-                if (potentials[i].getRange() > maxPotentialRange) {
-                    maxPotentialRange = potentials[i].getRange();
+                double pRange = getInteractionRange(potentials[i]);
+                if (pRange > maxPotentialRange) {
+                    maxPotentialRange = pRange;
                 }
             }
         }
@@ -323,9 +463,10 @@ public class PotentialMasterList extends PotentialMasterNbr {
             for (int j=0; j<criteria.length; j++) {
                 CriterionSimple rangedCriterion = getRangedCriterion(criteria[j]);
                 if (rangedCriterion != null) {
-                    double newRange = maxDisplacement/safetyFactor + potentials[j].getRange();
+                    double pRange = getInteractionRange(potentials[j]);
+                    double newRange = maxDisplacement/safetyFactor + pRange;
                     rangedCriterion.setNeighborRange(newRange);
-                    rangedCriterion.setInteractionRange(potentials[j].getRange());
+                    rangedCriterion.setInteractionRange(pRange);
                     rangedCriterion.setSafetyFactor(safetyFactor);
                 }                    
             }
@@ -413,11 +554,23 @@ public class PotentialMasterList extends PotentialMasterNbr {
             }
         }
 
-        super.removePotential(potential);
+        if (potential.nBody() == 3) {
+            // three-body potentials are not held by a PotentialGroup
+            rangedPotentialIterator.reset();
+            while (rangedPotentialIterator.hasNext()) {
+                ((PotentialArray)rangedPotentialIterator.next()).removePotential(potential);
+            }
+            allPotentials = (IPotential[])Arrays.removeObject(allPotentials, potential);
+            threeBodyTypes.remove(potential);
+            setThreeBodyWorkers(potential, null);
+        }
+        else {
+            super.removePotential(potential);
+        }
         
         maxPotentialRange = 0;
         for (int i=0; i<allPotentials.length; i++) {
-            double pRange = allPotentials[i].getRange();
+            double pRange = getInteractionRange(allPotentials[i]);
             if (pRange == Double.POSITIVE_INFINITY) {
                 continue;
             }
@@ -464,6 +617,10 @@ public class PotentialMasterList extends PotentialMasterNbr {
                 	((PotentialGroup)allPotentials[i]).calculate(new MoleculeIterator0(), id.direction(), null, pc);
                 }
             }
+            triplets.setBox(box);
+            // three-body potentials with workers are handled separately below
+            doParallelThreeBody = !threeBodyWorkers.isEmpty() && pc instanceof PotentialCalculationParallel
+                    && makeWorkerCalculations(box, (PotentialCalculationParallel)pc);
 
             //no target atoms specified
             //call calculate with each SpeciesAgent
@@ -472,8 +629,15 @@ public class PotentialMasterList extends PotentialMasterNbr {
             for (int i=0; i<size; i++) {
                 calculate(list.getMolecule(i), id.direction(), pc, neighborManager);//call calculate with the SpeciesAgent
             }
+            if (doParallelThreeBody) {
+                doParallelThreeBody = false;
+                for (IPotentialAtomic p3 : threeBodyWorkers.keySet()) {
+                    calculateThreeBodyParallel(box, p3, (PotentialCalculationParallel)pc, neighborManager);
+                }
+            }
         }
         else {
+            triplets.setBox(box);
             if (targetAtom != null) {
                 PotentialArray potentialArray = (PotentialArray)rangedAgentManager.getAgent(targetAtom.getType());
                 IPotential[] potentials = potentialArray.getPotentials();
@@ -560,6 +724,14 @@ public class PotentialMasterList extends PotentialMasterNbr {
                     }
                 }
                 break;//switch
+            case 3:
+                if (doParallelThreeBody && threeBodyWorkers.containsKey(potentials[i])) {
+                    break;
+                }
+                triplets.setCutoff(getInteractionRange(potentials[i]));
+                triplets.calculate(atom, direction, i, (IPotentialAtomic)potentials[i],
+                        threeBodyTypes.get(potentials[i]), pc, neighborManager);
+                break;
             case Integer.MAX_VALUE: //N-body
                 // do the calculation considering the current Atom as the 
                 // "central" Atom.
@@ -606,6 +778,103 @@ public class PotentialMasterList extends PotentialMasterNbr {
         atomArrayList.clear();
     }
 
+    /**
+     * Prepares the workers' copies of the given calculation, reusing those
+     * from the previous call if the calculation and box are the same.
+     * Returns false if the calculation can't be divided among threads.
+     */
+    protected boolean makeWorkerCalculations(IBox box, PotentialCalculationParallel pc) {
+        if (workerPCs != null && lastParallelPC == pc && lastParallelBox == box) {
+            return true;
+        }
+        workerPCs = null;
+        PotentialCalculationParallel[] newWorkerPCs = new PotentialCalculationParallel[workerTriplets.length];
+        for (int t=0; t<newWorkerPCs.length; t++) {
+            newWorkerPCs[t] = pc.makeWorkerCalculation();
+            if (newWorkerPCs[t] == null) {
+                return false;
+            }
+        }
+        workerPCs = newWorkerPCs;
+        lastParallelPC = pc;
+        lastParallelBox = box;
+        return true;
+    }
+
+    /**
+     * Performs the PotentialCalculation for all triplets in the box that
+     * interact via the given three-body potential, dividing the atoms among
+     * the calling thread and the worker threads.  Each worker has its own
+     * copy of the potential and of the calculation; the workers' results are
+     * added to the given calculation at the end.
+     */
+    protected void calculateThreeBodyParallel(IBox box, final IPotentialAtomic potential,
+            final PotentialCalculationParallel pc, final NeighborListManager neighborManager) {
+        final IPotentialAtomic[] workerPotentials = threeBodyWorkers.get(potential);
+        final IAtomType[] types = threeBodyTypes.get(potential);
+        final int nThreads = workerPotentials.length + 1;
+        final IAtomList leafList = box.getLeafList();
+        double cutoff = getInteractionRange(potential);
+        triplets.setCutoff(cutoff);
+        for (int t=1; t<nThreads; t++) {
+            workerPotentials[t-1].setBox(box);
+            workerTriplets[t-1].setBox(box);
+            workerTriplets[t-1].setCutoff(cutoff);
+        }
+        boolean finished = false;
+        try {
+            threeBodyRunner.run(nThreads, new ParallelTaskRunner.Task() {
+                public void run(int iThread) {
+                    if (iThread == 0) {
+                        calculateThreeBody(leafList, 0, nThreads, potential, potential, types,
+                                pc, triplets, neighborManager);
+                    }
+                    else {
+                        calculateThreeBody(leafList, iThread, nThreads, potential, workerPotentials[iThread-1],
+                                types, workerPCs[iThread-1], workerTriplets[iThread-1], neighborManager);
+                    }
+                }
+            });
+            finished = true;
+        }
+        finally {
+            if (!finished) {
+                // the workers may hold partial results
+                workerPCs = null;
+            }
+        }
+        for (int t=1; t<nThreads; t++) {
+            pc.addWorkerResults(workerPCs[t-1]);
+        }
+    }
+
+    /**
+     * Performs the PotentialCalculation for the triplets belonging to every
+     * nThreads-th leaf atom, starting with atom iThread.  Interleaving the
+     * atoms keeps the threads' shares similar even if the density varies
+     * across the box.
+     */
+    protected void calculateThreeBody(IAtomList leafList, int iThread, int nThreads,
+            IPotentialAtomic potential, IPotentialAtomic evaluatingPotential, IAtomType[] types,
+            PotentialCalculation pc, NeighborListTriplets tripletIterator, NeighborListManager neighborManager) {
+        int nLeaf = leafList.getAtomCount();
+        for (int i=iThread; i<nLeaf; i+=nThreads) {
+            IAtom atom = leafList.getAtom(i);
+            // PotentialArray.getPotentialIndex caches its result, so it can't
+            // be used from several threads
+            IPotential[] potentials = getRangedPotentials(atom.getType()).getPotentials();
+            int potentialIndex = 0;
+            while (potentialIndex < potentials.length && potentials[potentialIndex] != potential) {
+                potentialIndex++;
+            }
+            if (potentialIndex == potentials.length) {
+                continue;
+            }
+            tripletIterator.calculate(atom, IteratorDirective.Direction.UP, potentialIndex,
+                    evaluatingPotential, types, pc, neighborManager);
+        }
+    }
+
     public NeighborListManager getNeighborManager(IBox box) {
         // we didn't have the simulation when we made the agent manager.
         // setting the simulation after the first time is a quick return
@@ -646,6 +915,18 @@ public class PotentialMasterList extends PotentialMasterNbr {
     
     // things needed for N-body potentials
     private AtomArrayList atomArrayList;
+
+    // things needed for three-body potentials
+    protected final NeighborListTriplets triplets;
+    protected double threeBodyCutoff;
+    protected final HashMap<IPotentialAtomic,IPotentialAtomic[]> threeBodyWorkers;
+    protected final HashMap<IPotentialAtomic,IAtomType[]> threeBodyTypes;
+    protected NeighborListTriplets[] workerTriplets;
+    protected final ParallelTaskRunner threeBodyRunner;
+    protected PotentialCalculationParallel[] workerPCs;
+    protected PotentialCalculationParallel lastParallelPC;
+    protected IBox lastParallelBox;
+    protected boolean doParallelThreeBody;
     
     public static class NeighborListAgentSource implements BoxAgentManager.BoxAgentSource<NeighborListManager> {
         public NeighborListAgentSource(double range, ISpace space) {
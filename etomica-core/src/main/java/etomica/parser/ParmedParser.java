@@ -2,15 +2,24 @@ package etomica.parser;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import etomica.units.Calorie;
+import etomica.units.Mole;
+import etomica.units.Prefix;
+import etomica.units.PrefixedUnit;
+import etomica.units.Unit;
+import etomica.units.UnitRatio;
 
 import java.io.File;
 import java.io.IOException;
 
 
 /**
- * Class that generates {@link ParmedStructure} objects by invoking
- * the <a href="https://github.com/ParmEd/ParmEd">ParmEd</a> library and serializing its
- * Structure object using JSON.
+ * Class that generates {@link ParmedStructure} objects holding the data that
+ * the <a href="https://github.com/ParmEd/ParmEd">ParmEd</a> library would put in its
+ * Structure object, serialized using JSON.  The files are read by {@link ParserGromacs},
+ * so Python is not needed, and the parsed topology is cached by {@link TopologyCache}.
  *
  * @see ParmedStructure
  */
@@ -19,14 +28,18 @@ public class ParmedParser {
 
     /**
      * Parses the given <a href="http://www.gromacs.org/">Gromacs</a> .top and .gro files
-     * using the <a href="https://github.com/ParmEd/ParmEd">ParmEd</a> python library.
+     * with {@link ParserGromacs}, giving the same data as the
+     * <a href="https://github.com/ParmEd/ParmEd">ParmEd</a> python library would.
      * @param topFile File object containing the path to a Gromacs .top file
      * @param groFile File object containing the path to a Gromacs .gro file
      * @return a {@link ParmedStructure} for extracting Etomica simulation components from the ParmEd {@code Structure} object
      */
     public static ParmedStructure parseGromacs(File topFile, File groFile) throws IOException {
-        JsonNode root = execParmedPython(topFile, groFile);
-        return new ParmedStructure(root);
+        Topology topology = ParserGromacs.readTopology(topFile, groFile);
+        if (topology.boxSize == null) {
+            throw new IOException(groFile + " has no box");
+        }
+        return new ParmedStructure(makeJson(topology));
     }
 
     /**
@@ -48,33 +61,46 @@ public class ParmedParser {
     }
 
     /**
-     * Runs the python script on the given files
-     * @param topFile File object containing the .top file path
-     * @param groFile File object containing the .gro file path
+     * Builds the json tree that the parmed_json python script would produce
+     * for the topology, as far as ParmedStructure uses it.  ParmEd gives
+     * lengths in Angstroms and energies in kcal/mol, and describes
+     * Lennard-Jones atom types by epsilon and rmin (half the separation at
+     * the minimum).
+     * @param topology the topology read from the Gromacs files
      * @return Jackson JsonNode representing the root of the json tree
-     * @throws IOException if the given files do not exist
      */
-    private static JsonNode execParmedPython(File topFile, File groFile) throws IOException {
-        ClassLoader classLoader = ParmedParser.class.getClassLoader();
-        String python_script_path = classLoader.getResource("virtualenv/bin/parmed_json").getFile();
-
-
-        ProcessBuilder pb = new ProcessBuilder(
-                python_script_path,
-                topFile.getCanonicalPath(),
-                groFile.getCanonicalPath()
-        );
+    private static JsonNode makeJson(Topology topology) {
+        Unit eUnit = new UnitRatio(new PrefixedUnit(Prefix.KILO, Calorie.UNIT), Mole.UNIT);
+        ObjectNode root = mapper.createObjectNode();
 
-        Process proc = pb.start();
-
-        JsonNode root = mapper.readTree(proc.getInputStream());
+        ArrayNode boxNode = root.putArray("_box").addArray();
+        for (double edge : topology.boxSize) {
+            boxNode.add(edge);
+        }
+        boxNode.add(90.0).add(90.0).add(90.0);
 
-        try {
-            proc.waitFor();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        ArrayNode residuesNode = root.putArray("residues");
+        int nAtoms = topology.getAtomCount();
+        for (int i = 0; i < topology.moleculeCount; i++) {
+            ArrayNode atomsNode = residuesNode.addObject().putArray("atoms");
+            for (int j = 0; j < nAtoms; j++) {
+                double[] xyz = topology.coordinates[i * nAtoms + j];
+                atomsNode.addObject()
+                        .put("type", topology.typeNames[topology.atomTypes[j]])
+                        .put("xx", xyz[0])
+                        .put("xy", xyz[1])
+                        .put("xz", xyz[2]);
+            }
         }
 
+        ObjectNode atomTypesNode = root.putObject("parameterset").putObject("atom_types");
+        for (int i = 0; i < topology.typeNames.length; i++) {
+            atomTypesNode.putObject(topology.typeNames[i])
+                    .put("name", topology.typeNames[i])
+                    .put("mass", topology.typeMasses[i])
+                    .put("epsilon", eUnit.fromSim(topology.typeEpsilon[i]))
+                    .put("rmin", 0.5 * topology.typeSigma[i] * Math.pow(2, 1.0 / 6.0));
+        }
         return root;
     }
 }
@@ -27,7 +27,7 @@ import java.util.*;
  *
  * <p>
  * This class should not be instantiated directly, but instead created by the {@link ParmedParser}
- * static methods which invoke the Python library.
+ * static methods.
  * </p>
  *
  * @see ParmedParser
@@ -0,0 +1,362 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import etomica.units.Joule;
+import etomica.units.Mole;
+import etomica.units.Prefix;
+import etomica.units.PrefixedUnit;
+import etomica.units.Unit;
+import etomica.units.UnitRatio;
+
+/**
+ * Reads <a href="http://www.gromacs.org/">Gromacs</a> .top and .gro files
+ * without help from GROMACS or ParmEd, producing the same {@link Topology}
+ * (and from it the same species and potentials) as {@link ParserLAMMPS}
+ * does for LAMMPS data files.
+ * <p>
+ * The topology must be self-contained (as written by ParmEd or by
+ * {@code gmx grompp -pp}): preprocessor directives are not handled, and
+ * bonded parameters must be given with each bond, angle and dihedral rather
+ * than looked up from [ bondtypes ] and the like.  The system must consist
+ * of a single kind of molecule with Lennard-Jones nonbonded interactions,
+ * harmonic bonds and angles, and dihedrals that can be written in the OPLS
+ * form (Ryckaert-Bellemans, Fourier, or periodic terms with multiplicity up
+ * to 4).  Constant energy offsets of the dihedrals are dropped.
+ */
+public class ParserGromacs extends ParserLAMMPS {
+
+    /**
+     * Makes the species and potentials for the system described by the .top
+     * file.  The species' conformation is that of the first molecule in the
+     * .gro file.
+     */
+    public static Stuff makeStuff(File topFile, File groFile, Options opts) {
+        return makeStuff(readTopology(topFile, groFile), opts);
+    }
+
+    /**
+     * Reads the .top and .gro files, or takes their topology from the
+     * TopologyCache if the same files have been read before.
+     */
+    public static Topology readTopology(File topFile, File groFile) {
+        String key = null;
+        try {
+            key = TopologyCache.makeKey("gromacs", topFile, groFile);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Cannot open "+topFile+" or "+groFile+", caught IOException: " + e.getMessage());
+        }
+        Topology topology = TopologyCache.load(key);
+        if (topology == null) {
+            topology = readTopologyFromLines(readLines(topFile, true), readLines(groFile, false));
+            TopologyCache.store(key, topology);
+        }
+        return topology;
+    }
+
+    /**
+     * Parses the lines of a .top file and of a .gro file.  The .gro lines
+     * must not be trimmed, since the atoms are in fixed columns.
+     */
+    public static Topology readTopologyFromLines(List<String> topLines, List<String> groLines) {
+        Unit eUnit = new UnitRatio(new PrefixedUnit(Prefix.KILO, Joule.UNIT), Mole.UNIT);
+        Topology topology = new Topology();
+        int nbfunc = 1;
+        int combinationRule = 1;
+        boolean genPairs = false;
+        double fudgeLJ = 1;
+        Map<String,Integer> typeIndex = new LinkedHashMap<String,Integer>();
+        List<double[]> typeParameters = new ArrayList<double[]>();
+        Map<String,MoleculeType> moleculeTypes = new HashMap<String,MoleculeType>();
+        MoleculeType molType = null;
+        String moleculeName = null;
+        int moleculeCount = 0;
+        String heading = null;
+
+        for (String line : topLines) {
+            int comment = line.indexOf(';');
+            if (comment > -1) {
+                line = line.substring(0, comment).trim();
+            }
+            if (line.length() == 0) continue;
+            if (line.startsWith("#")) {
+                throw new RuntimeException("preprocessor directives are not supported; run gmx grompp -pp to make a self-contained topology: "+line);
+            }
+            if (line.startsWith("[")) {
+                heading = line.substring(1, line.indexOf(']')).trim().toLowerCase();
+                continue;
+            }
+            if (heading == null) {
+                throw new RuntimeException("Expected a section heading before "+line);
+            }
+            String[] fields = line.split("[ \t]+");
+            if (heading.equals("defaults")) {
+                nbfunc = Integer.parseInt(fields[0]);
+                combinationRule = Integer.parseInt(fields[1]);
+                if (nbfunc != 1) {
+                    throw new RuntimeException("Only Lennard-Jones nonbonded interactions (nbfunc 1) are supported");
+                }
+                genPairs = fields.length > 2 && fields[2].equalsIgnoreCase("yes");
+                if (fields.length > 3) {
+                    fudgeLJ = Double.parseDouble(fields[3]);
+                }
+            }
+            else if (heading.equals("atomtypes")) {
+                // name [bond_type] [at.num] mass charge ptype V W; count from the end
+                int n = fields.length;
+                double mass = Double.parseDouble(fields[n-5]);
+                double[] sigmaEpsilon = lennardJones(combinationRule, Double.parseDouble(fields[n-2]), Double.parseDouble(fields[n-1]), eUnit);
+                typeIndex.put(fields[0], typeParameters.size());
+                typeParameters.add(new double[]{mass, sigmaEpsilon[0], sigmaEpsilon[1]});
+            }
+            else if (heading.equals("moleculetype")) {
+                molType = new MoleculeType();
+                moleculeTypes.put(fields[0], molType);
+            }
+            else if (heading.equals("atoms")) {
+                Integer type = typeIndex.get(fields[1]);
+                if (type == null) {
+                    throw new RuntimeException("Unknown atom type "+fields[1]);
+                }
+                molType.atomTypes.add(type);
+                molType.charges.add(fields.length > 6 ? Double.parseDouble(fields[6]) : 0);
+            }
+            else if (heading.equals("bonds")) {
+                checkFunction(fields, 2, 1, "bond");
+                requireParameters(fields, 5, line);
+                // U = 0.5*kb*(r-b0)^2, kb in kJ/mol/nm^2
+                molType.bonds.add(indices(fields, 2));
+                molType.bondParameters.add(new double[]{eUnit.toSim(Double.parseDouble(fields[4]))/100, Double.parseDouble(fields[3])*10});
+            }
+            else if (heading.equals("angles")) {
+                checkFunction(fields, 3, 1, "angle");
+                requireParameters(fields, 6, line);
+                // U = 0.5*k*(theta-theta0)^2, theta0 in degrees
+                molType.angles.add(indices(fields, 3));
+                molType.angleParameters.add(new double[]{eUnit.toSim(Double.parseDouble(fields[5])), Math.toRadians(Double.parseDouble(fields[4]))});
+            }
+            else if (heading.equals("dihedrals")) {
+                molType.dihedrals.add(indices(fields, 4));
+                molType.dihedralParameters.add(oplsCoefficients(fields, eUnit, line));
+            }
+            else if (heading.equals("pairs")) {
+                checkFunction(fields, 2, 1, "pair");
+                int[] pair = indices(fields, 2);
+                double[] sigmaEpsilon;
+                if (fields.length > 4) {
+                    sigmaEpsilon = lennardJones(combinationRule, Double.parseDouble(fields[3]), Double.parseDouble(fields[4]), eUnit);
+                }
+                else if (genPairs) {
+                    // parameters generated from the atom types, scaled by fudgeLJ
+                    int t1 = molType.atomTypes.get(pair[0]), t2 = molType.atomTypes.get(pair[1]);
+                    double[] p1 = typeParameters.get(t1), p2 = typeParameters.get(t2);
+                    double sigma = combinationRule == Topology.COMBINATION_GEOMETRIC || combinationRule == 1 ?
+                            Math.sqrt(p1[1]*p2[1]) : 0.5*(p1[1]+p2[1]);
+                    sigmaEpsilon = new double[]{sigma, fudgeLJ*Math.sqrt(p1[2]*p2[2])};
+                }
+                else {
+                    throw new RuntimeException("Pair parameters must be given explicitly (or gen-pairs turned on): "+line);
+                }
+                molType.pairs.add(pair);
+                molType.pairParameters.add(sigmaEpsilon);
+            }
+            else if (heading.equals("system")) {
+                // just a title
+            }
+            else if (heading.equals("molecules")) {
+                if (moleculeName != null && !moleculeName.equals(fields[0])) {
+                    throw new RuntimeException("Only systems with a single kind of molecule are supported");
+                }
+                moleculeName = fields[0];
+                moleculeCount += Integer.parseInt(fields[1]);
+            }
+            else {
+                throw new RuntimeException("Unsupported topology section ["+heading+"]");
+            }
+        }
+        if (moleculeName == null) {
+            throw new RuntimeException("Topology has no [ molecules ]");
+        }
+        molType = moleculeTypes.get(moleculeName);
+        if (molType == null) {
+            throw new RuntimeException("Unknown molecule type "+moleculeName);
+        }
+
+        int nTypes = typeParameters.size();
+        topology.typeNames = typeIndex.keySet().toArray(new String[0]);
+        topology.typeMasses = new double[nTypes];
+        topology.typeSigma = new double[nTypes];
+        topology.typeEpsilon = new double[nTypes];
+        for (int i=0; i<nTypes; i++) {
+            double[] p = typeParameters.get(i);
+            topology.typeMasses[i] = p[0];
+            topology.typeSigma[i] = p[1];
+            topology.typeEpsilon[i] = p[2];
+        }
+        // rule 1 gives C6 and C12 for each type, which mix geometrically
+        topology.combinationRule = combinationRule == 2 ? Topology.COMBINATION_ARITHMETIC : Topology.COMBINATION_GEOMETRIC;
+        int nAtoms = molType.atomTypes.size();
+        topology.atomTypes = new int[nAtoms];
+        topology.charges = new double[nAtoms];
+        for (int i=0; i<nAtoms; i++) {
+            topology.atomTypes[i] = molType.atomTypes.get(i);
+            topology.charges[i] = molType.charges.get(i);
+        }
+        topology.bonds = molType.bonds.toArray(new int[0][0]);
+        topology.bondParameters = molType.bondParameters.toArray(new double[0][0]);
+        topology.angles = molType.angles.toArray(new int[0][0]);
+        topology.angleParameters = molType.angleParameters.toArray(new double[0][0]);
+        topology.dihedrals = molType.dihedrals.toArray(new int[0][0]);
+        topology.dihedralParameters = molType.dihedralParameters.toArray(new double[0][0]);
+        topology.pairs = molType.pairs.toArray(new int[0][0]);
+        topology.pairParameters = molType.pairParameters.toArray(new double[0][0]);
+        topology.moleculeCount = moleculeCount;
+
+        readGro(groLines, topology);
+        return topology;
+    }
+
+    /**
+     * Reads the coordinates and box from the lines of a .gro file, which
+     * must hold the atoms of the topology's molecules.
+     */
+    protected static void readGro(List<String> groLines, Topology topology) {
+        int nAtoms = Integer.parseInt(groLines.get(1).trim());
+        if (nAtoms != topology.moleculeCount*topology.getAtomCount()) {
+            throw new RuntimeException(".gro file has "+nAtoms+" atoms, but topology has "+topology.moleculeCount+" molecules of "+topology.getAtomCount()+" atoms");
+        }
+        topology.coordinates = new double[nAtoms][3];
+        for (int i=0; i<nAtoms; i++) {
+            // residue number, residue name, atom name and atom number take
+            // the first 20 columns.  the coordinates that follow have fixed
+            // width, which can be found from the spacing of the decimal points.
+            // each field has 4 columns before its decimal point, whatever the
+            // precision (%8.3f, %9.4f, ...)
+            String xyz = groLines.get(i+2).substring(20);
+            int dot = xyz.indexOf('.');
+            int width = xyz.indexOf('.', dot+1) - dot;
+            int start = dot - 4;
+            for (int j=0; j<3; j++) {
+                topology.coordinates[i][j] = 10*Double.parseDouble(xyz.substring(start+j*width, start+(j+1)*width).trim());
+            }
+        }
+        String[] box = groLines.get(nAtoms+2).trim().split("[ \t]+");
+        for (int j=3; j<box.length; j++) {
+            if (Double.parseDouble(box[j]) != 0) {
+                throw new RuntimeException("Only rectangular boxes are supported");
+            }
+        }
+        topology.boxSize = new double[]{10*Double.parseDouble(box[0]), 10*Double.parseDouble(box[1]), 10*Double.parseDouble(box[2])};
+    }
+
+    /**
+     * Returns {sigma, epsilon} in simulation units for the given nonbonded
+     * parameters, which are {C6, C12} for combination rule 1 and
+     * {sigma, epsilon} otherwise.
+     */
+    protected static double[] lennardJones(int combinationRule, double v, double w, Unit eUnit) {
+        if (combinationRule == 1) {
+            if (v == 0 || w == 0) {
+                return new double[]{0, 0};
+            }
+            return new double[]{10*Math.pow(w/v, 1.0/6.0), eUnit.toSim(v*v/(4*w))};
+        }
+        return new double[]{10*v, eUnit.toSim(w)};
+    }
+
+    /**
+     * Returns the coefficients of P4BondTorsionOPLS equivalent to the
+     * dihedral on the given line.
+     */
+    protected static double[] oplsCoefficients(String[] fields, Unit eUnit, String line) {
+        int funct = Integer.parseInt(fields[4]);
+        double[] a = new double[4];
+        if (funct == 3) {
+            // Ryckaert-Bellemans: sum of Cn cos^n(psi), with psi = phi - 180
+            requireParameters(fields, 11, line);
+            double[] c = new double[6];
+            for (int i=0; i<6; i++) {
+                c[i] = eUnit.toSim(Double.parseDouble(fields[5+i]));
+            }
+            if (c[5] != 0) {
+                throw new RuntimeException("Ryckaert-Bellemans C5 cannot be represented in OPLS form: "+line);
+            }
+            a[0] = -2*c[1] - 1.5*c[3];
+            a[1] = -c[2] - c[4];
+            a[2] = -0.5*c[3];
+            a[3] = -0.25*c[4];
+        }
+        else if (funct == 5) {
+            // Fourier: F1..F4 in kJ/mol
+            requireParameters(fields, 9, line);
+            for (int i=0; i<4; i++) {
+                a[i] = eUnit.toSim(Double.parseDouble(fields[5+i]));
+            }
+        }
+        else if (funct == 1 || funct == 9) {
+            // periodic: k*(1+cos(n*phi-phis)).  OPLS terms have phase 0 for
+            // odd n and 180 for even n
+            requireParameters(fields, 8, line);
+            double phase = Double.parseDouble(fields[5]);
+            double k = eUnit.toSim(Double.parseDouble(fields[6]));
+            int n = Integer.parseInt(fields[7]);
+            double oplsPhase = n%2 == 1 ? 0 : 180;
+            if (n < 1 || n > 4 || (phase != oplsPhase && Math.abs(phase - oplsPhase) != 180)) {
+                throw new RuntimeException("Periodic dihedral cannot be represented in OPLS form: "+line);
+            }
+            // a phase shifted by 180 from the OPLS phase flips the sign of the cosine
+            a[n-1] = phase == oplsPhase ? 2*k : -2*k;
+        }
+        else {
+            throw new RuntimeException("Unsupported dihedral function "+funct+": "+line);
+        }
+        return a;
+    }
+
+    private static void checkFunction(String[] fields, int column, int funct, String what) {
+        if (fields.length <= column || Integer.parseInt(fields[column]) != funct) {
+            throw new RuntimeException("Only "+what+" function "+funct+" is supported");
+        }
+    }
+
+    private static void requireParameters(String[] fields, int n, String line) {
+        if (fields.length < n) {
+            throw new RuntimeException("Parameters must be given explicitly: "+line);
+        }
+    }
+
+    /**
+     * Returns the first n fields as 0-based atom indices.
+     */
+    private static int[] indices(String[] fields, int n) {
+        int[] idx = new int[n];
+        for (int i=0; i<n; i++) {
+            idx[i] = Integer.parseInt(fields[i])-1;
+        }
+        return idx;
+    }
+
+    protected static class MoleculeType {
+        public final List<Integer> atomTypes = new ArrayList<Integer>();
+        public final List<Double> charges = new ArrayList<Double>();
+        public final List<int[]> bonds = new ArrayList<int[]>();
+        public final List<double[]> bondParameters = new ArrayList<double[]>();
+        public final List<int[]> angles = new ArrayList<int[]>();
+        public final List<double[]> angleParameters = new ArrayList<double[]>();
+        public final List<int[]> dihedrals = new ArrayList<int[]>();
+        public final List<double[]> dihedralParameters = new ArrayList<double[]>();
+        public final List<int[]> pairs = new ArrayList<int[]>();
+        public final List<double[]> pairParameters = new ArrayList<double[]>();
+    }
+}
@@ -1,9 +1,11 @@
 package etomica.parser;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import etomica.api.IAtomType;
@@ -39,18 +41,29 @@ import etomica.units.UnitRatio;
 public class ParserLAMMPS {
 
 	public static Stuff makeStuffFromLines(List<String> lines, Options opts) {
+	    return makeStuff(readTopologyFromLines(lines), opts);
+	}
+
+	/**
+	 * Parses the lines of a LAMMPS data file (in "real" units) into a
+	 * Topology.  All atoms in the file are taken to form a single molecule.
+	 */
+	public static Topology readTopologyFromLines(List<String> lines) {
         String heading = null;
-        IAtomType[] atomTypes = null;
-        P2Harmonic[] p2Bonds = null;
-        P3BondAngle[] p3Bonds = null;
-        P4BondTorsionOPLS[] p4Bonds = null;
-        int[] atomCounts = null;
+        String[] typeNames = null;
+        double[] masses = null;
+        double[][] bondCoeffs = null;
+        double[][] angleCoeffs = null;
+        double[][] dihedralCoeffs = null;
         int[] atomTypeId = null;
         double[] charges = null;
-        IVectorMutable[] coords = null;
-        List<int[]>[] bondedPairs = null;
-        List<int[]>[] bondedTriplets = null;
-        List<int[]>[] bondedQuads = null;
+        double[][] coords = null;
+        List<int[]> bondedPairs = new ArrayList<int[]>();
+        List<int[]> bondedTriplets = new ArrayList<int[]>();
+        List<int[]> bondedQuads = new ArrayList<int[]>();
+        List<Integer> pairTypes = new ArrayList<Integer>();
+        List<Integer> tripletTypes = new ArrayList<Integer>();
+        List<Integer> quadTypes = new ArrayList<Integer>();
         char symbol = 'A';
         double[] sigma = null;
         double[] epsilon = null;
@@ -64,45 +77,34 @@ public class ParserLAMMPS {
     			if (line.matches("[0-9]* atoms")) {
     				int n = Integer.parseInt(fields[0]);
     				atomTypeId = new int[n];
-    				charges = new double[n+1];
-    				coords = new IVectorMutable[n];
+    				charges = new double[n];
+    				coords = new double[n][];
     				continue;
     			}
     			if (line.matches("^[0-9]* atom types")) {
     				int n = Integer.parseInt(fields[0]);
-    				atomTypes = new IAtomType[n];
-    				atomCounts = new int[n];
+    				typeNames = new String[n];
+    				masses = new double[n];
     				sigma = new double[n];
     				epsilon = new double[n];
     				continue;
     			}
     			if (line.matches("[0-9]* bond types")) {
-    				p2Bonds = new P2Harmonic[Integer.parseInt(fields[0])+1];
-    				bondedPairs = new ArrayList[p2Bonds.length];
-    				for (int i=0; i<p2Bonds.length; i++) {
-    					bondedPairs[i] = new ArrayList<int[]>();
-    				}
+    				bondCoeffs = new double[Integer.parseInt(fields[0])+1][];
     				continue;
     			}
     			if (line.matches("[0-9]* angle types")) {
-    				p3Bonds = new P3BondAngle[Integer.parseInt(fields[0])+1];
-    				bondedTriplets = new ArrayList[p3Bonds.length];
-    				for (int i=0; i<p3Bonds.length; i++) {
-    					bondedTriplets[i] = new ArrayList<int[]>();
-    				}
+    				angleCoeffs = new double[Integer.parseInt(fields[0])+1][];
     				continue;
     			}
     			if (line.matches("[0-9]* dihedral types")) {
-    				p4Bonds = new P4BondTorsionOPLS[Integer.parseInt(fields[0])+1];
-    				bondedQuads = new ArrayList[p4Bonds.length];
-    				for (int i=0; i<p4Bonds.length; i++) {
-    					bondedQuads[i] = new ArrayList<int[]>();
-    				}
+    				dihedralCoeffs = new double[Integer.parseInt(fields[0])+1][];
     				continue;
     			}
         		if (heading.matches("masses")) {
         			int idx = Integer.parseInt(fields[0]);
-        			atomTypes[idx-1] = new AtomTypeLeaf(new ElementSimple(symbol+"", Double.parseDouble(fields[1])));
+        			typeNames[idx-1] = symbol+"";
+        			masses[idx-1] = Double.parseDouble(fields[1]);
         			symbol++;
         			continue;
         		}
@@ -115,57 +117,91 @@ public class ParserLAMMPS {
         		if (heading.matches("bond coeffs.*")) {
         			// lammps has U = K*(r-r0)^2   http://lammps.sandia.gov/doc/bond_harmonic.html
         			// P2Harmonic does U = 0.5*w*(r-r0)^2
-        			p2Bonds[Integer.parseInt(fields[0])] = new P2Harmonic(opts.space, 2*eUnit.toSim(Double.parseDouble(fields[2])), Double.parseDouble(fields[1]));
+        			bondCoeffs[Integer.parseInt(fields[0])] = new double[]{2*eUnit.toSim(Double.parseDouble(fields[1])), Double.parseDouble(fields[2])};
         		}
         		if (heading.matches("angle coeffs.*")) {
-        			int idx = Integer.parseInt(fields[0]);
-        			p3Bonds[idx] = new P3BondAngle(opts.space);
-        			p3Bonds[idx].setEpsilon(2*eUnit.toSim(Double.parseDouble(fields[1])));
-        			p3Bonds[idx].setAngle(Double.parseDouble(fields[2])*180/Math.PI);
+        			// U = K*(theta-theta0)^2, with theta0 in degrees
+        			angleCoeffs[Integer.parseInt(fields[0])] = new double[]{2*eUnit.toSim(Double.parseDouble(fields[1])), Double.parseDouble(fields[2])*Math.PI/180};
         		}
         		if (heading.matches("dihedral coeffs.*")) {
-        			int idx = Integer.parseInt(fields[0]);
-        			p4Bonds[idx] = new P4BondTorsionOPLS(opts.space, eUnit.toSim(Double.parseDouble(fields[1])), eUnit.toSim(Double.parseDouble(fields[2])),
-        			        eUnit.toSim(Double.parseDouble(fields[3])), eUnit.toSim(Double.parseDouble(fields[4])));
+        			dihedralCoeffs[Integer.parseInt(fields[0])] = new double[]{eUnit.toSim(Double.parseDouble(fields[1])), eUnit.toSim(Double.parseDouble(fields[2])),
+        			        eUnit.toSim(Double.parseDouble(fields[3])), eUnit.toSim(Double.parseDouble(fields[4]))};
         		}
         		if (heading.equals("atoms")) {
         			int idx = Integer.parseInt(fields[0]);
-        			int molIdx = Integer.parseInt(fields[1]);
         			atomTypeId[idx-1] = Integer.parseInt(fields[2])-1;
-        			atomCounts[atomTypeId[idx-1]]++;
-        			charges[idx] = Double.parseDouble(fields[3]);
-        			coords[idx-1] = opts.space.makeVector();
-        			coords[idx-1].setX(0, Double.parseDouble(fields[4]));
-        			coords[idx-1].setX(1, Double.parseDouble(fields[5]));
-        			coords[idx-1].setX(2, Double.parseDouble(fields[6]));
+        			charges[idx-1] = Double.parseDouble(fields[3]);
+        			coords[idx-1] = new double[]{Double.parseDouble(fields[4]), Double.parseDouble(fields[5]), Double.parseDouble(fields[6])};
         		}
         		if (heading.equals("bonds")) {
-        			int idx = Integer.parseInt(fields[1]);
-        			bondedPairs[idx].add(new int[]{Integer.parseInt(fields[2])-1, Integer.parseInt(fields[3])-1});
+        			pairTypes.add(Integer.parseInt(fields[1]));
+        			bondedPairs.add(new int[]{Integer.parseInt(fields[2])-1, Integer.parseInt(fields[3])-1});
         		}
         		if (heading.equals("angles")) {
-        			int idx = Integer.parseInt(fields[1]);
-        			bondedTriplets[idx].add(new int[]{Integer.parseInt(fields[2])-1, Integer.parseInt(fields[3])-1, Integer.parseInt(fields[4])-1});
+        			tripletTypes.add(Integer.parseInt(fields[1]));
+        			bondedTriplets.add(new int[]{Integer.parseInt(fields[2])-1, Integer.parseInt(fields[3])-1, Integer.parseInt(fields[4])-1});
         		}
         		if (heading.equals("dihedrals")) {
-        			int idx = Integer.parseInt(fields[1]);
-        			bondedQuads[idx].add(new int[]{Integer.parseInt(fields[2])-1, Integer.parseInt(fields[3])-1, Integer.parseInt(fields[4])-1, Integer.parseInt(fields[5])-1});
+        			quadTypes.add(Integer.parseInt(fields[1]));
+        			bondedQuads.add(new int[]{Integer.parseInt(fields[2])-1, Integer.parseInt(fields[3])-1, Integer.parseInt(fields[4])-1, Integer.parseInt(fields[5])-1});
         		}
         	}
         	else {
         		heading = line.toLowerCase();
         	}
         }
+
+        Topology topology = new Topology();
+        topology.typeNames = typeNames;
+        topology.typeMasses = masses;
+        topology.typeSigma = sigma;
+        topology.typeEpsilon = epsilon;
+        topology.atomTypes = atomTypeId;
+        topology.charges = charges;
+        topology.coordinates = coords;
+        topology.bonds = bondedPairs.toArray(new int[0][0]);
+        topology.bondParameters = lookupCoeffs(pairTypes, bondCoeffs);
+        topology.angles = bondedTriplets.toArray(new int[0][0]);
+        topology.angleParameters = lookupCoeffs(tripletTypes, angleCoeffs);
+        topology.dihedrals = bondedQuads.toArray(new int[0][0]);
+        topology.dihedralParameters = lookupCoeffs(quadTypes, dihedralCoeffs);
+        topology.pairs = new int[0][0];
+        topology.pairParameters = new double[0][0];
+        return topology;
+	}
+
+	private static double[][] lookupCoeffs(List<Integer> types, double[][] coeffs) {
+	    double[][] parameters = new double[types.size()][];
+	    for (int i=0; i<parameters.length; i++) {
+	        parameters[i] = coeffs[types.get(i)];
+	    }
+	    return parameters;
+	}
+
+	/**
+	 * Makes the species and potentials described by the topology.  The
+	 * species' conformation is taken from the coordinates of the first
+	 * molecule.  Bonded terms with identical parameters share a potential.
+	 */
+	public static Stuff makeStuff(Topology topology, Options opts) {
+	    IAtomType[] atomTypes = new IAtomType[topology.typeNames.length];
+	    for (int i=0; i<atomTypes.length; i++) {
+	        atomTypes[i] = new AtomTypeLeaf(new ElementSimple(topology.typeNames[i], topology.typeMasses[i]));
+	    }
+	    int nAtoms = topology.getAtomCount();
+	    IVectorMutable[] coords = new IVectorMutable[nAtoms];
+	    for (int i=0; i<nAtoms; i++) {
+	        coords[i] = opts.space.makeVector();
+	        coords[i].E(topology.coordinates[i]);
+	    }
         SpeciesSpheresCustom species = new SpeciesSpheresCustom(opts.space, atomTypes);
-        species.setAtomTypes(atomTypeId);
+        species.setAtomTypes(topology.atomTypes);
         species.setConformation(new ConformationGeneric(coords));
         
         PotentialGroup pInter = new PotentialGroup(2, opts.space);
-        for (int i=1; i<=atomTypes.length; i++) {
-        	for (int j=i; j<=atomTypes.length; j++) {
-        		double sig = (sigma[i-1]+sigma[j-1])*0.5;
-        		double eps = Math.sqrt(epsilon[i-1]*epsilon[j-1]);
-    			IPotentialAtomic p = new P2LennardJones(opts.space, sig, eps);
+        for (int i=0; i<atomTypes.length; i++) {
+        	for (int j=i; j<atomTypes.length; j++) {
+    			IPotentialAtomic p = new P2LennardJones(opts.space, topology.mixSigma(i, j), topology.mixEpsilon(i, j));
     			switch (opts.truncation) {
     			case TRUNCATED:
     				p = new P2SoftTruncated((Potential2SoftSpherical)p,  opts.rc, opts.space);
@@ -180,52 +216,107 @@ public class ParserLAMMPS {
     				p = new P2SoftSphericalTruncatedSwitched(opts.space, (Potential2SoftSpherical)p, opts.rc);
     				break;
     			}
-    			pInter.addPotential(p, new IAtomType[]{atomTypes[i-1],atomTypes[j-1]});
+    			pInter.addPotential(p, new IAtomType[]{atomTypes[i],atomTypes[j]});
         	}
         }
         
         PotentialGroup pIntra = new PotentialGroup(1, opts.space);
-        if (p2Bonds != null) {
-	        for (int i=1; i<p2Bonds.length; i++) {
-	        	int[][] pairs = bondedPairs[i].toArray(new int[0][0]);
-	        	ApiIndexList iterator = new ApiIndexList(pairs);
-	        	pIntra.addPotential(p2Bonds[i], iterator);
-	        }
+        List<double[]> parameters = new ArrayList<double[]>();
+        List<int[][]> groups = groupTerms(topology.bonds, topology.bondParameters, parameters);
+        for (int i=0; i<groups.size(); i++) {
+            double[] p = parameters.get(i);
+            pIntra.addPotential(new P2Harmonic(opts.space, p[0], p[1]), new ApiIndexList(groups.get(i)));
         }
-        if (p3Bonds != null) {
-	        for (int i=1; i<p3Bonds.length; i++) {
-	        	int[][] triplets = bondedTriplets[i].toArray(new int[0][0]);
-	        	Atomset3IteratorIndexList iterator = new Atomset3IteratorIndexList(triplets);
-	        	pIntra.addPotential(p3Bonds[i], iterator);
-	        }
+        groups = groupTerms(topology.angles, topology.angleParameters, parameters);
+        for (int i=0; i<groups.size(); i++) {
+            double[] p = parameters.get(i);
+            P3BondAngle p3 = new P3BondAngle(opts.space);
+            p3.setEpsilon(p[0]);
+            p3.setAngle(p[1]);
+            pIntra.addPotential(p3, new Atomset3IteratorIndexList(groups.get(i)));
         }
-        if (p4Bonds != null) {
-	        for (int i=1; i<p4Bonds.length; i++) {
-	        	int[][] quads = bondedQuads[i].toArray(new int[0][0]);
-	        	Atomset4IteratorIndexList iterator = new Atomset4IteratorIndexList(quads);
-	        	pIntra.addPotential(p4Bonds[i], iterator);
-	        }
+        groups = groupTerms(topology.dihedrals, topology.dihedralParameters, parameters);
+        for (int i=0; i<groups.size(); i++) {
+            double[] p = parameters.get(i);
+            pIntra.addPotential(new P4BondTorsionOPLS(opts.space, p[0], p[1], p[2], p[3]), new Atomset4IteratorIndexList(groups.get(i)));
+        }
+        groups = groupTerms(topology.pairs, topology.pairParameters, parameters);
+        for (int i=0; i<groups.size(); i++) {
+            double[] p = parameters.get(i);
+            pIntra.addPotential(new P2LennardJones(opts.space, p[0], p[1]), new ApiIndexList(groups.get(i)));
         }
 
 		return new Stuff(pIntra, pInter, species);
 	}
 
+	/**
+	 * Sorts the terms into groups having identical parameters.  The
+	 * parameters of each group are returned in groupParameters.
+	 */
+	protected static List<int[][]> groupTerms(int[][] terms, double[][] termParameters, List<double[]> groupParameters) {
+	    groupParameters.clear();
+	    List<List<int[]>> groups = new ArrayList<List<int[]>>();
+	    for (int i=0; i<terms.length; i++) {
+	        int g = 0;
+	        while (g < groupParameters.size() && !Arrays.equals(groupParameters.get(g), termParameters[i])) {
+	            g++;
+	        }
+	        if (g == groupParameters.size()) {
+	            groupParameters.add(termParameters[i]);
+	            groups.add(new ArrayList<int[]>());
+	        }
+	        groups.get(g).add(terms[i]);
+	    }
+	    List<int[][]> groupTerms = new ArrayList<int[][]>();
+	    for (List<int[]> group : groups) {
+	        groupTerms.add(group.toArray(new int[0][0]));
+	    }
+	    return groupTerms;
+	}
+
 	public static Stuff makeStuff(String fileName, Options opts) {
+	    return makeStuff(readTopology(new File(fileName)), opts);
+	}
+
+	/**
+	 * Reads the LAMMPS data file, or takes its topology from the
+	 * TopologyCache if the file has been read before.
+	 */
+	public static Topology readTopology(File file) {
+	    String key = null;
+	    try {
+	        key = TopologyCache.makeKey("lammps", file);
+	    }
+	    catch (IOException e) {
+	        throw new RuntimeException("Cannot open "+file+", caught IOException: " + e.getMessage());
+	    }
+	    Topology topology = TopologyCache.load(key);
+	    if (topology == null) {
+	        topology = readTopologyFromLines(readLines(file, true));
+	        TopologyCache.store(key, topology);
+	    }
+	    return topology;
+	}
+
+	/**
+	 * Returns the lines of the file, trimmed if requested.
+	 */
+	protected static List<String> readLines(File file, boolean trim) {
         FileReader fileReader;
         try {
-            fileReader = new FileReader(fileName);
+            fileReader = new FileReader(file);
         }catch(IOException e) {
-            throw new RuntimeException("Cannot open "+fileName+", caught IOException: " + e.getMessage());
+            throw new RuntimeException("Cannot open "+file+", caught IOException: " + e.getMessage());
         }
         List<String> lines = new ArrayList<String>();
         try {
             BufferedReader bufReader = new BufferedReader(fileReader);
             String line = null;
             while ((line = bufReader.readLine()) != null) {
-            	lines.add(line.trim());
+            	lines.add(trim ? line.trim() : line);
             }
             bufReader.close();
-            return makeStuffFromLines(lines, opts);
+            return lines;
         }
         catch (IOException ex) {
         	throw new RuntimeException(ex);
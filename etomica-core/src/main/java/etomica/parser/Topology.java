@@ -0,0 +1,205 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.parser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Force-field description of a system of identical molecules, as read from a
+ * topology file by {@link ParserLAMMPS} or {@link ParserGromacs}.  This is the
+ * parsed file in a form that no longer depends on the file format; the
+ * parsers turn it into a species and potentials, and {@link TopologyCache}
+ * stores it so that files need only be parsed once.
+ * <p>
+ * All quantities are in simulation units: lengths in Angstroms, energies in
+ * simulation energy units and angles in radians.  Atom indices in the bonded
+ * lists refer to atoms within the molecule and start at 0.  Each bonded term
+ * carries its own parameters:
+ * <ul>
+ * <li>bonds: {w, r0} for U = 0.5*w*(r-r0)^2 ({@link etomica.potential.P2Harmonic})
+ * <li>angles: {epsilon, theta0} for U = 0.5*epsilon*(theta-theta0)^2
+ *     ({@link etomica.potential.P3BondAngle})
+ * <li>dihedrals: {a0, a1, a2, a3}, the OPLS Fourier coefficients
+ *     ({@link etomica.potential.P4BondTorsionOPLS})
+ * <li>pairs: {sigma, epsilon}, Lennard-Jones interaction between atoms of
+ *     the same molecule (1-4 pairs)
+ * </ul>
+ */
+public class Topology {
+
+    /**
+     * Lennard-Jones sigma is the arithmetic mean of the atom type sigmas
+     * (Lorentz-Berthelot).
+     */
+    public static final int COMBINATION_ARITHMETIC = 2;
+    /**
+     * Lennard-Jones sigma is the geometric mean of the atom type sigmas.
+     */
+    public static final int COMBINATION_GEOMETRIC = 3;
+
+    /**
+     * Returns the Lennard-Jones sigma between atom types i and j, combined
+     * according to the combination rule.  Epsilon is always the geometric
+     * mean.
+     */
+    public double mixSigma(int i, int j) {
+        if (combinationRule == COMBINATION_GEOMETRIC) {
+            return Math.sqrt(typeSigma[i]*typeSigma[j]);
+        }
+        return 0.5*(typeSigma[i]+typeSigma[j]);
+    }
+
+    public double mixEpsilon(int i, int j) {
+        return Math.sqrt(typeEpsilon[i]*typeEpsilon[j]);
+    }
+
+    public int getAtomCount() {
+        return atomTypes.length;
+    }
+
+    /**
+     * Writes the topology in a compact binary form that can be read back
+     * with {@link #read(DataInputStream)}.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(typeNames.length);
+        for (int i=0; i<typeNames.length; i++) {
+            out.writeUTF(typeNames[i]);
+        }
+        writeArray(out, typeMasses);
+        writeArray(out, typeSigma);
+        writeArray(out, typeEpsilon);
+        out.writeInt(combinationRule);
+        writeArray(out, atomTypes);
+        writeArray(out, charges);
+        writeArray(out, bonds);
+        writeArray(out, bondParameters);
+        writeArray(out, angles);
+        writeArray(out, angleParameters);
+        writeArray(out, dihedrals);
+        writeArray(out, dihedralParameters);
+        writeArray(out, pairs);
+        writeArray(out, pairParameters);
+        out.writeInt(moleculeCount);
+        writeArray(out, coordinates);
+        out.writeBoolean(boxSize != null);
+        if (boxSize != null) {
+            writeArray(out, boxSize);
+        }
+    }
+
+    /**
+     * Reads a topology written by {@link #write(DataOutputStream)}.
+     */
+    public static Topology read(DataInputStream in) throws IOException {
+        Topology topology = new Topology();
+        topology.typeNames = new String[in.readInt()];
+        for (int i=0; i<topology.typeNames.length; i++) {
+            topology.typeNames[i] = in.readUTF();
+        }
+        topology.typeMasses = readDoubles(in);
+        topology.typeSigma = readDoubles(in);
+        topology.typeEpsilon = readDoubles(in);
+        topology.combinationRule = in.readInt();
+        topology.atomTypes = readInts(in);
+        topology.charges = readDoubles(in);
+        topology.bonds = readInts2(in);
+        topology.bondParameters = readDoubles2(in);
+        topology.angles = readInts2(in);
+        topology.angleParameters = readDoubles2(in);
+        topology.dihedrals = readInts2(in);
+        topology.dihedralParameters = readDoubles2(in);
+        topology.pairs = readInts2(in);
+        topology.pairParameters = readDoubles2(in);
+        topology.moleculeCount = in.readInt();
+        topology.coordinates = readDoubles2(in);
+        if (in.readBoolean()) {
+            topology.boxSize = readDoubles(in);
+        }
+        return topology;
+    }
+
+    private static void writeArray(DataOutputStream out, int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int i=0; i<a.length; i++) {
+            out.writeInt(a[i]);
+        }
+    }
+
+    private static void writeArray(DataOutputStream out, double[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int i=0; i<a.length; i++) {
+            out.writeDouble(a[i]);
+        }
+    }
+
+    private static void writeArray(DataOutputStream out, int[][] a) throws IOException {
+        out.writeInt(a.length);
+        for (int i=0; i<a.length; i++) {
+            writeArray(out, a[i]);
+        }
+    }
+
+    private static void writeArray(DataOutputStream out, double[][] a) throws IOException {
+        out.writeInt(a.length);
+        for (int i=0; i<a.length; i++) {
+            writeArray(out, a[i]);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] a = new int[in.readInt()];
+        for (int i=0; i<a.length; i++) {
+            a[i] = in.readInt();
+        }
+        return a;
+    }
+
+    private static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] a = new double[in.readInt()];
+        for (int i=0; i<a.length; i++) {
+            a[i] = in.readDouble();
+        }
+        return a;
+    }
+
+    private static int[][] readInts2(DataInputStream in) throws IOException {
+        int[][] a = new int[in.readInt()][];
+        for (int i=0; i<a.length; i++) {
+            a[i] = readInts(in);
+        }
+        return a;
+    }
+
+    private static double[][] readDoubles2(DataInputStream in) throws IOException {
+        double[][] a = new double[in.readInt()][];
+        for (int i=0; i<a.length; i++) {
+            a[i] = readDoubles(in);
+        }
+        return a;
+    }
+
+    /** names of the atom types */
+    public String[] typeNames;
+    public double[] typeMasses;
+    public double[] typeSigma;
+    public double[] typeEpsilon;
+    /** how sigma is combined for unlike atom types */
+    public int combinationRule = COMBINATION_ARITHMETIC;
+    /** atom type of each atom in the molecule */
+    public int[] atomTypes;
+    /** charge of each atom in the molecule, in units of the elementary charge */
+    public double[] charges;
+    public int[][] bonds, angles, dihedrals, pairs;
+    public double[][] bondParameters, angleParameters, dihedralParameters, pairParameters;
+    /** number of copies of the molecule in the system */
+    public int moleculeCount = 1;
+    /** position of every atom in the system, molecule by molecule */
+    public double[][] coordinates;
+    /** edge lengths of the rectangular box, or null if the file had no box */
+    public double[] boxSize;
+}
@@ -0,0 +1,140 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps parsed {@link Topology} objects on disk so that a topology file is
+ * only parsed the first time it is used.  Entries are keyed by the SHA-256
+ * hash of the contents of the input files, so an edited file is parsed
+ * again, while a copy of a file under another name is not.
+ * <p>
+ * The cache directory is taken from the etomica.topologyCache system
+ * property, or defaults to .etomica/topology-cache in the user's home
+ * directory.  Problems reading or writing the cache are never fatal; the
+ * files are simply parsed again.
+ */
+public class TopologyCache {
+
+    /**
+     * Sets the directory that holds the cached topologies.  A null directory
+     * disables the cache.
+     */
+    public static void setCacheDirectory(File newCacheDirectory) {
+        cacheDirectory = newCacheDirectory;
+    }
+
+    public static File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Returns the cache key for a topology parsed from the given files by
+     * the named format.
+     */
+    public static String makeKey(String format, File... files) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update((format+" "+VERSION).getBytes("UTF-8"));
+        byte[] buffer = new byte[65536];
+        for (File file : files) {
+            // separate the files so that moving bytes from one to the next changes the key
+            digest.update((byte)0);
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached topology with the given key, or null if there is
+     * none (or it cannot be read).
+     */
+    public static Topology load(String key) {
+        if (cacheDirectory == null) return null;
+        File file = new File(cacheDirectory, key+".top.bin");
+        if (!file.exists()) return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                return Topology.read(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            // truncated or otherwise unreadable; the caller parses the files again
+            return null;
+        }
+    }
+
+    /**
+     * Stores the topology under the given key.  The file is written under a
+     * temporary name and then renamed, so that a concurrent load never sees
+     * a partial entry.
+     */
+    public static void store(String key, Topology topology) {
+        if (cacheDirectory == null) return;
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) return;
+        File file = new File(cacheDirectory, key+".top.bin");
+        try {
+            File tmpFile = File.createTempFile(key, ".tmp", cacheDirectory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                topology.write(out);
+            }
+            finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+            }
+        }
+        catch (IOException e) {
+            // the cache is only an optimization
+        }
+    }
+
+    /** "ETOP" */
+    protected static final int MAGIC = 0x45544f50;
+    /** bump when the Topology format or the parsers' interpretation of a file changes */
+    protected static final int VERSION = 1;
+    protected static File cacheDirectory = new File(System.getProperty("etomica.topologyCache",
+            System.getProperty("user.home")+File.separator+".etomica"+File.separator+"topology-cache"));
+}
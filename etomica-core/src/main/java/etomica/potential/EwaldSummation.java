@@ -14,6 +14,7 @@ import etomica.api.IMoleculeList;
 import etomica.api.IVector;
 import etomica.api.IVectorMutable;
 import etomica.atom.AtomLeafAgentManager;
+import etomica.math.FastFunctions;
 import etomica.space.ISpace;
 import etomica.space.Tensor;
 import etomica.space3d.Tensor3D;
@@ -47,6 +48,7 @@ public class EwaldSummation implements PotentialSoft{
     protected double rCutRealES, rCutSquared, kCut;
     protected final double sqrtPI = Math.sqrt(Math.PI);
     protected boolean doRealSum = true;
+    protected boolean useFastFunctions;
 
 	// *********************************************** constructor ************************************ // 
     public EwaldSummation(IBox box, AtomLeafAgentManager<MyCharge> atomAgentManager, ISpace _space, double kCut, double rCutRealES){
@@ -112,6 +114,27 @@ public class EwaldSummation implements PotentialSoft{
         return rCutRealES;
     }
 
+    /**
+     * Sets whether erfc and exp are computed with the table-driven versions
+     * in FastFunctions (relative error below 1e-14) rather than with
+     * Erf.erfc and Math.exp.  Default is false.
+     */
+    public void setUseFastFunctions(boolean newUseFastFunctions) {
+        useFastFunctions = newUseFastFunctions;
+    }
+
+    public boolean getUseFastFunctions() {
+        return useFastFunctions;
+    }
+
+    protected double erfc(double x) {
+        return useFastFunctions ? FastFunctions.erfc(x) : Erf.erfc(x);
+    }
+
+    protected double exp(double x) {
+        return useFastFunctions ? FastFunctions.exp(x) : Math.exp(x);
+    }
+
     //////////////////////////////////////////// begin calculating energy //////////////////////////////////////
 
     // *********************************************************************************************//
@@ -156,7 +179,7 @@ public class EwaldSummation implements PotentialSoft{
                             double r2 = drTmp.squared();
                             if(r2 > rCutSquared) continue;
                             double drTmpM = Math.sqrt(r2);
-                            double tmepReal = chargeA * chargeB * Erf.erfc(alpha * drTmpM) / drTmpM;//Don't worry about 1/2 factor;j>i
+                            double tmepReal = chargeA * chargeB * erfc(alpha * drTmpM) / drTmpM;//Don't worry about 1/2 factor;j>i
                             uReal+= (isSelf ? 0.5 : 1.0)*tmepReal;
                         }
                     }
@@ -188,7 +211,7 @@ public class EwaldSummation implements PotentialSoft{
 
                     if (kSquared > kCutSquared) continue;// k-vector should be within the sphere with kCutoff as the radius
 
-                    double kCoefficientTerm = Math.exp(-0.25 * kSquared / alpha2) / kSquared;//exp(-k*k/4/alpha/alpha) / k/k , a constant for a given kVector
+                    double kCoefficientTerm = exp(-0.25 * kSquared / alpha2) / kSquared;//exp(-k*k/4/alpha/alpha) / k/k , a constant for a given kVector
                     double structureFactorReal =  0.0;//>>>>>>>>>>>>> calculated from cos*cos + sin*sin
                     double structureFactorImagine =  0.0;//>>>>>>>>>>>>> calculated from cos*cos + sin*sin
                     for (int i=0; i<nAtoms; i++){
@@ -349,7 +372,7 @@ public class EwaldSummation implements PotentialSoft{
                                 if (rAB2 > rCutSquared) continue; 
                                 double rABMagnitude = Math.sqrt(rAB2);
                                 double rAB3 = rABMagnitude*rAB2;
-                                double B = Erf.erfc(alpha*rABMagnitude) + 2.0*alpha*rABMagnitude/sqrtPI * Math.exp(-alpha2*rAB2) ;
+                                double B = erfc(alpha*rABMagnitude) + 2.0*alpha*rABMagnitude/sqrtPI * exp(-alpha2*rAB2) ;
                                 double realCoeff = - chargeA*chargeB * B / rAB3; // gradU = -F
                                 gradient[i].PEa1Tv1(realCoeff, drTmp);
                                 gradient[j].PEa1Tv1(-realCoeff, drTmp);
@@ -384,7 +407,7 @@ public class EwaldSummation implements PotentialSoft{
                         sSinkr += chargej*sinkrj[j]; 
                     }//End loop over j
 
-                    double coeffk = coeff / kSquared * Math.exp(-kSquared/4.0/alpha2);
+                    double coeffk = coeff / kSquared * exp(-kSquared/4.0/alpha2);
                     for(int i=0; i<nAtoms; i++){
                         IAtom atom = box.getLeafList().getAtom(i);
                         double chargei = atomAgentManager.getAgent(atom).charge;
@@ -414,7 +437,7 @@ public class EwaldSummation implements PotentialSoft{
                     box.getBoundary().nearestImage(rAB);
                     double rAB2 = rAB.squared();
                     double rABMagnitude = Math.sqrt(rAB2);
-                    double B = 2*alpha/sqrtPI * Math.exp(-alpha2*rAB2)-Erf.erf(alpha*rABMagnitude)/rABMagnitude; 
+                    double B = 2*alpha/sqrtPI * exp(-alpha2*rAB2)-Erf.erf(alpha*rABMagnitude)/rABMagnitude; 
                     double coeffAB = - chargeA*chargeB * B / rAB2; // gradU = -F
                     gradient[atomA.getLeafIndex()].PEa1Tv1(coeffAB, rAB);
                     gradient[atomB.getLeafIndex()].PEa1Tv1(-coeffAB, rAB);
@@ -451,7 +474,7 @@ public class EwaldSummation implements PotentialSoft{
                     double kSquared = kVector.squared();
                     if (kSquared > kCutSquared) continue;// k-vector should be within the sphere with kCutoff as the radius
                     tempTensorkk.Ev1v2(kVector, kVector);
-                    tempTensorkk.TE(Math.exp(-kSquared/4.0/alpha2) * Math.cos(kVector.dot(rAB))/kSquared);
+                    tempTensorkk.TE(exp(-kSquared/4.0/alpha2) * Math.cos(kVector.dot(rAB))/kSquared);
                     secondDerivative.PE(tempTensorkk);
                 }
             }
@@ -473,8 +496,8 @@ public class EwaldSummation implements PotentialSoft{
                     double rAB3 = rABMagnitude*rAB2;
                     double rAB4 = rAB2*rAB2;
                     double rAB5 = rABMagnitude*rAB4;
-                    double erfc = Erf.erfc(alpha*rABMagnitude);
-                    double exp_Alpha2r2 = Math.exp(-alpha2*rAB2);
+                    double erfc = erfc(alpha*rABMagnitude);
+                    double exp_Alpha2r2 = exp(-alpha2*rAB2);
                     double B0 = (6*alpha/rAB4 + 4*alpha3/rAB2)/sqrtPI * exp_Alpha2r2;
 
                     tempTensorkk.Ev1v2(drTmp, drTmp);
@@ -564,7 +587,7 @@ public class EwaldSummation implements PotentialSoft{
             double r2 = rAB.squared();
             if(r2 > rCutSquared) return 0;
             double r = Math.sqrt(r2);
-            return chargeA * chargeB * Erf.erfc(alpha * r) / r;//Don't worry about 1/2 factor!
+            return chargeA * chargeB * erfc(alpha * r) / r;//Don't worry about 1/2 factor!
         }
 
         public double getRange() {
@@ -603,7 +626,7 @@ public class EwaldSummation implements PotentialSoft{
 
             double rABMagnitude = Math.sqrt(rAB2);
             double rAB3 = rABMagnitude*rAB2;
-            double B = Erf.erfc(alpha*rABMagnitude) + 2.0*alpha*rABMagnitude/sqrtPI * Math.exp(-alpha2*rAB2) ;
+            double B = erfc(alpha*rABMagnitude) + 2.0*alpha*rABMagnitude/sqrtPI * exp(-alpha2*rAB2) ;
             double realCoeff = - chargeA*chargeB * B / rAB3; // gradU = -F
             gradient2[0].Ea1Tv1(realCoeff, rAB);
             gradient2[1].Ea1Tv1(-realCoeff, rAB);
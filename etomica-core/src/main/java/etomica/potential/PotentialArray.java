@@ -77,7 +77,7 @@ public class PotentialArray implements java.io.Serializable {
     public int removePotential(IPotential potential) {
         for (int i=0; i<potentials.length; i++) {
     		if (potentials[i] == potential) {
-    	    	Potential[] newPotentials = new Potential[potentials.length-1];
+    	    	IPotential[] newPotentials = new IPotential[potentials.length-1];
     	    	System.arraycopy(potentials,0,newPotentials,0,i);
     	    	System.arraycopy(potentials,i+1,newPotentials,i,potentials.length-i-1);
     	    	potentials = newPotentials;
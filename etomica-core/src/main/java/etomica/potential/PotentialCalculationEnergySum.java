@@ -18,7 +18,7 @@ import etomica.api.IPotentialMolecular;
  *
  * @author David Kofke
  */
-public class PotentialCalculationEnergySum implements PotentialCalculation, PotentialCalculationMolecular, java.io.Serializable {
+public class PotentialCalculationEnergySum implements PotentialCalculationParallel, PotentialCalculationMolecular, java.io.Serializable {
 
     public static boolean debug = false;
     
@@ -48,6 +48,19 @@ public class PotentialCalculationEnergySum implements PotentialCalculation, Pote
         }
     }
     
+    public PotentialCalculationParallel makeWorkerCalculation() {
+        if (getClass() != PotentialCalculationEnergySum.class) {
+            // a subclass might do more than sum the energy
+            return null;
+        }
+        return new PotentialCalculationEnergySum();
+    }
+
+    public void addWorkerResults(PotentialCalculationParallel worker) {
+        sum += ((PotentialCalculationEnergySum)worker).sum;
+        ((PotentialCalculationEnergySum)worker).zeroSum();
+    }
+
 	/**
 	 * Sets the energy sum to zero, typically to begin a new energy-sum calculation.
 	 */
@@ -45,6 +45,15 @@ public class PotentialCalculationEnergySumBigDecimal extends PotentialCalculatio
         sum = sum.add(u); 
     }
     
+    public PotentialCalculationParallel makeWorkerCalculation() {
+        return new PotentialCalculationEnergySumBigDecimal(precision);
+    }
+
+    public void addWorkerResults(PotentialCalculationParallel worker) {
+        sum = sum.add(((PotentialCalculationEnergySumBigDecimal)worker).sum);
+        ((PotentialCalculationEnergySumBigDecimal)worker).zeroSum();
+    }
+
 	/**
 	 * Sets the energy sum to zero, typically to begin a new energy-sum calculation.
 	 */
@@ -5,16 +5,22 @@
 package etomica.potential;
 
 import etomica.api.IAtomList;
+import etomica.api.IBox;
 import etomica.api.IPotentialAtomic;
 import etomica.api.IVector;
+import etomica.api.IVectorMutable;
 import etomica.atom.AtomLeafAgentManager;
 import etomica.integrator.IntegratorBox;
+import etomica.space.Space;
+import etomica.util.Arrays;
 
 /**
  * Sums the force on each iterated atom and adds it to the integrator agent
- * associated with the atom.
+ * associated with the atom.  The work can be divided among threads; each
+ * worker sums forces into its own vectors, which are added to the agents
+ * afterward.
  */
-public class PotentialCalculationForceSum implements PotentialCalculation {
+public class PotentialCalculationForceSum implements PotentialCalculationParallel {
         
     protected AtomLeafAgentManager<? extends IntegratorBox.Forcible> integratorAgentManager;
     protected AtomLeafAgentManager.AgentIterator<? extends IntegratorBox.Forcible> agentIterator;
@@ -72,4 +78,83 @@ public class PotentialCalculationForceSum implements PotentialCalculation {
                 }
 		}
 	}
+
+    public PotentialCalculationParallel makeWorkerCalculation() {
+        if (getClass() != PotentialCalculationForceSum.class) {
+            // a subclass might do more than sum the forces
+            return null;
+        }
+        return new Worker(integratorAgentManager.getBox());
+    }
+
+    public void addWorkerResults(PotentialCalculationParallel worker) {
+        ((Worker)worker).addTo(integratorAgentManager);
+    }
+
+    /**
+     * Worker that sums forces into its own vectors, indexed by leaf index.
+     */
+    protected static class Worker implements PotentialCalculationParallel {
+
+        public Worker(IBox box) {
+            this.box = box;
+            dim = box.getBoundary().getBoxSize().getD();
+            forces = new IVectorMutable[0];
+            int nLeaf = box.getLeafList().getAtomCount();
+            if (nLeaf > 0) {
+                getForce(nLeaf-1);
+            }
+        }
+
+        public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+            IVector[] f = ((PotentialSoft)potential).gradient(atoms);
+            if (f == null) return;
+            if (potential.nBody() == 0) {
+                atoms = box.getLeafList();
+            }
+            // as above, f might be longer than atoms
+            for (int i=0; i<atoms.getAtomCount(); i++) {
+                getForce(atoms.getAtom(i).getLeafIndex()).ME(f[i]);
+            }
+        }
+
+        protected IVectorMutable getForce(int leafIndex) {
+            if (leafIndex >= forces.length) {
+                int oldLength = forces.length;
+                forces = (IVectorMutable[])Arrays.resizeArray(forces, leafIndex+1);
+                for (int i=oldLength; i<forces.length; i++) {
+                    forces[i] = Space.makeVector(dim);
+                }
+            }
+            return forces[leafIndex];
+        }
+
+        /**
+         * Adds this worker's forces to the agents and zeros them.
+         */
+        public void addTo(AtomLeafAgentManager<? extends IntegratorBox.Forcible> agentManager) {
+            IAtomList leafList = box.getLeafList();
+            int n = Math.min(forces.length, leafList.getAtomCount());
+            for (int i=0; i<n; i++) {
+                agentManager.getAgent(leafList.getAtom(i)).force().PE(forces[i]);
+                forces[i].E(0);
+            }
+        }
+
+        public PotentialCalculationParallel makeWorkerCalculation() {
+            return new Worker(box);
+        }
+
+        public void addWorkerResults(PotentialCalculationParallel worker) {
+            Worker w = (Worker)worker;
+            for (int i=0; i<w.forces.length; i++) {
+                getForce(i).PE(w.forces[i]);
+                w.forces[i].E(0);
+            }
+        }
+
+        protected final IBox box;
+        protected final int dim;
+        protected IVectorMutable[] forces;
+    }
 }
@@ -0,0 +1,139 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+import java.util.HashMap;
+
+import etomica.api.IAtomList;
+import etomica.api.IPotentialAtomic;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomLeafCoordinateArrays;
+import etomica.space.Space;
+
+/**
+ * Sums the force on each iterated atom into the force arrays of an
+ * AtomLeafCoordinateArrays, indexed by the atom's leaf index.  This is the
+ * flat-array counterpart of PotentialCalculationForceSum, which sums into
+ * per-atom agents.
+ * <p>
+ * For spherically symmetric pair potentials (Potential2SoftSpherical
+ * subclasses that do not override gradient), the separation is taken from
+ * the position arrays and only du is called, so the atoms' positions need
+ * not be current.  Any other potential (except a long-range correction)
+ * computes its gradient from the atoms, which are first brought up to date
+ * with updateAtomPositions.
+ */
+public class PotentialCalculationForceSumArrays implements PotentialCalculation {
+
+    public PotentialCalculationForceSumArrays(AtomLeafCoordinateArrays coordinates) {
+        setCoordinates(coordinates);
+    }
+
+    public void setCoordinates(AtomLeafCoordinateArrays newCoordinates) {
+        coordinates = newCoordinates;
+        dr = Space.makeVector(coordinates.getPositions().length);
+    }
+
+    public AtomLeafCoordinateArrays getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * Re-zeros the forces.
+     */
+    public void reset() {
+        coordinates.zeroForces();
+    }
+
+    public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+        if (potential.nBody() == 2 && isSpherical(potential)) {
+            doPair(atoms, (Potential2SoftSpherical)potential);
+            return;
+        }
+        if (!(potential instanceof IPotential0Lrc)) {
+            // long-range corrections only depend on the volume
+            coordinates.updateAtomPositions();
+        }
+        IVector[] g = ((PotentialSoft)potential).gradient(atoms);
+        if (g == null) return;
+        double[][] f = coordinates.getForces();
+        int dim = f.length;
+        if (potential.nBody() == 0) {
+            IAtomList boxAtoms = coordinates.getBox().getLeafList();
+            for (int i=0; i<boxAtoms.getAtomCount(); i++) {
+                for (int k=0; k<dim; k++) {
+                    f[k][i] -= g[i].getX(k);
+                }
+            }
+            return;
+        }
+        // as in PotentialCalculationForceSum, g might be longer than atoms
+        for (int i=0; i<atoms.getAtomCount(); i++) {
+            int idx = atoms.getAtom(i).getLeafIndex();
+            for (int k=0; k<dim; k++) {
+                f[k][idx] -= g[i].getX(k);
+            }
+        }
+    }
+
+    /**
+     * Adds the forces from a spherical pair potential, reading the positions
+     * from the arrays.  This matches Potential2SoftSpherical.gradient.
+     */
+    protected void doPair(IAtomList atoms, Potential2SoftSpherical p2) {
+        int i0 = atoms.getAtom(0).getLeafIndex();
+        int i1 = atoms.getAtom(1).getLeafIndex();
+        double[][] r = coordinates.getPositions();
+        double[][] f = coordinates.getForces();
+        int dim = r.length;
+        for (int k=0; k<dim; k++) {
+            dr.setX(k, r[k][i1] - r[k][i0]);
+        }
+        coordinates.getBox().getBoundary().nearestImage(dr);
+        double r2 = dr.squared();
+        if (r2 < 1.e-10) return;
+        double s = p2.du(r2)/r2;
+        for (int k=0; k<dim; k++) {
+            double fk = s*dr.getX(k);
+            f[k][i0] += fk;
+            f[k][i1] -= fk;
+        }
+    }
+
+    /**
+     * Returns true if the potential is a Potential2SoftSpherical whose
+     * gradient is the one it inherits, which depends only on the separation.
+     */
+    protected boolean isSpherical(IPotentialAtomic potential) {
+        Class<?> c = potential.getClass();
+        if (c == lastClass) {
+            // usually the same potential as last time
+            return lastSpherical;
+        }
+        Boolean spherical = sphericalClasses.get(c);
+        if (spherical == null) {
+            spherical = Boolean.FALSE;
+            if (potential instanceof Potential2SoftSpherical) {
+                try {
+                    spherical = c.getMethod("gradient", IAtomList.class).getDeclaringClass() == Potential2SoftSpherical.class;
+                }
+                catch (NoSuchMethodException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            sphericalClasses.put(c, spherical);
+        }
+        lastClass = c;
+        lastSpherical = spherical;
+        return spherical;
+    }
+
+    protected AtomLeafCoordinateArrays coordinates;
+    protected IVectorMutable dr;
+    protected final HashMap<Class<?>,Boolean> sphericalClasses = new HashMap<Class<?>,Boolean>();
+    protected Class<?> lastClass;
+    protected boolean lastSpherical;
+}
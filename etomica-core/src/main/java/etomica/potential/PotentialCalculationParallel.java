@@ -0,0 +1,29 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+/**
+ * PotentialCalculation whose work can be divided among several threads.  Each
+ * thread performs its share of the calculation with its own worker instance,
+ * and the results of the workers are then added into the original.
+ */
+public interface PotentialCalculationParallel extends PotentialCalculation {
+
+    /**
+     * Returns a new instance that performs the same calculation as this one,
+     * with its results initially zero, or null if the calculation can't be
+     * divided (for instance, a subclass that collects more than its
+     * superclass's worker would).  A worker may be reused for later
+     * calculations.
+     */
+    public PotentialCalculationParallel makeWorkerCalculation();
+
+    /**
+     * Adds the results accumulated by the given worker (returned earlier by
+     * makeWorkerCalculation) to this calculation's results, and zeros the
+     * worker's results so that it can be used again.
+     */
+    public void addWorkerResults(PotentialCalculationParallel worker);
+}
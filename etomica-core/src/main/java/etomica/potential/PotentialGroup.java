@@ -164,6 +164,8 @@ public class PotentialGroup extends PotentialMolecular {
         for (PotentialLinker link=first; link!= null; link=link.next) {	
             if(!link.enabled) continue;
             //if(firstIterate) ((AtomsetIteratorBasisDependent)link.iterator).setDirective(id);
+            // clear any target left from a calculation for a target atom
+            link.iterator.setTarget(null);
             link.iterator.setBasis(basisAtoms);
             link.iterator.reset();
             for (IAtomList atoms = link.iterator.next(); atoms != null; atoms = link.iterator.next()) {
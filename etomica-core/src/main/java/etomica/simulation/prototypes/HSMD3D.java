@@ -22,6 +22,7 @@ import etomica.graphics.DisplayBox;
 import etomica.graphics.DisplayPlot;
 import etomica.graphics.SimulationGraphic;
 import etomica.integrator.IntegratorHard;
+import etomica.integrator.IntegratorHardCell;
 import etomica.lattice.LatticeCubicFcc;
 import etomica.lattice.LatticeOrthorhombicHexagonal;
 import etomica.listener.IntegratorListenerAction;
@@ -89,16 +90,29 @@ public class HSMD3D extends Simulation {
         // the PotentialMaster is selected such as to implement neighbor listing
         super(_space);
 
-        potentialMaster = params.useNeighborLists ? new PotentialMasterList(this, 3.0, space) : new PotentialMasterMonatomic(this);
-
         int numAtoms = params.nAtoms;
         double neighborRangeFac = 1.5;
         double sigma = 1.0;
-        if (params.useNeighborLists) {
+        if (params.useCells) {
+            // cells just big enough for the collision diameter, with atoms
+            // tracked through cell crossings by the integrator
+            potentialMaster = new PotentialMasterCell(this, sigma, space);
+            ((PotentialMasterCell)potentialMaster).setCellRange(1);
+        }
+        else if (params.useNeighborLists) {
+            potentialMaster = new PotentialMasterList(this, 3.0, space);
             ((PotentialMasterList)potentialMaster).setRange(neighborRangeFac*sigma);
         }
+        else {
+            potentialMaster = new PotentialMasterMonatomic(this);
+        }
 
-        integrator = new IntegratorHard(this, potentialMaster, space);
+        if (params.useCells) {
+            integrator = new IntegratorHardCell(this, (PotentialMasterCell)potentialMaster, space);
+        }
+        else {
+            integrator = new IntegratorHard(this, potentialMaster, space);
+        }
         integrator.setIsothermal(false);
         integrator.setTimeStep(0.01);
         integrator.setTemperature(2.0);
@@ -141,11 +155,12 @@ public class HSMD3D extends Simulation {
         
         integrator.setBox(box);
 
-        if (params.useNeighborLists) { 
+        // IntegratorHardCell wraps atoms itself as they cross the boundary
+        if (params.useNeighborLists && !params.useCells) { 
             NeighborListManager nbrManager = ((PotentialMasterList)potentialMaster).getNeighborManager(box);
             integrator.getEventManager().addListener(nbrManager);
         }
-        else {
+        else if (!params.useCells) {
             integrator.getEventManager().addListener(new IntegratorListenerAction(new BoxImposePbc(box, space)));
         }
     }
@@ -213,5 +228,9 @@ public class HSMD3D extends Simulation {
         public int nAtoms = 12800;
         public double eta = 0.45;
         public boolean useNeighborLists = true;
+        /**
+         * Use cells and IntegratorHardCell instead of neighbor lists.
+         */
+        public boolean useCells = false;
     }
 }
@@ -15,6 +15,27 @@ import etomica.math.geometry.Polytope;
 
 /**
  * Boundary shaped as an arbitrary parallelepiped.  Applicable only for a 2D or 3D spaces.
+ * <p>
+ * nearestImage works with a reduced basis of the lattice of images: the
+ * edge vectors are replaced by equivalent lattice vectors b_i for which none
+ * of b_0, ..., b_{D-1} and -(b_0+...+b_{D-1}) are at an acute angle to each
+ * other (Selling reduction), so that the cell they span is as compact as
+ * possible however the box is deformed.  The vector is transformed to
+ * fractional coordinates of this basis, each component is rounded to the
+ * nearest integer and subtracted, and the result is transformed back.  The
+ * image found this way lies within the reduced cell centered on the origin,
+ * which is the nearest image if it is within the cell's inscribed radius
+ * (half the smallest distance between opposite faces).  If the truncation
+ * radius is no larger than that, any image within the truncation radius is
+ * found exactly and nothing more is done; the edges themselves are used
+ * instead of the reduced basis if the truncation radius is within the
+ * box's own inscribed radius.  Otherwise (including with the
+ * default, infinite, truncation radius), the image is compared with its
+ * neighbors (shifted by combinations of the b_i with coefficients -1, 0 or
+ * 1) and the shortest is taken.  With the reduced basis, the neighbors of
+ * the cell include every lattice vector that defines the Voronoi cell, and
+ * this single pass gives the nearest image.  Vectors shorter than the
+ * inscribed radius are returned untouched.
  */
 
 public class BoundaryDeformablePeriodic extends Boundary {
@@ -62,6 +83,9 @@ public class BoundaryDeformablePeriodic extends Boundary {
 
         temp1 = space.makeVector();
         temp2 = space.makeVector();
+        reducedVectors = space.makeVectorArray(D+1);
+        reducedBasis = space.makeTensor();
+        reducedBasisInv = space.makeTensor();
         unit = space.makeVector();
         unit.E(1.0);
         half = space.makeVector();
@@ -144,6 +168,148 @@ public class BoundaryDeformablePeriodic extends Boundary {
     }
 
     public void nearestImage(IVectorMutable dr) {
+        if (D == 3) {
+            nearestImage3(dr);
+        }
+        else {
+            nearestImage2(dr);
+        }
+    }
+
+    protected void nearestImage3(IVectorMutable dr) {
+        double x = dr.getX(0), y = dr.getX(1), z = dr.getX(2);
+        double r2 = x*x + y*y + z*z;
+        if (r2 <= inRadius2) return;
+        double s0 = bInv00*x + bInv01*y + bInv02*z;
+        double s1 = bInv10*x + bInv11*y + bInv12*z;
+        double s2 = bInv20*x + bInv21*y + bInv22*z;
+        boolean shifted = false;
+        // round to the nearest integer; casting is much cheaper than floor
+        if (s0 > 0.5) {
+            s0 -= (int)(s0+0.5);
+            shifted = true;
+        }
+        else if (s0 < -0.5) {
+            s0 -= (int)(s0-0.5);
+            shifted = true;
+        }
+        if (s1 > 0.5) {
+            s1 -= (int)(s1+0.5);
+            shifted = true;
+        }
+        else if (s1 < -0.5) {
+            s1 -= (int)(s1-0.5);
+            shifted = true;
+        }
+        if (s2 > 0.5) {
+            s2 -= (int)(s2+0.5);
+            shifted = true;
+        }
+        else if (s2 < -0.5) {
+            s2 -= (int)(s2-0.5);
+            shifted = true;
+        }
+        if (shifted) {
+            x = b00*s0 + b01*s1 + b02*s2;
+            y = b10*s0 + b11*s1 + b12*s2;
+            z = b20*s0 + b21*s1 + b22*s2;
+            r2 = x*x + y*y + z*z;
+        }
+        if (r2 > inRadius2 && !truncationWithinInRadius) {
+            // |dr-c|^2 < |dr|^2 if dr.c > c^2/2, which requires |c| < 2|dr|
+            int best = -1;
+            double bestR2 = r2;
+            double maxHalf2 = 2*r2;
+            for (int k=0; k<nImageVectors && imageVectorHalf2[k] < maxHalf2; k++) {
+                double[] c = imageVectors[k];
+                double dot = x*c[0] + y*c[1] + z*c[2];
+                if (dot > imageVectorHalf2[k]) {
+                    double newR2 = r2 - 2*dot + 2*imageVectorHalf2[k];
+                    if (newR2 < bestR2) {
+                        bestR2 = newR2;
+                        best = k;
+                    }
+                }
+            }
+            if (best > -1) {
+                double[] c = imageVectors[best];
+                x -= c[0];
+                y -= c[1];
+                z -= c[2];
+                shifted = true;
+            }
+        }
+        if (shifted) {
+            dr.setX(0, x);
+            dr.setX(1, y);
+            dr.setX(2, z);
+        }
+    }
+
+    protected void nearestImage2(IVectorMutable dr) {
+        double x = dr.getX(0), y = dr.getX(1);
+        double r2 = x*x + y*y;
+        if (r2 <= inRadius2) return;
+        double s0 = bInv00*x + bInv01*y;
+        double s1 = bInv10*x + bInv11*y;
+        boolean shifted = false;
+        if (s0 > 0.5) {
+            s0 -= (int)(s0+0.5);
+            shifted = true;
+        }
+        else if (s0 < -0.5) {
+            s0 -= (int)(s0-0.5);
+            shifted = true;
+        }
+        if (s1 > 0.5) {
+            s1 -= (int)(s1+0.5);
+            shifted = true;
+        }
+        else if (s1 < -0.5) {
+            s1 -= (int)(s1-0.5);
+            shifted = true;
+        }
+        if (shifted) {
+            x = b00*s0 + b01*s1;
+            y = b10*s0 + b11*s1;
+            r2 = x*x + y*y;
+        }
+        if (r2 > inRadius2 && !truncationWithinInRadius) {
+            // |dr-c|^2 < |dr|^2 if dr.c > c^2/2, which requires |c| < 2|dr|
+            int best = -1;
+            double bestR2 = r2;
+            double maxHalf2 = 2*r2;
+            for (int k=0; k<nImageVectors && imageVectorHalf2[k] < maxHalf2; k++) {
+                double[] c = imageVectors[k];
+                double dot = x*c[0] + y*c[1];
+                if (dot > imageVectorHalf2[k]) {
+                    double newR2 = r2 - 2*dot + 2*imageVectorHalf2[k];
+                    if (newR2 < bestR2) {
+                        bestR2 = newR2;
+                        best = k;
+                    }
+                }
+            }
+            if (best > -1) {
+                double[] c = imageVectors[best];
+                x -= c[0];
+                y -= c[1];
+                shifted = true;
+            }
+        }
+        if (shifted) {
+            dr.setX(0, x);
+            dr.setX(1, y);
+        }
+    }
+
+    /**
+     * Finds the nearest image by repeatedly subtracting transform vectors
+     * (edges and combinations of edges) until none applies.  This was the
+     * implementation of nearestImage before the fractional-coordinate
+     * version, and is kept for comparison.
+     */
+    public void nearestImageIterative(IVectorMutable dr) {
         // To get out of the loop, we need to check n consecutive transformVectors
         // without applying any of them.  If we reach the end, then we wrap back around.
         for (int noTransformCount=0, i=0; noTransformCount<transformVectors.length; i++) {
@@ -345,10 +511,164 @@ public class BoundaryDeformablePeriodic extends Boundary {
             tV2[i] = transformVectors[i].squared();
         }
 
+        updateImageKernel();
+
         // we get called when the boundary changes, so fire inflate event now
         eventManager.inflate(this);
     }
 
+    /**
+     * Updates the fields used by nearestImage: the reduced basis and its
+     * inverse, the inscribed radius of the reduced cell, and the lattice
+     * vectors that might shorten a vector already reduced to that cell.
+     */
+    protected void updateImageKernel() {
+        // if the truncation radius is within the inscribed radius of the box
+        // itself, rounding with the edges is enough
+        for (int i=0; i<D; i++) {
+            reducedVectors[i].E(edgeVectors[i]);
+        }
+        setImageBasis();
+        if (!truncationWithinInRadius) {
+            reduceBasis();
+            setImageBasis();
+        }
+
+        // the reduced vector is no longer than half the longest diagonal.
+        // lattice vectors longer than the full diagonal can't shorten it.
+        double maxDiag2 = 0;
+        int nCorners = 1 << D;
+        for (int m=0; m<nCorners; m++) {
+            temp1.E(0);
+            for (int i=0; i<D; i++) {
+                temp1.PEa1Tv1((m & (1<<i)) == 0 ? -1 : 1, reducedVectors[i]);
+            }
+            maxDiag2 = Math.max(maxDiag2, temp1.squared());
+        }
+        int n3 = 1;
+        for (int i=0; i<D; i++) {
+            n3 *= 3;
+        }
+        double[][] newImageVectors = new double[n3-1][];
+        double[] newHalf2 = new double[n3-1];
+        int nv = 0;
+        for (int m=0; m<n3; m++) {
+            temp1.E(0);
+            boolean zero = true;
+            for (int i=0, mm=m; i<D; i++, mm/=3) {
+                int ni = mm%3 - 1;
+                if (ni != 0) zero = false;
+                temp1.PEa1Tv1(ni, reducedVectors[i]);
+            }
+            if (zero || temp1.squared() >= maxDiag2) continue;
+            // keep them sorted by length so that nearestImage can stop at
+            // the first one too long to matter
+            double half2 = 0.5*temp1.squared();
+            int k = nv;
+            while (k > 0 && newHalf2[k-1] > half2) {
+                newImageVectors[k] = newImageVectors[k-1];
+                newHalf2[k] = newHalf2[k-1];
+                k--;
+            }
+            newImageVectors[k] = new double[D];
+            temp1.assignTo(newImageVectors[k]);
+            newHalf2[k] = half2;
+            nv++;
+        }
+        imageVectors = newImageVectors;
+        imageVectorHalf2 = newHalf2;
+        nImageVectors = nv;
+    }
+
+    /**
+     * Sets the basis used by nearestImage, and its inscribed radius, from
+     * the first D elements of reducedVectors.
+     */
+    protected void setImageBasis() {
+        for (int i=0; i<D; i++) {
+            for (int j=0; j<D; j++) {
+                // basis vectors in columns, like h
+                reducedBasis.setComponent(j, i, reducedVectors[i].getX(j));
+            }
+        }
+        reducedBasisInv.E(reducedBasis);
+        reducedBasisInv.invert();
+        b00 = reducedBasis.component(0, 0);
+        b01 = reducedBasis.component(0, 1);
+        b10 = reducedBasis.component(1, 0);
+        b11 = reducedBasis.component(1, 1);
+        bInv00 = reducedBasisInv.component(0, 0);
+        bInv01 = reducedBasisInv.component(0, 1);
+        bInv10 = reducedBasisInv.component(1, 0);
+        bInv11 = reducedBasisInv.component(1, 1);
+        if (D == 3) {
+            b02 = reducedBasis.component(0, 2);
+            b12 = reducedBasis.component(1, 2);
+            b20 = reducedBasis.component(2, 0);
+            b21 = reducedBasis.component(2, 1);
+            b22 = reducedBasis.component(2, 2);
+            bInv02 = reducedBasisInv.component(0, 2);
+            bInv12 = reducedBasisInv.component(1, 2);
+            bInv20 = reducedBasisInv.component(2, 0);
+            bInv21 = reducedBasisInv.component(2, 1);
+            bInv22 = reducedBasisInv.component(2, 2);
+        }
+
+        // row i of the inverse is normal to faces i of the cell, with length
+        // 1/(face separation)
+        double inRadius = Double.POSITIVE_INFINITY;
+        for (int i=0; i<D; i++) {
+            double rowSq = 0;
+            for (int j=0; j<D; j++) {
+                rowSq += reducedBasisInv.component(i, j)*reducedBasisInv.component(i, j);
+            }
+            inRadius = Math.min(inRadius, 0.5/Math.sqrt(rowSq));
+        }
+        inRadius2 = inRadius*inRadius;
+        // a shorter image within the truncation radius would already have
+        // fractional coordinates within 1/2
+        truncationWithinInRadius = truncationRadius <= inRadius;
+    }
+
+    /**
+     * Puts a reduced basis of the lattice of images into the first D
+     * elements of reducedVectors.  Starting from the edge vectors and minus
+     * their sum (a superbase: D+1 vectors summing to 0), any pair v_i, v_j at
+     * an acute angle is removed by negating v_i and adding 2/(D-1) v_i to
+     * each of the others, which keeps the sum 0 and shortens the superbase.
+     * When no pair is at an acute angle, the Voronoi cell of the lattice is
+     * defined by sums of the superbase vectors, which are all combinations
+     * of the first D of them with coefficients -1, 0 or 1.
+     * <p>
+     * J.H. Conway and N.J.A. Sloane, Proc. R. Soc. Lond. A 436, 55 (1992)
+     */
+    protected void reduceBasis() {
+        IVectorMutable sum = reducedVectors[D];
+        sum.E(0);
+        for (int i=0; i<D; i++) {
+            reducedVectors[i].E(edgeVectors[i]);
+            sum.ME(edgeVectors[i]);
+        }
+        int c = 2/(D-1);
+        boolean reduced = false;
+        while (!reduced) {
+            reduced = true;
+            for (int i=0; i<D; i++) {
+                for (int j=i+1; j<=D; j++) {
+                    double dot = reducedVectors[i].dot(reducedVectors[j]);
+                    // the tolerance keeps roundoff from cycling
+                    if (dot <= 1e-12*(reducedVectors[i].squared() + reducedVectors[j].squared())) continue;
+                    for (int k=0; k<=D; k++) {
+                        if (k == i || k == j) continue;
+                        reducedVectors[k].PEa1Tv1(c, reducedVectors[i]);
+                    }
+                    reducedVectors[i].TE(-1);
+                    reduced = false;
+                }
+            }
+        }
+    }
+
     /**
      * We test the given vector (v) to see if 0.5*v would be transformed by any
      * of our existing transformVectors.  If so, then we don't need to keep v
@@ -441,6 +761,17 @@ public class BoundaryDeformablePeriodic extends Boundary {
     protected IVectorMutable[] transformVectors;
     protected double[] tV2;
     protected double truncationRadius = Double.POSITIVE_INFINITY;
+    // reduced basis (and a spare) for nearestImage
+    protected final IVectorMutable[] reducedVectors;
+    protected final Tensor reducedBasis, reducedBasisInv;
+    // elements of the reduced basis and its inverse, for nearestImage
+    protected double b00, b01, b02, b10, b11, b12, b20, b21, b22;
+    protected double bInv00, bInv01, bInv02, bInv10, bInv11, bInv12, bInv20, bInv21, bInv22;
+    protected double inRadius2;
+    protected boolean truncationWithinInRadius;
+    protected double[][] imageVectors;
+    protected double[] imageVectorHalf2;
+    protected int nImageVectors;
 
     private static final long serialVersionUID = 1L;
 }
@@ -11,6 +11,11 @@ import etomica.lattice.IndexIteratorSizable;
 
 /**
  * Rectangular boundary that is periodic in every dimension.
+ * <p>
+ * nearestImage multiplies by the reciprocal box length rather than dividing,
+ * and leaves alone (after a comparison) components that are already within
+ * half a box length, which is the case for most pairs in a simulation with
+ * neighbor lists or cells.
  */
 public class BoundaryRectangularPeriodic extends BoundaryRectangular {
 
@@ -48,18 +53,74 @@ public class BoundaryRectangularPeriodic extends BoundaryRectangular {
         // superclass constructor calls this before dimensionsHalf has been instantiated
         if (dimensionsHalf != null) {
             dimensionsHalf.Ea1Tv1(0.5,dimensions);
+            int D = dimensions.getD();
+            if (boxLength == null) {
+                boxLength = new double[D];
+                boxLengthInv = new double[D];
+            }
+            for (int i=0; i<D; i++) {
+                boxLength[i] = dimensions.getX(i);
+                boxLengthInv[i] = 1.0/boxLength[i];
+            }
+            if (D == 3) {
+                boxLength0 = boxLength[0];
+                boxLength1 = boxLength[1];
+                boxLength2 = boxLength[2];
+                boxLengthInv0 = boxLengthInv[0];
+                boxLengthInv1 = boxLengthInv[1];
+                boxLengthInv2 = boxLengthInv[2];
+            }
         }
     }
     
     public void nearestImage(IVectorMutable dr) {
-        dr.PE(dimensionsHalf);
-        dr.mod(dimensions);
-        dr.ME(dimensionsHalf);
+        if (boxLength.length == 3) {
+            nearestImage3(dr);
+            return;
+        }
+        for (int i=0; i<boxLength.length; i++) {
+            double x = dr.getX(i);
+            double s = x*boxLengthInv[i];
+            // casting truncates toward zero, and is much cheaper than floor
+            if (s > 0.5) {
+                dr.setX(i, x - boxLength[i]*(int)(s+0.5));
+            }
+            else if (s < -0.5) {
+                dr.setX(i, x - boxLength[i]*(int)(s-0.5));
+            }
+        }
+    }
+
+    protected void nearestImage3(IVectorMutable dr) {
+        double x = dr.getX(0), y = dr.getX(1), z = dr.getX(2);
+        double s0 = x*boxLengthInv0, s1 = y*boxLengthInv1, s2 = z*boxLengthInv2;
+        if (s0 > 0.5) {
+            dr.setX(0, x - boxLength0*(int)(s0+0.5));
+        }
+        else if (s0 < -0.5) {
+            dr.setX(0, x - boxLength0*(int)(s0-0.5));
+        }
+        if (s1 > 0.5) {
+            dr.setX(1, y - boxLength1*(int)(s1+0.5));
+        }
+        else if (s1 < -0.5) {
+            dr.setX(1, y - boxLength1*(int)(s1-0.5));
+        }
+        if (s2 > 0.5) {
+            dr.setX(2, z - boxLength2*(int)(s2+0.5));
+        }
+        else if (s2 < -0.5) {
+            dr.setX(2, z - boxLength2*(int)(s2-0.5));
+        }
     }
 
     public IVector centralImage(IVector r) {
+        // keep the exact mod here; cell assignment needs the image to be
+        // within the box, which roundoff in the reciprocal could violate
         tempImage.E(r);
-        nearestImage(tempImage);
+        tempImage.PE(dimensionsHalf);
+        tempImage.mod(dimensions);
+        tempImage.ME(dimensionsHalf);
         tempImage.ME(r);
         return tempImage;
     }
@@ -76,4 +137,7 @@ public class BoundaryRectangularPeriodic extends BoundaryRectangular {
     private static final long serialVersionUID = 1L;
     protected final IVectorMutable dimensionsHalf;
     protected final IVectorMutable tempImage;
+    protected double[] boxLength, boxLengthInv;
+    protected double boxLength0, boxLength1, boxLength2;
+    protected double boxLengthInv0, boxLengthInv1, boxLengthInv2;
 }
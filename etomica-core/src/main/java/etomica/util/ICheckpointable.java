@@ -0,0 +1,32 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Interface for objects whose run-time state can be written to a checkpoint
+ * and later restored, so that a simulation can continue where it left off.
+ * Only state that changes as the simulation runs (counters, sums, random
+ * number generator state) is saved; configuration (potentials, settings
+ * given by the user) is expected to be recreated by constructing the
+ * simulation again.  restoreState must read exactly what saveState wrote.
+ *
+ * @see etomica.action.SimulationCheckpoint
+ */
+public interface ICheckpointable {
+
+    /**
+     * Writes the state of this object to the given output.
+     */
+    public void saveState(DataOutput out) throws IOException;
+
+    /**
+     * Reads state written by saveState and applies it to this object.
+     */
+    public void restoreState(DataInput in) throws IOException;
+}
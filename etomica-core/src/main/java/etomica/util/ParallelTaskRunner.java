@@ -0,0 +1,124 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task on several threads at once and waits for all of them to
+ * finish.  Thread 0 is the thread calling run; the others come from a pool
+ * of daemon worker threads that is created when first needed.  Workers that
+ * sit idle for IDLE_SECONDS exit, so a runner that is no longer used does not
+ * hold on to threads; shutdown can be called to stop them right away.
+ */
+public class ParallelTaskRunner implements java.io.Serializable {
+
+    /**
+     * @param threadName name given to the worker threads
+     */
+    public ParallelTaskRunner(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * Calls task.run(iThread) for each iThread from 0 to numThreads-1, each
+     * on its own thread, and returns when they have all finished.  If any of
+     * them throws, the exception is rethrown here (after the others finish).
+     */
+    public void run(int numThreads, final Task task) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        if (numThreads == 1) {
+            task.run(0);
+            return;
+        }
+        if (executor == null || executor.getMaximumPoolSize() != numThreads-1) {
+            shutdown();
+            executor = new ThreadPoolExecutor(numThreads-1, numThreads-1, IDLE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, threadName);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t=1; t<numThreads; t++) {
+            final int iThread = t;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    task.run(iThread);
+                }
+            }));
+        }
+        // anything thrown by thread 0 is held until the workers are done
+        Throwable mainException = null;
+        try {
+            task.run(0);
+        }
+        catch (Throwable e) {
+            mainException = e;
+        }
+        RuntimeException workerException = null;
+        for (int t=0; t<futures.size(); t++) {
+            try {
+                futures.get(t).get();
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e) {
+                if (workerException == null) {
+                    workerException = new RuntimeException(threadName+" failed", e.getCause());
+                }
+            }
+        }
+        if (mainException instanceof Error) {
+            throw (Error)mainException;
+        }
+        if (mainException != null) {
+            throw (RuntimeException)mainException;
+        }
+        if (workerException != null) {
+            throw workerException;
+        }
+    }
+
+    /**
+     * Stops the worker threads.  They will be started again if run is
+     * called later.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * A piece of work that is run on several threads.
+     */
+    public interface Task {
+        /**
+         * Does this thread's share of the work.
+         */
+        public void run(int iThread);
+    }
+
+    private static final long serialVersionUID = 1L;
+    public static final long IDLE_SECONDS = 10;
+    protected final String threadName;
+    protected transient ThreadPoolExecutor executor;
+}
@@ -4,6 +4,10 @@
 
 package etomica.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import etomica.api.IRandom;
 
 /* 
@@ -60,7 +64,7 @@ import etomica.api.IRandom;
  * @author Makoto Matsumoto 
  * @author Andrew Schultz
  */
-public class RandomMersenneTwister implements IRandom {
+public class RandomMersenneTwister implements IRandom, ICheckpointable {
 
     /* Period parameters */  
     static final protected int N = 624;
@@ -303,4 +307,47 @@ public class RandomMersenneTwister implements IRandom {
 
         return y / shiftFac;
     }
+
+    /**
+     * Writes the complete generator state, so that a generator restored from
+     * it will produce exactly the same sequence as this one.
+     */
+    public void saveState(DataOutput out) throws IOException {
+        for (int i=0; i<N; i++) {
+            out.writeInt(mt[i]);
+        }
+        out.writeInt(mti);
+        out.writeBoolean(hasNextGaussian);
+        out.writeDouble(nextGaussian);
+        out.writeInt(savedSeed);
+        if (savedSeedArray == null) {
+            out.writeInt(-1);
+        }
+        else {
+            out.writeInt(savedSeedArray.length);
+            for (int i=0; i<savedSeedArray.length; i++) {
+                out.writeInt(savedSeedArray[i]);
+            }
+        }
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        for (int i=0; i<N; i++) {
+            mt[i] = in.readInt();
+        }
+        mti = in.readInt();
+        hasNextGaussian = in.readBoolean();
+        nextGaussian = in.readDouble();
+        savedSeed = in.readInt();
+        int nSeeds = in.readInt();
+        if (nSeeds < 0) {
+            savedSeedArray = null;
+        }
+        else {
+            savedSeedArray = new int[nSeeds];
+            for (int i=0; i<nSeeds; i++) {
+                savedSeedArray[i] = in.readInt();
+            }
+        }
+    }
 }
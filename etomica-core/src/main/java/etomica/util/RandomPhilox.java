@@ -0,0 +1,222 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import etomica.api.IRandom;
+
+/**
+ * Counter-based random number generator (Philox4x32-10).  Each block of
+ * four random ints is a bijective function of a 128-bit counter and a 64-bit
+ * key, so the generator holds no state beyond its position: skipping ahead
+ * is O(1), and any number of independent streams can be had by changing
+ * part of the counter.
+ * <p>
+ * The key is the seed.  Half of the counter holds the stream, so that a
+ * generator with a given seed and stream is independent of generators with
+ * the same seed and other streams; the other half counts blocks within the
+ * stream.  split(id) deterministically derives a new stream from this one,
+ * so that (for instance) replica r can use split(r) and thread or work item
+ * t within it can use split(r).split(t).  If parallel work is divided into
+ * items that each take their own stream (rather than giving each thread a
+ * stream), the results do not depend on the number of threads.
+ * <p>
+ * nextGaussian uses the Box-Muller transform and returns only one of the
+ * pair of values, so it never holds a value over from a previous call and
+ * the sequence depends only on the position.
+ * <p>
+ * J.K. Salmon, M.A. Moraes, R.O. Dror and D.E. Shaw, "Parallel random
+ * numbers: as easy as 1, 2, 3", Proc. SC11 (2011)
+ */
+public class RandomPhilox implements IRandom, ICheckpointable {
+
+    /**
+     * Creates a generator with the given seed, using stream 0.
+     */
+    public RandomPhilox(long seed) {
+        this(seed, 0);
+    }
+
+    /**
+     * Creates a generator with the given seed and stream.
+     */
+    public RandomPhilox(long seed, long stream) {
+        this.seed = seed;
+        this.stream = stream;
+        setPosition(0);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getStream() {
+        return stream;
+    }
+
+    /**
+     * Returns a new generator, positioned at its start, whose stream is
+     * derived from this generator's stream and the given id.  The result
+     * depends only on the seed, this stream and id (not on this generator's
+     * position).
+     */
+    public RandomPhilox split(long id) {
+        return new RandomPhilox(seed, mix(stream ^ mix(id + 0x9E3779B97F4A7C15L)));
+    }
+
+    /**
+     * Returns the number of ints that have been drawn from this generator's
+     * stream (nextLong and nextDouble each draw 2; nextGaussian draws 4).
+     */
+    public long getPosition() {
+        return (block << 2) + index;
+    }
+
+    /**
+     * Positions the generator so that the next int drawn is the one at the
+     * given position in the stream.
+     */
+    public void setPosition(long position) {
+        if (position < 0) throw new IllegalArgumentException("position must not be negative");
+        block = position >>> 2;
+        index = (int)(position & 3);
+        generate();
+    }
+
+    /**
+     * Advances the generator by n ints, as if nextInt() had been called n
+     * times.
+     */
+    public void skip(long n) {
+        setPosition(getPosition() + n);
+    }
+
+    /**
+     * Returns a random int with all 32 bits random.
+     */
+    public int nextInt() {
+        if (index == 4) {
+            block++;
+            generate();
+            index = 0;
+        }
+        return buffer[index++];
+    }
+
+    public long nextLong() {
+        return (((long)nextInt()) << 32) | (nextInt() & 0xffffffffL);
+    }
+
+    /**
+     * Returns a random int ranging from 0 to max-1.
+     */
+    public int nextInt(int max) {
+        if (max<1) {
+            throw new RuntimeException("max must be positive");
+        }
+        // see RandomMersenneTwister
+        int maxRand = Integer.MAX_VALUE - (int)((Integer.MAX_VALUE+1L) % max);
+        int s;
+        do {
+            s = nextInt() & 0x7fffffff;
+        } while  (s > maxRand);
+        return s % max;
+    }
+
+    /**
+     * Returns a random double from (0,1), with 53 random bits.  Unlike
+     * RandomMersenneTwister, the result is a multiple of 2^-54 and so cannot
+     * be arbitrarily small.
+     */
+    public double nextDouble() {
+        return ((nextLong() >>> 11) + 0.5) * TWO_TO_MINUS_53;
+    }
+
+    public double nextFixedDouble() {
+        return (nextLong() >>> 11) * TWO_TO_MINUS_53;
+    }
+
+    public double nextGaussian() {
+        double u1 = nextDouble();
+        double u2 = nextDouble();
+        return Math.sqrt(-2*Math.log(u1)) * Math.cos(2*Math.PI*u2);
+    }
+
+    /**
+     * Computes the block for the current position.
+     */
+    protected void generate() {
+        int c0 = (int)block, c1 = (int)(block >>> 32);
+        int c2 = (int)stream, c3 = (int)(stream >>> 32);
+        int k0 = (int)seed, k1 = (int)(seed >>> 32);
+        for (int r=0; r<10; r++) {
+            if (r > 0) {
+                k0 += W0;
+                k1 += W1;
+            }
+            long p0 = (M0 & 0xffffffffL) * (c0 & 0xffffffffL);
+            long p1 = (M1 & 0xffffffffL) * (c2 & 0xffffffffL);
+            int newC0 = ((int)(p1 >>> 32)) ^ c1 ^ k0;
+            int newC2 = ((int)(p0 >>> 32)) ^ c3 ^ k1;
+            c1 = (int)p1;
+            c3 = (int)p0;
+            c0 = newC0;
+            c2 = newC2;
+        }
+        buffer[0] = c0;
+        buffer[1] = c1;
+        buffer[2] = c2;
+        buffer[3] = c3;
+    }
+
+    /**
+     * Returns the block of four ints computed by Philox4x32-10 from the given
+     * counter and key.
+     */
+    public static int[] philox(int[] counter, int[] key) {
+        RandomPhilox random = new RandomPhilox(
+                (((long)key[1]) << 32) | (key[0] & 0xffffffffL),
+                (((long)counter[3]) << 32) | (counter[2] & 0xffffffffL));
+        random.block = (((long)counter[1]) << 32) | (counter[0] & 0xffffffffL);
+        random.generate();
+        return random.buffer.clone();
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3, used to derive streams.
+     */
+    protected static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    public void saveState(DataOutput out) throws IOException {
+        out.writeLong(seed);
+        out.writeLong(stream);
+        out.writeLong(block);
+        out.writeInt(index);
+    }
+
+    public void restoreState(DataInput in) throws IOException {
+        seed = in.readLong();
+        stream = in.readLong();
+        block = in.readLong();
+        index = in.readInt();
+        generate();
+    }
+
+    protected static final int M0 = 0xD2511F53, M1 = 0xCD9E8D57;
+    protected static final int W0 = 0x9E3779B9, W1 = 0xBB67AE85;
+    protected static final double TWO_TO_MINUS_53 = 1.0/(1L << 53);
+
+    protected long seed, stream;
+    protected long block;
+    protected int index;
+    protected final int[] buffer = new int[4];
+}
@@ -0,0 +1,126 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.action;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.data.AccumulatorAverage;
+import etomica.data.AccumulatorAverageCollapsing;
+import etomica.data.DataPumpListener;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.integrator.IntegratorMC;
+import etomica.integrator.mcmove.MCMoveAtom;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.PotentialMasterMonatomic;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+
+public class SimulationCheckpointTest extends TestCase {
+
+    public void testRestart() throws IOException {
+        checkRestart(500);
+    }
+
+    /**
+     * Checkpoints between firings of the (interval 10) data pump, so the
+     * pump's position within its interval must be restored.
+     */
+    public void testRestartMidInterval() throws IOException {
+        checkRestart(505);
+    }
+
+    /**
+     * Runs a simulation for the given number of steps, checkpoints it, and
+     * checks that a second simulation (with a different random seed) restored
+     * from the checkpoint continues exactly as the first one does.
+     */
+    protected void checkRestart(int nStepsBefore) throws IOException {
+        File file = File.createTempFile("checkpoint", ".bin");
+        file.deleteOnExit();
+
+        MCSim sim1 = new MCSim();
+        for (int i=0; i<nStepsBefore; i++) {
+            sim1.integrator.doStep();
+        }
+        SimulationCheckpoint checkpoint1 = sim1.makeCheckpoint(file.getPath());
+        checkpoint1.actionPerformed();
+        checkpoint1.waitForWrite();
+        for (int i=0; i<500; i++) {
+            sim1.integrator.doStep();
+        }
+
+        MCSim sim2 = new MCSim();
+        sim2.makeCheckpoint(file.getPath()).restore();
+        sim2.integrator.reset();
+        assertEquals(nStepsBefore, sim2.integrator.getStepCount());
+        for (int i=0; i<500; i++) {
+            sim2.integrator.doStep();
+        }
+
+        IAtomList leaf1 = sim1.box.getLeafList();
+        IAtomList leaf2 = sim2.box.getLeafList();
+        for (int i=0; i<leaf1.getAtomCount(); i++) {
+            assertEquals(0.0, leaf1.getAtom(i).getPosition().Mv1Squared(leaf2.getAtom(i).getPosition()));
+        }
+        assertEquals(sim1.move.getStepSize(), sim2.move.getStepSize());
+        assertEquals(sim1.move.getTracker().acceptanceRatio(), sim2.move.getTracker().acceptanceRatio());
+        assertEquals(sim1.accumulator.getSampleCount(), sim2.accumulator.getSampleCount());
+        assertEquals(sim1.accumulator.getData().getValue(AccumulatorAverage.AVERAGE.index),
+                     sim2.accumulator.getData().getValue(AccumulatorAverage.AVERAGE.index));
+        assertEquals(sim1.accumulator.getData().getValue(AccumulatorAverage.ERROR.index),
+                     sim2.accumulator.getData().getValue(AccumulatorAverage.ERROR.index));
+    }
+
+    protected static class MCSim extends Simulation {
+        public MCSim() {
+            super(Space3D.getInstance());
+            Space space = Space3D.getInstance();
+            SpeciesSpheresMono species = new SpeciesSpheresMono(this, space);
+            addSpecies(species);
+            PotentialMasterMonatomic potentialMaster = new PotentialMasterMonatomic(this);
+            P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+            potentialMaster.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+            box = new Box(space);
+            addBox(box);
+            box.setNMolecules(species, 32);
+            box.setDensity(0.8);
+            new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+            integrator = new IntegratorMC(this, potentialMaster);
+            integrator.setTemperature(1.5);
+            move = new MCMoveAtom(random, potentialMaster, space);
+            integrator.getMoveManager().addMCMove(move);
+            integrator.setBox(box);
+            MeterPotentialEnergy meterPE = new MeterPotentialEnergy(potentialMaster);
+            meterPE.setBox(box);
+            accumulator = new AccumulatorAverageCollapsing();
+            DataPumpListener pump = new DataPumpListener(meterPE, accumulator, 10);
+            integrator.getEventManager().addListener(pump);
+            integrator.reset();
+        }
+
+        public SimulationCheckpoint makeCheckpoint(String fileName) {
+            SimulationCheckpoint checkpoint = new SimulationCheckpoint(this, fileName);
+            checkpoint.addCheckpointable(integrator);
+            checkpoint.addCheckpointable(accumulator);
+            return checkpoint;
+        }
+
+        private static final long serialVersionUID = 1L;
+        public final Box box;
+        public final IntegratorMC integrator;
+        public final MCMoveAtom move;
+        public final AccumulatorAverageCollapsing accumulator;
+    }
+}
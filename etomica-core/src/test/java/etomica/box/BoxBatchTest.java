@@ -0,0 +1,158 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.box;
+
+import junit.framework.TestCase;
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IBox;
+import etomica.api.IBoxAtomIndexEvent;
+import etomica.api.IBoxMoleculeEvent;
+import etomica.api.IMolecule;
+import etomica.api.IMoleculeList;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.AtomLeafCoordinateArrays;
+import etomica.atom.MoleculeAgentManager;
+import etomica.atom.MoleculeArrayList;
+import etomica.nbr.cell.Cell;
+import etomica.nbr.cell.NeighborCellManager;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.simulation.Simulation;
+import etomica.space.ISpace;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+public class BoxBatchTest extends TestCase {
+
+    public void setUp() {
+        space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.0, space);
+        potentialMaster.setCellRange(1);
+        box = new Box(space);
+        sim.addBox(box);
+        box.getBoundary().setBoxSize(space.makeVector(new double[]{12, 12, 12}));
+        random = new RandomMersenneTwister(1);
+        box.setNMolecules(species, 200);
+        IAtomList leafList = box.getLeafList();
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            randomize(leafList.getAtom(i).getPosition());
+        }
+        cellManager = potentialMaster.getNbrCellManager(box);
+        cellManager.assignCellAll();
+
+        atomAgents = new AtomLeafAgentManager<IAtom>(new AtomLeafAgentManager.AgentSource<IAtom>() {
+            public IAtom makeAgent(IAtom a, IBox agentBox) {
+                return a;
+            }
+            public void releaseAgent(IAtom agent, IAtom atom, IBox agentBox) {
+                nReleased++;
+            }
+        }, box, IAtom.class);
+        moleculeAgents = new MoleculeAgentManager(sim, box, new MoleculeAgentManager.MoleculeAgentSource() {
+            public Class getMoleculeAgentClass() {
+                return IMolecule.class;
+            }
+            public Object makeAgent(IMolecule a) {
+                return a;
+            }
+            public void releaseAgent(Object agent, IMolecule atom) {}
+        });
+        coordinates = new AtomLeafCoordinateArrays(box, false);
+        box.getEventManager().addListener(new BoxListenerAdapter() {
+            public void boxMoleculeAdded(IBoxMoleculeEvent e) {
+                nIndividualEvents++;
+            }
+            public void boxAtomLeafIndexChanged(IBoxAtomIndexEvent e) {
+                nIndividualEvents++;
+            }
+        });
+    }
+
+    protected void randomize(IVectorMutable p) {
+        for (int k=0; k<3; k++) {
+            p.setX(k, (random.nextDouble()-0.5)*12);
+        }
+    }
+
+    public void testBatch() {
+        box.beginBatch();
+        assertTrue(box.isBatching());
+        IMoleculeList molecules = box.getMoleculeList(species);
+        for (int i=0; i<50; i++) {
+            box.removeMolecule(molecules.getMolecule(random.nextInt(molecules.getMoleculeCount())));
+        }
+        for (int i=0; i<30; i++) {
+            IMolecule molecule = species.makeMolecule();
+            randomize(molecule.getChildList().getAtom(0).getPosition());
+            box.addMolecule(molecule);
+        }
+        // molecules added and then removed within the batch are never seen
+        for (int i=0; i<5; i++) {
+            box.removeMolecule(molecules.getMolecule(molecules.getMoleculeCount()-1));
+        }
+        // and throw in a reordering
+        MoleculeArrayList reversed = new MoleculeArrayList();
+        for (int i=molecules.getMoleculeCount()-1; i>=0; i--) {
+            reversed.add(molecules.getMolecule(i));
+        }
+        box.reorderMolecules(reversed);
+        // batch listeners haven't heard anything yet
+        assertEquals(0, nReleased);
+        box.commitBatch();
+        assertFalse(box.isBatching());
+        assertEquals(50, nReleased);
+        assertTrue(nIndividualEvents > 0);
+        check(175);
+    }
+
+    public void testSetNMolecules() {
+        nIndividualEvents = 0;
+        box.setNMolecules(species, 500);
+        assertEquals(300, nIndividualEvents);
+        check(500);
+        box.setNMolecules(species, 100);
+        assertEquals(400, nReleased);
+        check(100);
+    }
+
+    protected void check(int n) {
+        IAtomList leafList = box.getLeafList();
+        assertEquals(n, leafList.getAtomCount());
+        IMoleculeList molecules = box.getMoleculeList(species);
+        int nOccupants = 0;
+        Object[] cells = cellManager.getLattice().sites();
+        for (int i=0; i<cells.length; i++) {
+            nOccupants += ((Cell)cells[i]).occupants().getAtomCount();
+        }
+        assertEquals(n, nOccupants);
+        double[][] r = coordinates.getPositions();
+        for (int i=0; i<n; i++) {
+            IAtom atom = leafList.getAtom(i);
+            assertEquals(i, atom.getLeafIndex());
+            assertSame(atom, atomAgents.getAgent(atom));
+            assertTrue(cellManager.getCell(atom).occupants().indexOf(atom) > -1);
+            assertEquals(species.getLeafType().rm(), coordinates.getRm()[i]);
+            assertEquals(atom.getPosition().getX(1), r[1][i]);
+            IMolecule molecule = molecules.getMolecule(i);
+            assertEquals(i, molecule.getIndex());
+            assertSame(molecule, moleculeAgents.getAgent(molecule));
+        }
+    }
+
+    protected ISpace space;
+    protected SpeciesSpheresMono species;
+    protected Box box;
+    protected RandomMersenneTwister random;
+    protected NeighborCellManager cellManager;
+    protected AtomLeafAgentManager<IAtom> atomAgents;
+    protected MoleculeAgentManager moleculeAgents;
+    protected AtomLeafCoordinateArrays coordinates;
+    protected int nReleased, nIndividualEvents;
+}
@@ -0,0 +1,70 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import etomica.data.types.DataDoubleArray;
+import etomica.data.types.DataDoubleArray.DataInfoDoubleArray;
+import etomica.units.Null;
+
+public class DataLoggerAsyncTest extends TestCase {
+
+    public void testBinary() throws IOException {
+        File file = File.createTempFile("dataLoggerAsync", ".bin");
+        file.deleteOnExit();
+        // small buffer so that the writer has to keep up
+        DataLoggerAsync logger = new DataLoggerAsync(3);
+        logger.setFileName(file.getPath());
+        logger.setFormat(DataLoggerAsync.Format.BINARY);
+        logger.putDataInfo(new DataInfoDoubleArray("test", Null.DIMENSION, new int[]{2}));
+        DataDoubleArray data = new DataDoubleArray(2);
+        for (int i=0; i<1000; i++) {
+            data.getData()[0] = i;
+            data.getData()[1] = -0.5*i;
+            logger.putData(data);
+        }
+        logger.close();
+
+        double[][] columns = DataLoggerAsync.readBinary(file.getPath());
+        assertEquals(2, columns.length);
+        assertEquals(1000, columns[0].length);
+        for (int i=0; i<1000; i++) {
+            assertEquals((double)i, columns[0][i]);
+            assertEquals(-0.5*i, columns[1][i]);
+        }
+    }
+
+    public void testText() throws IOException {
+        File file = File.createTempFile("dataLoggerAsync", ".dat");
+        file.deleteOnExit();
+        DataLoggerAsync logger = new DataLoggerAsync(4);
+        logger.setFileName(file.getPath());
+        logger.setIncludeHeader(false);
+        logger.putDataInfo(new DataInfoDoubleArray("test", Null.DIMENSION, new int[]{2}));
+        DataDoubleArray data = new DataDoubleArray(2);
+        for (int i=0; i<10; i++) {
+            data.getData()[0] = i;
+            data.getData()[1] = 0.25*i;
+            logger.putData(data);
+        }
+        logger.flush();
+        logger.close();
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        for (int i=0; i<10; i++) {
+            String[] fields = reader.readLine().split("  ");
+            assertEquals(2, fields.length);
+            assertEquals((double)i, Double.parseDouble(fields[0]));
+            assertEquals(0.25*i, Double.parseDouble(fields[1]));
+        }
+        assertNull(reader.readLine());
+        reader.close();
+    }
+}
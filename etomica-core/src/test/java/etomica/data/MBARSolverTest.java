@@ -0,0 +1,103 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.data;
+
+import junit.framework.TestCase;
+import etomica.util.DoubleRange;
+import etomica.util.HistogramSimple;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Reweights samples of the energy of a 1D harmonic oscillator, E = x^2/2,
+ * taken at several temperatures.  Z = sqrt(2 pi/beta), so
+ * beta A = -ln(Z) and the average energy is 1/(2 beta).
+ */
+public class MBARSolverTest extends TestCase {
+
+    public void setUp() {
+        beta = new double[]{0.5, 1.0, 2.0, 4.0};
+        random = new RandomMersenneTwister(1);
+        energies = new double[beta.length][5000];
+        for (int k=0; k<beta.length; k++) {
+            for (int i=0; i<energies[k].length; i++) {
+                double x = random.nextGaussian()/Math.sqrt(beta[k]);
+                energies[k][i] = 0.5*x*x;
+            }
+        }
+    }
+
+    protected MBARSolver makeSolver() {
+        MBARSolver solver = MBARSolver.makeTemperatureSolver(beta);
+        for (int k=0; k<beta.length; k++) {
+            solver.addSamples(k, new double[][]{energies[k]});
+        }
+        return solver;
+    }
+
+    public void testFreeEnergies() {
+        MBARSolver solver = makeSolver();
+        double[] f = solver.getFreeEnergies();
+        double[] err = solver.getFreeEnergyErrors(20, random);
+        for (int k=1; k<beta.length; k++) {
+            double exact = 0.5*Math.log(beta[k]/beta[0]);
+            assertTrue(err[k] > 0 && err[k] < 0.05);
+            assertEquals(exact, f[k], 4*err[k]);
+        }
+    }
+
+    public void testAverage() {
+        MBARSolver solver = makeSolver();
+        // a temperature that was not sampled
+        final double b = 1.5;
+        MBARSolver.SampleFunction target = new MBARSolver.SampleFunction() {
+            public double f(double[] x) {
+                return b*x[0];
+            }
+        };
+        MBARSolver.SampleFunction energy = new MBARSolver.SampleFunction() {
+            public double f(double[] x) {
+                return x[0];
+            }
+        };
+        double[] avg = solver.getAverageWithError(target, energy, 20, random);
+        assertTrue(avg[1] > 0 && avg[1] < 0.02);
+        assertEquals(0.5/b, avg[0], 4*avg[1]);
+        // the bootstrap must leave the solution as it was
+        assertEquals(avg[0], solver.getAverage(target, energy), 1e-12);
+        assertEquals(0.5*Math.log(b/beta[0]), solver.getFreeEnergy(target), 0.02);
+    }
+
+    public void testThreads() {
+        MBARSolver solver = makeSolver();
+        double[] f = solver.getFreeEnergies();
+        MBARSolver solver3 = makeSolver();
+        solver3.setNumThreads(3);
+        double[] f3 = solver3.getFreeEnergies();
+        for (int k=0; k<beta.length; k++) {
+            assertEquals(f[k], f3[k], 1e-9);
+        }
+    }
+
+    public void testHistogram() {
+        // binned energies (WHAM) agree with the raw samples when the bins are fine
+        MBARSolver solver = MBARSolver.makeTemperatureSolver(beta);
+        for (int k=0; k<beta.length; k++) {
+            HistogramSimple histogram = new HistogramSimple(2000, new DoubleRange(0, 20));
+            for (int i=0; i<energies[k].length; i++) {
+                histogram.addValue(energies[k][i]);
+            }
+            solver.addHistogram(k, histogram);
+        }
+        double[] fBinned = solver.getFreeEnergies();
+        double[] f = makeSolver().getFreeEnergies();
+        for (int k=1; k<beta.length; k++) {
+            assertEquals(f[k], fBinned[k], 0.01);
+        }
+    }
+
+    protected double[] beta;
+    protected double[][] energies;
+    protected RandomMersenneTwister random;
+}
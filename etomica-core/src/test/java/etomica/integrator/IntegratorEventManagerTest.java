@@ -0,0 +1,186 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import junit.framework.TestCase;
+import etomica.action.IAction;
+import etomica.api.IIntegratorEvent;
+import etomica.api.IIntegratorListener;
+import etomica.listener.IntegratorListenerAction;
+
+public class IntegratorEventManagerTest extends TestCase {
+
+    public void testIntervalListener() {
+        IntegratorEventManager eventManager = new IntegratorEventManager();
+        final StringBuilder order = new StringBuilder();
+        IntegratorListenerAction every3 = new IntegratorListenerAction(new IAction() {
+            public void actionPerformed() {
+                order.append('a');
+            }
+        }, 3);
+        eventManager.addListener(every3);
+        eventManager.addListener(new IIntegratorListener() {
+            public void integratorInitialized(IIntegratorEvent e) {}
+            public void integratorStepStarted(IIntegratorEvent e) {}
+            public void integratorStepFinished(IIntegratorEvent e) {
+                order.append('b');
+            }
+        });
+        eventManager.initialized();
+        for (int i=0; i<6; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        assertEquals("bbabbbab", order.toString());
+
+        // adding another listener should not reset the first one's counter
+        order.setLength(0);
+        eventManager.stepStarted();
+        eventManager.stepFinished();
+        eventManager.addListener(new IntegratorListenerAction(new IAction() {
+            public void actionPerformed() {
+                order.append('c');
+            }
+        }, 2));
+        for (int i=0; i<2; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        assertEquals("bbabc", order.toString());
+
+        eventManager.removeListener(every3);
+        order.setLength(0);
+        for (int i=0; i<3; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        assertEquals("bbcb", order.toString());
+    }
+
+    public void testIntervalChange() {
+        IntegratorEventManager eventManager = new IntegratorEventManager();
+        final int[] count = new int[1];
+        IntegratorListenerAction listener = new IntegratorListenerAction(new IAction() {
+            public void actionPerformed() {
+                count[0]++;
+            }
+        }, 1000);
+        eventManager.addListener(listener);
+        eventManager.initialized();
+        for (int i=0; i<15; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        assertEquals(0, count[0]);
+        // 15 steps have already passed, so the listener fires on the next step
+        listener.setInterval(10);
+        eventManager.stepStarted();
+        eventManager.stepFinished();
+        assertEquals(1, count[0]);
+        for (int i=0; i<10; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        assertEquals(2, count[0]);
+        assertEquals(0, listener.getIntervalCount());
+
+        // step counts can be saved and restored
+        for (int i=0; i<4; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        long[] stepCounts = eventManager.getStepCounts();
+        assertEquals(4, stepCounts[0]);
+        eventManager.setStepCounts(new long[]{9});
+        eventManager.stepStarted();
+        eventManager.stepFinished();
+        assertEquals(3, count[0]);
+    }
+
+    public void testReAdd() {
+        IntegratorEventManager eventManager = new IntegratorEventManager();
+        final int[] count = new int[1];
+        IntegratorListenerAction listener = new IntegratorListenerAction(new IAction() {
+            public void actionPerformed() {
+                count[0]++;
+            }
+        }, 3);
+        eventManager.addListener(listener);
+        for (int i=0; i<2; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        assertEquals(2, listener.getIntervalCount());
+        // the listener keeps its count while it is removed
+        eventManager.removeListener(listener);
+        eventManager.addListener(listener);
+        eventManager.stepStarted();
+        eventManager.stepFinished();
+        assertEquals(1, count[0]);
+    }
+
+    /**
+     * Adds and removes listeners from another thread while firing events.
+     * The interval listener must still be invoked every 7th step.
+     */
+    public void testConcurrentAdd() throws InterruptedException {
+        final IntegratorEventManager eventManager = new IntegratorEventManager();
+        final int[] count = new int[1];
+        eventManager.addListener(new IntegratorListenerAction(new IAction() {
+            public void actionPerformed() {
+                count[0]++;
+            }
+        }, 7));
+        final boolean[] done = new boolean[1];
+        Thread adder = new Thread() {
+            public void run() {
+                IIntegratorListener other = new IntegratorListenerAction(new IAction() {
+                    public void actionPerformed() {}
+                }, 2);
+                while (true) {
+                    synchronized (done) {
+                        if (done[0]) return;
+                    }
+                    eventManager.addListener(other);
+                    eventManager.removeListener(other);
+                }
+            }
+        };
+        adder.start();
+        for (int i=0; i<700000; i++) {
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        synchronized (done) {
+            done[0] = true;
+        }
+        adder.join();
+        assertEquals(100000, count[0]);
+    }
+
+    public void testListenerDue() {
+        IntegratorEventManager eventManager = new IntegratorEventManager();
+        assertFalse(eventManager.isListenerDue());
+        eventManager.addListener(new IntegratorListenerAction(new IAction() {
+            public void actionPerformed() {}
+        }, 3));
+        eventManager.initialized();
+        for (int i=0; i<6; i++) {
+            // due before the 3rd and 6th steps finish
+            assertEquals(i%3 == 2, eventManager.isListenerDue());
+            eventManager.stepStarted();
+            eventManager.stepFinished();
+        }
+        IIntegratorListener everyStep = new IIntegratorListener() {
+            public void integratorInitialized(IIntegratorEvent e) {}
+            public void integratorStepStarted(IIntegratorEvent e) {}
+            public void integratorStepFinished(IIntegratorEvent e) {}
+        };
+        eventManager.addListener(everyStep);
+        assertTrue(eventManager.isListenerDue());
+        eventManager.removeListener(everyStep);
+        assertFalse(eventManager.isListenerDue());
+    }
+}
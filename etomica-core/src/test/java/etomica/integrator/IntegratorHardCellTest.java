@@ -0,0 +1,138 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import junit.framework.TestCase;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.lattice.CellLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.nbr.cell.NeighborCellManager;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.potential.P2HardSphere;
+import etomica.potential.P2SquareWell;
+import etomica.potential.PotentialHard;
+import etomica.potential.PotentialMasterMonatomic;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks IntegratorHardCell against IntegratorHard with all pairs, and checks
+ * that it conserves energy and keeps atoms in their cells.
+ */
+public class IntegratorHardCellTest extends TestCase {
+
+    /**
+     * Makes a simulation of 256 atoms at the given density with the given
+     * potential, using cells (with range as the potential range) or all
+     * pairs (if range is 0).
+     */
+    protected IntegratorHard makeIntegrator(PotentialHard p2, double range, double density) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        IPotentialMaster potentialMaster;
+        if (range > 0) {
+            potentialMaster = new PotentialMasterCell(sim, range, space);
+            ((PotentialMasterCell)potentialMaster).setCellRange(1);
+        }
+        else {
+            potentialMaster = new PotentialMasterMonatomic(sim);
+        }
+        potentialMaster.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 256);
+        box.setDensity(density);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        IntegratorHard integrator;
+        if (range > 0) {
+            integrator = new IntegratorHardCell(sim, (PotentialMasterCell)potentialMaster, new RandomMersenneTwister(2), 0.02, 1.0, space);
+        }
+        else {
+            integrator = new IntegratorHard(sim, potentialMaster, new RandomMersenneTwister(2), 0.02, 1.0, space);
+        }
+        integrator.setIsothermal(false);
+        integrator.setBox(box);
+        integrator.reset();
+        return integrator;
+    }
+
+    public void testTrajectory() {
+        Space space = Space3D.getInstance();
+        IntegratorHard reference = makeIntegrator(new P2HardSphere(space, 1.0, false), 0, 0.4);
+        IntegratorHardCell integrator = (IntegratorHardCell)makeIntegrator(new P2HardSphere(space, 1.0, false), 1.0, 0.4);
+        // stop before roundoff (from wrapping) has had a chance to grow much
+        for (int i=0; i<100; i++) {
+            reference.doStep();
+            integrator.doStep();
+        }
+        assertTrue(integrator.getCollisionCount() > 256);
+        assertTrue(integrator.getCellCrossingCount() > 256);
+        assertEquals(reference.getCollisionCount(), integrator.getCollisionCount());
+        IAtomList refAtoms = reference.getBox().getLeafList();
+        IAtomList atoms = integrator.getBox().getLeafList();
+        IVectorMutable dr = space.makeVector();
+        for (int i=0; i<atoms.getAtomCount(); i++) {
+            dr.Ev1Mv2(atoms.getAtom(i).getPosition(), refAtoms.getAtom(i).getPosition());
+            integrator.getBox().getBoundary().nearestImage(dr);
+            assertEquals(0, Math.sqrt(dr.squared()), 1e-7);
+        }
+        checkCells(integrator);
+    }
+
+    public void testSquareWell() {
+        // a missed capture or escape would show up as a mismatch between the
+        // energy the integrator tracks and the actual energy
+        Space space = Space3D.getInstance();
+        P2SquareWell p2 = new P2SquareWell(space, 1.0, 1.5, 1.0, false);
+        IntegratorHardCell integrator = (IntegratorHardCell)makeIntegrator(p2, 1.5, 0.7);
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(integrator.getPotentialMaster());
+        meterPE.setBox(integrator.getBox());
+        double e0 = integrator.getPotentialEnergy() + integrator.getKineticEnergy();
+        for (int i=0; i<500; i++) {
+            integrator.doStep();
+            assertEquals(e0, integrator.getPotentialEnergy() + integrator.getKineticEnergy(), 1e-7);
+            if (i%50 == 0) {
+                assertEquals(integrator.getPotentialEnergy(), meterPE.getDataAsScalar(), 1e-9);
+            }
+        }
+        assertTrue(integrator.getCellCrossingCount() > 1000);
+        checkCells(integrator);
+    }
+
+    /**
+     * Checks that each atom is in the cell it is assigned to.
+     */
+    protected void checkCells(IntegratorHardCell integrator) {
+        IBox box = integrator.getBox();
+        NeighborCellManager cellManager = ((PotentialMasterCell)integrator.getPotentialMaster()).getNbrCellManager(box);
+        CellLattice lattice = cellManager.getLattice();
+        IVector dimensions = lattice.getDimensions();
+        int[] size = lattice.getSize();
+        IAtomList atoms = box.getLeafList();
+        for (int i=0; i<atoms.getAtomCount(); i++) {
+            IVector position = atoms.getAtom(i).getPosition();
+            int[] idx = lattice.latticeIndex(cellManager.getCell(atoms.getAtom(i)).getLatticeArrayIndex());
+            for (int k=0; k<3; k++) {
+                double lo = dimensions.getX(k)*((double)idx[k]/size[k] - 0.5);
+                double hi = dimensions.getX(k)*((double)(idx[k]+1)/size[k] - 0.5);
+                assertTrue(position.getX(k) > lo - 1e-9 && position.getX(k) < hi + 1e-9);
+            }
+        }
+    }
+}
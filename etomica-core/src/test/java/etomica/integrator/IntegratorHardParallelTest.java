@@ -0,0 +1,227 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import junit.framework.TestCase;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.IVectorMutable;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.potential.P2HardSphere;
+import etomica.potential.P2SquareWell;
+import etomica.potential.PotentialHard;
+import etomica.potential.PotentialMasterMonatomic;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks IntegratorHardParallel against IntegratorHard, with one and several
+ * slabs, and checks that windows that fail the checks are repeated
+ * correctly.  Run main to see how it scales with the number of threads.
+ */
+public class IntegratorHardParallelTest extends TestCase {
+
+    /**
+     * Makes a box of n atoms on an fcc lattice at the given density.
+     */
+    protected static Box makeBox(Simulation sim, IPotentialMaster potentialMaster, PotentialHard p2, int n, double density) {
+        Space space = Space3D.getInstance();
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        potentialMaster.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, n);
+        box.setDensity(density);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        return box;
+    }
+
+    protected IntegratorHard makeReference(PotentialHard p2, double density) {
+        return makeReference(p2, 256, density);
+    }
+
+    protected IntegratorHard makeReference(PotentialHard p2, int n, double density) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        PotentialMasterMonatomic potentialMaster = new PotentialMasterMonatomic(sim);
+        Box box = makeBox(sim, potentialMaster, p2, n, density);
+        IntegratorHard integrator = new IntegratorHard(sim, potentialMaster, new RandomMersenneTwister(2), 0.02, 1.0, space);
+        integrator.setIsothermal(false);
+        integrator.setBox(box);
+        integrator.reset();
+        return integrator;
+    }
+
+    protected IntegratorHardParallel makeIntegrator(PotentialHard p2, double density, int nThreads) {
+        return makeIntegrator(p2, 256, density, nThreads);
+    }
+
+    protected IntegratorHardParallel makeIntegrator(PotentialHard p2, int n, double density, int nThreads) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        PotentialMasterMonatomic potentialMaster = new PotentialMasterMonatomic(sim);
+        Box box = makeBox(sim, potentialMaster, p2, n, density);
+        IntegratorHardParallel integrator = new IntegratorHardParallel(potentialMaster, p2, new RandomMersenneTwister(2), 0.02, 1.0, space);
+        integrator.setNumThreads(nThreads);
+        integrator.setIsothermal(false);
+        integrator.setBox(box);
+        integrator.reset();
+        return integrator;
+    }
+
+    /**
+     * Runs both integrators and checks that they have the same collisions
+     * and positions.
+     */
+    protected void checkTrajectory(IntegratorHard reference, IntegratorHardParallel integrator) {
+        // stop before roundoff has had a chance to grow much
+        for (int i=0; i<100; i++) {
+            reference.doStep();
+            integrator.doStep();
+        }
+        IBox box = integrator.getBox();
+        IAtomList refAtoms = reference.getBox().getLeafList();
+        IAtomList atoms = box.getLeafList();
+        assertTrue(integrator.getCollisionCount() > atoms.getAtomCount());
+        assertEquals(reference.getCollisionCount(), integrator.getCollisionCount());
+        IVectorMutable dr = Space3D.getInstance().makeVector();
+        for (int i=0; i<atoms.getAtomCount(); i++) {
+            dr.Ev1Mv2(atoms.getAtom(i).getPosition(), refAtoms.getAtom(i).getPosition());
+            box.getBoundary().nearestImage(dr);
+            assertEquals(0, Math.sqrt(dr.squared()), 1e-7);
+        }
+    }
+
+    public void testTrajectory() {
+        Space space = Space3D.getInstance();
+        IntegratorHard reference = makeReference(new P2HardSphere(space, 1.0, false), 0.4);
+        IntegratorHardParallel integrator = makeIntegrator(new P2HardSphere(space, 1.0, false), 0.4, 1);
+        checkTrajectory(reference, integrator);
+    }
+
+    public void testSlabs() {
+        Space space = Space3D.getInstance();
+        IntegratorHard reference = makeReference(new P2HardSphere(space, 1.0, false), 0.4);
+        IntegratorHardParallel integrator = makeIntegrator(new P2HardSphere(space, 1.0, false), 0.4, 4);
+        checkTrajectory(reference, integrator);
+        // nearly all windows should have been accepted
+        assertTrue(integrator.getConflictCount() < 10);
+    }
+
+    public void testSlabCells() {
+        // a box wide enough that each slab's cells cover only the slab and
+        // its halo
+        Space space = Space3D.getInstance();
+        IntegratorHard reference = makeReference(new P2HardSphere(space, 1.0, false), 864, 0.4);
+        IntegratorHardParallel integrator = makeIntegrator(new P2HardSphere(space, 1.0, false), 864, 0.4, 4);
+        checkTrajectory(reference, integrator);
+        assertTrue(integrator.getConflictCount() < 10);
+        for (int i=0; i<4; i++) {
+            assertFalse(integrator.domains[i].periodic[0]);
+            // cells are as wide as the potential range (1)
+            assertTrue(integrator.domains[i].nCells[0] < (int)integrator.boxSize[0]);
+        }
+    }
+
+    public void testConflict() {
+        Space space = Space3D.getInstance();
+        IntegratorHard reference = makeReference(new P2HardSphere(space, 1.0, false), 0.4);
+        IntegratorHardParallel integrator = makeIntegrator(new P2HardSphere(space, 1.0, false), 0.4, 4);
+        // start with a halo that is too thin for the window to be accepted
+        integrator.setSpeedMargin(0);
+        integrator.setHaloFactor(0.1);
+        checkTrajectory(reference, integrator);
+        assertTrue(integrator.getConflictCount() > 0);
+        assertTrue(integrator.getHaloFactor() > 0.1);
+    }
+
+    public void testSquareWell() {
+        // a missed capture or escape would show up as a mismatch between the
+        // energy the integrator tracks and the actual energy
+        Space space = Space3D.getInstance();
+        P2SquareWell p2 = new P2SquareWell(space, 1.0, 1.5, 1.0, false);
+        IntegratorHardParallel integrator = makeIntegrator(p2, 0.7, 3);
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(integrator.getPotentialMaster());
+        meterPE.setBox(integrator.getBox());
+        double e0 = integrator.getPotentialEnergy() + integrator.getKineticEnergy();
+        for (int i=0; i<500; i++) {
+            integrator.doStep();
+            assertEquals(e0, integrator.getPotentialEnergy() + integrator.getKineticEnergy(), 1e-7);
+            if (i%50 == 0) {
+                assertEquals(integrator.getPotentialEnergy(), meterPE.getDataAsScalar(), 1e-9);
+            }
+        }
+        assertTrue(integrator.getConflictCount() < 50);
+    }
+
+    /**
+     * Runs hard spheres with 1, 2, 4... threads (up to the number of
+     * processors, or the number given as the second argument) and prints the
+     * time per step, the CPU time summed over slabs and the CPU time of the
+     * busiest slab (the cost per thread), with the atoms (including ghosts) per slab.
+     * The number of atoms (default 256000) can be given as the first
+     * argument, and should be 4n^3.
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 256000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int nSteps = 20;
+        Space space = Space3D.getInstance();
+        for (int nThreads=1; nThreads<=maxThreads; nThreads*=2) {
+            Simulation sim = new Simulation(space);
+            // the potential master only computes the energy on reset
+            PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 1.0, space);
+            P2HardSphere p2 = new P2HardSphere(space, 1.0, false);
+            // packing fraction 0.45
+            Box box = makeBox(sim, potentialMaster, p2, n, 0.45*6/Math.PI);
+            IntegratorHardParallel integrator = new IntegratorHardParallel(potentialMaster, p2, new RandomMersenneTwister(2), 0.05, 1.0, space);
+            integrator.setNumThreads(nThreads);
+            integrator.setIsothermal(false);
+            integrator.setBox(box);
+            integrator.reset();
+            // warm up
+            for (int i=0; i<nSteps; i++) {
+                integrator.doStep();
+            }
+            long collisions = integrator.getCollisionCount();
+            long conflicts = integrator.getConflictCount();
+            long[] runTime = new long[nThreads];
+            long[] atomCount = new long[nThreads];
+            for (int i=0; i<nThreads; i++) {
+                runTime[i] = integrator.domains[i].runTime;
+                atomCount[i] = integrator.domains[i].atomCount;
+            }
+            long t1 = System.nanoTime();
+            for (int i=0; i<nSteps; i++) {
+                integrator.doStep();
+            }
+            double seconds = (System.nanoTime() - t1)*1e-9;
+            collisions = integrator.getCollisionCount() - collisions;
+            conflicts = integrator.getConflictCount() - conflicts;
+            double totalWork = 0, maxWork = 0, atoms = 0;
+            for (int i=0; i<nThreads; i++) {
+                double work = (integrator.domains[i].runTime - runTime[i])*1e-6/nSteps;
+                totalWork += work;
+                maxWork = Math.max(maxWork, work);
+                atoms += (double)(integrator.domains[i].atomCount - atomCount[i])/nSteps;
+            }
+            System.out.println(nThreads+" threads: "+(seconds/nSteps*1000)+" ms/step, "
+                    +(collisions/seconds)+" collisions/s, "+conflicts+" of "+nSteps+" windows repeated");
+            System.out.println("  slab work: "+totalWork+" ms/step total, "+maxWork+" ms/step busiest slab, "
+                    +(atoms/nThreads)+" atoms/slab, halo factor "+integrator.getHaloFactor());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import junit.framework.TestCase;
+import etomica.action.IAction;
+import etomica.api.IAtomKinetic;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IVector;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.listener.IntegratorListenerAction;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.PotentialMasterMonatomic;
+import etomica.simulation.Simulation;
+import etomica.space.IVectorRandom;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks IntegratorVelocityVerletArrays against IntegratorVelocityVerlet.
+ * Run main to compare the cost of a step with each integrator.
+ */
+public class IntegratorVelocityVerletArraysTest extends TestCase {
+
+    /**
+     * Runs the same system with IntegratorVelocityVerlet and with
+     * IntegratorVelocityVerletArrays and checks that the trajectories agree.
+     */
+    public void testTrajectory() {
+        Box[] boxes = new Box[2];
+        IntegratorMD[] integrators = new IntegratorMD[2];
+        for (int j=0; j<2; j++) {
+            integrators[j] = makeIntegrator(32, j == 1);
+            boxes[j] = (Box)integrators[j].getBox();
+        }
+        for (int i=0; i<100; i++) {
+            integrators[0].doStep();
+            integrators[1].doStep();
+        }
+        // no listeners, so the atoms have not been given the positions yet
+        IntegratorVelocityVerletArrays integratorArrays = (IntegratorVelocityVerletArrays)integrators[1];
+        assertTrue(integratorArrays.getCoordinates().isAtomPositionsStale());
+        integratorArrays.updateAtomPositions();
+        assertTrue(((IAtomKinetic)boxes[0].getLeafList().getAtom(0)).getVelocity().squared() > 0);
+        checkSame(boxes[0], boxes[1]);
+    }
+
+    /**
+     * A pair potential that overrides gradient can't use the arrays, so the
+     * atoms must be brought up to date before its gradient is computed.
+     */
+    public void testNonSpherical() {
+        Box[] boxes = new Box[2];
+        IntegratorMD[] integrators = new IntegratorMD[2];
+        for (int j=0; j<2; j++) {
+            integrators[j] = makeIntegrator(32, j == 1, false);
+            boxes[j] = (Box)integrators[j].getBox();
+        }
+        for (int i=0; i<100; i++) {
+            integrators[0].doStep();
+            integrators[1].doStep();
+        }
+        // the potential needed the atoms every step
+        assertFalse(((IntegratorVelocityVerletArrays)integrators[1]).getCoordinates().isAtomPositionsStale());
+        checkSame(boxes[0], boxes[1]);
+    }
+
+    /**
+     * Checks that listeners see the current velocities and that changes they
+     * make to the atoms are picked up by IntegratorVelocityVerletArrays.
+     */
+    public void testListener() {
+        final Box[] boxes = new Box[2];
+        IntegratorMD[] integrators = new IntegratorMD[2];
+        final double[][] ke = new double[2][15];
+        final int[] count = new int[2];
+        for (int j=0; j<2; j++) {
+            integrators[j] = makeIntegrator(32, j == 1);
+            boxes[j] = (Box)integrators[j].getBox();
+            final int jBox = j;
+            integrators[j].getEventManager().addListener(new IntegratorListenerAction(new IAction() {
+                public void actionPerformed() {
+                    IAtomList leafList = boxes[jBox].getLeafList();
+                    double sum = 0;
+                    for (int i=0; i<leafList.getAtomCount(); i++) {
+                        IAtomKinetic a = (IAtomKinetic)leafList.getAtom(i);
+                        sum += a.getVelocity().squared();
+                        a.getVelocity().TE(0.99);
+                        a.getPosition().setX(0, a.getPosition().getX(0)+0.01);
+                    }
+                    ke[jBox][count[jBox]++] = sum;
+                }
+            }, 7));
+        }
+        for (int i=0; i<100; i++) {
+            integrators[0].doStep();
+            integrators[1].doStep();
+        }
+        assertEquals(14, count[0]);
+        assertEquals(14, count[1]);
+        for (int i=0; i<14; i++) {
+            assertTrue(ke[0][i] > 0);
+            assertEquals(ke[0][i], ke[1][i], 1e-10*ke[0][i]);
+        }
+        ((IntegratorVelocityVerletArrays)integrators[1]).updateAtomPositions();
+        checkSame(boxes[0], boxes[1]);
+    }
+
+    protected static IntegratorMD makeIntegrator(int nAtoms, boolean arrays) {
+        return makeIntegrator(nAtoms, arrays, true);
+    }
+
+    /**
+     * Returns an integrator for a perturbed LJ crystal.  Each call gives the
+     * same initial configuration.  If spherical is false, the potential
+     * overrides gradient (without changing it).
+     */
+    protected static IntegratorMD makeIntegrator(int nAtoms, boolean arrays, boolean spherical) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        PotentialMasterMonatomic potentialMaster = new PotentialMasterMonatomic(sim);
+        P2SoftSphericalTruncated p2;
+        if (spherical) {
+            p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        }
+        else {
+            p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5) {
+                public IVector[] gradient(IAtomList atoms) {
+                    return super.gradient(atoms);
+                }
+            };
+        }
+        potentialMaster.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, nAtoms);
+        box.setDensity(0.8);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        RandomMersenneTwister random = new RandomMersenneTwister(5);
+        // perturb the lattice so that there are forces
+        IVectorRandom dr = (IVectorRandom)space.makeVector();
+        for (int i=0; i<box.getLeafList().getAtomCount(); i++) {
+            dr.setRandomCube(random);
+            box.getLeafList().getAtom(i).getPosition().PEa1Tv1(0.1, dr);
+        }
+        IntegratorMD integrator;
+        if (arrays) {
+            integrator = new IntegratorVelocityVerletArrays(potentialMaster, random, 0.005, 1.0, space);
+        }
+        else {
+            integrator = new IntegratorVelocityVerlet(potentialMaster, random, 0.005, 1.0, space);
+        }
+        integrator.setIsothermal(false);
+        integrator.setBox(box);
+        integrator.reset();
+        return integrator;
+    }
+
+    protected static void checkSame(Box box0, Box box1) {
+        IAtomList leaf0 = box0.getLeafList();
+        IAtomList leaf1 = box1.getLeafList();
+        for (int i=0; i<leaf0.getAtomCount(); i++) {
+            assertTrue(leaf0.getAtom(i).getPosition().Mv1Squared(leaf1.getAtom(i).getPosition()) < 1e-20);
+            assertTrue(((IAtomKinetic)leaf0.getAtom(i)).getVelocity().Mv1Squared(((IAtomKinetic)leaf1.getAtom(i)).getVelocity()) < 1e-20);
+        }
+    }
+
+    /**
+     * Prints the time per step of IntegratorVelocityVerlet and
+     * IntegratorVelocityVerletArrays, with no listeners and with a listener
+     * that is notified every step.
+     */
+    public static void main(String[] args) {
+        int nAtoms = 500;
+        int nSteps = 2000;
+        for (int pass=0; pass<2; pass++) {
+            // the first pass is warm-up
+            boolean print = pass == 1;
+            for (int iListener=0; iListener<2; iListener++) {
+                for (int j=0; j<2; j++) {
+                    boolean arrays = j == 1;
+                    IntegratorMD integrator = makeIntegrator(nAtoms, arrays);
+                    String label = arrays ? "IntegratorVelocityVerletArrays" : "IntegratorVelocityVerlet";
+                    if (iListener == 1) {
+                        integrator.getEventManager().addListener(new IntegratorListenerAction(new IAction() {
+                            public void actionPerformed() {}
+                        }));
+                        label += " with listener";
+                    }
+                    long t1 = System.nanoTime();
+                    for (int i=0; i<nSteps; i++) {
+                        integrator.doStep();
+                    }
+                    if (arrays) {
+                        ((IntegratorVelocityVerletArrays)integrator).updateAtomPositions();
+                    }
+                    double x = integrator.getBox().getLeafList().getAtom(0).getPosition().getX(0);
+                    report(print, label, t1, nSteps, x);
+                }
+            }
+        }
+    }
+
+    protected static void report(boolean print, String label, long t1, long nSteps, double x) {
+        double us = (System.nanoTime() - t1)/1000.0/nSteps;
+        if (print) {
+            // print a coordinate so that the steps can't be skipped
+            System.out.println(label+": "+us+" us/step ("+x+")");
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import junit.framework.TestCase;
+import etomica.api.IAtomKinetic;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IPotentialMaster;
+import etomica.api.ISpecies;
+import etomica.atom.iterator.ApiIndexList;
+import etomica.box.Box;
+import etomica.chem.elements.ElementSimple;
+import etomica.config.ConfigurationLattice;
+import etomica.config.ConformationLinear;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2Harmonic;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.P2SoftSphericalTruncatedShifted;
+import etomica.potential.PotentialGroup;
+import etomica.potential.PotentialMaster;
+import etomica.potential.PotentialMasterMonatomic;
+import etomica.simulation.Simulation;
+import etomica.space.IVectorRandom;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheres;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+public class IntegratorVelocityVerletRESPATest extends TestCase {
+
+    /**
+     * With a single level, the trajectory must match velocity Verlet.
+     */
+    public void testOneLevel() {
+        Box[] boxes = new Box[2];
+        IntegratorMD[] integrators = new IntegratorMD[2];
+        for (int j=0; j<2; j++) {
+            Space space = Space3D.getInstance();
+            Simulation sim = new Simulation(space);
+            SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+            species.setIsDynamic(true);
+            sim.addSpecies(species);
+            PotentialMasterMonatomic potentialMaster = new PotentialMasterMonatomic(sim);
+            P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+            potentialMaster.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+            boxes[j] = new Box(space);
+            sim.addBox(boxes[j]);
+            boxes[j].setNMolecules(species, 32);
+            boxes[j].setDensity(0.8);
+            new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(boxes[j]);
+            RandomMersenneTwister random = new RandomMersenneTwister(5);
+            IVectorRandom dr = (IVectorRandom)space.makeVector();
+            for (int i=0; i<boxes[j].getLeafList().getAtomCount(); i++) {
+                dr.setRandomCube(random);
+                boxes[j].getLeafList().getAtom(i).getPosition().PEa1Tv1(0.1, dr);
+            }
+            if (j == 0) {
+                integrators[j] = new IntegratorVelocityVerlet(potentialMaster, random, 0.005, 1.0, space);
+            }
+            else {
+                integrators[j] = new IntegratorVelocityVerletRESPA(new IPotentialMaster[]{potentialMaster}, random, 0.005, 1.0, space);
+            }
+            integrators[j].setIsothermal(false);
+            integrators[j].setBox(boxes[j]);
+            integrators[j].reset();
+        }
+        for (int i=0; i<100; i++) {
+            integrators[0].doStep();
+            integrators[1].doStep();
+        }
+        IAtomList leaf0 = boxes[0].getLeafList();
+        IAtomList leaf1 = boxes[1].getLeafList();
+        assertTrue(((IAtomKinetic)leaf0.getAtom(0)).getVelocity().squared() > 0);
+        for (int i=0; i<leaf0.getAtomCount(); i++) {
+            assertTrue(leaf0.getAtom(i).getPosition().Mv1Squared(leaf1.getAtom(i).getPosition()) < 1e-20);
+            assertTrue(((IAtomKinetic)leaf0.getAtom(i)).getVelocity().Mv1Squared(((IAtomKinetic)leaf1.getAtom(i)).getVelocity()) < 1e-20);
+        }
+    }
+
+    /**
+     * Runs a system of LJ dimers with stiff harmonic bonds, and returns the
+     * largest deviation of the total energy from its initial value.  With
+     * nSubSteps=0, everything is integrated with velocity Verlet.
+     */
+    protected double maxEnergyDeviation(double timeStep, int nSubSteps, int nSteps) {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheres species = new SpeciesSpheres(2, new ElementSimple(sim), new ConformationLinear(space, 1.0), space);
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        PotentialMaster potentialMasterSlow = new PotentialMaster();
+        PotentialMaster potentialMasterFast = nSubSteps > 0 ? new PotentialMaster() : potentialMasterSlow;
+        P2SoftSphericalTruncatedShifted p2 = new P2SoftSphericalTruncatedShifted(space, new P2LennardJones(space), 2.5);
+        potentialMasterSlow.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+        PotentialGroup pIntra = potentialMasterFast.makePotentialGroup(1);
+        pIntra.addPotential(new P2Harmonic(space, 2000, 1.0), new ApiIndexList(new int[][]{{0,1}}));
+        potentialMasterFast.addPotential(pIntra, new ISpecies[]{species});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 32);
+        box.setDensity(0.25);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        RandomMersenneTwister random = new RandomMersenneTwister(5);
+        IntegratorMD integrator;
+        if (nSubSteps == 0) {
+            integrator = new IntegratorVelocityVerlet(potentialMasterSlow, random, timeStep, 1.0, space);
+        }
+        else {
+            IntegratorVelocityVerletRESPA respa = new IntegratorVelocityVerletRESPA(
+                    new IPotentialMaster[]{potentialMasterSlow, potentialMasterFast}, random, timeStep, 1.0, space);
+            respa.setNumSubSteps(1, nSubSteps);
+            integrator = respa;
+        }
+        integrator.setIsothermal(true);
+        integrator.setThermostat(IntegratorMD.ThermostatType.ANDERSEN);
+        integrator.setBox(box);
+        integrator.reset();
+        // randomize velocities, then run NVE
+        integrator.doStep();
+        integrator.setIsothermal(false);
+        integrator.reset();
+        double e0 = integrator.getKineticEnergy() + integrator.getPotentialEnergy();
+        double maxDev = 0;
+        for (int i=0; i<nSteps; i++) {
+            integrator.doStep();
+            integrator.reset();
+            double e = integrator.getKineticEnergy() + integrator.getPotentialEnergy();
+            maxDev = Math.max(maxDev, Math.abs(e - e0));
+        }
+        return maxDev;
+    }
+
+    public void testEnergyConservation() {
+        double devVerletInner = maxEnergyDeviation(0.0025, 0, 400);
+        double devVerletOuter = maxEnergyDeviation(0.01, 0, 100);
+        double devRESPA = maxEnergyDeviation(0.01, 4, 100);
+        // RESPA evaluates the LJ forces as often as the outer velocity Verlet
+        // but conserves energy nearly as well as the inner one
+        assertTrue(devRESPA < 0.25*devVerletOuter);
+        assertTrue(devRESPA < 3*devVerletInner);
+    }
+
+    public void testThermostats() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        IntegratorVelocityVerletRESPA integrator = new IntegratorVelocityVerletRESPA(
+                new IPotentialMaster[]{new PotentialMasterMonatomic(sim)}, sim.getRandom(), 0.005, 1.0, space);
+        IntegratorMD.ThermostatType[] unsupported = new IntegratorMD.ThermostatType[]{
+                IntegratorMD.ThermostatType.NOSE_HOOVER, IntegratorMD.ThermostatType.LANGEVIN};
+        for (int i=0; i<unsupported.length; i++) {
+            try {
+                integrator.setThermostat(unsupported[i]);
+                fail(unsupported[i]+" accepted");
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(IntegratorMD.ThermostatType.ANDERSEN, integrator.getThermostat());
+    }
+}
@@ -0,0 +1,183 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import etomica.api.IAtomType;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncatedShifted;
+import etomica.potential.PotentialMasterMonatomic;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks the Nose-Hoover chain and Langevin thermostats and the MTK barostat
+ * of IntegratorVelocityVerlet with a small Lennard-Jones liquid.
+ */
+public class IntegratorVelocityVerletThermostatTest extends TestCase {
+
+    public void setUp() {
+        Space space = Space3D.getInstance();
+        sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        species.setIsDynamic(true);
+        sim.addSpecies(species);
+        potentialMaster = new PotentialMasterMonatomic(sim);
+        P2SoftSphericalTruncatedShifted p2 = new P2SoftSphericalTruncatedShifted(space, new P2LennardJones(space), 2.5);
+        potentialMaster.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, numAtoms);
+        box.setDensity(0.8);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        integrator = new IntegratorVelocityVerlet(potentialMaster, new RandomMersenneTwister(1), 0.005, 1.2, space);
+        integrator.setIsothermal(true);
+        integrator.setThermostatTimeConstant(0.5);
+        integrator.setBarostatTimeConstant(2);
+    }
+
+    /**
+     * Runs the integrator and returns the averages of the temperature and
+     * pressure over the second half of the run.  Also checks that the
+     * conserved energy is conserved, if it should be.
+     */
+    protected double[] run(int nSteps, boolean conserved) {
+        integrator.setBox(box);
+        integrator.reset();
+        double e0 = integrator.getConservedEnergy();
+        double sumT = 0, sumP = 0;
+        for (int i=0; i<nSteps; i++) {
+            integrator.doStep();
+            if (conserved) {
+                assertEquals(e0, integrator.getConservedEnergy(), 0.01*numAtoms);
+            }
+            if (i >= nSteps/2) {
+                sumT += integrator.getKineticEnergy()*2/(3*numAtoms);
+                sumP += integrator.getPressureTensor().trace()/3;
+            }
+        }
+        return new double[]{sumT/(nSteps/2), sumP/(nSteps/2)};
+    }
+
+    public void testNoseHoover() {
+        integrator.setThermostat(IntegratorMD.ThermostatType.NOSE_HOOVER);
+        double[] avg = run(4000, true);
+        assertEquals(1.2, avg[0], 0.05);
+    }
+
+    public void testLangevin() {
+        integrator.setThermostat(IntegratorMD.ThermostatType.LANGEVIN);
+        integrator.setLangevinFriction(2);
+        double[] avg = run(4000, false);
+        assertEquals(1.2, avg[0], 0.05);
+    }
+
+    /**
+     * Checks that the average potential energy sampled by the Langevin
+     * (BAOAB) dynamics is unchanged by a time step 4 times larger.  The
+     * kinetic temperature is not sampled exactly at the larger step (it is
+     * about 3% low), but the dynamics remain stable.
+     */
+    public void testLangevinTimeStep() {
+        integrator.setThermostat(IntegratorMD.ThermostatType.LANGEVIN);
+        integrator.setLangevinFriction(2);
+        integrator.setBox(box);
+        integrator.reset();
+        double[] small = runPE(0.005, 8000);
+        double[] large = runPE(0.02, 2000);
+        assertEquals(1.2, small[1], 0.02);
+        assertEquals(small[0], large[0], 0.03);
+        assertEquals(1.2, large[1], 0.1);
+    }
+
+    /**
+     * Runs the integrator with the given time step, and returns the
+     * averages of the potential energy per atom and the temperature.  The
+     * first quarter of the steps are discarded.
+     */
+    protected double[] runPE(double timeStep, int nSteps) {
+        integrator.setTimeStep(timeStep);
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(potentialMaster);
+        meterPE.setBox(box);
+        for (int i=0; i<nSteps/4; i++) {
+            integrator.doStep();
+        }
+        double sumU = 0, sumT = 0;
+        int n = 0;
+        for (int i=nSteps/4; i<nSteps; i++) {
+            integrator.doStep();
+            if (i % 5 == 0) {
+                sumU += meterPE.getDataAsScalar()/numAtoms;
+                sumT += integrator.getKineticEnergy()*2/(3*numAtoms);
+                n++;
+            }
+        }
+        return new double[]{sumU/n, sumT/n};
+    }
+
+    public void testTimeConstants() {
+        assertEquals(0.5, integrator.getThermostatTimeConstant(), 1e-12);
+        assertEquals(2, integrator.getBarostatTimeConstant(), 1e-12);
+        assertEquals(2, integrator.getLangevinFriction(), 1e-12);
+        // the friction was not set, so it follows the time step
+        integrator.setTimeStep(0.01);
+        assertEquals(1, integrator.getLangevinFriction(), 1e-12);
+        assertEquals(0.5, integrator.getThermostatTimeConstant(), 1e-12);
+        assertEquals(2, integrator.getBarostatTimeConstant(), 1e-12);
+
+        IntegratorVelocityVerlet defaultIntegrator = new IntegratorVelocityVerlet(potentialMaster, sim.getRandom(), 0.002, 1.0, sim.getSpace());
+        assertEquals(0.2, defaultIntegrator.getThermostatTimeConstant(), 1e-12);
+        assertEquals(2, defaultIntegrator.getBarostatTimeConstant(), 1e-12);
+        defaultIntegrator.setTimeStep(0.004);
+        assertEquals(0.4, defaultIntegrator.getThermostatTimeConstant(), 1e-12);
+        assertEquals(4, defaultIntegrator.getBarostatTimeConstant(), 1e-12);
+        assertEquals(2.5, defaultIntegrator.getLangevinFriction(), 1e-12);
+    }
+
+    public void testChoices() {
+        IntegratorHard integratorHard = new IntegratorHard(sim, potentialMaster, sim.getSpace());
+        IntegratorMD.ThermostatType[] choices = integratorHard.getThermostatChoices();
+        for (int i=0; i<choices.length; i++) {
+            integratorHard.setThermostat(choices[i]);
+        }
+        IntegratorMD.ThermostatType[] unsupported = new IntegratorMD.ThermostatType[]{
+                IntegratorMD.ThermostatType.NOSE_HOOVER, IntegratorMD.ThermostatType.LANGEVIN};
+        for (int i=0; i<unsupported.length; i++) {
+            assertFalse(Arrays.asList(choices).contains(unsupported[i]));
+            try {
+                integratorHard.setThermostat(unsupported[i]);
+                fail(unsupported[i]+" accepted by IntegratorHard");
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertTrue(Arrays.asList(integrator.getThermostatChoices()).contains(unsupported[i]));
+        }
+    }
+
+    public void testBarostat() {
+        integrator.setThermostat(IntegratorMD.ThermostatType.NOSE_HOOVER);
+        integrator.setIsobaric(true);
+        integrator.setPressure(2.0);
+        double[] avg = run(4000, true);
+        assertEquals(1.2, avg[0], 0.05);
+        assertEquals(2.0, avg[1], 0.2);
+    }
+
+    protected static final int numAtoms = 108;
+    protected Simulation sim;
+    protected PotentialMasterMonatomic potentialMaster;
+    protected Box box;
+    protected IntegratorVelocityVerlet integrator;
+}
@@ -0,0 +1,156 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.integrator.mcmove;
+
+import junit.framework.TestCase;
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IBox;
+import etomica.api.IPotentialMaster;
+import etomica.api.ISpecies;
+import etomica.api.IVectorMutable;
+import etomica.atom.iterator.Atomset3IteratorIndexList;
+import etomica.box.Box;
+import etomica.chem.elements.ElementSimple;
+import etomica.config.ConformationLinear;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.integrator.IntegratorMC;
+import etomica.nbr.cell.NeighborCellManager;
+import etomica.nbr.cell.PotentialMasterCell;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.P3BondAngle;
+import etomica.potential.PotentialGroup;
+import etomica.potential.PotentialMaster;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheres;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks the configurational-bias insertion/deletion and regrowth moves: the
+ * energy they report must match the actual energy, cells must follow the
+ * atoms, and an ideal gas of flexible chains must have the number of
+ * molecules and bend energy given by the chemical potential and the bend
+ * potential.
+ */
+public class MCMoveCBMCTest extends TestCase {
+
+    /**
+     * Makes an IntegratorMC for chains of nAtoms atoms in a cubic box of the
+     * given edge, with a bend potential and the given potential master, and
+     * adds insertion/deletion and regrowth moves.
+     */
+    protected IntegratorMC makeIntegrator(Simulation sim, IPotentialMaster potentialMaster, SpeciesSpheres species,
+                                          double edge, double temperature, double mu) {
+        Space space = Space3D.getInstance();
+        P3BondAngle p3 = new P3BondAngle(space);
+        p3.setAngle(114*Math.PI/180);
+        p3.setEpsilon(5);
+        int nAtoms = species.getNumLeafAtoms();
+        int[][] triplets = new int[nAtoms-2][];
+        for (int i=0; i<nAtoms-2; i++) {
+            triplets[i] = new int[]{i, i+1, i+2};
+        }
+        PotentialGroup pIntra = potentialMaster.makePotentialGroup(1);
+        pIntra.addPotential(p3, new Atomset3IteratorIndexList(triplets));
+        potentialMaster.addPotential(pIntra, new ISpecies[]{species});
+        Box box = new Box(space);
+        sim.addBox(box);
+        IVectorMutable dim = space.makeVector();
+        dim.E(edge);
+        box.getBoundary().setBoxSize(dim);
+        RandomMersenneTwister random = new RandomMersenneTwister(3);
+        IntegratorMC integrator = new IntegratorMC(potentialMaster, random, temperature);
+        integrator.setBox(box);
+        if (potentialMaster instanceof PotentialMasterCell) {
+            ((PotentialMasterCell)potentialMaster).getNbrCellManager(box).assignCellAll();
+        }
+        MCMoveInsertDeleteCBMC mcMoveID = new MCMoveInsertDeleteCBMC(potentialMaster, random, space, integrator);
+        mcMoveID.setSpecies(species);
+        mcMoveID.setMu(mu);
+        integrator.getMoveManager().addMCMove(mcMoveID);
+        MCMoveRegrowCBMC mcMoveRegrow = new MCMoveRegrowCBMC(potentialMaster, random, space, integrator);
+        mcMoveRegrow.setSpecies(species);
+        integrator.getMoveManager().addMCMove(mcMoveRegrow);
+        integrator.reset();
+        return integrator;
+    }
+
+    public void testEnergy() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheres species = new SpeciesSpheres(4, new ElementSimple(sim), new ConformationLinear(space, 1.0), space);
+        sim.addSpecies(species);
+        PotentialMasterCell potentialMaster = new PotentialMasterCell(sim, 2.5, space);
+        potentialMaster.setCellRange(2);
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 2.5);
+        // the long-range correction for a molecule depends on N, so the
+        // energy change of insertion and deletion would only be approximate
+        p2.setMakeLrc(false);
+        potentialMaster.addPotential(p2, new IAtomType[]{species.getLeafType(), species.getLeafType()});
+        IntegratorMC integrator = makeIntegrator(sim, potentialMaster, species, 8, 2.0, 2.0);
+        IBox box = integrator.getBox();
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(potentialMaster);
+        meterPE.setBox(box);
+        for (int i=0; i<20; i++) {
+            for (int j=0; j<200; j++) {
+                integrator.doStep();
+            }
+            double u = meterPE.getDataAsScalar();
+            assertEquals(u, integrator.getPotentialEnergy(), 1e-8*(1+Math.abs(u)));
+        }
+        // the box should have filled up, with the molecules interacting
+        assertTrue(box.getNMolecules(species) > 20);
+        assertTrue(integrator.getPotentialEnergy() < 0);
+
+        NeighborCellManager cellManager = potentialMaster.getNbrCellManager(box);
+        IAtomList atoms = box.getLeafList();
+        for (int i=0; i<atoms.getAtomCount(); i++) {
+            IAtom atom = atoms.getAtom(i);
+            assertSame(cellManager.getLattice().site(atom.getPosition()), cellManager.getCell(atom));
+        }
+    }
+
+    public void testIdealGas() {
+        // trimers with no intermolecular potential; the number of molecules
+        // is V exp(mu/T) Z, where Z is the bend angle's partition function
+        // (with directions uniform on the sphere)
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheres species = new SpeciesSpheres(3, new ElementSimple(sim), new ConformationLinear(space, 1.0), space);
+        sim.addSpecies(species);
+        PotentialMaster potentialMaster = new PotentialMaster();
+        double temperature = 1.0;
+        int nBins = 100000;
+        double z = 0, zu = 0;
+        for (int i=0; i<nBins; i++) {
+            double theta = (i+0.5)*Math.PI/nBins;
+            double dtheta = theta - 114*Math.PI/180;
+            double u = 0.5*5*dtheta*dtheta;
+            double w = 0.5*Math.sin(theta)*Math.exp(-u/temperature)*Math.PI/nBins;
+            z += w;
+            zu += w*u;
+        }
+        double nExpected = 20;
+        double mu = temperature*Math.log(nExpected/(1000*z));
+        IntegratorMC integrator = makeIntegrator(sim, potentialMaster, species, 10, temperature, mu);
+        IBox box = integrator.getBox();
+        for (int i=0; i<2000; i++) {
+            integrator.doStep();
+        }
+        double sumN = 0, sumU = 0;
+        int nSteps = 100000;
+        for (int i=0; i<nSteps; i++) {
+            integrator.doStep();
+            sumN += box.getNMolecules(species);
+            sumU += integrator.getPotentialEnergy();
+        }
+        assertEquals(nExpected, sumN/nSteps, 0.05*nExpected);
+        assertEquals(zu/z, sumU/sumN, 0.03*zu/z);
+    }
+}
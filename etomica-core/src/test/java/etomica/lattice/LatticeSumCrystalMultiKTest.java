@@ -0,0 +1,169 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.lattice;
+
+import junit.framework.TestCase;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.data.IData;
+import etomica.data.IDataInfo;
+import etomica.data.types.DataDouble;
+import etomica.data.types.DataTensor;
+import etomica.lattice.LatticeSumCrystal.DataGroupLSC;
+import etomica.lattice.crystal.BasisCubicFcc;
+import etomica.lattice.crystal.BasisMonatomic;
+import etomica.lattice.crystal.PrimitiveCubic;
+import etomica.space.ISpace;
+import etomica.space3d.Space3D;
+import etomica.units.Null;
+import etomica.util.FunctionGeneral;
+
+public class LatticeSumCrystalMultiKTest extends TestCase {
+
+    public LatticeSumCrystalMultiKTest() {
+        space = Space3D.getInstance();
+    }
+
+    /**
+     * Checks that the sums for several wave vectors match those from
+     * LatticeSumCrystal, one wave vector at a time.
+     */
+    public void testMultiK() {
+        BravaisLatticeCrystal lattice = new BravaisLatticeCrystal(new PrimitiveCubic(space, 1.5), new BasisCubicFcc());
+        FunctionGeneral function = new FunctionHessian(new double[]{4, -4}, new int[]{12, 6});
+        IVector[] kVectors = makeWaveVectors(1.5);
+
+        LatticeSumCrystal summer = new LatticeSumCrystal(lattice);
+        summer.setMaxLatticeShell(3);
+        LatticeSumCrystalMultiK multiSummer = new LatticeSumCrystalMultiK(lattice);
+        multiSummer.setMaxLatticeShell(3);
+        multiSummer.setNumThreads(3);
+        // not a multiple of the number of cells
+        multiSummer.setBlockSize(7);
+        DataGroupLSC[] sums = multiSummer.calculateSums(function, kVectors);
+        for (int k=0; k<kVectors.length; k++) {
+            summer.setK(kVectors[k]);
+            DataGroupLSC sum = (DataGroupLSC)summer.calculateSum(function);
+            assertSumsEqual(sum, sums[k], 4, 1e-10);
+        }
+    }
+
+    /**
+     * Checks the Ewald sum of r^-6 over the simple cubic lattice against the
+     * known lattice constant.
+     */
+    public void testEwaldEnergy() {
+        BravaisLatticeCrystal lattice = new BravaisLatticeCrystal(new PrimitiveCubic(space, 1), new BasisMonatomic(space));
+        LatticeSumCrystalMultiK summer = new LatticeSumCrystalMultiK(lattice);
+        summer.setMaxLatticeShell(3);
+        summer.setMaxReciprocalShell(3);
+        summer.setTail(1, 6);
+        FunctionGeneral zero = new FunctionGeneral() {
+            public IData f(Object obj) {
+                return data;
+            }
+            public IDataInfo getDataInfo() {
+                return dataInfo;
+            }
+            final DataDouble data = new DataDouble();
+            final IDataInfo dataInfo = new DataDouble.DataInfoDouble("zero", Null.DIMENSION);
+        };
+        summer.setK(space.makeVector());
+        DataGroupLSC sum = (DataGroupLSC)summer.calculateSum(zero);
+        assertEquals(8.4019239748, ((DataDouble)sum.getDataReal(0, 0)).x, 1e-9);
+        assertEquals(0, ((DataDouble)sum.getDataImaginary(0, 0)).x, 1e-12);
+    }
+
+    /**
+     * Checks the Ewald sum of the second derivative tensor of r^-6 for fcc
+     * against a direct sum with many shells.
+     */
+    public void testEwaldTensor() {
+        BravaisLatticeCrystal lattice = new BravaisLatticeCrystal(new PrimitiveCubic(space, 1.5), new BasisCubicFcc());
+        IVector[] kVectors = makeWaveVectors(1.5);
+
+        LatticeSumCrystalMultiK direct = new LatticeSumCrystalMultiK(lattice);
+        direct.setMaxLatticeShell(20);
+        DataGroupLSC[] directSums = direct.calculateSums(new FunctionHessian(new double[]{1}, new int[]{6}), kVectors);
+
+        LatticeSumCrystalMultiK ewald = new LatticeSumCrystalMultiK(lattice);
+        ewald.setMaxLatticeShell(4);
+        ewald.setMaxReciprocalShell(4);
+        ewald.setTail(1, 6);
+        DataGroupLSC[] ewaldSums = ewald.calculateSums(new FunctionHessian(new double[0], new int[0]), kVectors);
+        for (int k=0; k<kVectors.length; k++) {
+            assertSumsEqual(directSums[k], ewaldSums[k], 4, 1e-6);
+        }
+    }
+
+    protected IVector[] makeWaveVectors(double a) {
+        double[][] k = new double[][]{{0,0,0}, {1,0,0}, {0.5,0.5,0}, {0.25,0.5,0.75}, {1,1,1}};
+        IVector[] kVectors = new IVector[k.length];
+        for (int i=0; i<k.length; i++) {
+            IVectorMutable kv = space.makeVector();
+            kv.E(k[i]);
+            kv.TE(2*Math.PI/a);
+            kVectors[i] = kv;
+        }
+        return kVectors;
+    }
+
+    protected void assertSumsEqual(DataGroupLSC expected, DataGroupLSC actual, int basisDim, double tol) {
+        for (int j=0; j<basisDim; j++) {
+            for (int jp=0; jp<basisDim; jp++) {
+                assertDataEqual(expected.getDataReal(j, jp), actual.getDataReal(j, jp), tol);
+                assertDataEqual(expected.getDataImaginary(j, jp), actual.getDataImaginary(j, jp), tol);
+            }
+        }
+    }
+
+    protected void assertDataEqual(IData expected, IData actual, double tol) {
+        for (int i=0; i<expected.getLength(); i++) {
+            double e = expected.getValue(i);
+            assertEquals(e, actual.getValue(i), tol*(1+Math.abs(e)));
+        }
+    }
+
+    /**
+     * Second derivative tensor of a sum of inverse powers, sum c_i r^-n_i.
+     */
+    protected class FunctionHessian implements FunctionGeneral {
+        public FunctionHessian(double[] c, int[] n) {
+            this.c = c;
+            this.n = n;
+            data = new DataTensor(space);
+            dataInfo = new DataTensor.DataInfoTensor("hessian", Null.DIMENSION, space);
+        }
+
+        public IData f(Object obj) {
+            IVector r = (IVector)obj;
+            double r2 = r.squared();
+            double rMag = Math.sqrt(r2);
+            double du = 0, d2u = 0;
+            for (int i=0; i<c.length; i++) {
+                double u = c[i]/Math.pow(rMag, n[i]);
+                du += -n[i]*u/rMag;
+                d2u += n[i]*(n[i]+1)*u/r2;
+            }
+            data.x.Ev1v2(r, r);
+            data.x.TE((d2u - du/rMag)/r2);
+            for (int i=0; i<3; i++) {
+                data.x.PE(i, i, du/rMag);
+            }
+            return data;
+        }
+
+        public IDataInfo getDataInfo() {
+            return dataInfo;
+        }
+
+        protected final double[] c;
+        protected final int[] n;
+        protected final DataTensor data;
+        protected final IDataInfo dataInfo;
+    }
+
+    protected final ISpace space;
+}
@@ -0,0 +1,123 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.math;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.math3.special.Erf;
+
+/**
+ * Checks the error bounds of FastFunctions against Math.exp and Erf.erfc.
+ * Run main to compare the cost of each function with the library versions.
+ */
+public class FastFunctionsTest extends TestCase {
+
+    public void testExp() {
+        for (int i=0; i<1000000; i++) {
+            double x = -708 + i*(709+708)/1000000.0;
+            assertEquals(1, FastFunctions.exp(x)/Math.exp(x), 5e-16);
+        }
+        for (int i=0; i<1000000; i++) {
+            double x = -10 + i*20/1000000.0;
+            assertEquals(1, FastFunctions.exp(x)/Math.exp(x), 5e-16);
+        }
+        assertEquals(1.0, FastFunctions.exp(0));
+        assertEquals(Math.exp(-720), FastFunctions.exp(-720));
+        assertEquals(0.0, FastFunctions.exp(Double.NEGATIVE_INFINITY));
+        assertEquals(Double.POSITIVE_INFINITY, FastFunctions.exp(710));
+        assertTrue(Double.isNaN(FastFunctions.exp(Double.NaN)));
+    }
+
+    public void testErfc() {
+        // Erf.erfc has errors up to ~1e-14 of its own
+        for (int i=0; i<1000000; i++) {
+            double x = i*6/1000000.0;
+            assertEquals(1, FastFunctions.erfc(x)/Erf.erfc(x), 2e-14);
+            if (x > 0) {
+                assertEquals(1, FastFunctions.erfcOverX(x)*x/Erf.erfc(x), 2e-14);
+            }
+        }
+        // outside the table
+        assertEquals(Erf.erfc(-0.5), FastFunctions.erfc(-0.5));
+        assertEquals(Erf.erfc(7), FastFunctions.erfc(7));
+        assertEquals(Erf.erfc(7)/7, FastFunctions.erfcOverX(7));
+    }
+
+    /**
+     * Prints the time per call of each function and its library counterpart,
+     * over the range of arguments seen by the real-space Ewald sum and by
+     * Mayer functions.
+     */
+    public static void main(String[] args) {
+        int n = 1000;
+        double[] xErfc = new double[n];
+        double[] xExp = new double[n];
+        for (int i=0; i<n; i++) {
+            xErfc[i] = 0.5 + 3.0*i/n;
+            xExp[i] = -20 + 25.0*i/n;
+        }
+        int nReps = 20000;
+        for (int pass=0; pass<2; pass++) {
+            // the first pass is warm-up
+            boolean print = pass == 1;
+            double sum = 0;
+            long t1 = System.nanoTime();
+            for (int j=0; j<nReps; j++) {
+                for (int i=0; i<n; i++) {
+                    sum += Math.exp(xExp[i]);
+                }
+            }
+            report(print, "Math.exp", t1, n*nReps, sum);
+            sum = 0;
+            t1 = System.nanoTime();
+            for (int j=0; j<nReps; j++) {
+                for (int i=0; i<n; i++) {
+                    sum += FastFunctions.exp(xExp[i]);
+                }
+            }
+            report(print, "FastFunctions.exp", t1, n*nReps, sum);
+            sum = 0;
+            t1 = System.nanoTime();
+            for (int j=0; j<nReps/10; j++) {
+                for (int i=0; i<n; i++) {
+                    sum += Erf.erfc(xErfc[i]);
+                }
+            }
+            report(print, "Erf.erfc", t1, n*nReps/10, sum);
+            sum = 0;
+            t1 = System.nanoTime();
+            for (int j=0; j<nReps; j++) {
+                for (int i=0; i<n; i++) {
+                    sum += SpecialFunctions.erfc(xErfc[i]);
+                }
+            }
+            report(print, "SpecialFunctions.erfc", t1, n*nReps, sum);
+            sum = 0;
+            t1 = System.nanoTime();
+            for (int j=0; j<nReps; j++) {
+                for (int i=0; i<n; i++) {
+                    sum += FastFunctions.erfc(xErfc[i]);
+                }
+            }
+            report(print, "FastFunctions.erfc", t1, n*nReps, sum);
+            sum = 0;
+            t1 = System.nanoTime();
+            for (int j=0; j<nReps; j++) {
+                for (int i=0; i<n; i++) {
+                    sum += FastFunctions.erfcOverX(xErfc[i]);
+                }
+            }
+            report(print, "FastFunctions.erfcOverX", t1, n*nReps, sum);
+        }
+    }
+
+    protected static void report(boolean print, String label, long t1, long nCalls, double sum) {
+        double ns = (double)(System.nanoTime() - t1)/nCalls;
+        if (print) {
+            // print the sum so that the loop can't be skipped
+            System.out.println(label+": "+ns+" ns/call ("+sum+")");
+        }
+    }
+}
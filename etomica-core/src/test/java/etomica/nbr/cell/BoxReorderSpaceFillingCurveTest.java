@@ -0,0 +1,152 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.cell;
+
+import junit.framework.TestCase;
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IBox;
+import etomica.api.IMoleculeList;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.box.Box;
+import etomica.nbr.list.PotentialMasterList;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.potential.PotentialCalculationEnergySum;
+import etomica.simulation.Simulation;
+import etomica.space.ISpace;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+public class BoxReorderSpaceFillingCurveTest extends TestCase {
+
+    public void setUp() {
+        space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        species1 = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species1);
+        species2 = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species2);
+        potentialMaster = new PotentialMasterList(sim, 2.0, space);
+        IAtomType type1 = species1.getLeafType();
+        IAtomType type2 = species2.getLeafType();
+        P2SoftSphericalTruncated p2 = new P2SoftSphericalTruncated(space, new P2LennardJones(space), 1.5);
+        potentialMaster.addPotential(p2, new IAtomType[]{type1, type1});
+        potentialMaster.addPotential(p2, new IAtomType[]{type1, type2});
+        potentialMaster.addPotential(p2, new IAtomType[]{type2, type2});
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species1, 200);
+        box.setNMolecules(species2, 100);
+        box.setDensity(0.5);
+        // scatter the atoms without overlaps
+        RandomMersenneTwister random = new RandomMersenneTwister(1);
+        IAtomList leafList = box.getLeafList();
+        double L = box.getBoundary().getBoxSize().getX(0);
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            IVectorMutable p = leafList.getAtom(i).getPosition();
+            boolean overlap = true;
+            while (overlap) {
+                for (int k=0; k<3; k++) {
+                    p.setX(k, (random.nextDouble()-0.5)*L);
+                }
+                overlap = false;
+                for (int j=0; j<i && !overlap; j++) {
+                    IVectorMutable dr = space.makeVector();
+                    dr.Ev1Mv2(p, leafList.getAtom(j).getPosition());
+                    box.getBoundary().nearestImage(dr);
+                    overlap = dr.squared() < 0.8;
+                }
+            }
+        }
+        potentialMaster.getNeighborManager(box).reset();
+    }
+
+    public void testHilbertKey() {
+        // successive cells along the curve must be adjacent
+        int n = 8;
+        int[][] cells = new int[n*n*n][];
+        for (int i=0; i<n; i++) {
+            for (int j=0; j<n; j++) {
+                for (int k=0; k<n; k++) {
+                    int[] x = new int[]{i, j, k};
+                    int key = (int)BoxReorderSpaceFillingCurve.hilbertKey(x, 3);
+                    assertNull(cells[key]);
+                    cells[key] = new int[]{i, j, k};
+                }
+            }
+        }
+        for (int m=1; m<cells.length; m++) {
+            int d = 0;
+            for (int k=0; k<3; k++) {
+                d += Math.abs(cells[m][k] - cells[m-1][k]);
+            }
+            assertEquals(1, d);
+        }
+    }
+
+    public void testReorder() {
+        PotentialCalculationEnergySum pc = new PotentialCalculationEnergySum();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        double u0 = pc.getSum();
+
+        AtomLeafAgentManager<IAtom> agentManager = new AtomLeafAgentManager<IAtom>(new AtomLeafAgentManager.AgentSource<IAtom>() {
+            public IAtom makeAgent(IAtom a, IBox agentBox) {
+                return a;
+            }
+            public void releaseAgent(IAtom agent, IAtom atom, IBox agentBox) {}
+        }, box, IAtom.class);
+
+        NeighborCellManager cellManager = potentialMaster.getNbrCellManager(box);
+        BoxReorderSpaceFillingCurve reorder = new BoxReorderSpaceFillingCurve(cellManager, box, space);
+        reorder.actionPerformed();
+
+        // 8 cells in each direction, so keys have 3 bits per dimension
+        assertEquals(8, cellManager.getLattice().getSize()[0]);
+        IAtomList leafList = box.getLeafList();
+        assertEquals(300, leafList.getAtomCount());
+        int[] latticeIndex = new int[3];
+        long lastKey = -1;
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            IAtom atom = leafList.getAtom(i);
+            assertEquals(i, atom.getLeafIndex());
+            assertSame(atom, agentManager.getAgent(atom));
+            // cell assignments follow the atoms
+            Cell cell = cellManager.getCell(atom);
+            assertTrue(cell.occupants().indexOf(atom) > -1);
+            cellManager.getLattice().latticeIndex(cell.getLatticeArrayIndex(), latticeIndex);
+            long key = BoxReorderSpaceFillingCurve.hilbertKey(latticeIndex, 3);
+            assertTrue(key >= lastKey);
+            lastKey = key;
+        }
+        checkMolecules(box.getMoleculeList(species1), 200);
+        checkMolecules(box.getMoleculeList(species2), 100);
+
+        // neighbor lists were permuted along with everything else
+        pc.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        assertEquals(u0, pc.getSum(), 1e-10*Math.abs(u0));
+        potentialMaster.getNeighborManager(box).reset();
+        pc.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        assertEquals(u0, pc.getSum(), 1e-10*Math.abs(u0));
+    }
+
+    protected void checkMolecules(IMoleculeList molecules, int n) {
+        assertEquals(n, molecules.getMoleculeCount());
+        for (int i=0; i<n; i++) {
+            assertEquals(i, molecules.getMolecule(i).getIndex());
+        }
+    }
+
+    protected ISpace space;
+    protected SpeciesSpheresMono species1, species2;
+    protected PotentialMasterList potentialMaster;
+    protected Box box;
+}
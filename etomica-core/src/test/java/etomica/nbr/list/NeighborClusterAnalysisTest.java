@@ -0,0 +1,116 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.list;
+
+import junit.framework.TestCase;
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.math.SphericalHarmonics;
+import etomica.potential.P2LennardJones;
+import etomica.potential.P2SoftSphericalTruncated;
+import etomica.simulation.Simulation;
+import etomica.space.IVectorRandom;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+public class NeighborClusterAnalysisTest extends TestCase {
+
+    public void setUp() {
+        space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheresMono species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        potentialMaster = new PotentialMasterList(sim, 2.0, space);
+        IAtomType type = species.getLeafType();
+        potentialMaster.addPotential(new P2SoftSphericalTruncated(space, new P2LennardJones(space), 1.5), new IAtomType[]{type, type});
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 500);
+        box.setDensity(1.0);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+    }
+
+    public void testYlm() {
+        RandomMersenneTwister random = new RandomMersenneTwister(1);
+        IVectorRandom dr = (IVectorRandom)space.makeVector();
+        for (int l=0; l<9; l++) {
+            double[] re = new double[2*l+1];
+            double[] im = new double[2*l+1];
+            for (int i=0; i<10; i++) {
+                dr.setRandomSphere(random);
+                SphericalHarmonics.computeYlm(l, dr.getX(0), dr.getX(1), dr.getX(2), re, im);
+                double theta = Math.acos(dr.getX(2));
+                double phi = Math.atan2(dr.getX(1), dr.getX(0));
+                for (int m=-l; m<=l; m++) {
+                    assertEquals(SphericalHarmonics.realYm(l, m, theta, phi), re[m+l], 1e-10);
+                    assertEquals(SphericalHarmonics.imaginaryYm(l, m, theta, phi), im[m+l], 1e-10);
+                }
+            }
+        }
+    }
+
+    public void testCrystal() {
+        potentialMaster.getNeighborManager(box).reset();
+        NeighborClusterAnalysis analysis = new NeighborClusterAnalysis(potentialMaster, box, space);
+        analysis.setCutoff(1.35);
+        analysis.update();
+        IAtomList leafList = box.getLeafList();
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            IAtom atom = leafList.getAtom(i);
+            assertEquals(12, analysis.getCoordinationNumber(atom));
+            // q6 of the fcc lattice
+            assertEquals(0.57452, analysis.getLocalQ(atom), 1e-4);
+            assertTrue(analysis.isClusterMember(atom));
+        }
+        assertEquals(1, analysis.getNumClusters());
+        assertEquals(leafList.getAtomCount(), analysis.getLargestClusterSize());
+    }
+
+    public void testParallel() {
+        // melt the half of the crystal with x>0
+        RandomMersenneTwister random = new RandomMersenneTwister(2);
+        IAtomList leafList = box.getLeafList();
+        IVector size = box.getBoundary().getBoxSize();
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            IVectorMutable p = leafList.getAtom(i).getPosition();
+            if (p.getX(0) > 0) {
+                p.setX(0, random.nextDouble()*0.5*size.getX(0));
+                p.setX(1, (random.nextDouble()-0.5)*size.getX(1));
+                p.setX(2, (random.nextDouble()-0.5)*size.getX(2));
+            }
+        }
+        potentialMaster.getNeighborManager(box).reset();
+        NeighborClusterAnalysis serial = new NeighborClusterAnalysis(potentialMaster, box, space);
+        serial.setCutoff(1.35);
+        serial.update();
+        NeighborClusterAnalysis parallel = new NeighborClusterAnalysis(potentialMaster, box, space);
+        parallel.setCutoff(1.35);
+        parallel.setNumThreads(4);
+        parallel.update();
+        int largest = serial.getLargestClusterSize();
+        assertTrue(largest > 100 && largest < 300);
+        assertEquals(largest, parallel.getLargestClusterSize());
+        assertEquals(serial.getNumClusters(), parallel.getNumClusters());
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            IAtom atom = leafList.getAtom(i);
+            assertEquals(serial.getLocalQ(atom), parallel.getLocalQ(atom));
+            assertEquals(serial.getClusterSize(atom), parallel.getClusterSize(atom));
+            // labels are the lowest leaf index in each cluster
+            assertEquals(serial.getClusterLabel(atom), parallel.getClusterLabel(atom));
+        }
+    }
+
+    protected Space space;
+    protected PotentialMasterList potentialMaster;
+    protected Box box;
+}
@@ -0,0 +1,313 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.nbr.list;
+
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+import etomica.api.IAtom;
+import etomica.api.IAtomList;
+import etomica.api.IAtomType;
+import etomica.api.IBoundary;
+import etomica.api.IBox;
+import etomica.api.IPotentialAtomic;
+import etomica.api.IVector;
+import etomica.api.IVectorMutable;
+import etomica.atom.AtomLeafAgentManager;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.box.Box;
+import etomica.config.ConfigurationLattice;
+import etomica.integrator.IntegratorVelocityVerlet.MyAgent;
+import etomica.lattice.LatticeCubicFcc;
+import etomica.potential.PotentialCalculation;
+import etomica.potential.PotentialCalculationEnergySum;
+import etomica.potential.PotentialCalculationForceSum;
+import etomica.potential.PotentialSoft;
+import etomica.simulation.Simulation;
+import etomica.space.ISpace;
+import etomica.space.IVectorRandom;
+import etomica.space.Space;
+import etomica.space.Tensor;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheresMono;
+import etomica.util.RandomMersenneTwister;
+
+public class PotentialMasterListThreeBodyTest extends TestCase {
+
+    public void setUp() {
+        space = Space3D.getInstance();
+        sim = new Simulation(space);
+        species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        potentialMaster = new PotentialMasterList(sim, 2.2, space);
+        potentialMaster.setThreeBodyCutoff(cutoff);
+        p3 = new P3Test(space);
+        IAtomType type = species.getLeafType();
+        potentialMaster.addPotential(p3, new IAtomType[]{type, type, type});
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 256);
+        box.setDensity(0.8);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        RandomMersenneTwister random = new RandomMersenneTwister(3);
+        IVectorRandom dr = (IVectorRandom)space.makeVector();
+        for (int i=0; i<box.getLeafList().getAtomCount(); i++) {
+            dr.setRandomCube(random);
+            box.getLeafList().getAtom(i).getPosition().PEa1Tv1(0.3, dr);
+        }
+        potentialMaster.getNeighborManager(box).reset();
+    }
+
+    public void testBox() {
+        PotentialCalculationEnergySum pc = new PotentialCalculationEnergySum();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        assertEquals(bruteForce(null), pc.getSum(), 1e-9*Math.abs(pc.getSum()));
+    }
+
+    public void testTarget() {
+        IteratorDirective id = new IteratorDirective();
+        id.setDirection(null);
+        for (int i=0; i<box.getLeafList().getAtomCount(); i+=17) {
+            IAtom atom = box.getLeafList().getAtom(i);
+            id.setTargetAtom(atom);
+            PotentialCalculationEnergySum pc = new PotentialCalculationEnergySum();
+            potentialMaster.calculate(box, id, pc);
+            assertTrue(pc.getSum() > 0);
+            assertEquals(bruteForce(atom), pc.getSum(), 1e-9*pc.getSum());
+        }
+    }
+
+    public void testParallel() {
+        PotentialCalculationEnergySum pc = new PotentialCalculationEnergySum();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        double serial = pc.getSum();
+        potentialMaster.setThreeBodyWorkers(p3, new IPotentialAtomic[]{new P3Test(space), new P3Test(space), new P3Test(space)});
+        for (int i=0; i<3; i++) {
+            pc.zeroSum();
+            potentialMaster.calculate(box, new IteratorDirective(), pc);
+            assertEquals(serial, pc.getSum(), 1e-9*serial);
+        }
+        potentialMaster.stopThreads();
+        pc.zeroSum();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        assertEquals(serial, pc.getSum(), 1e-9*serial);
+    }
+
+    public void testParallelForce() {
+        AtomLeafAgentManager<MyAgent> agentManager = new AtomLeafAgentManager<MyAgent>(new AtomLeafAgentManager.AgentSource<MyAgent>() {
+            public MyAgent makeAgent(IAtom a, IBox agentBox) {
+                return new MyAgent(space);
+            }
+            public void releaseAgent(MyAgent agent, IAtom atom, IBox agentBox) {}
+        }, box, MyAgent.class);
+        PotentialCalculationForceSum pc = new PotentialCalculationForceSum();
+        pc.setAgentManager(agentManager);
+        pc.reset();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        IAtomList leafList = box.getLeafList();
+        IVectorMutable[] serial = new IVectorMutable[leafList.getAtomCount()];
+        IVectorMutable sum = space.makeVector();
+        for (int i=0; i<serial.length; i++) {
+            serial[i] = space.makeVector();
+            serial[i].E(agentManager.getAgent(leafList.getAtom(i)).force());
+            sum.PE(serial[i]);
+        }
+        // the forces don't vanish, but they sum to 0
+        assertTrue(serial[0].squared() > 0);
+        assertEquals(0, Math.sqrt(sum.squared()), 1e-8*Math.sqrt(serial[0].squared()));
+
+        potentialMaster.setThreeBodyWorkers(p3, new IPotentialAtomic[]{new P3Test(space), new P3Test(space)});
+        for (int j=0; j<3; j++) {
+            pc.reset();
+            potentialMaster.calculate(box, new IteratorDirective(), pc);
+            for (int i=0; i<serial.length; i++) {
+                IVector f = agentManager.getAgent(leafList.getAtom(i)).force();
+                for (int k=0; k<3; k++) {
+                    assertEquals(serial[i].getX(k), f.getX(k), 1e-9*Math.sqrt(serial[i].squared()));
+                }
+            }
+        }
+        potentialMaster.stopThreads();
+    }
+
+    /**
+     * Checks that a potential for types {A,A,B} sees only triplets of those
+     * types, with the B atom last.
+     */
+    public void testTypes() {
+        sim = new Simulation(space);
+        species = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(species);
+        SpeciesSpheresMono speciesB = new SpeciesSpheresMono(sim, space);
+        sim.addSpecies(speciesB);
+        final IAtomType typeA = species.getLeafType();
+        IAtomType typeB = speciesB.getLeafType();
+        potentialMaster = new PotentialMasterList(sim, 2.2, space);
+        potentialMaster.setThreeBodyCutoff(cutoff);
+        IPotentialAtomic pAAB = new P3Test(space);
+        potentialMaster.addPotential(pAAB, new IAtomType[]{typeA, typeA, typeB});
+        box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 171);
+        box.setNMolecules(speciesB, 85);
+        box.setDensity(0.8);
+        new ConfigurationLattice(new LatticeCubicFcc(space), space).initializeCoordinates(box);
+        potentialMaster.getNeighborManager(box).reset();
+
+        final HashSet<String> visited = new HashSet<String>();
+        final int[] nVisited = new int[1];
+        PotentialCalculation pc = new PotentialCalculation() {
+            public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+                String tuple = "";
+                for (int i=0; i<3; i++) {
+                    tuple += atoms.getAtom(i).getType() == typeA ? "A" : "B";
+                }
+                visited.add(tuple);
+                nVisited[0]++;
+            }
+        };
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        assertEquals(1, visited.size());
+        assertTrue(visited.contains("AAB"));
+        int nBox = nVisited[0];
+        assertTrue(nBox > 0);
+
+        // each triplet is visited once from each of its atoms
+        nVisited[0] = 0;
+        IteratorDirective id = new IteratorDirective();
+        id.setDirection(null);
+        IAtomList leafList = box.getLeafList();
+        for (int i=0; i<leafList.getAtomCount(); i++) {
+            id.setTargetAtom(leafList.getAtom(i));
+            potentialMaster.calculate(box, id, pc);
+        }
+        assertEquals(1, visited.size());
+        assertEquals(3*nBox, nVisited[0]);
+
+        // the potential can be removed and added again
+        potentialMaster.removePotential(pAAB);
+        nVisited[0] = 0;
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        assertEquals(0, nVisited[0]);
+        potentialMaster.addPotential(pAAB, new IAtomType[]{typeA, typeA, typeB});
+        potentialMaster.getNeighborManager(box).reset();
+        potentialMaster.calculate(box, new IteratorDirective(), pc);
+        assertEquals(nBox, nVisited[0]);
+    }
+
+    /**
+     * Sums the energy of all triplets (containing the given atom, if not
+     * null) by looping over every triplet of atoms in the box.
+     */
+    protected double bruteForce(IAtom target) {
+        IAtomList leafList = box.getLeafList();
+        int n = leafList.getAtomCount();
+        p3.setBox(box);
+        P3Test.Triplet triplet = new P3Test.Triplet();
+        double sum = 0;
+        for (int i=0; i<n; i++) {
+            for (int j=i+1; j<n; j++) {
+                if (p3.r2(leafList.getAtom(i), leafList.getAtom(j)) > cutoff*cutoff) continue;
+                for (int k=j+1; k<n; k++) {
+                    if (p3.r2(leafList.getAtom(i), leafList.getAtom(k)) > cutoff*cutoff) continue;
+                    if (p3.r2(leafList.getAtom(j), leafList.getAtom(k)) > cutoff*cutoff) continue;
+                    triplet.atoms[0] = leafList.getAtom(i);
+                    triplet.atoms[1] = leafList.getAtom(j);
+                    triplet.atoms[2] = leafList.getAtom(k);
+                    if (target != null && target != triplet.atoms[0] && target != triplet.atoms[1] && target != triplet.atoms[2]) {
+                        continue;
+                    }
+                    sum += p3.energy(triplet);
+                }
+            }
+        }
+        return sum;
+    }
+
+    protected final double cutoff = 1.8;
+    protected ISpace space;
+    protected Simulation sim;
+    protected SpeciesSpheresMono species;
+    protected PotentialMasterList potentialMaster;
+    protected Box box;
+    protected P3Test p3;
+
+    /**
+     * Simple three-body potential, with energy 1/(r12 r13 r23).
+     */
+    public static class P3Test implements PotentialSoft {
+
+        public P3Test(ISpace space) {
+            dr = space.makeVector();
+            gradient = new IVectorMutable[3];
+            for (int i=0; i<3; i++) {
+                gradient[i] = space.makeVector();
+            }
+        }
+
+        public double energy(IAtomList atoms) {
+            double r2 = r2(atoms.getAtom(0), atoms.getAtom(1))*r2(atoms.getAtom(0), atoms.getAtom(2))
+                       *r2(atoms.getAtom(1), atoms.getAtom(2));
+            return 1/Math.sqrt(r2);
+        }
+
+        public IVector[] gradient(IAtomList atoms) {
+            double u = energy(atoms);
+            for (int i=0; i<3; i++) {
+                gradient[i].E(0);
+            }
+            // dU/dri = U sum_j (rj-ri)/rij^2
+            for (int i=0; i<3; i++) {
+                for (int j=i+1; j<3; j++) {
+                    double r2 = r2(atoms.getAtom(i), atoms.getAtom(j));
+                    gradient[i].PEa1Tv1(u/r2, dr);
+                    gradient[j].PEa1Tv1(-u/r2, dr);
+                }
+            }
+            return gradient;
+        }
+
+        public IVector[] gradient(IAtomList atoms, Tensor pressureTensor) {
+            throw new RuntimeException("not implemented");
+        }
+
+        public double virial(IAtomList atoms) {
+            // the energy goes as r^-3
+            return -3*energy(atoms);
+        }
+
+        public double r2(IAtom atom0, IAtom atom1) {
+            dr.Ev1Mv2(atom1.getPosition(), atom0.getPosition());
+            boundary.nearestImage(dr);
+            return dr.squared();
+        }
+
+        public double getRange() {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        public void setBox(IBox box) {
+            boundary = box.getBoundary();
+        }
+
+        public int nBody() {
+            return 3;
+        }
+
+        protected final IVectorMutable dr;
+        protected final IVectorMutable[] gradient;
+        protected IBoundary boundary;
+
+        public static class Triplet implements IAtomList {
+            public int getAtomCount() {
+                return 3;
+            }
+            public IAtom getAtom(int i) {
+                return atoms[i];
+            }
+            public final IAtom[] atoms = new IAtom[3];
+        }
+    }
+}
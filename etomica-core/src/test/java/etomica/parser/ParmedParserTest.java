@@ -1,13 +1,34 @@
 package etomica.parser;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import static etomica.parser.ParmedParser.parseGromacsResourceFiles;
 import static org.junit.Assert.*;
 
 public class ParmedParserTest {
+    private File cacheDirectory, oldCacheDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        oldCacheDirectory = TopologyCache.getCacheDirectory();
+        cacheDirectory = Files.createTempDirectory("topology-cache").toFile();
+        TopologyCache.setCacheDirectory(cacheDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : cacheDirectory.listFiles()) {
+            f.delete();
+        }
+        cacheDirectory.delete();
+        TopologyCache.setCacheDirectory(oldCacheDirectory);
+    }
 
     @Test
     public void testParseGromacsResourceFiles() {
@@ -12,25 +12,41 @@ import etomica.potential.PotentialGroup;
 import etomica.space3d.Space3D;
 import etomica.space3d.Vector3D;
 import etomica.species.SpeciesSpheresCustom;
+import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.List;
 
 import static org.junit.Assert.*;
 
 public class ParmedStructureTest {
     private static ParmedStructure structure;
+    private static File cacheDirectory, oldCacheDirectory;
 
     private static final double EPSILON = 0.000001;
 
     @BeforeClass
     public static void setUp() throws Exception {
+        oldCacheDirectory = TopologyCache.getCacheDirectory();
+        cacheDirectory = Files.createTempDirectory("topology-cache").toFile();
+        TopologyCache.setCacheDirectory(cacheDirectory);
         // this can take a while so we only do it once.
         structure = ParmedParser.parseGromacsResourceFiles("test.top", "test.gro");
     }
 
+    @AfterClass
+    public static void tearDown() {
+        for (File f : cacheDirectory.listFiles()) {
+            f.delete();
+        }
+        cacheDirectory.delete();
+        TopologyCache.setCacheDirectory(oldCacheDirectory);
+    }
+
     @Test
     public void testGetBox() throws Exception {
         Box box = structure.getBox();
@@ -70,8 +86,10 @@ public class ParmedStructureTest {
         act.setDestination(new Vector3D(5, 5, 5));
         act.actionPerformed(mol2);
 
+        // includes every pair of unlike atom types (before ApiIntergroupIntraSpecies
+        // was fixed, only those with the molecule's first atom of the pair's types)
         assertEquals(
-                -0.002102905446227447,
+                -0.005197418994278377,
                 potentialGroup.energy(new MoleculePair(
                         mol1,
                         mol2
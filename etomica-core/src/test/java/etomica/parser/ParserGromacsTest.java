@@ -0,0 +1,158 @@
+package etomica.parser;
+
+import etomica.api.IMolecule;
+import etomica.api.IVectorMutable;
+import etomica.atom.MoleculeArrayList;
+import etomica.atom.MoleculePair;
+import etomica.box.Box;
+import etomica.space.BoundaryRectangularNonperiodic;
+import etomica.space3d.Space3D;
+import etomica.space3d.Vector3D;
+import etomica.units.Joule;
+import etomica.units.Mole;
+import etomica.units.Prefix;
+import etomica.units.PrefixedUnit;
+import etomica.units.Unit;
+import etomica.units.UnitRatio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParserGromacsTest {
+    private File cacheDirectory, oldCacheDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        oldCacheDirectory = TopologyCache.getCacheDirectory();
+        cacheDirectory = Files.createTempDirectory("topology-cache").toFile();
+        TopologyCache.setCacheDirectory(cacheDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : cacheDirectory.listFiles()) {
+            f.delete();
+        }
+        cacheDirectory.delete();
+        TopologyCache.setCacheDirectory(oldCacheDirectory);
+    }
+
+    private static File getResourceFile(String filename) {
+        return new File(ParserGromacsTest.class.getClassLoader().getResource(filename).getFile());
+    }
+
+    @Test
+    public void testReadTopology() {
+        Topology topology = ParserGromacs.readTopology(getResourceFile("test.top"), getResourceFile("test.gro"));
+        assertEquals(125, topology.moleculeCount);
+        assertEquals(18, topology.getAtomCount());
+        assertEquals(4, topology.typeNames.length);
+        assertEquals(17, topology.bonds.length);
+        assertEquals(topology.bonds.length, topology.bondParameters.length);
+        assertEquals(topology.moleculeCount*topology.getAtomCount(), topology.coordinates.length);
+        // sigma of opls_143, 0.355 nm
+        assertEquals(3.55, topology.typeSigma[0], 1e-12);
+        assertArrayEquals(new double[]{22.8634, 24.0384, 67.2039}, topology.boxSize, 1e-10);
+        // molecule 1, atom 1 is at (-0.093, -0.056, 1.380) nm
+        assertArrayEquals(new double[]{-0.93, -0.56, 13.8}, topology.coordinates[19], 1e-10);
+        // C-C-C-C dihedral, RB coefficients 2.9288 -1.4644 0.2092 -1.6736 (kJ/mol) give
+        // OPLS F1=5.4392 F2=-0.2092 F3=0.8368, and F4=0
+        Unit kJpermol = new UnitRatio(new PrefixedUnit(Prefix.KILO, Joule.UNIT), Mole.UNIT);
+        double[] a = topology.dihedralParameters[2];
+        assertEquals(kJpermol.toSim(5.4392), a[0], 1e-9);
+        assertEquals(kJpermol.toSim(-0.2092), a[1], 1e-9);
+        assertEquals(kJpermol.toSim(0.8368), a[2], 1e-9);
+        assertEquals(0, a[3], 1e-9);
+    }
+
+    @Test
+    public void testCache() {
+        File top = getResourceFile("test.top");
+        File gro = getResourceFile("test.gro");
+        Topology parsed = ParserGromacs.readTopology(top, gro);
+        assertEquals(1, cacheDirectory.listFiles().length);
+        Topology cached = ParserGromacs.readTopology(top, gro);
+        assertNotSame(parsed, cached);
+        assertArrayEquals(parsed.typeNames, cached.typeNames);
+        assertArrayEquals(parsed.atomTypes, cached.atomTypes);
+        assertArrayEquals(parsed.typeEpsilon, cached.typeEpsilon, 0);
+        assertArrayEquals(parsed.dihedrals, cached.dihedrals);
+        for (int i = 0; i < parsed.dihedralParameters.length; i++) {
+            assertArrayEquals(parsed.dihedralParameters[i], cached.dihedralParameters[i], 0);
+        }
+        for (int i = 0; i < parsed.coordinates.length; i++) {
+            assertArrayEquals(parsed.coordinates[i], cached.coordinates[i], 0);
+        }
+        assertArrayEquals(parsed.boxSize, cached.boxSize, 0);
+    }
+
+    @Test
+    public void testReadGroPrecision() throws Exception {
+        // rewrite test.gro with %9.4f coordinates, as gmx writes with -ndec 4
+        File gro = getResourceFile("test.gro");
+        List<String> lines = Files.readAllLines(gro.toPath(), StandardCharsets.UTF_8);
+        Topology topology = ParserGromacs.readTopology(getResourceFile("test.top"), gro);
+        int nAtoms = topology.coordinates.length;
+        List<String> lines4 = new ArrayList<String>(lines);
+        for (int i = 0; i < nAtoms; i++) {
+            double[] x = topology.coordinates[i];
+            lines4.set(i+2, lines.get(i+2).substring(0, 20)+String.format("%9.4f%9.4f%9.4f", x[0]/10, x[1]/10, x[2]/10));
+        }
+        File gro4 = Files.createTempFile("test4", ".gro").toFile();
+        Files.write(gro4.toPath(), lines4, StandardCharsets.UTF_8);
+        Topology topology4 = ParserGromacs.readTopology(getResourceFile("test.top"), gro4);
+        gro4.delete();
+        for (int i = 0; i < nAtoms; i++) {
+            assertArrayEquals(topology.coordinates[i], topology4.coordinates[i], 1e-10);
+        }
+        assertArrayEquals(topology.boxSize, topology4.boxSize, 0);
+    }
+
+    @Test
+    public void testMakeStuff() {
+        File top = getResourceFile("test.top");
+        File gro = getResourceFile("test.gro");
+        ParserLAMMPS.Stuff stuff = ParserGromacs.makeStuff(top, gro, new ParserLAMMPS.Options());
+        // no periodic images, so that the energies are the plain sums over atoms
+        Box box = new Box(new BoundaryRectangularNonperiodic(Space3D.getInstance()), Space3D.getInstance());
+        stuff.intraPotential.setBox(box);
+        IMolecule molecule = stuff.species.makeMolecule();
+        assertEquals(18, molecule.getChildList().getAtomCount());
+        MoleculeArrayList list = new MoleculeArrayList();
+        list.add(molecule);
+        // bonds, angles, RB dihedrals and 1-4 pairs of the molecule as it is
+        // in test.gro (153.3 kJ/mol)
+        assertEquals(15327.731733670344, stuff.intraPotential.energy(list), 1e-8);
+
+        IMolecule molecule2 = stuff.species.makeMolecule();
+        for (int i = 0; i < 18; i++) {
+            molecule2.getChildList().getAtom(i).getPosition().PE(new Vector3D(5, 5, 5));
+        }
+        stuff.interPotential.setBox(box);
+        double u = stuff.interPotential.energy(new MoleculePair(molecule, molecule2));
+        assertEquals(-47.9873028597787, u, 1e-8);
+
+        // the intermolecular energy is the untruncated Lennard-Jones sum over
+        // all pairs of atoms, with mixed sigma and epsilon
+        Topology topology = ParserGromacs.readTopology(top, gro);
+        IVectorMutable dr = Space3D.getInstance().makeVector();
+        double uLJ = 0;
+        for (int i = 0; i < 18; i++) {
+            for (int j = 0; j < 18; j++) {
+                dr.Ev1Mv2(molecule.getChildList().getAtom(i).getPosition(), molecule2.getChildList().getAtom(j).getPosition());
+                double sigma = topology.mixSigma(topology.atomTypes[i], topology.atomTypes[j]);
+                double s6 = Math.pow(sigma*sigma/dr.squared(), 3);
+                uLJ += 4*topology.mixEpsilon(topology.atomTypes[i], topology.atomTypes[j])*s6*(s6-1);
+            }
+        }
+        assertEquals(uLJ, u, 1e-10);
+    }
+}
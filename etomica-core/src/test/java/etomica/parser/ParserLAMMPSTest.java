@@ -0,0 +1,77 @@
+package etomica.parser;
+
+import etomica.units.Calorie;
+import etomica.units.Mole;
+import etomica.units.Prefix;
+import etomica.units.PrefixedUnit;
+import etomica.units.Unit;
+import etomica.units.UnitRatio;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParserLAMMPSTest {
+
+    // a bent three-atom molecule in "real" units
+    private static final List<String> LINES = Arrays.asList(
+            "LAMMPS data file",
+            "",
+            "3 atoms",
+            "2 bonds",
+            "1 angles",
+            "",
+            "2 atom types",
+            "1 bond types",
+            "1 angle types",
+            "",
+            "Masses",
+            "",
+            "1 15.035",
+            "2 14.027",
+            "",
+            "Pair Coeffs",
+            "",
+            "1 0.195 3.75",
+            "2 0.091 3.95",
+            "",
+            "Bond Coeffs",
+            "",
+            "1 450.0 1.54",
+            "",
+            "Angle Coeffs",
+            "",
+            "1 62.1 114.0",
+            "",
+            "Atoms",
+            "",
+            "1 1 1 0.0 0.0 0.0 0.0",
+            "2 1 2 0.0 1.54 0.0 0.0",
+            "3 1 1 0.0 2.17 1.41 0.0",
+            "",
+            "Bonds",
+            "",
+            "1 1 1 2",
+            "2 1 2 3",
+            "",
+            "Angles",
+            "",
+            "1 1 1 2 3");
+
+    @Test
+    public void testCoefficients() {
+        Topology topology = ParserLAMMPS.readTopologyFromLines(LINES);
+        Unit kcalpermol = new UnitRatio(new PrefixedUnit(Prefix.KILO, Calorie.UNIT), Mole.UNIT);
+        assertEquals(3, topology.getAtomCount());
+        assertEquals(2, topology.bonds.length);
+        // Bond Coeffs are K (kcal/mol/A^2) then r0 (A), with U = K*(r-r0)^2
+        assertEquals(2*kcalpermol.toSim(450.0), topology.bondParameters[1][0], 1e-9);
+        assertEquals(1.54, topology.bondParameters[1][1], 1e-12);
+        // Angle Coeffs are K (kcal/mol/rad^2) then theta0 in degrees
+        assertEquals(2*kcalpermol.toSim(62.1), topology.angleParameters[0][0], 1e-9);
+        assertEquals(114.0*Math.PI/180, topology.angleParameters[0][1], 1e-12);
+        assertEquals(3.95, topology.typeSigma[1], 1e-12);
+    }
+}
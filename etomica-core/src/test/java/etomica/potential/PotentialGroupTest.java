@@ -0,0 +1,71 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.potential;
+
+import junit.framework.TestCase;
+import etomica.api.IAtomList;
+import etomica.api.IMolecule;
+import etomica.api.IPotentialAtomic;
+import etomica.api.ISpecies;
+import etomica.atom.MoleculeSetSinglet;
+import etomica.atom.iterator.Atomset3IteratorIndexList;
+import etomica.atom.iterator.IteratorDirective;
+import etomica.box.Box;
+import etomica.chem.elements.ElementSimple;
+import etomica.config.ConformationLinear;
+import etomica.data.meter.MeterPotentialEnergy;
+import etomica.simulation.Simulation;
+import etomica.space.Space;
+import etomica.space3d.Space3D;
+import etomica.species.SpeciesSpheres;
+
+public class PotentialGroupTest extends TestCase {
+
+    /**
+     * Checks that energy sums over the whole molecule after the group has
+     * been used in a calculation targeted at one of its atoms.
+     */
+    public void testEnergyAfterTarget() {
+        Space space = Space3D.getInstance();
+        Simulation sim = new Simulation(space);
+        SpeciesSpheres species = new SpeciesSpheres(4, new ElementSimple(sim), new ConformationLinear(space, 1.0), space);
+        sim.addSpecies(species);
+        PotentialMaster potentialMaster = new PotentialMaster();
+        P3BondAngle p3 = new P3BondAngle(space);
+        p3.setAngle(0.5*Math.PI);
+        p3.setEpsilon(1);
+        PotentialGroup pIntra = potentialMaster.makePotentialGroup(1);
+        pIntra.addPotential(p3, new Atomset3IteratorIndexList(new int[][]{{0,1,2},{1,2,3}}));
+        potentialMaster.addPotential(pIntra, new ISpecies[]{species});
+        Box box = new Box(space);
+        sim.addBox(box);
+        box.setNMolecules(species, 1);
+        IMolecule molecule = box.getMoleculeList().getMolecule(0);
+        pIntra.setBox(box);
+
+        // the chain is straight, so each angle is off by pi/2
+        double uAngle = 0.5*(0.5*Math.PI)*(0.5*Math.PI);
+        assertEquals(2*uAngle, pIntra.energy(new MoleculeSetSinglet(molecule)), 1e-10);
+
+        // a calculation targeted at the first atom visits only the first angle
+        final int[] nVisited = new int[1];
+        PotentialCalculation counter = new PotentialCalculation() {
+            public void doCalculation(IAtomList atoms, IPotentialAtomic potential) {
+                nVisited[0]++;
+            }
+        };
+        IteratorDirective id = new IteratorDirective();
+        id.setTargetAtom(molecule.getChildList().getAtom(0));
+        id.setDirection(null);
+        potentialMaster.calculate(box, id, counter);
+        assertEquals(1, nVisited[0]);
+
+        // the energy of the whole box and of the molecule include both angles
+        MeterPotentialEnergy meterPE = new MeterPotentialEnergy(potentialMaster);
+        meterPE.setBox(box);
+        assertEquals(2*uAngle, meterPE.getDataAsScalar(), 1e-10);
+        assertEquals(2*uAngle, pIntra.energy(new MoleculeSetSinglet(molecule)), 1e-10);
+    }
+}
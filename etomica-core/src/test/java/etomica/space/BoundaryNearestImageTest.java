@@ -0,0 +1,278 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.space;
+
+import junit.framework.TestCase;
+import etomica.api.IVectorMutable;
+import etomica.space2d.Space2D;
+import etomica.space2d.Tensor2D;
+import etomica.space3d.Space3D;
+import etomica.space3d.Tensor3D;
+import etomica.util.RandomMersenneTwister;
+
+/**
+ * Checks the minimum-image kernels of BoundaryRectangularPeriodic and
+ * BoundaryDeformablePeriodic against the implementations they replaced and
+ * against a brute-force search over images.  Run main to compare their
+ * speed.
+ */
+public class BoundaryNearestImageTest extends TestCase {
+
+    public void setUp() {
+        random = new RandomMersenneTwister(1);
+    }
+
+    /**
+     * The original rectangular nearest image, shifting with mod.
+     */
+    protected static void nearestImageMod(IVectorMutable dr, IVectorMutable dimensions, IVectorMutable dimensionsHalf) {
+        dr.PE(dimensionsHalf);
+        dr.mod(dimensions);
+        dr.ME(dimensionsHalf);
+    }
+
+    /**
+     * Returns the squared length of the nearest image, searching images in
+     * the given number of shells.
+     */
+    protected static double bruteForce(IVectorMutable dr, IVectorMutable[] edges, int nShells, ISpace space) {
+        IVectorMutable image = space.makeVector();
+        double best = Double.POSITIVE_INFINITY;
+        int n = 2*nShells+1;
+        int nImages = space.powerD(n);
+        for (int m=0; m<nImages; m++) {
+            image.E(dr);
+            for (int i=0, mm=m; i<edges.length; i++, mm/=n) {
+                image.PEa1Tv1(mm%n - nShells, edges[i]);
+            }
+            best = Math.min(best, image.squared());
+        }
+        return best;
+    }
+
+    protected void randomVector(IVectorMutable dr, double scale) {
+        for (int i=0; i<dr.getD(); i++) {
+            dr.setX(i, (random.nextDouble()-0.5)*scale);
+        }
+    }
+
+    protected static BoundaryDeformablePeriodic makeTriclinic(ISpace space) {
+        BoundaryDeformablePeriodic boundary = new BoundaryDeformablePeriodic(space, 1.0);
+        if (space.D() == 3) {
+            boundary.deform(new Tensor3D(new double[][] {{10.0, 1.0, 1.0},
+                                                         {-2.0, 12.0, 1.5},
+                                                         {-1.0, 5.0, 9.0}}));
+        }
+        else {
+            Tensor2D deformation = new Tensor2D();
+            deformation.E(new double[] {10.0, -5.0,
+                                        8.0, 10.0});
+            boundary.deform(deformation);
+        }
+        return boundary;
+    }
+
+    public void testRectangular() {
+        Space space = Space3D.getInstance();
+        BoundaryRectangularPeriodic boundary = new BoundaryRectangularPeriodic(space, new double[]{7, 9, 11});
+        IVectorMutable dimensions = space.makeVector();
+        dimensions.E(boundary.getBoxSize());
+        IVectorMutable dimensionsHalf = space.makeVector();
+        dimensionsHalf.Ea1Tv1(0.5, dimensions);
+        IVectorMutable dr = space.makeVector();
+        IVectorMutable dr0 = space.makeVector();
+        IVectorMutable drMod = space.makeVector();
+        for (int i=0; i<100000; i++) {
+            // mostly within the box, some several boxes away
+            randomVector(dr, i%10 == 0 ? 60 : 12);
+            dr0.E(dr);
+            drMod.E(dr);
+            boundary.nearestImage(dr);
+            nearestImageMod(drMod, dimensions, dimensionsHalf);
+            assertEquals(drMod.squared(), dr.squared(), 1e-9);
+            for (int k=0; k<3; k++) {
+                assertTrue(Math.abs(dr.getX(k)) <= 0.5*dimensions.getX(k)*(1+1e-12));
+                // the shift must be a whole number of box lengths
+                double n = (dr0.getX(k) - dr.getX(k))/dimensions.getX(k);
+                assertEquals(Math.round(n), n, 1e-9);
+            }
+        }
+    }
+
+    public void testTriclinic() {
+        ISpace[] spaces = new ISpace[]{Space2D.getInstance(), Space3D.getInstance()};
+        for (int s=0; s<spaces.length; s++) {
+            ISpace space = spaces[s];
+            BoundaryDeformablePeriodic boundary = makeTriclinic(space);
+            IVectorMutable[] edges = space.makeVectorArray(space.D());
+            for (int i=0; i<edges.length; i++) {
+                edges[i].E(boundary.getEdgeVector(i));
+            }
+            IVectorMutable dr = space.makeVector();
+            IVectorMutable dr0 = space.makeVector();
+            IVectorMutable drOld = space.makeVector();
+            for (int i=0; i<20000; i++) {
+                randomVector(dr, i%10 == 0 ? 80 : 20);
+                dr0.E(dr);
+                drOld.E(dr);
+                boundary.nearestImage(dr);
+                boundary.nearestImageIterative(drOld);
+                assertEquals(drOld.squared(), dr.squared(), 1e-9);
+                // brute force from the image we found, so that a few shells
+                // are enough
+                assertEquals(bruteForce(dr, edges, 2, space), dr.squared(), 1e-9);
+                dr0.ME(dr);
+                boundary.nearestImage(dr0);
+                assertEquals(0, dr0.squared(), 1e-12);
+            }
+        }
+    }
+
+    public void testSkewed() {
+        // so skewed that the neighbors of the edges' parallelepiped don't
+        // include every lattice vector that matters; the reduced basis must
+        // find a compact cell
+        ISpace[] spaces = new ISpace[]{Space2D.getInstance(), Space3D.getInstance()};
+        for (int s=0; s<spaces.length; s++) {
+            ISpace space = spaces[s];
+            BoundaryDeformablePeriodic boundary = new BoundaryDeformablePeriodic(space, 1.0);
+            if (space.D() == 3) {
+                boundary.deform(new Tensor3D(new double[][] {{10.0, 47.0, 0.0},
+                                                             {0.0, 1.5, 0.0},
+                                                             {0.0, 3.0, 10.0}}));
+            }
+            else {
+                Tensor2D deformation = new Tensor2D();
+                deformation.E(new double[] {10.0, 47.0,
+                                            0.0, 1.5});
+                boundary.deform(deformation);
+            }
+            IVectorMutable[] edges = space.makeVectorArray(space.D());
+            for (int i=0; i<edges.length; i++) {
+                edges[i].E(boundary.getEdgeVector(i));
+            }
+            IVectorMutable dr = space.makeVector();
+            for (int i=0; i<20000; i++) {
+                randomVector(dr, 100);
+                boundary.nearestImage(dr);
+                assertEquals(bruteForce(dr, edges, 5, space), dr.squared(), 1e-9);
+            }
+        }
+    }
+
+    public void testTruncation() {
+        // with a truncation radius within the inscribed sphere, images
+        // within the truncation radius are exact and others are no shorter
+        ISpace space = Space3D.getInstance();
+        BoundaryDeformablePeriodic boundary = makeTriclinic(space);
+        IVectorMutable[] edges = space.makeVectorArray(space.D());
+        for (int i=0; i<edges.length; i++) {
+            edges[i].E(boundary.getEdgeVector(i));
+        }
+        double rc = 3.5;
+        boundary.setTruncationRadius(rc);
+        IVectorMutable dr = space.makeVector();
+        int nWithin = 0;
+        for (int i=0; i<20000; i++) {
+            randomVector(dr, 40);
+            boundary.nearestImage(dr);
+            double r2 = bruteForce(dr, edges, 2, space);
+            if (r2 < rc*rc) {
+                assertEquals(r2, dr.squared(), 1e-9);
+                nWithin++;
+            }
+            else {
+                assertTrue(dr.squared() >= rc*rc);
+            }
+        }
+        assertTrue(nWithin > 1000);
+    }
+
+    /**
+     * Times the old and new kernels.  Each kernel gets its own loop so that
+     * the JIT compiles each one separately.
+     */
+    public static void main(String[] args) {
+        RandomMersenneTwister random = new RandomMersenneTwister(1);
+        Space space = Space3D.getInstance();
+        int n = 1000;
+        // vectors out to a couple of box lengths
+        double[][] vectors = new double[n][3];
+        for (int i=0; i<n; i++) {
+            for (int k=0; k<3; k++) {
+                vectors[i][k] = (random.nextDouble()-0.5)*20;
+            }
+        }
+        BoundaryRectangularPeriodic rectangular = new BoundaryRectangularPeriodic(space, 10);
+        IVectorMutable dimensions = space.makeVector();
+        dimensions.E(rectangular.getBoxSize());
+        IVectorMutable dimensionsHalf = space.makeVector();
+        dimensionsHalf.Ea1Tv1(0.5, dimensions);
+        BoundaryDeformablePeriodic triclinic = makeTriclinic(space);
+        BoundaryDeformablePeriodic triclinicTruncated = makeTriclinic(space);
+        triclinicTruncated.setTruncationRadius(3.5);
+        IVectorMutable dr = space.makeVector();
+        int nRep = 5000;
+        for (int pass=0; pass<3; pass++) {
+            long t0 = System.nanoTime();
+            timeMod(vectors, dr, dimensions, dimensionsHalf, nRep);
+            long t1 = System.nanoTime();
+            time(rectangular, vectors, dr, nRep);
+            long t2 = System.nanoTime();
+            timeIterative(triclinic, vectors, dr, nRep);
+            long t3 = System.nanoTime();
+            time(triclinic, vectors, dr, nRep);
+            long t4 = System.nanoTime();
+            time(triclinicTruncated, vectors, dr, nRep);
+            long t5 = System.nanoTime();
+            if (pass == 2) {
+                double perVector = 1.0/((double)nRep*n);
+                System.out.println("rectangular mod: "+(t1-t0)*perVector+" ns per vector");
+                System.out.println("rectangular reciprocal: "+(t2-t1)*perVector+" ns per vector");
+                System.out.println("triclinic iterative: "+(t3-t2)*perVector+" ns per vector");
+                System.out.println("triclinic fractional: "+(t4-t3)*perVector+" ns per vector");
+                System.out.println("triclinic fractional, truncated: "+(t5-t4)*perVector+" ns per vector");
+            }
+        }
+    }
+
+    protected static double timeMod(double[][] vectors, IVectorMutable dr, IVectorMutable dimensions, IVectorMutable dimensionsHalf, int nRep) {
+        double sum = 0;
+        for (int rep=0; rep<nRep; rep++) {
+            for (int i=0; i<vectors.length; i++) {
+                dr.E(vectors[i]);
+                nearestImageMod(dr, dimensions, dimensionsHalf);
+                sum += dr.getX(0);
+            }
+        }
+        return sum;
+    }
+
+    protected static double timeIterative(BoundaryDeformablePeriodic boundary, double[][] vectors, IVectorMutable dr, int nRep) {
+        double sum = 0;
+        for (int rep=0; rep<nRep; rep++) {
+            for (int i=0; i<vectors.length; i++) {
+                dr.E(vectors[i]);
+                boundary.nearestImageIterative(dr);
+                sum += dr.getX(0);
+            }
+        }
+        return sum;
+    }
+
+    protected static double time(Boundary boundary, double[][] vectors, IVectorMutable dr, int nRep) {
+        double sum = 0;
+        for (int rep=0; rep<nRep; rep++) {
+            for (int i=0; i<vectors.length; i++) {
+                dr.E(vectors[i]);
+                boundary.nearestImage(dr);
+                sum += dr.getX(0);
+            }
+        }
+        return sum;
+    }
+
+    protected RandomMersenneTwister random;
+}
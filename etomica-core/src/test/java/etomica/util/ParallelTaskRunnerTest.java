@@ -0,0 +1,61 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+import etomica.util.ParallelTaskRunner.Task;
+
+public class ParallelTaskRunnerTest extends TestCase {
+
+    public void testRun() {
+        ParallelTaskRunner runner = new ParallelTaskRunner("test worker");
+        for (int numThreads=1; numThreads<5; numThreads++) {
+            final AtomicIntegerArray count = new AtomicIntegerArray(numThreads);
+            runner.run(numThreads, new Task() {
+                public void run(int iThread) {
+                    count.incrementAndGet(iThread);
+                }
+            });
+            for (int i=0; i<numThreads; i++) {
+                assertEquals(1, count.get(i));
+            }
+        }
+        // the workers start again after shutdown
+        runner.shutdown();
+        final AtomicIntegerArray count = new AtomicIntegerArray(3);
+        runner.run(3, new Task() {
+            public void run(int iThread) {
+                count.incrementAndGet(iThread);
+            }
+        });
+        assertEquals(1, count.get(2));
+        runner.shutdown();
+    }
+
+    public void testException() {
+        ParallelTaskRunner runner = new ParallelTaskRunner("test worker");
+        final AtomicIntegerArray count = new AtomicIntegerArray(3);
+        try {
+            runner.run(3, new Task() {
+                public void run(int iThread) {
+                    count.incrementAndGet(iThread);
+                    if (iThread == 2) {
+                        throw new IllegalStateException("oops");
+                    }
+                }
+            });
+            fail("exception should have been rethrown");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the other threads still finished their work
+        assertEquals(1, count.get(0));
+        assertEquals(1, count.get(1));
+        runner.shutdown();
+    }
+}
@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class RandomPhiloxTest extends TestCase {
+
+    /**
+     * Known-answer tests from the Random123 distribution.
+     */
+    public void testKnownAnswers() {
+        assertBlock(new int[]{0x6627e8d5, 0xe169c58d, 0xbc57ac4c, 0x9b00dbd8},
+                RandomPhilox.philox(new int[]{0, 0, 0, 0}, new int[]{0, 0}));
+        assertBlock(new int[]{0x408f276d, 0x41c83b0e, 0xa20bc7c6, 0x6d5451fd},
+                RandomPhilox.philox(new int[]{-1, -1, -1, -1}, new int[]{-1, -1}));
+        assertBlock(new int[]{0xd16cfe09, 0x94fdcceb, 0x5001e420, 0x24126ea1},
+                RandomPhilox.philox(new int[]{0x243f6a88, 0x85a308d3, 0x13198a2e, 0x03707344},
+                                    new int[]{0xa4093822, 0x299f31d0}));
+    }
+
+    protected void assertBlock(int[] expected, int[] actual) {
+        for (int i=0; i<4; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    public void testSkip() {
+        RandomPhilox random = new RandomPhilox(12345, 7);
+        int[] x = new int[1001];
+        for (int i=0; i<x.length; i++) {
+            x[i] = random.nextInt();
+        }
+        RandomPhilox skipped = new RandomPhilox(12345, 7);
+        skipped.skip(3);
+        assertEquals(x[3], skipped.nextInt());
+        skipped.skip(996);
+        assertEquals(x[1000], skipped.nextInt());
+        skipped.setPosition(5);
+        assertEquals(x[5], skipped.nextInt());
+        assertEquals(6, skipped.getPosition());
+        // nextGaussian holds nothing over, so its results depend only on
+        // the position
+        skipped.nextGaussian();
+        double g = skipped.nextGaussian();
+        skipped.setPosition(10);
+        assertEquals(g, skipped.nextGaussian());
+    }
+
+    public void testStreams() {
+        RandomPhilox random = new RandomPhilox(1);
+        random.nextInt();
+        RandomPhilox a = random.split(3);
+        RandomPhilox b = new RandomPhilox(1).split(3);
+        RandomPhilox c = random.split(4);
+        RandomPhilox d = random.split(3).split(0);
+        int nSame = 0;
+        for (int i=0; i<100; i++) {
+            int x = a.nextInt();
+            assertEquals(x, b.nextInt());
+            if (x == c.nextInt()) nSame++;
+            if (x == d.nextInt()) nSame++;
+        }
+        assertTrue(nSame < 2);
+    }
+
+    public void testDistributions() {
+        RandomPhilox random = new RandomPhilox(2);
+        int n = 200000;
+        double sum = 0, sumSq = 0, sumG = 0, sumG2 = 0, sumG4 = 0;
+        int[] counts = new int[7];
+        for (int i=0; i<n; i++) {
+            double x = random.nextDouble();
+            assertTrue(x > 0 && x < 1);
+            sum += x;
+            sumSq += x*x;
+            double g = random.nextGaussian();
+            sumG += g;
+            sumG2 += g*g;
+            sumG4 += g*g*g*g;
+            counts[random.nextInt(7)]++;
+        }
+        assertEquals(0.5, sum/n, 0.005);
+        assertEquals(1.0/3.0, sumSq/n, 0.005);
+        assertEquals(0, sumG/n, 0.01);
+        assertEquals(1, sumG2/n, 0.01);
+        assertEquals(3, sumG4/n, 0.05);
+        for (int i=0; i<7; i++) {
+            assertEquals(n/7.0, counts[i], 5*Math.sqrt(n/7.0));
+        }
+    }
+
+    public void testCheckpoint() throws IOException {
+        RandomPhilox random = new RandomPhilox(3, 9);
+        for (int i=0; i<5; i++) {
+            random.nextInt();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        random.saveState(new DataOutputStream(bytes));
+        RandomPhilox restored = new RandomPhilox(0);
+        restored.restoreState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int i=0; i<10; i++) {
+            assertEquals(random.nextInt(), restored.nextInt());
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.isomorphism;
+
+import java.util.Arrays;
+
+import etomica.graph.model.Bitmap;
+import etomica.graph.model.Edge;
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphFactory;
+import etomica.graph.model.Node;
+import etomica.graph.model.impl.MetadataImpl;
+
+/**
+ * Canonical form of a graph: two graphs have equal canonical forms if and
+ * only if Match.match considers them isomorphic (and they have the same
+ * factors).  Nodes are distinguished by color (and also by type when
+ * MetadataImpl.rootPointsSpecial is set) and edges by color, in each
+ * direction, just as the search states do.  The canonical form can be used as
+ * a hash key, so that isomorphs are found with a single lookup rather than a
+ * match against every candidate.
+ *
+ * The canonical labeling is found by individualization-refinement: node
+ * colors are refined by the colors of their neighbors and edges until stable,
+ * then a node of the first smallest ambiguous color class is singled out and
+ * refinement repeats, trying each node of that class in turn.  Each labeling
+ * that results (with every node in its own class) is encoded, and the
+ * smallest code wins.  Nodes that are interchangeable (with the same color
+ * and the same edges to every other node) lead to identical codes, so only
+ * one of them is tried.
+ */
+public class CanonicalForm {
+
+  /**
+   * Returns the canonical form of the given graph.
+   */
+  public static CanonicalForm getCanonicalForm(Graph g) {
+
+    return new CanonicalForm(g);
+  }
+
+  protected CanonicalForm(Graph g) {
+
+    n = g.nodeCount();
+    nodeLabel = new int[n];
+    adj = new int[n][n];
+    boolean typed = MetadataImpl.rootPointsSpecial;
+    for (byte i = 0; i < n; i++) {
+      Node node = g.getNode(i);
+      nodeLabel[i] = typed ? (node.getType() << 16) | node.getColor() : node.getColor();
+    }
+    for (byte i = 0; i < n; i++) {
+      for (byte j = 0; j < n; j++) {
+        if (i != j && g.hasEdge(i, j)) {
+          Edge e = g.getEdge(i, j);
+          // 0 means no edge, so the label must be nonzero
+          adj[i][j] = (typed ? (e.getType() << 16) | e.getColor() : e.getColor()) + 1;
+        }
+      }
+    }
+    twins = new boolean[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        twins[i][j] = twins[j][i] = areTwins(i, j);
+      }
+    }
+    int[] factors = g.factors();
+    prefix = new int[1 + factors.length];
+    prefix[0] = factors.length;
+    System.arraycopy(factors, 0, prefix, 1, factors.length);
+
+    int[] cell = new int[n];
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new java.util.Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+
+        return nodeLabel[a] < nodeLabel[b] ? -1 : (nodeLabel[a] == nodeLabel[b] ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < n; i++) {
+      cell[order[i]] = (i > 0 && nodeLabel[order[i]] == nodeLabel[order[i - 1]]) ? cell[order[i - 1]] : i;
+    }
+    labeling = new byte[n];
+    search(cell);
+    // the graph is no longer needed, only the code
+    adj = null;
+    twins = null;
+    hash = Arrays.hashCode(code);
+  }
+
+  /**
+   * Returns true if swapping nodes i and j is an automorphism of the graph.
+   */
+  protected boolean areTwins(int i, int j) {
+
+    if (nodeLabel[i] != nodeLabel[j] || adj[i][j] != adj[j][i]) {
+      return false;
+    }
+    for (int k = 0; k < n; k++) {
+      if (k == i || k == j) {
+        continue;
+      }
+      if (adj[i][k] != adj[j][k] || adj[k][i] != adj[k][j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Refines the given partition, then either encodes the labeling (if every
+   * node is in its own cell) or branches on the nodes of the first smallest
+   * cell.  cell[i] is the position (in the canonical order) of the first
+   * node in node i's cell.
+   */
+  protected void search(int[] cell) {
+
+    int nCells = refine(cell);
+    if (nCells == n) {
+      int[] leafCode = encode(cell);
+      if (code == null || compare(leafCode, code) < 0) {
+        code = leafCode;
+        for (int i = 0; i < n; i++) {
+          labeling[cell[i]] = (byte) i;
+        }
+      }
+      return;
+    }
+    // find the first smallest non-singleton cell
+    int[] cellSize = new int[n];
+    for (int i = 0; i < n; i++) {
+      cellSize[cell[i]]++;
+    }
+    int target = -1;
+    for (int c = 0; c < n; c++) {
+      if (cellSize[c] > 1 && (target == -1 || cellSize[c] < cellSize[target])) {
+        target = c;
+      }
+    }
+    int[] tried = new int[cellSize[target]];
+    int nTried = 0;
+    int[] newCell = new int[n];
+    candidates: for (int v = 0; v < n; v++) {
+      if (cell[v] != target) {
+        continue;
+      }
+      for (int t = 0; t < nTried; t++) {
+        if (twins[tried[t]][v]) {
+          continue candidates;
+        }
+      }
+      tried[nTried++] = v;
+      for (int i = 0; i < n; i++) {
+        // v keeps the cell's position, the rest of the cell moves past it
+        newCell[i] = (cell[i] == target && i != v) ? target + 1 : cell[i];
+      }
+      search(newCell.clone());
+    }
+  }
+
+  /**
+   * Splits cells of the partition according to the number of edges of each
+   * color that each node has to each cell, until no more cells split.
+   * Returns the number of cells.
+   */
+  protected int refine(int[] cell) {
+
+    int nCells = countCells(cell);
+    final long[][] sig = new long[n][];
+    Integer[] order = new Integer[n];
+    while (nCells < n) {
+      for (int i = 0; i < n; i++) {
+        // each entry packs the neighbor's cell and both edge labels; the
+        // sorted list (a multiset) doesn't depend on the node numbering
+        int m = 0;
+        long[] s = new long[n];
+        for (int j = 0; j < n; j++) {
+          if (j != i && (adj[i][j] != 0 || adj[j][i] != 0)) {
+            s[m++] = ((long) cell[j] << 48) | ((long) (adj[i][j] & 0xffffff) << 24) | (adj[j][i] & 0xffffff);
+          }
+        }
+        s = Arrays.copyOf(s, m);
+        Arrays.sort(s);
+        sig[i] = s;
+        order[i] = i;
+      }
+      final int[] oldCell = cell.clone();
+      Arrays.sort(order, new java.util.Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+
+          if (oldCell[a] != oldCell[b]) {
+            return oldCell[a] < oldCell[b] ? -1 : 1;
+          }
+          return compare(sig[a], sig[b]);
+        }
+
+        private int compare(long[] a, long[] b) {
+
+          for (int k = 0; k < a.length && k < b.length; k++) {
+            if (a[k] != b[k]) {
+              return a[k] < b[k] ? -1 : 1;
+            }
+          }
+          return a.length - b.length;
+        }
+      });
+      for (int k = 0; k < n; k++) {
+        int i = order[k];
+        if (k > 0) {
+          int prev = order[k - 1];
+          if (oldCell[prev] == oldCell[i] && Arrays.equals(sig[prev], sig[i])) {
+            cell[i] = cell[prev];
+            continue;
+          }
+        }
+        cell[i] = k;
+      }
+      int newCells = countCells(cell);
+      if (newCells == nCells) {
+        break;
+      }
+      nCells = newCells;
+    }
+    return nCells;
+  }
+
+  protected int countCells(int[] cell) {
+
+    boolean[] seen = new boolean[n];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (!seen[cell[i]]) {
+        seen[cell[i]] = true;
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Encodes the graph with the node order given by the discrete partition:
+   * factors, node labels in order, then the edge labels for each pair.
+   */
+  protected int[] encode(int[] cell) {
+
+    int[] inverse = new int[n];
+    for (int i = 0; i < n; i++) {
+      inverse[cell[i]] = i;
+    }
+    int[] c = new int[prefix.length + n + n * (n - 1)];
+    System.arraycopy(prefix, 0, c, 0, prefix.length);
+    int k = prefix.length;
+    for (int i = 0; i < n; i++) {
+      c[k++] = nodeLabel[inverse[i]];
+    }
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        if (i != j) {
+          c[k++] = adj[inverse[i]][inverse[j]];
+        }
+      }
+    }
+    return c;
+  }
+
+  protected static int compare(int[] a, int[] b) {
+
+    for (int k = 0; k < a.length; k++) {
+      if (a[k] != b[k]) {
+        return a[k] < b[k] ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the canonical labeling: element i is the node of the original
+   * graph that is node i in canonical order.
+   */
+  public byte[] getLabeling() {
+
+    return labeling;
+  }
+
+  /**
+   * Returns the edge bitmap of the graph relabeled in canonical order.
+   * Isomorphic graphs with a single node color and a single edge color have
+   * equal canonical bitmaps.
+   */
+  public Bitmap getStore() {
+
+    if (store == null) {
+      Graph g = GraphFactory.createGraph(n);
+      int k = prefix.length + n;
+      for (byte i = 0; i < n; i++) {
+        for (byte j = 0; j < n; j++) {
+          if (i != j) {
+            if (i < j && code[k] != 0) {
+              g.putEdge(i, j);
+            }
+            k++;
+          }
+        }
+      }
+      store = g.getStore();
+    }
+    return store;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+
+    if (!(obj instanceof CanonicalForm)) {
+      return false;
+    }
+    CanonicalForm other = (CanonicalForm) obj;
+    return hash == other.hash && Arrays.equals(code, other.code);
+  }
+
+  @Override
+  public int hashCode() {
+
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+
+    return Arrays.toString(code);
+  }
+
+  private final byte n;
+  private final int[] nodeLabel;
+  private final int[] prefix;
+  private int[][] adj;
+  private boolean[][] twins;
+  private int[] code;
+  private final byte[] labeling;
+  private final int hash;
+  private Bitmap store;
+}
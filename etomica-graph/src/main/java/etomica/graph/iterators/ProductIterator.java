@@ -0,0 +1,57 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.iterators;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphIterator;
+import etomica.graph.operations.Binary;
+import etomica.graph.operations.Parameters;
+
+/**
+ * Iterator that lazily applies a Binary operation (such as Mul or
+ * MulFlexible) to each graph from an iterator together with a fixed right
+ * set.  The results for one left graph are computed when needed, so the full
+ * product is never held in memory.  The operation must treat each graph of
+ * its left argument independently.
+ */
+public class ProductIterator implements GraphIterator {
+
+  private final Iterator<Graph> left;
+  private final Set<Graph> right;
+  private final Binary op;
+  private final Parameters params;
+  private Iterator<Graph> current = Collections.<Graph>emptySet().iterator();
+
+  public ProductIterator(Iterator<Graph> left, Set<Graph> right, Binary op, Parameters params) {
+
+    this.left = left;
+    this.right = right;
+    this.op = op;
+    this.params = params;
+  }
+
+  public boolean hasNext() {
+
+    while (!current.hasNext() && left.hasNext()) {
+      Set<Graph> single = Collections.singleton(left.next());
+      current = op.apply(single, right, params).iterator();
+    }
+    return current.hasNext();
+  }
+
+  public Graph next() {
+
+    return hasNext() ? current.next() : null;
+  }
+
+  public void remove() {
+
+    // no-op
+  }
+}
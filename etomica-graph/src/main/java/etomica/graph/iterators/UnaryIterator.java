@@ -0,0 +1,56 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.iterators;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphIterator;
+import etomica.graph.operations.Parameters;
+import etomica.graph.operations.Unary;
+
+/**
+ * Iterator that lazily applies a Unary operation to each graph from another
+ * iterator, one graph at a time, and returns the resulting graphs.  Only
+ * the results for a single input graph are held at once, so operations can
+ * be chained (by wrapping UnaryIterators in UnaryIterators) without
+ * building the intermediate sets.  The operation must act on each graph
+ * independently.
+ */
+public class UnaryIterator implements GraphIterator {
+
+  private final Iterator<Graph> iterator;
+  private final Unary op;
+  private final Parameters params;
+  private Iterator<Graph> current = Collections.<Graph>emptySet().iterator();
+
+  public UnaryIterator(Iterator<Graph> iterator, Unary op, Parameters params) {
+
+    this.iterator = iterator;
+    this.op = op;
+    this.params = params;
+  }
+
+  public boolean hasNext() {
+
+    while (!current.hasNext() && iterator.hasNext()) {
+      Set<Graph> single = Collections.singleton(iterator.next());
+      current = op.apply(single, params).iterator();
+    }
+    return current.hasNext();
+  }
+
+  public Graph next() {
+
+    return hasNext() ? current.next() : null;
+  }
+
+  public void remove() {
+
+    // no-op
+  }
+}
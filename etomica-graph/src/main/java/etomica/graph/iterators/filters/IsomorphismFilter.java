@@ -4,17 +4,39 @@
 
 package etomica.graph.iterators.filters;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Set;
 
+import etomica.graph.isomorphism.CanonicalForm;
 import etomica.graph.isomorphism.Match;
 import etomica.graph.model.Graph;
 import etomica.graph.model.GraphIterator;
 
+/**
+ * Filter that passes only one graph from each set of isomorphic graphs,
+ * combining the coefficients of the isomorphs into the one that is kept.
+ *
+ * Only graphs with the same signature are combined.  By default, isomorphs
+ * are found by looking up the graph's CanonicalForm in a hash map kept for
+ * the graph's signature.  If USE_CANONICAL_FORM is false, each graph is
+ * instead matched against every graph with the same signature.  With
+ * VERIFY_CANONICAL_FORM, graphs found via their canonical form are also
+ * checked with Match.match.
+ */
 public class IsomorphismFilter extends GlobalFilter {
 
   public static boolean DEBUG_MODE = true;
+  public static boolean USE_CANONICAL_FORM = true;
+  public static boolean VERIFY_CANONICAL_FORM = false;
   private static int DEBUG_FREQUENCY = 2500;
 
+  // canonical forms of the graphs in each signature's set.  A custom
+  // SignatureMaker can put isomorphs in different sets, so the forms must
+  // not be shared between sets.
+  private final Map<Set<Graph>, Map<CanonicalForm, Graph>> canonicalMaps = new IdentityHashMap<Set<Graph>, Map<CanonicalForm, Graph>>();
+
   private int countSeen = 0;
   private int countDiscarded = 0;
   private long debugStart = System.nanoTime();
@@ -29,6 +51,9 @@ public class IsomorphismFilter extends GlobalFilter {
 
   protected boolean accept(Graph g1, Set<Graph> set) {
 
+    if (USE_CANONICAL_FORM) {
+      return acceptCanonical(g1, set);
+    }
     boolean result = true;
     if (!set.isEmpty()) {
       for (Graph isoGraph : set) {
@@ -62,6 +87,51 @@ public class IsomorphismFilter extends GlobalFilter {
     return result;
   }
 
+  protected boolean acceptCanonical(Graph g1, Set<Graph> set) {
+
+    boolean result = true;
+    Map<CanonicalForm, Graph> canonicalMap = canonicalMaps.get(set);
+    if (canonicalMap == null) {
+      canonicalMap = new HashMap<CanonicalForm, Graph>();
+      canonicalMaps.put(set, canonicalMap);
+    }
+    CanonicalForm key = CanonicalForm.getCanonicalForm(g1);
+    Graph isoGraph = canonicalMap.get(key);
+    if (isoGraph != null) {
+      if (VERIFY_CANONICAL_FORM && !Match.match(isoGraph, g1, false)) {
+        throw new IllegalStateException("graphs with the same canonical form are not isomorphic: " + isoGraph + " " + g1);
+      }
+      // keep the graph lower in the graph order; update the graph coefficients
+      countDiscarded++;
+      if (isoGraph.compareTo(g1) >= 0) {
+        isoGraph.coefficient().add(g1.coefficient());
+        result = false;
+        if (isoGraph.coefficient().getNumerator() == 0) {
+          countDiscarded++;
+          set.remove(isoGraph);
+          canonicalMap.remove(key);
+        }
+      }
+      else {
+        set.remove(isoGraph);
+        canonicalMap.remove(key);
+        g1.coefficient().add(isoGraph.coefficient());
+        // replace the graph in the set with an isomorph with lower score
+        result = g1.coefficient().getNumerator() != 0;
+        if (!result) {
+          countDiscarded++;
+        }
+      }
+    }
+    if (result) {
+      // the caller will add g1 to the set
+      canonicalMap.put(key, g1);
+    }
+    countSeen++;
+    debugReport();
+    return result;
+  }
+
   private void debugReport() {
 
     if (!DEBUG_MODE || (countSeen % DEBUG_FREQUENCY != 0)) {
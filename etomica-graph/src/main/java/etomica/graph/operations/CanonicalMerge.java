@@ -0,0 +1,92 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.operations;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import etomica.graph.isomorphism.CanonicalForm;
+import etomica.graph.model.Graph;
+
+/**
+ * Thread-safe accumulator of graphs that keeps one graph from each set of
+ * isomorphs, keyed by its CanonicalForm, and sums the coefficients of the
+ * isomorphs into it (as IsoFree does).  Graphs can be added from any number
+ * of threads.  Of a set of isomorphs, the graph kept is the one IsoFree
+ * would keep (the greatest by compareTo), independent of the order in which
+ * they were added.
+ *
+ * Graphs are copied when added, so the caller's graphs (and their
+ * coefficients) are not modified.
+ */
+public class CanonicalMerge {
+
+  private final ConcurrentHashMap<CanonicalForm, Graph> map = new ConcurrentHashMap<CanonicalForm, Graph>();
+
+  public void add(Graph g) {
+
+    CanonicalForm key = CanonicalForm.getCanonicalForm(g);
+    Graph copy = g.copy();
+    while (true) {
+      Graph existing = map.putIfAbsent(key, copy);
+      if (existing == null) {
+        return;
+      }
+      synchronized (existing) {
+        if (map.get(key) != existing) {
+          // another thread replaced it while we waited; try again
+          continue;
+        }
+        if (existing.compareTo(copy) >= 0) {
+          existing.coefficient().add(copy.coefficient());
+        }
+        else {
+          // copy is complete before other threads can see it
+          copy.coefficient().add(existing.coefficient());
+          map.replace(key, existing, copy);
+        }
+        return;
+      }
+    }
+  }
+
+  public void addAll(Iterator<Graph> iterator) {
+
+    while (iterator.hasNext()) {
+      add(iterator.next());
+    }
+  }
+
+  /**
+   * Returns the number of distinct graphs, including those whose
+   * coefficients have summed to zero.
+   */
+  public int size() {
+
+    return map.size();
+  }
+
+  /**
+   * Returns the merged graphs, omitting those whose coefficients summed to
+   * zero.  This should be called only after all graphs have been added.
+   */
+  public Set<Graph> getResult() {
+
+    Set<Graph> result = new HashSet<Graph>();
+    for (Graph g : map.values()) {
+      if (g.coefficient().getNumerator() != 0) {
+        result.add(g);
+      }
+    }
+    return result;
+  }
+
+  public void clear() {
+
+    map.clear();
+  }
+}
@@ -0,0 +1,148 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph.operations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import etomica.graph.iterators.ProductIterator;
+import etomica.graph.iterators.UnaryIterator;
+import etomica.graph.model.Graph;
+
+/**
+ * Applies graph operations in parallel, in streaming fashion.  The argument
+ * set is split into partitions that are processed by a fork-join pool; each
+ * task applies the operation one input graph at a time (via UnaryIterator or
+ * ProductIterator) and feeds the results directly into a shared
+ * CanonicalMerge.  The result is therefore already free of isomorphs, and
+ * the intermediate products are never stored together: peak memory is
+ * proportional to the unique output.
+ *
+ * apply(op, a, p) gives the same graphs (and coefficients) as
+ * isoFree.apply(op.apply(a, p), null), provided that the operation acts on
+ * each graph of its (left) argument independently, as Relabel, Factor, Mul,
+ * MulFlexible and most other operations do.  The operations are called from
+ * several threads at once, so they must not keep per-call state in fields;
+ * an operation that does (UnaryChain, for instance) can still be used with a
+ * pool of parallelism 1.
+ */
+public class ParallelApply {
+
+  public ParallelApply() {
+
+    this(ForkJoinPool.commonPool());
+  }
+
+  public ParallelApply(ForkJoinPool pool) {
+
+    this.pool = pool;
+    setGrainSize(16);
+  }
+
+  /**
+   * Sets the number of input graphs below which a task processes its
+   * partition itself rather than splitting it further.
+   */
+  public void setGrainSize(int newGrainSize) {
+
+    grainSize = newGrainSize;
+  }
+
+  public int getGrainSize() {
+
+    return grainSize;
+  }
+
+  /**
+   * Applies op to each graph of the argument and returns the isomorph-free
+   * union of the results.
+   */
+  public Set<Graph> apply(final Unary op, Set<Graph> argument, final Parameters params) {
+
+    final CanonicalMerge merge = new CanonicalMerge();
+    run(new ArrayList<Graph>(argument), new PartitionWork() {
+      public void process(List<Graph> partition) {
+
+        merge.addAll(new UnaryIterator(partition.iterator(), op, params));
+      }
+    });
+    return merge.getResult();
+  }
+
+  /**
+   * Applies op to each graph of left together with all of right, and
+   * returns the isomorph-free union of the results.
+   */
+  public Set<Graph> apply(final Binary op, Set<Graph> left, final Set<Graph> right, final Parameters params) {
+
+    final CanonicalMerge merge = new CanonicalMerge();
+    run(new ArrayList<Graph>(left), new PartitionWork() {
+      public void process(List<Graph> partition) {
+
+        merge.addAll(new ProductIterator(partition.iterator(), right, op, params));
+      }
+    });
+    return merge.getResult();
+  }
+
+  /**
+   * Returns the isomorph-free version of the argument, as IsoFree does.
+   */
+  public Set<Graph> isoFree(Set<Graph> argument) {
+
+    final CanonicalMerge merge = new CanonicalMerge();
+    run(new ArrayList<Graph>(argument), new PartitionWork() {
+      public void process(List<Graph> partition) {
+
+        merge.addAll(partition.iterator());
+      }
+    });
+    return merge.getResult();
+  }
+
+  protected void run(List<Graph> graphs, PartitionWork work) {
+
+    if (graphs.isEmpty()) {
+      return;
+    }
+    pool.invoke(new PartitionTask(Collections.unmodifiableList(graphs), work));
+  }
+
+  protected interface PartitionWork {
+
+    public void process(List<Graph> partition);
+  }
+
+  protected class PartitionTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private final List<Graph> graphs;
+    private final PartitionWork work;
+
+    public PartitionTask(List<Graph> graphs, PartitionWork work) {
+
+      this.graphs = graphs;
+      this.work = work;
+    }
+
+    protected void compute() {
+
+      if (graphs.size() <= grainSize) {
+        work.process(graphs);
+        return;
+      }
+      int mid = graphs.size() / 2;
+      invokeAll(new PartitionTask(graphs.subList(0, mid), work),
+                new PartitionTask(graphs.subList(mid, graphs.size()), work));
+    }
+  }
+
+  protected final ForkJoinPool pool;
+  protected int grainSize;
+}
@@ -0,0 +1,159 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import etomica.graph.isomorphism.CanonicalForm;
+import etomica.graph.isomorphism.Match;
+import etomica.graph.iterators.IteratorWrapper;
+import etomica.graph.iterators.filters.GlobalFilter.SignatureMaker;
+import etomica.graph.iterators.filters.IsomorphismFilter;
+import etomica.graph.model.Graph;
+import etomica.graph.model.GraphFactory;
+import etomica.graph.model.Node;
+
+public class CanonicalFormTest extends TestCase {
+
+  private static final char[] COLORS = { 'A', 'B' };
+
+  /**
+   * Builds a random graph with colored nodes and edges.
+   */
+  protected Graph makeGraph(Random random, byte n) {
+
+    Node[] nodes = new Node[n];
+    for (byte i = 0; i < n; i++) {
+      nodes[i] = GraphFactory.createNode(i, COLORS[random.nextInt(2)], 'F');
+    }
+    Graph g = GraphFactory.createGraph(nodes);
+    for (byte i = 0; i < n; i++) {
+      for (byte j = (byte) (i + 1); j < n; j++) {
+        if (random.nextInt(3) > 0) {
+          g.putEdge(i, j);
+          g.getEdge(i, j).setColor(COLORS[random.nextInt(2)]);
+        }
+      }
+    }
+    return g;
+  }
+
+  /**
+   * Returns a copy of g with node i moved to perm[i].
+   */
+  protected Graph permute(Graph g, byte[] perm) {
+
+    byte n = g.nodeCount();
+    Node[] nodes = new Node[n];
+    for (byte i = 0; i < n; i++) {
+      Node old = g.getNode(i);
+      nodes[perm[i]] = GraphFactory.createNode(perm[i], old.getColor(), old.getType());
+    }
+    Graph p = GraphFactory.createGraph(nodes);
+    for (byte i = 0; i < n; i++) {
+      for (byte j = (byte) (i + 1); j < n; j++) {
+        if (g.hasEdge(i, j)) {
+          p.putEdge(perm[i], perm[j]);
+          p.getEdge(perm[i], perm[j]).setColor(g.getEdge(i, j).getColor());
+        }
+      }
+    }
+    return p;
+  }
+
+  public void testRelabeling() {
+
+    Random random = new Random(1);
+    for (int k = 0; k < 200; k++) {
+      byte n = (byte) (2 + random.nextInt(7));
+      Graph g = makeGraph(random, n);
+      byte[] perm = new byte[n];
+      for (byte i = 0; i < n; i++) {
+        perm[i] = i;
+      }
+      for (int i = n - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        byte t = perm[i];
+        perm[i] = perm[j];
+        perm[j] = t;
+      }
+      Graph p = permute(g, perm);
+      CanonicalForm cg = CanonicalForm.getCanonicalForm(g);
+      CanonicalForm cp = CanonicalForm.getCanonicalForm(p);
+      assertEquals(cg, cp);
+      assertEquals(cg.hashCode(), cp.hashCode());
+      assertEquals(cg.getStore(), cp.getStore());
+    }
+  }
+
+  public void testAgreesWithMatch() {
+
+    Random random = new Random(2);
+    List<Graph> graphs = new ArrayList<Graph>();
+    for (int k = 0; k < 300; k++) {
+      graphs.add(makeGraph(random, (byte) 5));
+    }
+    for (int i = 0; i < graphs.size(); i++) {
+      CanonicalForm ci = CanonicalForm.getCanonicalForm(graphs.get(i));
+      for (int j = i + 1; j < graphs.size(); j++) {
+        CanonicalForm cj = CanonicalForm.getCanonicalForm(graphs.get(j));
+        assertEquals(Match.match(graphs.get(i), graphs.get(j), false), ci.equals(cj));
+      }
+    }
+  }
+
+  public void testCompleteGraph() {
+
+    // highly symmetric; should not require trying all 10! labelings
+    byte n = 10;
+    Graph g = GraphFactory.createGraph(n);
+    for (byte i = 0; i < n; i++) {
+      for (byte j = (byte) (i + 1); j < n; j++) {
+        g.putEdge(i, j);
+      }
+    }
+    byte[] labeling = CanonicalForm.getCanonicalForm(g).getLabeling();
+    assertEquals(n, labeling.length);
+  }
+
+  public void testFilterSignatureBuckets() {
+
+    // isomorphs given different signatures must be kept apart, each with
+    // its own coefficient, as they are when matching without canonical forms
+    Random random = new Random(3);
+    Graph g = makeGraph(random, (byte) 5);
+    Graph p = permute(g, new byte[] { 4, 3, 2, 1, 0 });
+    Graph q = permute(g, new byte[] { 1, 0, 2, 3, 4 });
+    List<Graph> graphs = new ArrayList<Graph>();
+    graphs.add(g);
+    graphs.add(p);
+    graphs.add(q);
+    final List<Graph> odd = new ArrayList<Graph>();
+    odd.add(p);
+    SignatureMaker signatureMaker = new SignatureMaker() {
+      public String getSignature(Graph graph) {
+        return graph.getSignature() + (odd.contains(graph) ? "odd" : "");
+      }
+    };
+    boolean oldDebug = IsomorphismFilter.DEBUG_MODE;
+    IsomorphismFilter.DEBUG_MODE = false;
+    int nGraphs = 0, sum = 0;
+    try {
+      IsomorphismFilter filter = new IsomorphismFilter(new IteratorWrapper(graphs.iterator()), signatureMaker);
+      while (filter.hasNext()) {
+        sum += filter.next().coefficient().getNumerator();
+        nGraphs++;
+      }
+    }
+    finally {
+      IsomorphismFilter.DEBUG_MODE = oldDebug;
+    }
+    assertEquals(2, nGraphs);
+    assertEquals(3, sum);
+  }
+}
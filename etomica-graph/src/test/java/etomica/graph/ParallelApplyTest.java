@@ -0,0 +1,84 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package etomica.graph;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import etomica.graph.isomorphism.CanonicalForm;
+import etomica.graph.iterators.DefaultIterator;
+import etomica.graph.model.Graph;
+import etomica.graph.operations.IsoFree;
+import etomica.graph.operations.MulFlexible;
+import etomica.graph.operations.MulFlexible.MulFlexibleParameters;
+import etomica.graph.operations.ParallelApply;
+import etomica.graph.operations.Relabel;
+import etomica.graph.operations.RelabelParameters;
+
+public class ParallelApplyTest extends TestCase {
+
+  protected Set<Graph> allGraphs(byte n) {
+
+    return allGraphs(n, (byte) 0);
+  }
+
+  protected Set<Graph> allGraphs(byte n, byte rootNodes) {
+
+    Set<Graph> set = new HashSet<Graph>();
+    DefaultIterator iterator = new DefaultIterator(n, rootNodes);
+    while (iterator.hasNext()) {
+      set.add(iterator.next().copy());
+    }
+    return set;
+  }
+
+  /**
+   * Returns the value of each graph's coefficient, keyed by canonical form.
+   */
+  protected Map<CanonicalForm, Double> coefficients(Set<Graph> set) {
+
+    Map<CanonicalForm, Double> map = new HashMap<CanonicalForm, Double>();
+    for (Graph g : set) {
+      assertNull(map.put(CanonicalForm.getCanonicalForm(g), g.coefficient().getValue()));
+    }
+    return map;
+  }
+
+  public void testIsoFree() {
+
+    Set<Graph> graphs = allGraphs((byte) 5);
+    Set<Graph> serial = new IsoFree().apply(graphs, null);
+    Set<Graph> parallel = new ParallelApply(new ForkJoinPool(4)).isoFree(graphs);
+    assertEquals(34, parallel.size());
+    assertEquals(coefficients(serial), coefficients(parallel));
+  }
+
+  public void testUnary() {
+
+    Set<Graph> graphs = allGraphs((byte) 4);
+    RelabelParameters params = new RelabelParameters(new byte[] { 3, 2, 1, 0 });
+    Set<Graph> serial = new IsoFree().apply(new Relabel().apply(graphs, params), null);
+    Set<Graph> parallel = new ParallelApply(new ForkJoinPool(4)).apply(new Relabel(), graphs, params);
+    assertEquals(coefficients(serial), coefficients(parallel));
+  }
+
+  public void testBinary() {
+
+    // graphs are superimposed on their root node
+    Set<Graph> left = allGraphs((byte) 3, (byte) 1);
+    Set<Graph> right = allGraphs((byte) 3, (byte) 1);
+    MulFlexibleParameters params = MulFlexibleParameters.makeParameters(new char[0], (byte) 5);
+    Set<Graph> serial = new IsoFree().apply(new MulFlexible().apply(left, right, params), null);
+    ParallelApply parallelApply = new ParallelApply(new ForkJoinPool(4));
+    parallelApply.setGrainSize(1);
+    Set<Graph> parallel = parallelApply.apply(new MulFlexible(), left, right, params);
+    assertFalse(parallel.isEmpty());
+    assertEquals(coefficients(serial), coefficients(parallel));
+  }
+}